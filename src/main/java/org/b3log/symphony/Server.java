@@ -50,6 +50,8 @@ import org.b3log.symphony.cache.TagCache;
 import org.b3log.symphony.event.ArticleAddAudioHandler;
 import org.b3log.symphony.event.ArticleAddNotifier;
 import org.b3log.symphony.event.ArticleBaiduSender;
+import org.b3log.symphony.event.ArticleRelevanceAdder;
+import org.b3log.symphony.event.ArticleRelevanceUpdater;
 import org.b3log.symphony.event.ArticleSearchAdder;
 import org.b3log.symphony.event.ArticleSearchUpdater;
 import org.b3log.symphony.event.ArticleUpdateAudioHandler;
@@ -62,11 +64,15 @@ import org.b3log.symphony.event.PrivateChatSendHandler;
 import org.b3log.symphony.model.UserExt;
 import org.b3log.symphony.processor.Router;
 import org.b3log.symphony.processor.bot.ChatRoomBot;
+import org.b3log.symphony.processor.bot.ModerationIndex;
 import org.b3log.symphony.processor.channel.UserChannel;
 import org.b3log.symphony.repository.UserRepository;
 import org.b3log.symphony.service.ArticleQueryService;
+import org.b3log.symphony.service.CloudService;
 import org.b3log.symphony.service.CronMgmtService;
 import org.b3log.symphony.service.InitMgmtService;
+import org.b3log.symphony.service.LivenessMgmtService;
+import org.b3log.symphony.service.SearchMgmtService;
 import org.b3log.symphony.util.*;
 import org.json.JSONObject;
 
@@ -228,6 +234,10 @@ public final class Server extends BaseServer {
         eventManager.registerListener(articleSearchAdder);
         final ArticleSearchUpdater articleSearchUpdater = beanManager.getReference(ArticleSearchUpdater.class);
         eventManager.registerListener(articleSearchUpdater);
+        final ArticleRelevanceAdder articleRelevanceAdder = beanManager.getReference(ArticleRelevanceAdder.class);
+        eventManager.registerListener(articleRelevanceAdder);
+        final ArticleRelevanceUpdater articleRelevanceUpdater = beanManager.getReference(ArticleRelevanceUpdater.class);
+        eventManager.registerListener(articleRelevanceUpdater);
         final ArticleAddAudioHandler articleAddAudioHandler = beanManager.getReference(ArticleAddAudioHandler.class);
         eventManager.registerListener(articleAddAudioHandler);
         final ArticleUpdateAudioHandler articleUpdateAudioHandler = beanManager.getReference(ArticleUpdateAudioHandler.class);
@@ -245,6 +255,12 @@ public final class Server extends BaseServer {
         domainCache.loadDomains();
         final CronMgmtService cronMgmtService = beanManager.getReference(CronMgmtService.class);
         cronMgmtService.start();
+        // 禁言、风控状态
+        ModerationIndex.load();
+        // 继续发送上次未完成的 Elasticsearch 索引操作
+        if (Symphonys.ES_ENABLED) {
+            SearchMgmtService.getESQueue();
+        }
 
         // 请求路由映射
         Router.requestMapping();
@@ -259,6 +275,12 @@ public final class Server extends BaseServer {
             ChatRoomBot.sendBotMsg("#### 维护模式 :wrench:\n社区进入维护模式，期间将无法发送聊天消息 :mute:\n请不要走开，完成后我会在当前频道广播，不需要刷新喔 :heart:");
             // 用户层 结算似乎不需要 暂时去掉
             UserChannel.settlement();
+            // 写回缓存中的云端数据
+            beanManager.getReference(CloudService.class).flush();
+            beanManager.getReference(LivenessMgmtService.class).flush();
+            SearchMgmtService.shutdownESQueue();
+            // 已告知用户金额的红包领取记录
+            RedPacketEngine.flush();
             // 框架
             cronMgmtService.stop();
             server.shutdown();
@@ -0,0 +1,210 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.cache;
+
+import org.b3log.latke.Keys;
+import org.b3log.latke.ioc.Singleton;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * Chat message cache.
+ * <p>
+ * Holds the newest {@link #WINDOW} chatroom records, &lt;oId, content&gt;, ordered newest first. Writes are mirrored
+ * by the chatroom repository, so "load latest" and the first pages of history are served without database access.
+ * Reads are lock-free.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.0.0.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+@Singleton
+public class ChatMessageCache {
+
+    /**
+     * Maximum cached messages.
+     */
+    public static final int WINDOW = 1000;
+
+    /**
+     * Messages, &lt;oId, content&gt;, newest first.
+     */
+    private static final ConcurrentSkipListMap<String, String> MESSAGES = new ConcurrentSkipListMap<>(Comparator.reverseOrder());
+
+    /**
+     * Guards loading and mutations.
+     */
+    private static final Object LOCK = new Object();
+
+    /**
+     * Cached message count, written under {@link #LOCK} since {@link ConcurrentSkipListMap#size()} is not constant time.
+     */
+    private static int count;
+
+    /**
+     * Whether the window has been loaded.
+     */
+    private static volatile boolean loaded;
+
+    /**
+     * Whether the window reaches the oldest message, older pages are empty then.
+     */
+    private static volatile boolean complete;
+
+    /**
+     * Checks whether the window has been loaded.
+     *
+     * @return {@code true} if loaded
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Loads the window with the specified loader once.
+     *
+     * @param loader the specified loader returns the newest records ({@code oId} and {@code content}), newest first,
+     *               returns {@code null} if failed
+     */
+    public void load(final Supplier<List<JSONObject>> loader) {
+        synchronized (LOCK) {
+            if (loaded) {
+                return;
+            }
+
+            final List<JSONObject> records = loader.get();
+            if (null == records) {
+                return;
+            }
+            MESSAGES.clear();
+            for (final JSONObject record : records) {
+                MESSAGES.put(record.optString(Keys.OBJECT_ID), record.optString("content"));
+            }
+            count = MESSAGES.size();
+            complete = records.size() < WINDOW;
+            trim();
+            loaded = true;
+        }
+    }
+
+    /**
+     * Gets records older than the specified cursor.
+     *
+     * @param before the specified cursor oId, {@code null} or blank for the newest records
+     * @param size   the specified record count
+     * @return records ({@code oId} and {@code content}), newest first, returns {@code null} if the window can not
+     * answer and the database should be queried
+     */
+    public List<JSONObject> getMessages(final String before, final int size) {
+        if (!loaded) {
+            return null;
+        }
+
+        final NavigableMap<String, String> older = null == before || before.isEmpty() ? MESSAGES : MESSAGES.tailMap(before, false);
+        final List<JSONObject> ret = new ArrayList<>(Math.min(size, WINDOW));
+        for (final Map.Entry<String, String> entry : older.entrySet()) {
+            if (ret.size() >= size) {
+                break;
+            }
+            ret.add(new JSONObject().put(Keys.OBJECT_ID, entry.getKey()).put("content", entry.getValue()));
+        }
+        if (ret.size() < size && !complete) {
+            return null;
+        }
+        return ret;
+    }
+
+    /**
+     * Gets records of the specified page.
+     *
+     * @param start the specified offset
+     * @param size  the specified record count
+     * @return records, newest first, returns {@code null} if the window can not answer
+     */
+    public List<JSONObject> getMessages(final int start, final int size) {
+        final List<JSONObject> ret = getMessages(null, start + size);
+        if (null == ret) {
+            return null;
+        }
+        if (ret.size() <= start) {
+            return Collections.emptyList();
+        }
+        return ret.subList(start, ret.size());
+    }
+
+    /**
+     * Adds the specified message.
+     *
+     * @param oId     the specified oId
+     * @param content the specified content
+     */
+    public void putMessage(final String oId, final String content) {
+        synchronized (LOCK) {
+            if (!loaded) {
+                return;
+            }
+            if (null == MESSAGES.put(oId, content)) {
+                count++;
+            }
+            trim();
+        }
+    }
+
+    /**
+     * Updates the specified message if it is cached.
+     *
+     * @param oId     the specified oId
+     * @param content the specified content
+     */
+    public void updateMessage(final String oId, final String content) {
+        synchronized (LOCK) {
+            MESSAGES.computeIfPresent(oId, (id, old) -> content);
+        }
+    }
+
+    /**
+     * Removes the specified message.
+     *
+     * @param oId the specified oId
+     */
+    public void removeMessage(final String oId) {
+        synchronized (LOCK) {
+            if (null != MESSAGES.remove(oId)) {
+                count--;
+            }
+        }
+    }
+
+    private static void trim() {
+        while (count > WINDOW) {
+            MESSAGES.pollLastEntry();
+            count--;
+            complete = false;
+        }
+    }
+}
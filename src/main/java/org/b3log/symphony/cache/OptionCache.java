@@ -26,11 +26,14 @@ import org.b3log.symphony.model.Option;
 import org.b3log.symphony.util.JSONs;
 import org.json.JSONObject;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Option cache.
  *
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
- * @version 1.0.0.1, Oct 25, 2016
+ * @version 1.1.0.0, Oct 18, 2026
  * @since 1.5.0
  */
 @Singleton
@@ -41,6 +44,21 @@ public class OptionCache {
      */
     private static final Cache CACHE = CacheFactory.getCache(Option.OPTIONS);
 
+    /**
+     * Option values snapshot, &lt;optionId, optionValue&gt;, read on every request without copying.
+     */
+    private static final Map<String, String> VALUES = new ConcurrentHashMap<>();
+
+    /**
+     * Gets an option value by the specified option id.
+     *
+     * @param id the specified option id
+     * @return option value, returns {@code null} if the option has not been loaded
+     */
+    public static String getOptionValue(final String id) {
+        return VALUES.get(id);
+    }
+
     /**
      * Gets an option by the specified option id.
      *
@@ -63,6 +81,11 @@ public class OptionCache {
      */
     public void putOption(final JSONObject option) {
         CACHE.put(option.optString(Keys.OBJECT_ID), JSONs.clone(option));
+        if (option.has(Option.OPTION_VALUE)) {
+            VALUES.put(option.optString(Keys.OBJECT_ID), option.optString(Option.OPTION_VALUE));
+        } else {
+            VALUES.remove(option.optString(Keys.OBJECT_ID));
+        }
     }
 
     /**
@@ -72,5 +95,6 @@ public class OptionCache {
      */
     public void removeOption(final String id) {
         CACHE.remove(id);
+        VALUES.remove(id);
     }
 }
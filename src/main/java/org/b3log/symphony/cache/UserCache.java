@@ -18,6 +18,9 @@
  */
 package org.b3log.symphony.cache;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.b3log.latke.Keys;
@@ -29,13 +32,16 @@ import org.b3log.symphony.util.Sessions;
 import org.json.JSONObject;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * User cache.
  *
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
- * @version 1.1.0.1, Jul 30, 2018
+ * @version 1.2.0.0, Oct 18, 2026
  * @since 1.4.0
  */
 @Singleton
@@ -72,6 +78,39 @@ public class UserCache {
         }
     });
 
+    /**
+     * Validated API keys, &lt;apiKey, identity&gt;.
+     */
+    private static final Cache<String, ApiKeyIdentity> API_KEY_CACHE = Caffeine.newBuilder()
+            .maximumSize(20000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .removalListener((String apiKey, ApiKeyIdentity identity, RemovalCause cause) -> {
+                if (null != apiKey && null != identity && cause.wasEvicted()) {
+                    unindexApiKey(identity.userId, apiKey);
+                }
+            })
+            .build();
+
+    /**
+     * API keys of each user, &lt;userId, apiKeys&gt;.
+     */
+    private static final Map<String, Set<String>> USER_API_KEYS = new ConcurrentHashMap<>();
+
+    /**
+     * API key cache hits, each one saves a decryption and a password check.
+     */
+    private static final AtomicLong API_KEY_HITS = new AtomicLong();
+
+    /**
+     * API key cache misses.
+     */
+    private static final AtomicLong API_KEY_MISSES = new AtomicLong();
+
+    /**
+     * API key cache hits which still had to load the user from database.
+     */
+    private static final AtomicLong API_KEY_HIT_LOADS = new AtomicLong();
+
     /**
      * Administrators cache.
      */
@@ -126,6 +165,83 @@ public class UserCache {
         return JSONs.clone(user);
     }
 
+    /**
+     * Gets the id of the user validated with the specified API key.
+     *
+     * @param apiKey the specified API key
+     * @return user id, returns {@code null} if the key has not been validated recently
+     */
+    public static String getApiKeyUserId(final String apiKey) {
+        final ApiKeyIdentity identity = API_KEY_CACHE.getIfPresent(apiKey);
+        if (null == identity) {
+            API_KEY_MISSES.incrementAndGet();
+            return null;
+        }
+
+        API_KEY_HITS.incrementAndGet();
+        if (!ID_CACHE.containsKey(identity.userId)) {
+            API_KEY_HIT_LOADS.incrementAndGet();
+        }
+        return identity.userId;
+    }
+
+    /**
+     * Caches the specified API key validated against the specified user.
+     *
+     * @param apiKey the specified API key
+     * @param user   the specified user
+     */
+    public static void putApiKey(final String apiKey, final JSONObject user) {
+        final String userId = user.optString(Keys.OBJECT_ID);
+        USER_API_KEYS.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(apiKey);
+        API_KEY_CACHE.put(apiKey, new ApiKeyIdentity(userId, user.optString(User.USER_PASSWORD)));
+    }
+
+    /**
+     * Removes the cached API keys of the specified user, they will be validated again on next use.
+     *
+     * @param userId the specified user id
+     */
+    public static void removeApiKeys(final String userId) {
+        final Set<String> apiKeys = USER_API_KEYS.remove(userId);
+        if (null != apiKeys) {
+            API_KEY_CACHE.invalidateAll(apiKeys);
+        }
+    }
+
+    /**
+     * Gets API key cache statistics.
+     *
+     * @return statistics, for example,
+     * <pre>
+     * {
+     *     "size": 120,
+     *     "hits": 10000, // 节省的解密次数
+     *     "misses": 130,
+     *     "dbSaved": 9990 // 节省的数据库读取次数
+     * }
+     * </pre>
+     */
+    public static JSONObject getApiKeyStats() {
+        final long hits = API_KEY_HITS.get();
+        return new JSONObject()
+                .put("size", API_KEY_CACHE.estimatedSize())
+                .put("hits", hits)
+                .put("misses", API_KEY_MISSES.get())
+                .put("dbSaved", hits - API_KEY_HIT_LOADS.get());
+    }
+
+    private static void unindexApiKey(final String userId, final String apiKey) {
+        if (null != API_KEY_CACHE.getIfPresent(apiKey)) {
+            // 过期通知是异步的，期间可能已重新缓存
+            return;
+        }
+        USER_API_KEYS.computeIfPresent(userId, (id, apiKeys) -> {
+            apiKeys.remove(apiKey);
+            return apiKeys.isEmpty() ? null : apiKeys;
+        });
+    }
+
     public static boolean hasUserByIP(final String ip) {
         return IP_CACHE.containsKey(ip);
     }
@@ -136,6 +252,17 @@ public class UserCache {
      * @param user the specified user
      */
     public void putUser(final JSONObject user) {
+        final String userId = user.optString(Keys.OBJECT_ID);
+        // 密码或状态变更后已缓存的 API Key 需要重新校验
+        final Set<String> apiKeys = USER_API_KEYS.get(userId);
+        if (null != apiKeys && !apiKeys.isEmpty()) {
+            final ApiKeyIdentity identity = API_KEY_CACHE.getIfPresent(apiKeys.iterator().next());
+            if (null == identity || UserExt.USER_STATUS_C_VALID != user.optInt(UserExt.USER_STATUS)
+                    || !identity.password.equals(user.optString(User.USER_PASSWORD))) {
+                removeApiKeys(userId);
+            }
+        }
+
         ID_CACHE.put(user.optString(Keys.OBJECT_ID), JSONs.clone(user));
         NAME_CACHE.put(user.optString(User.USER_NAME), JSONs.clone(user));
         IP_CACHE.put(user.optString(UserExt.USER_LATEST_LOGIN_IP), user.optString(Keys.OBJECT_ID));
@@ -151,4 +278,19 @@ public class UserCache {
         ID_CACHE.remove(user.optString(Keys.OBJECT_ID));
         NAME_CACHE.remove(user.optString(User.USER_NAME));
     }
+
+    /**
+     * User identity validated with an API key.
+     */
+    private static final class ApiKeyIdentity {
+
+        private final String userId;
+
+        private final String password;
+
+        private ApiKeyIdentity(final String userId, final String password) {
+            this.userId = userId;
+            this.password = password;
+        }
+    }
 }
@@ -0,0 +1,70 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.event;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.b3log.latke.event.AbstractEventListener;
+import org.b3log.latke.event.Event;
+import org.b3log.latke.ioc.Inject;
+import org.b3log.latke.ioc.Singleton;
+import org.b3log.symphony.model.Article;
+import org.b3log.symphony.service.RelevantArticleIndex;
+import org.json.JSONObject;
+
+/**
+ * Adds an article to the relevant article index.
+ *
+ * @author rhythm
+ * @version 1.0.0.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+@Singleton
+public class ArticleRelevanceAdder extends AbstractEventListener<JSONObject> {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LogManager.getLogger(ArticleRelevanceAdder.class);
+
+    /**
+     * Relevant article index.
+     */
+    @Inject
+    private RelevantArticleIndex relevantArticleIndex;
+
+    @Override
+    public void action(final Event<JSONObject> event) {
+        final JSONObject data = event.getData();
+        LOGGER.log(Level.TRACE, "Processing an event [type={}, data={}]", event.getType(), data);
+
+        relevantArticleIndex.onArticleAdded(data.optJSONObject(Article.ARTICLE));
+    }
+
+    /**
+     * Gets the event type {@linkplain EventTypes#ADD_ARTICLE}.
+     *
+     * @return event type
+     */
+    @Override
+    public String getEventType() {
+        return EventTypes.ADD_ARTICLE;
+    }
+}
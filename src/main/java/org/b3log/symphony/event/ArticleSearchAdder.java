@@ -37,7 +37,7 @@ import org.json.JSONObject;
  * Sends an article to search engine.
  *
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
- * @version 1.1.3.3, Aug 31, 2018
+ * @version 1.2.0.0, Oct 18, 2026
  * @since 1.4.0
  */
 @Singleton
@@ -77,6 +77,10 @@ public class ArticleSearchAdder extends AbstractEventListener<JSONObject> {
         if (Symphonys.ES_ENABLED) {
             searchMgmtService.updateESDocument(JSONs.clone(article), Article.ARTICLE);
         }
+
+        if (Symphonys.LOCAL_SEARCH_ENABLED) {
+            searchMgmtService.updateLocalDocument(article);
+        }
     }
 
     /**
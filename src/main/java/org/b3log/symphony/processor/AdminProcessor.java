@@ -52,6 +52,7 @@ import org.b3log.latke.util.Execs;
 import org.b3log.latke.util.Paginator;
 import org.b3log.latke.util.Strings;
 import org.b3log.symphony.Server;
+import org.b3log.symphony.cache.UserCache;
 import org.b3log.symphony.event.ArticleBaiduSender;
 import org.b3log.symphony.model.*;
 import org.b3log.symphony.processor.bot.ChatRoomBot;
@@ -525,6 +526,28 @@ public class AdminProcessor {
         json.put("c7b", manager.getAverageUploadBandwidth(7));
         json.put("c8b", manager.getAverageUploadBandwidth(8));
 
+        json.put("c4p50", manager.getFanOutLatency(4, 50));
+        json.put("c4p99", manager.getFanOutLatency(4, 99));
+
+        final JSONObject markdownStats = MarkdownRenderPool.getStats();
+        json.put("mdQueued", markdownStats.optInt("queued"));
+        json.put("mdActive", markdownStats.optInt("active"));
+        json.put("mdP50", markdownStats.optDouble("p50"));
+        json.put("mdP99", markdownStats.optDouble("p99"));
+        json.put("mdTimeouts", markdownStats.optLong("timeouts"));
+        json.put("mdRejected", markdownStats.optLong("rejected"));
+        json.put("mdDegraded", markdownStats.optLong("degraded"));
+        final JSONObject luteStats = Markdowns.getLuteStats();
+        json.put("luteAvailable", Markdowns.LUTE_AVAILABLE);
+        json.put("luteFailures", null == luteStats ? 0 : luteStats.optLong("failures"));
+        json.put("luteTrips", null == luteStats ? 0 : luteStats.optLong("trips"));
+        json.put("mdCaches", MarkdownCache.getAllStats());
+        json.put("apiKeyCache", UserCache.getApiKeyStats());
+        json.put("bootstrap", BeforeRequestHandler.getStats());
+        json.put("indexSections", IndexProcessor.getIndexStats());
+        json.put("hotArticles", HotArticleRankingService.getStats());
+        json.put("esIndexing", SearchMgmtService.getESIndexingStats());
+
         context.renderJSON(json);
     }
 
@@ -598,6 +621,8 @@ public class AdminProcessor {
             transaction.commit();
 
             if ("illegal".equals(type)) {
+                // 去重索引不再指向该图片
+                UploadPipeline.forget(picture.optString("md5"));
                 // 删除图片
                 if (QN_ENABLED) {
                     Auth auth = Auth.create(Symphonys.UPLOAD_QINIU_AK, Symphonys.UPLOAD_QINIU_SK);
@@ -1864,16 +1889,7 @@ public class AdminProcessor {
                                 e.printStackTrace();
                             }
                             NodeUtil.sendKick(disconnectUser);
-                            List<WebSocketSession> senderSessions = new ArrayList<>();
-                            for (Map.Entry<WebSocketSession, JSONObject> entry : ChatroomChannel.onlineUsers.entrySet()) {
-                                try {
-                                    String tempUserName = entry.getValue().optString(User.USER_NAME);
-                                    if (tempUserName.equals(disconnectUser)) {
-                                        senderSessions.add(entry.getKey());
-                                    }
-                                } catch (Exception ignored) {
-                                }
-                            }
+                            List<WebSocketSession> senderSessions = new ArrayList<>(ChatroomSessionRegistry.getSessions(disconnectUser));
                             for (WebSocketSession session : senderSessions) {
                                 ChatroomChannel.removeSession(session);
                             }
@@ -2997,40 +3013,37 @@ public class AdminProcessor {
         context.renderJSON(StatusCodes.SUCC);
 
         if (Symphonys.ES_ENABLED) {
-            searchMgmtService.rebuildESIndex();
+            Symphonys.EXECUTOR_SERVICE.submit(searchMgmtService::rebuildESIndex);
         }
 
         if (Symphonys.ALGOLIA_ENABLED) {
             searchMgmtService.rebuildAlgoliaIndex();
-        }
+            Symphonys.EXECUTOR_SERVICE.submit(() -> {
+                try {
+                    final JSONObject stat = optionQueryService.getStatistic();
+                    final int articleCount = stat.optInt(Option.ID_C_STATISTIC_ARTICLE_COUNT);
+                    final int pages = (int) Math.ceil((double) articleCount / 50.0);
 
-        Symphonys.EXECUTOR_SERVICE.submit(() -> {
-            try {
-                final JSONObject stat = optionQueryService.getStatistic();
-                final int articleCount = stat.optInt(Option.ID_C_STATISTIC_ARTICLE_COUNT);
-                final int pages = (int) Math.ceil((double) articleCount / 50.0);
+                    for (int pageNum = 1; pageNum <= pages; pageNum++) {
+                        final List<JSONObject> articles = articleQueryService.getValidArticles(pageNum, 50, Article.ARTICLE_TYPE_C_NORMAL, Article.ARTICLE_TYPE_C_CITY_BROADCAST);
 
-                for (int pageNum = 1; pageNum <= pages; pageNum++) {
-                    final List<JSONObject> articles = articleQueryService.getValidArticles(pageNum, 50, Article.ARTICLE_TYPE_C_NORMAL, Article.ARTICLE_TYPE_C_CITY_BROADCAST);
-
-                    for (final JSONObject article : articles) {
-                        if (Symphonys.ALGOLIA_ENABLED) {
+                        for (final JSONObject article : articles) {
                             searchMgmtService.updateAlgoliaDocument(article);
                         }
 
-                        if (Symphonys.ES_ENABLED) {
-                            searchMgmtService.updateESDocument(article, Article.ARTICLE);
-                        }
+                        LOGGER.info("Indexed page [" + pageNum + "]");
                     }
 
-                    LOGGER.info("Indexed page [" + pageNum + "]");
+                    LOGGER.info("Index finished");
+                } catch (final Exception e) {
+                    LOGGER.log(Level.ERROR, "Search index failed", e);
                 }
+            });
+        }
 
-                LOGGER.info("Index finished");
-            } catch (final Exception e) {
-                LOGGER.log(Level.ERROR, "Search index failed", e);
-            }
-        });
+        if (Symphonys.LOCAL_SEARCH_ENABLED) {
+            Symphonys.EXECUTOR_SERVICE.submit(searchMgmtService::rebuildLocalIndex);
+        }
 
         operationMgmtService.addOperation(Operation.newOperation(context.getRequest(), Operation.OPERATION_CODE_C_REBUILD_ARTICLES_SEARCH, ""));
     }
@@ -3178,6 +3191,10 @@ public class AdminProcessor {
             searchMgmtService.updateESDocument(article, Article.ARTICLE);
         }
 
+        if (Symphonys.LOCAL_SEARCH_ENABLED) {
+            searchMgmtService.updateLocalDocument(article);
+        }
+
         final String articlePermalink = Latkes.getServePath() + article.optString(Article.ARTICLE_PERMALINK);
         ArticleBaiduSender.sendToBaidu(articlePermalink);
     }
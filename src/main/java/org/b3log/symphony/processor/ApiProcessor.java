@@ -41,6 +41,7 @@ import org.b3log.latke.repository.Query;
 import org.b3log.latke.service.LangPropsService;
 import org.b3log.latke.service.ServiceException;
 import org.b3log.latke.util.Crypts;
+import org.b3log.symphony.cache.UserCache;
 import org.b3log.symphony.model.*;
 import org.b3log.symphony.processor.bot.ChatRoomBot;
 import org.b3log.symphony.processor.channel.ChatChannel;
@@ -304,7 +305,11 @@ public class ApiProcessor {
      */
     public static JSONObject getUserByKey(String apiKey) {
         if (apiKey != null && apiKey.length() == 192) {
-            JSONObject user = tryLogInWithApiKey(apiKey);
+            JSONObject user = getCachedUserByKey(apiKey);
+            if (null != user) {
+                return user;
+            }
+            user = tryLogInWithApiKey(apiKey);
             if (null != user) {
                 return user;
             }
@@ -312,6 +317,31 @@ public class ApiProcessor {
         throw new NullPointerException();
     }
 
+    /**
+     * Gets the user of the specified Api Key validated recently, skips decryption and password check.
+     *
+     * @param apiKey the specified apikey
+     * @return user, returns {@code null} if the key is not cached or the user is no longer valid
+     */
+    private static JSONObject getCachedUserByKey(final String apiKey) {
+        final String userId = UserCache.getApiKeyUserId(apiKey);
+        if (null == userId) {
+            return null;
+        }
+
+        try {
+            final UserRepository userRepository = BeanManager.getInstance().getReference(UserRepository.class);
+            final JSONObject ret = userRepository.get(userId);
+            if (null != ret && ret.optInt(UserExt.USER_STATUS) == UserExt.USER_STATUS_C_VALID) {
+                return ret;
+            }
+        } catch (final Exception e) {
+            LOGGER.log(Level.DEBUG, "Gets user by cached apikey failed", e);
+        }
+        UserCache.removeApiKeys(userId);
+        return null;
+    }
+
     /**
      * Tries to login with Api Key.
      *
@@ -343,6 +373,7 @@ public class ApiProcessor {
             final String token = cookieJSONObject.optString(Keys.TOKEN);
             final String password = StringUtils.substringBeforeLast(token, COOKIE_ITEM_SEPARATOR);
             if (userPassword.equals(password)) {
+                UserCache.putApiKey(apiKey, ret);
                 return ret;
             }
         } catch (final Exception e) {
@@ -18,6 +18,8 @@
  */
 package org.b3log.symphony.processor;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import eu.bitwalker.useragentutils.BrowserType;
 import eu.bitwalker.useragentutils.UserAgent;
 import org.apache.commons.lang.StringUtils;
@@ -35,12 +37,12 @@ import org.b3log.latke.model.User;
 import org.b3log.latke.util.Locales;
 import org.b3log.latke.util.Requests;
 import org.b3log.latke.util.Stopwatchs;
+import org.b3log.symphony.cache.OptionCache;
 import org.b3log.symphony.model.Common;
 import org.b3log.symphony.model.Option;
 import org.b3log.symphony.model.UserExt;
 import org.b3log.symphony.processor.middleware.AnonymousViewCheckMidware;
 import org.b3log.symphony.repository.OptionRepository;
-import org.b3log.symphony.service.UserQueryService;
 import org.b3log.symphony.util.Firewall;
 import org.b3log.symphony.util.Sessions;
 import org.b3log.symphony.util.Symphonys;
@@ -50,12 +52,18 @@ import pers.adlered.simplecurrentlimiter.main.SimpleCurrentLimiter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Before request handler.
+ * <p>
+ * Client classification is cached by User-Agent, the language option is read from the {@link OptionCache} snapshot
+ * and the current user is resolved from the session cache, so a logged-in page view usually reaches its processor
+ * without any database access. Time spent in each phase is accumulated, see {@link #getStats()}.
+ * </p>
  *
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
- * @version 1.0.0.1, Nov 11, 2019
+ * @version 1.1.0.0, Oct 18, 2026
  * @since 3.6.0
  */
 public class BeforeRequestHandler implements Handler {
@@ -65,6 +73,26 @@ public class BeforeRequestHandler implements Handler {
      */
     private static final Logger LOGGER = LogManager.getLogger(BeforeRequestHandler.class);
 
+    /**
+     * Client classifications, &lt;User-Agent, browserType&gt;.
+     */
+    private static final Cache<String, BrowserType> BROWSER_TYPES = Caffeine.newBuilder().maximumSize(10000).build();
+
+    /**
+     * Phase names, in execution order.
+     */
+    private static final String[] PHASES = {"firewall", "client", "skin", "user"};
+
+    /**
+     * Accumulated phase time in nanoseconds, indexed as {@link #PHASES}.
+     */
+    private static final LongAdder[] PHASE_NANOS = {new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()};
+
+    /**
+     * Accumulated phase executions, indexed as {@link #PHASES}.
+     */
+    private static final LongAdder[] PHASE_COUNTS = {new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()};
+
     /*SimpleCurrentLimiter antiCCLimiter = new SimpleCurrentLimiter(15, 15);
 
     private static final List<String> whiteList = new ArrayList<String>() {{
@@ -83,6 +111,7 @@ public class BeforeRequestHandler implements Handler {
             return;
         }
 
+        long start = System.nanoTime();
         final String ip = Requests.getRemoteAddr(context.getRequest());
         Firewall.recordAndMaybeBan(ip);
         // 黑名单判断
@@ -95,6 +124,7 @@ public class BeforeRequestHandler implements Handler {
             System.out.println(ip + " 已经在黑名单中");
             return;
         }
+        start = phase(0, start);
 
         Locales.setLocale(Latkes.getLocale());
 
@@ -103,9 +133,49 @@ public class BeforeRequestHandler implements Handler {
         Sessions.setAvatarViewMode(UserExt.USER_AVATAR_VIEW_MODE_C_ORIGINAL);
 
         fillBotAttrs(context);
+        phase(1, start);
         resolveSkinDir(context);
     }
 
+    /**
+     * Gets the average time of each phase.
+     *
+     * @return statistics, for example,
+     * <pre>
+     * {
+     *     "firewall": {"count": 1000, "avgMicros": 3.2},
+     *     "client": {...},
+     *     "skin": {...},
+     *     "user": {...},
+     *     "uaCacheSize": 120
+     * }
+     * </pre>
+     */
+    public static JSONObject getStats() {
+        final JSONObject ret = new JSONObject();
+        for (int i = 0; i < PHASES.length; i++) {
+            final long count = PHASE_COUNTS[i].sum();
+            final double avgMicros = 0 == count ? 0 : PHASE_NANOS[i].sum() / 1000.0 / count;
+            ret.put(PHASES[i], new JSONObject().put("count", count).put("avgMicros", avgMicros));
+        }
+        ret.put("uaCacheSize", BROWSER_TYPES.estimatedSize());
+        return ret;
+    }
+
+    /**
+     * Records the end of the specified phase.
+     *
+     * @param phase the specified phase index
+     * @param start the specified phase start time in nanoseconds
+     * @return the end time, which is the start time of the next phase
+     */
+    private static long phase(final int phase, final long start) {
+        final long ret = System.nanoTime();
+        PHASE_NANOS[phase].add(ret - start);
+        PHASE_COUNTS[phase].increment();
+        return ret;
+    }
+
     /**
      * Resolve skin (template) for the specified HTTP request.
      *
@@ -125,13 +195,13 @@ public class BeforeRequestHandler implements Handler {
         final Session httpSession = request.getSession();
         httpSession.setAttribute(Keys.TEMPLATE_DIR_NAME, templateDirName);
 
+        long start = System.nanoTime();
         try {
-            final BeanManager beanManager = BeanManager.getInstance();
-            final UserQueryService userQueryService = beanManager.getReference(UserQueryService.class);
-            final OptionRepository optionRepository = beanManager.getReference(OptionRepository.class);
-
-            final JSONObject optionLang = optionRepository.get(Option.ID_C_MISC_LANGUAGE);
-            final String optionLangValue = optionLang.optString(Option.OPTION_VALUE);
+            String optionLangValue = OptionCache.getOptionValue(Option.ID_C_MISC_LANGUAGE);
+            if (null == optionLangValue) {
+                final OptionRepository optionRepository = BeanManager.getInstance().getReference(OptionRepository.class);
+                optionLangValue = optionRepository.get(Option.ID_C_MISC_LANGUAGE).optString(Option.OPTION_VALUE);
+            }
             if ("0".equals(optionLangValue)) {
                 Locales.setLocale(Locales.getLocale(request));
             } else {
@@ -139,13 +209,15 @@ public class BeforeRequestHandler implements Handler {
             }
 
             httpSession.setAttribute(Common.IP, getIpAddr(request));
+            start = phase(2, start);
 
-            JSONObject user = userQueryService.getCurrentUser(request);
+            // 会话缓存中的用户随 UserCache 更新，无需再查一次库
+            final JSONObject user = Sessions.currentUser(request);
             if (null == user) {
                 return;
             }
 
-            httpSession.setAttribute(User.USER, user.toString());
+            httpSession.setAttribute(User.USER, Sessions.toUserJSON(user));
 
             final String skin = Sessions.isMobile() ? user.optString(UserExt.USER_MOBILE_SKIN) : user.optString(UserExt.USER_SKIN);
             httpSession.setAttribute(Keys.TEMPLATE_DIR_NAME, skin);
@@ -159,12 +231,32 @@ public class BeforeRequestHandler implements Handler {
         } catch (final Exception e) {
             LOGGER.log(Level.ERROR, "Resolves skin failed", e);
         } finally {
+            phase(3, start);
             Stopwatchs.end();
         }
     }
 
     private static void fillBotAttrs(final RequestContext context) {
         final String userAgentStr = context.header(Common.USER_AGENT);
+        final BrowserType browserType = BROWSER_TYPES.get(userAgentStr, ua -> classify(ua, context));
+        if (BrowserType.ROBOT == browserType) {
+            LOGGER.log(Level.DEBUG, "Request made from a search engine [User-Agent={}]", userAgentStr);
+            Sessions.setBot(true);
+            return;
+        }
+
+        Sessions.setBot(false);
+        Sessions.setMobile(BrowserType.MOBILE_BROWSER == browserType);
+    }
+
+    /**
+     * Classifies the specified User-Agent, unknown clients are logged once per User-Agent.
+     *
+     * @param userAgentStr the specified User-Agent
+     * @param context      the specified HTTP request context
+     * @return browser type
+     */
+    private static BrowserType classify(final String userAgentStr, final RequestContext context) {
         final UserAgent userAgent = UserAgent.parseUserAgentString(userAgentStr);
         BrowserType browserType = userAgent.getBrowser().getBrowserType();
         if (StringUtils.containsIgnoreCase(userAgentStr, "mobile")
@@ -194,14 +286,7 @@ public class BeforeRequestHandler implements Handler {
             }
         }
 
-        if (BrowserType.ROBOT == browserType) {
-            LOGGER.log(Level.DEBUG, "Request made from a search engine [User-Agent={}]", context.header(Common.USER_AGENT));
-            Sessions.setBot(true);
-            return;
-        }
-
-        Sessions.setBot(false);
-        Sessions.setMobile(BrowserType.MOBILE_BROWSER == browserType);
+        return browserType;
     }
 
     /**
@@ -25,7 +25,9 @@ import java.lang.Character;
 import java.math.BigDecimal;
 import java.net.URLEncoder;
 import java.text.SimpleDateFormat;
-import java.util.AbstractMap;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -39,6 +41,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -68,6 +71,8 @@ import org.b3log.latke.util.Crypts;
 import org.b3log.symphony.model.*;
 import org.b3log.symphony.processor.bot.ChatRoomBot;
 import org.b3log.symphony.processor.channel.ChatroomChannel;
+import org.b3log.symphony.processor.channel.ChatroomRoster;
+import org.b3log.symphony.processor.channel.ChatroomSessionRegistry;
 import org.b3log.symphony.processor.middleware.AnonymousViewCheckMidware;
 import org.b3log.symphony.processor.middleware.LoginCheckMidware;
 import org.b3log.symphony.processor.middleware.validate.ChatMsgAddValidationMidware;
@@ -129,6 +134,16 @@ public class ChatroomProcessor {
 
     private static final String PARTICIPANTS = "participants";
 
+    /**
+     * 聊天消息完整渲染结果，按消息 oId 缓存，消息入库后不再变化，撤回时失效.
+     */
+    private static final MarkdownCache CHAT_HTML_CACHE = new MarkdownCache("chat", 32L * 1024 * 1024);
+
+    /**
+     * 历史消息时间格式，线程安全.
+     */
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
     /**
      * Chat messages.
      */
@@ -253,9 +268,11 @@ public class ChatroomProcessor {
         final ChatMsgAddValidationMidware chatMsgAddValidationMidware = beanManager.getReference(ChatMsgAddValidationMidware.class);
 
         final ChatroomProcessor chatroomProcessor = beanManager.getReference(ChatroomProcessor.class);
+        RedPacketEngine.setSink(chatroomProcessor::persistRedPacketClaims);
         Dispatcher.post("/chat-room/send", chatroomProcessor::addChatRoomMsg, loginCheck::handle, chatMsgAddValidationMidware::handle);
         Dispatcher.get("/cr", chatroomProcessor::showChatRoom, loginCheck::handle);
         Dispatcher.get("/chat-room/more", chatroomProcessor::getMore);
+        Dispatcher.get("/chat-room/history", chatroomProcessor::getHistory);
         Dispatcher.get("/chat-room/getMessage", chatroomProcessor::getContextMessage);
         Dispatcher.get("/chat-room/online-users", chatroomProcessor::getChatRoomUsers);
         Dispatcher.get("/cr/raw/{id}", chatroomProcessor::getChatRaw, anonymousViewCheckMidware::handle);
@@ -658,13 +675,7 @@ public class ChatroomProcessor {
         switch (msg) {
             case "join":
                 String userName = data;
-                boolean joined = true;
-                for (Map.Entry<WebSocketSession, JSONObject> entry : ChatroomChannel.onlineUsers.entrySet()) {
-                    String name = entry.getValue().optString(User.USER_NAME);
-                    if (userName.equals(name)) {
-                        joined = false;
-                    }
-                }
+                boolean joined = !ChatroomSessionRegistry.isOnline(userName);
                 if (joined) {
                     String customMessage = ChatroomChannel.getCustomMessage(1, userName);
                     if (!customMessage.isEmpty()) {
@@ -674,13 +685,7 @@ public class ChatroomProcessor {
                 break;
             case "leave":
                 String userName2 = data;
-                boolean left = true;
-                for (Map.Entry<WebSocketSession, JSONObject> entry : ChatroomChannel.onlineUsers.entrySet()) {
-                    String name = entry.getValue().optString(User.USER_NAME);
-                    if (userName2.equals(name)) {
-                        left = false;
-                    }
-                }
+                boolean left = !ChatroomSessionRegistry.isOnline(userName2);
                 if (left) {
                     String customMessage2 = ChatroomChannel.getCustomMessage(0, userName2);
                     if (!customMessage2.isEmpty()) {
@@ -721,7 +726,9 @@ public class ChatroomProcessor {
         ret.put(Keys.CODE, StatusCodes.SUCC);
         ret.put(Keys.MSG, "");
         JSONArray backupData = new JSONArray();
-        if (NodeUtil.wsOnline == null || NodeUtil.wsOnline.isEmpty()) {
+        // 按有效权重（配置权重 × 节点健康度）分配节点，排空中和未就绪的节点不参与分配
+        final String allocatedNode = NodeScheduler.assign();
+        if (null == allocatedNode) {
             final String serverScheme = Latkes.getServerScheme();
             String wsScheme = StringUtils.containsIgnoreCase(serverScheme, "https") ? "wss" : "ws";
             String wsHost = Latkes.getServerHost();
@@ -736,50 +743,11 @@ public class ChatroomProcessor {
             node.put("node", wsScheme + "://" + wsHost + port2 + "/chat-room-channel");
             node.put("name", "故障转移区");
             node.put("weight", 1);
-            node.put("online", ChatroomChannel.onlineUsers.size());
+            node.put("online", ChatroomSessionRegistry.getSessionCount());
             backupData.put(node);
         } else {
-            // 按权重分配节点
-            Map.Entry<String, Double> selectedNode = null;
-            int totalWeight = NodeUtil.nodeWeights.values().stream().mapToInt(Integer::intValue).sum();
-            int totalClients = NodeUtil.wsOnline.values().stream().mapToInt(Integer::intValue).sum() + 1;
-            for (Map.Entry<String, Integer> entry : NodeUtil.wsOnline.entrySet()) {
-                String node = entry.getKey();
-                int currentClients = entry.getValue();
-                int weight = NodeUtil.nodeWeights.getOrDefault(node, 1); // 默认权重为 1
-
-                // 计算期望客户端数
-                double expectedClients = (double) totalClients * weight / totalWeight;
-                // 计算实际/期望比值（包含即将分配的这个客户端）
-                double ratio = (currentClients + 1) / Math.max(1, expectedClients);
-
-                // 选择比值最小的节点，比值相同时，选择权重更高的节点
-                if (selectedNode == null || ratio < selectedNode.getValue() ||
-                        (ratio == selectedNode.getValue() && weight > NodeUtil.nodeWeights.get(selectedNode.getKey()))) {
-                    selectedNode = new AbstractMap.SimpleEntry<>(node, ratio);
-                }
-
-            }
-
-            // 分配选中的节点
-            if (selectedNode != null) {
-                String allocatedNode = selectedNode.getKey();
-                NodeUtil.wsOnline.put(allocatedNode, NodeUtil.wsOnline.getOrDefault(allocatedNode, 0) + 1);
-                // 返回节点信息
-                ret.put(Keys.DATA, allocatedNode + "?apiKey=" + key);
-                ret.put(Keys.MSG, NodeUtil.nodeNickNames.get(allocatedNode));
-            } else {
-                // 平均分配
-                Map.Entry<String, Integer> minEntry = null;
-                for (Map.Entry<String, Integer> entry : NodeUtil.wsOnline.entrySet()) {
-                    if (minEntry == null || entry.getValue() < minEntry.getValue()) {
-                        minEntry = entry;
-                    }
-                }
-                NodeUtil.wsOnline.put(minEntry.getKey(), NodeUtil.wsOnline.getOrDefault(minEntry.getKey(), 0) + 1);
-                ret.put(Keys.DATA, minEntry.getKey() + "?apiKey=" + key);
-                ret.put(Keys.MSG, NodeUtil.nodeNickNames.get(minEntry.getKey()));
-            }
+            ret.put(Keys.DATA, allocatedNode + "?apiKey=" + key);
+            ret.put(Keys.MSG, NodeUtil.nodeNickNames.get(allocatedNode));
         }
         JSONArray data = new JSONArray();
         for (Map.Entry<String, Integer> entry : NodeUtil.wsOnline.entrySet()) {
@@ -788,6 +756,7 @@ public class ChatroomProcessor {
             node.put("name", NodeUtil.nodeNickNames.get(entry.getKey()));
             node.put("weight", NodeUtil.nodeWeights.get(entry.getKey()));
             node.put("online", entry.getValue());
+            node.put("drained", NodeScheduler.isDrained(entry.getKey()));
             data.put(node);
         }
         if (data.isEmpty()) {
@@ -819,12 +788,19 @@ public class ChatroomProcessor {
     }
 
     /**
-     * 获取聊天室在线人数
+     * 获取聊天室在线人数，带 since 参数时返回该版本之后的进出变化（版本过旧则返回全量）
      *
      * @param context
      */
     public void getChatRoomUsers(final RequestContext context) {
-        final JSONObject online = chatroomChannel.getOnline();
+        JSONObject online = null;
+        final String since = context.param("since");
+        if (StringUtils.isNumeric(since) && since.length() < 19) {
+            online = ChatroomRoster.getDelta(Long.parseLong(since));
+        }
+        if (null == online) {
+            online = ChatroomRoster.getOnline();
+        }
         JSONObject ret = new JSONObject();
         ret.put(Keys.CODE, StatusCodes.SUCC);
         ret.put(Keys.MSG, "");
@@ -837,7 +813,7 @@ public class ChatroomProcessor {
      *
      * @param context
      */
-    public synchronized void openRedPacket(final RequestContext context) {
+    public void openRedPacket(final RequestContext context) {
         try {
             JSONObject currentUser = Sessions.getUser();
             try {
@@ -885,266 +861,172 @@ public class ChatroomProcessor {
                 }
             }
             // ==! 风控判断 !==
-            String userName = currentUser.optString(User.USER_NAME);
+            final String userName = currentUser.optString(User.USER_NAME);
             final JSONObject requestJSONObject = context.requestJSON();
-            String oId = requestJSONObject.optString("oId");
-            JSONObject msg = chatRoomService.getChatMsg(oId);
-            JSONObject redPacket = new JSONObject(new JSONObject(msg.optString("content")).optString("content"));
-            JSONObject info = new JSONObject();
-            JSONObject sender = userQueryService.getUser(redPacket.optString("senderId"));
-            info.put(UserExt.USER_AVATAR_URL, sender.optString(UserExt.USER_AVATAR_URL));
-            avatarQueryService.fillUserAvatarURL(info);
-            info.put(User.USER_NAME, sender.optString(User.USER_NAME));
-            info.put("count", redPacket.optInt("count"));
-            info.put("got", redPacket.optInt("got"));
-            info.put("msg", redPacket.optString("msg"));
-            JSONArray recivers;
-            if (!redPacket.has("recivers") || StringUtils.isBlank(redPacket.optString("recivers"))) {
-                recivers = new JSONArray();
-            } else {
-                recivers = new JSONArray(redPacket.optString("recivers"));
-            }
-            if (redPacket.has("gesture") && StringUtils.isNotBlank(redPacket.optString("gesture"))) {
-                info.put("gesture", redPacket.optInt("gesture"));
+            final String oId = requestJSONObject.optString("oId");
+            final RedPacketEngine.Packet packet = RedPacketEngine.get(oId, this::loadRedPacket);
+            if (null == packet) {
+                // 猜拳红包、摇骰子红包以及无法从库中恢复的红包，按红包串行处理
+                synchronized (RED_PACKET_LOCKS[Math.floorMod(oId.hashCode(), RED_PACKET_LOCKS.length)]) {
+                    openRedPacketSerially(context, currentUser, requestJSONObject, oId);
+                }
+                return;
             }
 
-            String msgType = redPacket.optString("msgType");
-            if (!msgType.equals("redPacket") || !redPacket.has("type")) {
-                context.renderJSON(StatusCodes.ERR).renderMsg("红包非法");
+            if ("heartbeat".equals(packet.type) && !packet.hasClaimed(userId) && currentUser.optInt(UserExt.USER_POINT) < packet.money) {
+                context.renderJSON(StatusCodes.ERR).renderMsg("抢红包失败！你的账户余额低于该红包金额。");
                 return;
             }
-            // 红包正常，可以抢了
-            int money = redPacket.optInt("money");
-            int countMoney = money;
-            int count = redPacket.optInt("count");
-            int got = redPacket.optInt("got");
-            JSONArray who = redPacket.optJSONArray("who");
-            JSONObject dice = requestJSONObject.optJSONObject("dice");
-            // 根据抢的人数判断是否已经抢光了
-            if (got >= count) {
-                JSONObject ret = new JSONObject().put("who", who).put("info", info).put("recivers", recivers);
-                if ("dice".equals(redPacket.getString("type"))) {
-                    ret.put("diceRet", redPacket.optJSONObject("diceRet"));
-                    context.renderJSON(ret);
-                    return;
-                }
-                context.renderJSON(ret);
+            final RedPacketEngine.Claim claim = RedPacketEngine.claim(packet, userId, userName, currentUser.optString(UserExt.USER_AVATAR_URL));
+            context.renderJSON(new JSONObject().put("who", packet.getWho()).put("info", packet.getInfo()).put("recivers", packet.getRecivers()));
+            if (RedPacketEngine.Outcome.CLAIMED != claim.outcome) {
                 return;
             }
 
-            if ("dice".equals(redPacket.getString("type"))) {
-                context.renderJSON(StatusCodes.ERR).renderMsg("暂不支持摇骰子红包！");
-                return;
-
-                /*if (redPacketIsOpened(who, userId) || userId.equals(redPacket.optString("senderId"))) {
-                    context.renderJSON(new JSONObject().put("who", who).put("info", info));
-                    return;
-                }
-
-                if (Objects.isNull(dice) || dice.isEmpty()) {
-                    context.renderJSON(StatusCodes.ERR).renderMsg("投注失败，参数非法！");
-                    return;
-                }
-                String bet = dice.optString("bet");
-                String chips = dice.optString("chips");
-                if (org.apache.commons.lang3.StringUtils.isBlank(bet) || (!org.apache.commons.lang3.StringUtils.equals("big", bet)
-                        && !org.apache.commons.lang3.StringUtils.equals("small", bet)
-                        && !org.apache.commons.lang3.StringUtils.equals("leopard", bet))) {
-                    context.renderJSON(StatusCodes.ERR).renderMsg("投注失败，参数非法！");
-                    return;
-                }
-                if (org.apache.commons.lang3.StringUtils.isBlank(bet) || !org.apache.commons.lang3.StringUtils.isNumeric(chips)) {
-                    int chipsI = Integer.parseInt(chips);
-                    if (chipsI < 32 || chipsI > 100) {
-                        context.renderJSON(StatusCodes.ERR).renderMsg("投注失败，参数非法！");
-                        return;
-                    }
-                }*/
+            if ("specify".equals(packet.type)) {
+                // 通知标为已读
+                notificationMgmtService.makeRead(userId, Notification.DATA_TYPE_C_RED_PACKET);
             }
-
-            // 开始领取红包
-            int meGot = 0;
-            if ("average".equals(redPacket.getString("type"))) {
-                // 普通红包逻辑
-                if (redPacketIsOpened(who, userId)) {
-                    context.renderJSON(new JSONObject().put("who", who).put("info", info));
-                    return;
-                }
-                meGot = money;
-            } else if ("dice".equals(redPacket.getString("type"))) {
-                boolean closed = false;
-                //记录投注人信息
-                JSONObject source = new JSONObject(chatRoomService.getChatMsg(oId).optString("content"));
-                JSONObject source2 = new JSONObject(source.optString("content"));
-                source2.put("got", got + 1);
-                JSONArray source3 = source2.optJSONArray("who");
-                source3.put(new JSONObject().put("dice", dice).put("userId", userId).put("userName", userName).put("time", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(System.currentTimeMillis())).put("avatar", userQueryService.getUser(userId).optString(UserExt.USER_AVATAR_URL)));
-                source2.put("who", source3);
-                //需要封盘
-                if (got == count - 1) {
-                    Dice calcRet = allocateDice();
-                    String s = new JSONObject(calcRet).toString();
-                    source2.put("diceRet", new JSONObject(s));
-                    closed = true;
-                }
-                source.put("content", source2);
-
-                final Transaction transaction = chatRoomRepository.beginTransaction();
-                chatRoomRepository.update(oId, new JSONObject().put("content", source.toString()));
-                transaction.commit();
-
-                if (closed) {
-                    //结算
-                    allocateMoney(source2);
-                }
-
+            if (1 == claim.got || packet.count == claim.got || 0 == claim.got % 5) {
                 // 广播红包情况
-                JSONObject redPacketStatus = new JSONObject();
+                final JSONObject redPacketStatus = new JSONObject();
                 redPacketStatus.put(Common.TYPE, "redPacketStatus");
-                redPacketStatus.put("whoGive", source.optString(User.USER_NAME));
+                redPacketStatus.put("whoGive", packet.senderName);
                 redPacketStatus.put("whoGot", userName);
-                redPacketStatus.put("got", got + 1);
-                redPacketStatus.put("count", count);
+                redPacketStatus.put("got", claim.got);
+                redPacketStatus.put("count", packet.count);
                 redPacketStatus.put("oId", oId);
-                redPacketStatus.put("dice", dice);
                 ChatroomChannel.notifyChat(redPacketStatus);
-                info.put("got", redPacket.optInt("got") + 1);
-                context.renderJSON(new JSONObject().put("who", source3).put("diceRet", source2.optJSONObject("diceRet")).put("info", info).put("recivers", recivers).put("dice", true));
-                return;
-            } else if ("specify".equals(redPacket.getString("type"))) {
-                //专属红包逻辑
-                final boolean isReciver = recivers.toList().stream().anyMatch(x -> {
-                    final String reciver = (String) x;
-                    return reciver.equals(userName);
-                });
-                if (!isReciver) {
-                    context.renderJSON(new JSONObject().put("who", who).put("info", info).put("recivers", recivers));
-                    return;
-                }
-                if (redPacketIsOpened(who, userId)) {
-                    context.renderJSON(new JSONObject().put("who", who).put("info", info).put("recivers", recivers));
-                    return;
-                }
-                if (redPacketIsOpened(who, userId)) {
-                    context.renderJSON(new JSONObject().put("who", who).put("info", info).put("recivers", recivers));
-                    return;
-                }
-                meGot = money;
-            } else if ("random".equals(redPacket.getString("type"))) {
-                boolean hasZero = false;
-                for (Object o : who) {
-                    JSONObject currentWho = (JSONObject) o;
-                    String uId = currentWho.optString("userId");
-                    if (uId.equals(userId)) {
-                        context.renderJSON(new JSONObject().put("who", who).put("info", info));
-                        return;
-                    }
-                    int userMoney = currentWho.optInt("userMoney");
-                    if (userMoney == 0) {
-                        hasZero = true;
-                    }
-                    money -= userMoney;
-                }
-                if (RED_PACKET_BUCKET.isEmpty() || !RED_PACKET_BUCKET.containsKey(oId)) {
-                    //服务器重启或者宕机导致的红包缓存失效，走原来的逻辑
-                    // 随机一个红包金额 1-N
-                    Random random = new Random();
-                    // 如果是最后一个红包了，给他一切
-                    int coefficient = 2;
-                    if ((countMoney / 2) <= money) {
-                        coefficient = 1;
-                    }
-                    if (money > 0) {
-                        if (count == got + 1) {
-                            meGot = money;
-                        } else {
-                            if (!hasZero) {
-                                meGot = random.nextInt((money / coefficient) + 1);
-                            } else {
-                                meGot = random.nextInt((money / coefficient) + 1) + 1;
-                            }
-                        }
-                    }
-                } else {
-                    meGot = RED_PACKET_BUCKET.get(oId).packs.poll();
-                }
-            } else if ("rockPaperScissors".equals(redPacket.getString("type"))) {
-                if (currentUser.optInt(UserExt.USER_POINT) < redPacket.optInt("money")) {
-                    context.renderJSON(StatusCodes.ERR).renderMsg("抢红包失败！你的账户余额低于该红包金额。");
-                    return;
-                }
+            }
+        } catch (Exception e) {
+            context.renderJSON(StatusCodes.ERR).renderMsg("红包非法");
+            LOGGER.log(Level.ERROR, "Open Red Packet failed on ChatRoomProcessor.");
+        }
+    }
 
-                if (redPacketIsOpened(who, userId)) {
-                    context.renderJSON(new JSONObject().put("who", who).put("info", info));
-                    return;
-                }
+    /**
+     * 拆开不由 {@link RedPacketEngine} 处理的红包，调用方需持有该红包的锁
+     *
+     * @param context           the specified request context
+     * @param currentUser       the specified current user
+     * @param requestJSONObject the specified request
+     * @param oId               the specified red packet message oId
+     * @throws Exception exception
+     */
+    private void openRedPacketSerially(final RequestContext context, final JSONObject currentUser,
+                                       final JSONObject requestJSONObject, final String oId) throws Exception {
+        final String userId = currentUser.optString(Keys.OBJECT_ID);
+        final String userName = currentUser.optString(User.USER_NAME);
+        JSONObject msg = chatRoomService.getChatMsg(oId);
+        JSONObject redPacket = new JSONObject(new JSONObject(msg.optString("content")).optString("content"));
+        JSONObject info = new JSONObject();
+        JSONObject sender = userQueryService.getUser(redPacket.optString("senderId"));
+        info.put(UserExt.USER_AVATAR_URL, sender.optString(UserExt.USER_AVATAR_URL));
+        avatarQueryService.fillUserAvatarURL(info);
+        info.put(User.USER_NAME, sender.optString(User.USER_NAME));
+        info.put("count", redPacket.optInt("count"));
+        info.put("got", redPacket.optInt("got"));
+        info.put("msg", redPacket.optString("msg"));
+        JSONArray recivers;
+        if (!redPacket.has("recivers") || StringUtils.isBlank(redPacket.optString("recivers"))) {
+            recivers = new JSONArray();
+        } else {
+            recivers = new JSONArray(redPacket.optString("recivers"));
+        }
+        if (redPacket.has("gesture") && StringUtils.isNotBlank(redPacket.optString("gesture"))) {
+            info.put("gesture", redPacket.optInt("gesture"));
+        }
 
-                final RockPaperScissorRedPacket packet = (RockPaperScissorRedPacket) RED_PACKET_BUCKET.get(oId);
-                final int senderGesture = packet.getGesture();
+        String msgType = redPacket.optString("msgType");
+        if (!msgType.equals("redPacket") || !redPacket.has("type")) {
+            context.renderJSON(StatusCodes.ERR).renderMsg("红包非法");
+            return;
+        }
+        // 红包正常，可以抢了
+        int money = redPacket.optInt("money");
+        int countMoney = money;
+        int count = redPacket.optInt("count");
+        int got = redPacket.optInt("got");
+        JSONArray who = redPacket.optJSONArray("who");
+        JSONObject dice = requestJSONObject.optJSONObject("dice");
+        // 根据抢的人数判断是否已经抢光了
+        if (got >= count) {
+            JSONObject ret = new JSONObject().put("who", who).put("info", info).put("recivers", recivers);
+            if ("dice".equals(redPacket.getString("type"))) {
+                ret.put("diceRet", redPacket.optJSONObject("diceRet"));
+                context.renderJSON(ret);
+                return;
+            }
+            context.renderJSON(ret);
+            return;
+        }
 
-                if (sender.optString("oId").equals(userId)) {
-                    info.put("gesture", senderGesture);
-                    context.renderJSON(new JSONObject().put("who", who).put("info", info));
-                    return;
-                }
+        if ("dice".equals(redPacket.getString("type"))) {
+            context.renderJSON(StatusCodes.ERR).renderMsg("暂不支持摇骰子红包！");
+            return;
 
-                int gesture = requestJSONObject.optInt("gesture", -1);
-                if (gesture < 0) {
-                    context.renderJSON(StatusCodes.ERR).renderMsg("红包失效");
-                    return;
-                }
+            /*if (redPacketIsOpened(who, userId) || userId.equals(redPacket.optString("senderId"))) {
+                context.renderJSON(new JSONObject().put("who", who).put("info", info));
+                return;
+            }
 
-                if (senderGesture - gesture == 1 || senderGesture - gesture == -2) {
-                    meGot = money;
-                } else if (senderGesture != gesture) {
-                    meGot = -money;
-                }
-            } else {
-                if (currentUser.optInt(UserExt.USER_POINT) < redPacket.optInt("money")) {
-                    context.renderJSON(StatusCodes.ERR).renderMsg("抢红包失败！你的账户余额低于该红包金额。");
-                    return;
-                }
-                if (redPacketIsOpened(who, userId)) {
-                    context.renderJSON(new JSONObject().put("who", who).put("info", info));
-                    return;
-                }
-                if (!RED_PACKET_BUCKET.containsKey(oId)) {
-                    context.renderJSON(StatusCodes.ERR).renderMsg("红包失效");
+            if (Objects.isNull(dice) || dice.isEmpty()) {
+                context.renderJSON(StatusCodes.ERR).renderMsg("投注失败，参数非法！");
+                return;
+            }
+            String bet = dice.optString("bet");
+            String chips = dice.optString("chips");
+            if (org.apache.commons.lang3.StringUtils.isBlank(bet) || (!org.apache.commons.lang3.StringUtils.equals("big", bet)
+                    && !org.apache.commons.lang3.StringUtils.equals("small", bet)
+                    && !org.apache.commons.lang3.StringUtils.equals("leopard", bet))) {
+                context.renderJSON(StatusCodes.ERR).renderMsg("投注失败，参数非法！");
+                return;
+            }
+            if (org.apache.commons.lang3.StringUtils.isBlank(bet) || !org.apache.commons.lang3.StringUtils.isNumeric(chips)) {
+                int chipsI = Integer.parseInt(chips);
+                if (chipsI < 32 || chipsI > 100) {
+                    context.renderJSON(StatusCodes.ERR).renderMsg("投注失败，参数非法！");
                     return;
                 }
-                meGot = RED_PACKET_BUCKET.get(oId).packs.poll();
+            }*/
+        }
+
+        // 开始领取红包
+        int meGot = 0;
+        if ("average".equals(redPacket.getString("type"))) {
+            // 普通红包逻辑
+            if (redPacketIsOpened(who, userId)) {
+                context.renderJSON(new JSONObject().put("who", who).put("info", info));
+                return;
             }
-            // 随机成功了
-            // 修改聊天室数据库
+            meGot = money;
+        } else if ("dice".equals(redPacket.getString("type"))) {
+            boolean closed = false;
+            //记录投注人信息
             JSONObject source = new JSONObject(chatRoomService.getChatMsg(oId).optString("content"));
             JSONObject source2 = new JSONObject(source.optString("content"));
             source2.put("got", got + 1);
-            if ("rockPaperScissors".equalsIgnoreCase(redPacket.getString("type"))) {
-                final RockPaperScissorRedPacket packet = (RockPaperScissorRedPacket) RED_PACKET_BUCKET.get(oId);
-                source2.put("gesture", packet.getGesture());
-            }
             JSONArray source3 = source2.optJSONArray("who");
-            source3.put(new JSONObject().put("userMoney", meGot).put("userId", userId).put("userName", userName).put("time", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(System.currentTimeMillis())).put("avatar", userQueryService.getUser(userId).optString(UserExt.USER_AVATAR_URL)));
+            source3.put(new JSONObject().put("dice", dice).put("userId", userId).put("userName", userName).put("time", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(System.currentTimeMillis())).put("avatar", userQueryService.getUser(userId).optString(UserExt.USER_AVATAR_URL)));
             source2.put("who", source3);
-            source.put("content", source2.toString());
+            //需要封盘
+            if (got == count - 1) {
+                Dice calcRet = allocateDice();
+                String s = new JSONObject(calcRet).toString();
+                source2.put("diceRet", new JSONObject(s));
+                closed = true;
+            }
+            source.put("content", source2);
+
             final Transaction transaction = chatRoomRepository.beginTransaction();
             chatRoomRepository.update(oId, new JSONObject().put("content", source.toString()));
             transaction.commit();
-            // 把钱转给用户
-            final boolean succ = null != pointtransferMgmtService.transfer(Pointtransfer.ID_C_SYS, userId,
-                    Pointtransfer.TRANSFER_TYPE_C_ACTIVITY_RECEIVE_RED_PACKET,
-                    meGot, "", System.currentTimeMillis(), "");
-            if ("rockPaperScissors".equals(redPacket.getString("type")) && meGot <= 0) {
-                pointtransferMgmtService.transfer(Pointtransfer.ID_C_SYS, redPacket.optString("senderId"),
-                        Pointtransfer.TRANSFER_TYPE_C_ACTIVITY_RECEIVE_RED_PACKET,
-                        meGot < 0 ? money * 2 : money, "", System.currentTimeMillis(), "");
-            }
-            if (!succ) {
-                context.renderJSON(StatusCodes.ERR).renderMsg("发送积分失败");
-                return;
+
+            if (closed) {
+                //结算
+                allocateMoney(source2);
             }
-            info.put("got", redPacket.optInt("got") + 1);
-            context.renderJSON(new JSONObject().put("who", source3).put("info", info).put("recivers", recivers));
+
             // 广播红包情况
             JSONObject redPacketStatus = new JSONObject();
             redPacketStatus.put(Common.TYPE, "redPacketStatus");
@@ -1153,23 +1035,166 @@ public class ChatroomProcessor {
             redPacketStatus.put("got", got + 1);
             redPacketStatus.put("count", count);
             redPacketStatus.put("oId", oId);
+            redPacketStatus.put("dice", dice);
+            ChatroomChannel.notifyChat(redPacketStatus);
+            info.put("got", redPacket.optInt("got") + 1);
+            context.renderJSON(new JSONObject().put("who", source3).put("diceRet", source2.optJSONObject("diceRet")).put("info", info).put("recivers", recivers).put("dice", true));
+            return;
+        } else if ("specify".equals(redPacket.getString("type"))) {
+            //专属红包逻辑
+            final boolean isReciver = recivers.toList().stream().anyMatch(x -> {
+                final String reciver = (String) x;
+                return reciver.equals(userName);
+            });
+            if (!isReciver) {
+                context.renderJSON(new JSONObject().put("who", who).put("info", info).put("recivers", recivers));
+                return;
+            }
+            if (redPacketIsOpened(who, userId)) {
+                context.renderJSON(new JSONObject().put("who", who).put("info", info).put("recivers", recivers));
+                return;
+            }
+            if (redPacketIsOpened(who, userId)) {
+                context.renderJSON(new JSONObject().put("who", who).put("info", info).put("recivers", recivers));
+                return;
+            }
+            meGot = money;
+        } else if ("random".equals(redPacket.getString("type"))) {
+            boolean hasZero = false;
+            for (Object o : who) {
+                JSONObject currentWho = (JSONObject) o;
+                String uId = currentWho.optString("userId");
+                if (uId.equals(userId)) {
+                    context.renderJSON(new JSONObject().put("who", who).put("info", info));
+                    return;
+                }
+                int userMoney = currentWho.optInt("userMoney");
+                if (userMoney == 0) {
+                    hasZero = true;
+                }
+                money -= userMoney;
+            }
+            if (RED_PACKET_BUCKET.isEmpty() || !RED_PACKET_BUCKET.containsKey(oId)) {
+                //服务器重启或者宕机导致的红包缓存失效，走原来的逻辑
+                // 随机一个红包金额 1-N
+                Random random = new Random();
+                // 如果是最后一个红包了，给他一切
+                int coefficient = 2;
+                if ((countMoney / 2) <= money) {
+                    coefficient = 1;
+                }
+                if (money > 0) {
+                    if (count == got + 1) {
+                        meGot = money;
+                    } else {
+                        if (!hasZero) {
+                            meGot = random.nextInt((money / coefficient) + 1);
+                        } else {
+                            meGot = random.nextInt((money / coefficient) + 1) + 1;
+                        }
+                    }
+                }
+            } else {
+                meGot = RED_PACKET_BUCKET.get(oId).packs.poll();
+            }
+        } else if ("rockPaperScissors".equals(redPacket.getString("type"))) {
+            if (currentUser.optInt(UserExt.USER_POINT) < redPacket.optInt("money")) {
+                context.renderJSON(StatusCodes.ERR).renderMsg("抢红包失败！你的账户余额低于该红包金额。");
+                return;
+            }
 
-            if ("random".equals(redPacket.getString("type")) && redPacketStatus.optInt("got") == redPacketStatus.optInt("count")) {
-                RED_PACKET_BUCKET.remove(oId);
-            } else if ("specify".equals(redPacket.getString("type"))) {
-                // 通知标为已读
-                notificationMgmtService.makeRead(currentUser.optString(Keys.OBJECT_ID), Notification.DATA_TYPE_C_RED_PACKET);
-            } else if ("heartbeat".equals(redPacket.getString("type")) && redPacketStatus.optInt("got") == redPacketStatus.optInt("count")) {
-                RED_PACKET_BUCKET.remove(oId);
-            } else if ("rockPaperScissors".equalsIgnoreCase(redPacket.getString("type"))) {
-                RED_PACKET_BUCKET.remove(oId);
+            if (redPacketIsOpened(who, userId)) {
+                context.renderJSON(new JSONObject().put("who", who).put("info", info));
+                return;
             }
-            if (got == 0 || (got + 1) == count || (got + 1) % 5 == 0) {
-                ChatroomChannel.notifyChat(redPacketStatus);
+
+            final RockPaperScissorRedPacket packet = (RockPaperScissorRedPacket) RED_PACKET_BUCKET.get(oId);
+            final int senderGesture = packet.getGesture();
+
+            if (sender.optString("oId").equals(userId)) {
+                info.put("gesture", senderGesture);
+                context.renderJSON(new JSONObject().put("who", who).put("info", info));
+                return;
             }
-        } catch (Exception e) {
-            context.renderJSON(StatusCodes.ERR).renderMsg("红包非法");
-            LOGGER.log(Level.ERROR, "Open Red Packet failed on ChatRoomProcessor.");
+
+            int gesture = requestJSONObject.optInt("gesture", -1);
+            if (gesture < 0) {
+                context.renderJSON(StatusCodes.ERR).renderMsg("红包失效");
+                return;
+            }
+
+            if (senderGesture - gesture == 1 || senderGesture - gesture == -2) {
+                meGot = money;
+            } else if (senderGesture != gesture) {
+                meGot = -money;
+            }
+        } else {
+            if (currentUser.optInt(UserExt.USER_POINT) < redPacket.optInt("money")) {
+                context.renderJSON(StatusCodes.ERR).renderMsg("抢红包失败！你的账户余额低于该红包金额。");
+                return;
+            }
+            if (redPacketIsOpened(who, userId)) {
+                context.renderJSON(new JSONObject().put("who", who).put("info", info));
+                return;
+            }
+            if (!RED_PACKET_BUCKET.containsKey(oId)) {
+                context.renderJSON(StatusCodes.ERR).renderMsg("红包失效");
+                return;
+            }
+            meGot = RED_PACKET_BUCKET.get(oId).packs.poll();
+        }
+        // 随机成功了
+        // 修改聊天室数据库
+        JSONObject source = new JSONObject(chatRoomService.getChatMsg(oId).optString("content"));
+        JSONObject source2 = new JSONObject(source.optString("content"));
+        source2.put("got", got + 1);
+        if ("rockPaperScissors".equalsIgnoreCase(redPacket.getString("type"))) {
+            final RockPaperScissorRedPacket packet = (RockPaperScissorRedPacket) RED_PACKET_BUCKET.get(oId);
+            source2.put("gesture", packet.getGesture());
+        }
+        JSONArray source3 = source2.optJSONArray("who");
+        source3.put(new JSONObject().put("userMoney", meGot).put("userId", userId).put("userName", userName).put("time", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(System.currentTimeMillis())).put("avatar", userQueryService.getUser(userId).optString(UserExt.USER_AVATAR_URL)));
+        source2.put("who", source3);
+        source.put("content", source2.toString());
+        final Transaction transaction = chatRoomRepository.beginTransaction();
+        chatRoomRepository.update(oId, new JSONObject().put("content", source.toString()));
+        transaction.commit();
+        // 把钱转给用户
+        final boolean succ = null != pointtransferMgmtService.transfer(Pointtransfer.ID_C_SYS, userId,
+                Pointtransfer.TRANSFER_TYPE_C_ACTIVITY_RECEIVE_RED_PACKET,
+                meGot, "", System.currentTimeMillis(), "");
+        if ("rockPaperScissors".equals(redPacket.getString("type")) && meGot <= 0) {
+            pointtransferMgmtService.transfer(Pointtransfer.ID_C_SYS, redPacket.optString("senderId"),
+                    Pointtransfer.TRANSFER_TYPE_C_ACTIVITY_RECEIVE_RED_PACKET,
+                    meGot < 0 ? money * 2 : money, "", System.currentTimeMillis(), "");
+        }
+        if (!succ) {
+            context.renderJSON(StatusCodes.ERR).renderMsg("发送积分失败");
+            return;
+        }
+        info.put("got", redPacket.optInt("got") + 1);
+        context.renderJSON(new JSONObject().put("who", source3).put("info", info).put("recivers", recivers));
+        // 广播红包情况
+        JSONObject redPacketStatus = new JSONObject();
+        redPacketStatus.put(Common.TYPE, "redPacketStatus");
+        redPacketStatus.put("whoGive", source.optString(User.USER_NAME));
+        redPacketStatus.put("whoGot", userName);
+        redPacketStatus.put("got", got + 1);
+        redPacketStatus.put("count", count);
+        redPacketStatus.put("oId", oId);
+
+        if ("random".equals(redPacket.getString("type")) && redPacketStatus.optInt("got") == redPacketStatus.optInt("count")) {
+            RED_PACKET_BUCKET.remove(oId);
+        } else if ("specify".equals(redPacket.getString("type"))) {
+            // 通知标为已读
+            notificationMgmtService.makeRead(currentUser.optString(Keys.OBJECT_ID), Notification.DATA_TYPE_C_RED_PACKET);
+        } else if ("heartbeat".equals(redPacket.getString("type")) && redPacketStatus.optInt("got") == redPacketStatus.optInt("count")) {
+            RED_PACKET_BUCKET.remove(oId);
+        } else if ("rockPaperScissors".equalsIgnoreCase(redPacket.getString("type"))) {
+            RED_PACKET_BUCKET.remove(oId);
+        }
+        if (got == 0 || (got + 1) == count || (got + 1) % 5 == 0) {
+            ChatroomChannel.notifyChat(redPacketStatus);
         }
     }
 
@@ -1502,13 +1527,23 @@ public class ChatroomProcessor {
                             break;
                         case "heartbeat":
                             // 预分配红包
-                            RED_PACKET_BUCKET.put(msg.optString("oId"), allocateHeartbeatRedPacket(msg.optString("oId"), userId, collectTaxes ? BigDecimal.valueOf(money).multiply(BigDecimal.ONE.subtract(taxRate)).intValue() : money, count, 3));
+                            RedPacketEngine.register(newRedPacket(msg.optString("oId"), redPacketJSON, currentUser,
+                                    allocateHeartbeatRedPacket(msg.optString("oId"), userId, collectTaxes ? BigDecimal.valueOf(money).multiply(BigDecimal.ONE.subtract(taxRate)).intValue() : money, count, 3).packs,
+                                    new JSONArray()));
                             break;
                         case "random":
                             // 预分配红包
-                            RED_PACKET_BUCKET.put(msg.optString("oId"), allocateRedPacket(msg.optString("oId"), userId, collectTaxes ? BigDecimal.valueOf(money).multiply(BigDecimal.ONE.subtract(taxRate)).intValue() : money, count, 2));
+                            RedPacketEngine.register(newRedPacket(msg.optString("oId"), redPacketJSON, currentUser,
+                                    allocateRedPacket(msg.optString("oId"), userId, collectTaxes ? BigDecimal.valueOf(money).multiply(BigDecimal.ONE.subtract(taxRate)).intValue() : money, count, 2).packs,
+                                    new JSONArray()));
+                            break;
+                        case "average":
+                            RedPacketEngine.register(newRedPacket(msg.optString("oId"), redPacketJSON, currentUser,
+                                    Collections.nCopies(count, redPacketJSON.optInt("money")), new JSONArray()));
                             break;
                         case "specify":
+                            RedPacketEngine.register(newRedPacket(msg.optString("oId"), redPacketJSON, currentUser,
+                                    Collections.nCopies(count, redPacketJSON.optInt("money")), new JSONArray()));
                             // 发通知
                             final JSONArray jsonArray = new JSONArray(recivers);
                             for (Object o : jsonArray) {
@@ -1628,6 +1663,7 @@ public class ChatroomProcessor {
                     return;
                 }
                 ChatroomChannel.discussing = setdiscussString;
+                ChatroomRoster.invalidate();
                 // 广播话题情况
                 JSONObject discussStatus = new JSONObject();
                 discussStatus.put(Common.TYPE, "discussChanged");
@@ -1688,7 +1724,7 @@ public class ChatroomProcessor {
                     LOGGER.log(Level.ERROR, "Cannot save ChatRoom message to the database.", e);
                 }
                 transaction.commit();
-                msg = msg.put("md", msg.optString(Common.CONTENT)).put(Common.CONTENT, processMarkdown(msg.optString(Common.CONTENT)));
+                msg = msg.put("md", msg.optString(Common.CONTENT)).put(Common.CONTENT, processMarkdown(msg.optString("oId"), msg.optString(Common.CONTENT)));
                 final JSONObject pushMsg = JSONs.clone(msg);
                 pushMsg.put(Common.TIME, new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(msg.optLong(Common.TIME)));
                 ChatroomChannel.notifyChat(pushMsg);
@@ -1884,8 +1920,7 @@ public class ChatroomProcessor {
                 }
                 if (userName.equals(PARTICIPANTS)) {
                     //需要@所有在聊天室中的成员
-                    final Map<WebSocketSession, JSONObject> onlineUsers = ChatroomChannel.onlineUsers;
-                    return onlineUsers.values().stream().filter(x -> !x.optString(User.USER_NAME).equals(currentUser)).collect(Collectors.toList());
+                    return ChatroomSessionRegistry.getUsers().stream().filter(x -> !x.optString(User.USER_NAME).equals(currentUser)).collect(Collectors.toList());
                 }
                 userNames.add(userName);
             }
@@ -2091,6 +2126,42 @@ public class ChatroomProcessor {
         }
     }
 
+    /**
+     * 按游标获取聊天室历史消息
+     *
+     * @param context
+     */
+    public void getHistory(final RequestContext context) {
+        try {
+            final String before = context.param("before");
+            int size = 25;
+            if (StringUtils.isNumeric(context.param("size"))) {
+                size = Math.max(1, Math.min(100, Integer.parseInt(context.param("size"))));
+            }
+            JSONObject currentUser = Sessions.getUser();
+            try {
+                currentUser = ApiProcessor.getUserByKey(context.param("apiKey"));
+            } catch (NullPointerException ignored) {
+            }
+            // 未登录只允许查看最新消息
+            if (null == currentUser && StringUtils.isNotBlank(before)) {
+                context.sendError(401);
+                context.abort();
+                return;
+            }
+            final List<JSONObject> msgs = getHistory(before, size, context.param("type"));
+            JSONObject ret = new JSONObject();
+            ret.put(Keys.CODE, StatusCodes.SUCC);
+            ret.put(Keys.MSG, "");
+            ret.put(Keys.DATA, msgs);
+            // 下一页游标，没有更多消息时为空
+            ret.put("cursor", msgs.size() < size ? "" : msgs.get(msgs.size() - 1).optString("oId"));
+            context.renderJSON(ret);
+        } catch (Exception e) {
+            context.sendStatus(500);
+        }
+    }
+
     /**
      * 撤回消息（直接删除）
      *
@@ -2126,6 +2197,7 @@ public class ChatroomProcessor {
                 final Transaction transaction = chatRoomRepository.beginTransaction();
                 chatRoomRepository.remove(removeMessageId);
                 transaction.commit();
+                evictRenderedMessage(removeMessageId);
                 context.renderJSON(StatusCodes.SUCC).renderMsg("撤回成功。");
                 JSONObject jsonObject = new JSONObject();
                 jsonObject.put(Common.TYPE, "revoke");
@@ -2170,6 +2242,7 @@ public class ChatroomProcessor {
                 chatRoomRepository.remove(removeMessageId);
                 // 提交事务
                 transaction.commit();
+                evictRenderedMessage(removeMessageId);
                 context.renderJSON(StatusCodes.SUCC).renderMsg("撤回成功，下次发消息一定要三思哦！本次消耗积分: " + needDelPoint);
                 JSONObject jsonObject = new JSONObject();
                 jsonObject.put(Common.TYPE, "revoke");
@@ -2192,23 +2265,30 @@ public class ChatroomProcessor {
         try {
             final BeanManager beanManager = BeanManager.getInstance();
             final ChatRoomRepository chatRoomRepository = beanManager.getReference(ChatRoomRepository.class);
-            final AvatarQueryService avatarQueryService = beanManager.getReference(AvatarQueryService.class);
             int start = 0;
             int count = 25;
             if (page > 1) {
                 start = (page - 1) * 25;
             }
-            List<JSONObject> messageList = chatRoomRepository.select("" +
-                    "SELECT  *  FROM `" + chatRoomRepository.getName() + "` ORDER BY oId DESC LIMIT " + start + "," + count);
-            List<JSONObject> msgs = messageList.stream().map(msg -> new JSONObject(msg.optString("content")).put("oId", msg.optString(Keys.OBJECT_ID))).collect(Collectors.toList());
-            msgs = msgs.stream().map(msg -> JSONs.clone(msg).put(Common.TIME, new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(msg.optLong(Common.TIME)))).collect(Collectors.toList());
-            if (!"md".equals(type)) {
-                msgs = msgs.stream().map(msg -> JSONs.clone(msg.put("content", processMarkdown(msg.optString("content"))))).collect(Collectors.toList());
-            }
-            for (JSONObject msg : msgs) {
-                avatarQueryService.fillUserAvatarURL(msg);
-            }
-            return msgs;
+            return toMessages(chatRoomRepository.getPage(start, count), type, true);
+        } catch (RepositoryException e) {
+            return new LinkedList<>();
+        }
+    }
+
+    /**
+     * 按游标获取历史消息
+     *
+     * @param before 游标，即上一批中最旧消息的 oId，为空时获取最新消息
+     * @param size   条数
+     * @param type   html 或 md
+     * @return 消息列表，从新到旧
+     */
+    public static List<JSONObject> getHistory(final String before, final int size, final String type) {
+        try {
+            final BeanManager beanManager = BeanManager.getInstance();
+            final ChatRoomRepository chatRoomRepository = beanManager.getReference(ChatRoomRepository.class);
+            return toMessages(chatRoomRepository.getHistory(before, size), type, true);
         } catch (RepositoryException e) {
             return new LinkedList<>();
         }
@@ -2227,53 +2307,158 @@ public class ChatroomProcessor {
             switch (mode) {
                 case 0:
                     msgs = chatRoomRepository.select(
-                            "(select * from " + chatRoomRepository.getName() + " where oId > ? order by oId asc limit ?) union" +
-                                    "(select * from " + chatRoomRepository.getName() + " where oId = ?) union" +
-                                    "(select * from " + chatRoomRepository.getName() + " where oId < ? order by oId desc limit ?) order by oId desc;",
+                            "(select oId, content from " + chatRoomRepository.getName() + " where oId > ? order by oId asc limit ?) union" +
+                                    "(select oId, content from " + chatRoomRepository.getName() + " where oId = ?) union" +
+                                    "(select oId, content from " + chatRoomRepository.getName() + " where oId < ? order by oId desc limit ?) order by oId desc;",
                             oId, size, oId, oId, size
                     );
                     break;
                 case 1:
                     msgs = chatRoomRepository.select(
-                            "select * from " + chatRoomRepository.getName() + " where oId <= ? order by oId desc limit ?",
+                            "select oId, content from " + chatRoomRepository.getName() + " where oId <= ? order by oId desc limit ?",
                             oId, (size + 1)
                     );
                     break;
                 case 2:
                     msgs = chatRoomRepository.select(
-                            "(select * from " + chatRoomRepository.getName() + " where oId >= ? order by oId asc limit ?) order by oId desc",
+                            "(select oId, content from " + chatRoomRepository.getName() + " where oId >= ? order by oId asc limit ?) order by oId desc",
                             oId, (size + 1)
                     );
                     break;
                 default:
                     return new ArrayList<>();
             }
-            msgs = msgs.stream().map(msg -> new JSONObject(msg.optString("content")).put("oId", msg.optString(Keys.OBJECT_ID))).collect(Collectors.toList());
-            msgs = msgs.stream().map(msg -> JSONs.clone(msg).put(Common.TIME, new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(msg.optLong(Common.TIME)))).collect(Collectors.toList());
-            if (!"md".equals(type)) {
-                msgs = msgs.stream().map(msg -> JSONs.clone(msg.put("content", processMarkdown(msg.optString("content"))))).collect(Collectors.toList());
-            }
-            return msgs;
+            return toMessages(msgs, type, false);
         } catch (RepositoryException e) {
             return new LinkedList<>();
         }
     }
 
+    /**
+     * 将聊天室记录转换为消息
+     *
+     * @param records    记录（oId 和 content）
+     * @param type       html 或 md
+     * @param fillAvatar 是否填充头像地址
+     * @return 消息列表
+     */
+    private static List<JSONObject> toMessages(final List<JSONObject> records, final String type, final boolean fillAvatar) {
+        List<JSONObject> msgs = new ArrayList<>(records.size());
+        for (final JSONObject record : records) {
+            final JSONObject msg = new JSONObject(record.optString("content"));
+            msg.put("oId", record.optString(Keys.OBJECT_ID));
+            msg.put(Common.TIME, TIME_FORMATTER.format(Instant.ofEpochMilli(msg.optLong(Common.TIME))));
+            msgs.add(msg);
+        }
+        if (!"md".equals(type)) {
+            msgs = processMarkdowns(msgs);
+        }
+        if (fillAvatar) {
+            final AvatarQueryService avatarQueryService = BeanManager.getInstance().getReference(AvatarQueryService.class);
+            for (JSONObject msg : msgs) {
+                avatarQueryService.fillUserAvatarURL(msg);
+            }
+        }
+        return msgs;
+    }
+
     public static String processMarkdown(String content) {
+        if (isSpecialMessage(content)) {
+            return content;
+        }
+
+        return postprocessHTML(Markdowns.toHTML(preprocessMarkdown(content)));
+    }
+
+    /**
+     * 渲染已入库的消息内容，渲染结果按 oId 缓存
+     *
+     * @param oId     消息 oId
+     * @param content 消息内容
+     * @return 渲染后的内容
+     */
+    public static String processMarkdown(final String oId, final String content) {
+        if (StringUtils.isBlank(oId) || isSpecialMessage(content)) {
+            return processMarkdown(content);
+        }
+
+        String ret = CHAT_HTML_CACHE.get(oId);
+        if (null == ret) {
+            ret = processMarkdown(content);
+            CHAT_HTML_CACHE.put(oId, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * 移除消息的渲染缓存，撤回时调用
+     *
+     * @param oId 消息 oId
+     */
+    public static void evictRenderedMessage(final String oId) {
+        CHAT_HTML_CACHE.remove(oId);
+    }
+
+    /**
+     * 批量渲染已入库的消息内容，未命中 oId 缓存的消息一次性交给 Lute 渲染
+     *
+     * @param msgs 消息列表
+     * @return 渲染后的消息列表（副本）
+     */
+    public static List<JSONObject> processMarkdowns(final List<JSONObject> msgs) {
+        final List<JSONObject> ret = new ArrayList<>(msgs.size());
+        final List<Integer> indexes = new ArrayList<>();
+        final List<String> oIds = new ArrayList<>();
+        final List<String> markdowns = new ArrayList<>();
+        for (int i = 0; i < msgs.size(); i++) {
+            final JSONObject msg = JSONs.clone(msgs.get(i));
+            ret.add(msg);
+            final String oId = msg.optString("oId");
+            final String content = msg.optString("content");
+            if (isSpecialMessage(content)) {
+                continue;
+            }
+            final String cached = CHAT_HTML_CACHE.get(oId);
+            if (null != cached) {
+                msg.put("content", cached);
+                continue;
+            }
+            indexes.add(i);
+            oIds.add(oId);
+            markdowns.add(preprocessMarkdown(content));
+        }
+        final List<String> htmls = Markdowns.toHTML(markdowns);
+        for (int i = 0; i < indexes.size(); i++) {
+            final String html = postprocessHTML(htmls.get(i));
+            if (StringUtils.isNotBlank(oIds.get(i))) {
+                CHAT_HTML_CACHE.put(oIds.get(i), html);
+            }
+            ret.get(indexes.get(i)).put("content", html);
+        }
+        return ret;
+    }
+
+    private static boolean isSpecialMessage(final String content) {
         try {
             JSONObject checkContent = new JSONObject(content);
             if (checkContent.optString("msgType").equals("redPacket") || checkContent.optString("msgType").equals("weather") || checkContent.optString("msgType").equals("music")) {
-                return content;
+                return true;
             }
         } catch (Exception ignored) {
         }
+        return false;
+    }
 
+    private static String preprocessMarkdown(String content) {
         final BeanManager beanManager = BeanManager.getInstance();
         final ShortLinkQueryService shortLinkQueryService = beanManager.getReference(ShortLinkQueryService.class);
         content = shortLinkQueryService.linkArticle(content);
         content = Emotions.toAliases(content);
         content = Emotions.convert(content);
-        content = Markdowns.toHTML(content);
+        return content;
+    }
+
+    private static String postprocessHTML(String content) {
         content = Markdowns.cleanChat(content, "");
         content = MediaPlayers.renderAudio(content);
         content = MediaPlayers.renderVideo(content);
@@ -2283,6 +2468,130 @@ public class ChatroomProcessor {
         return content;
     }
 
+    /**
+     * 从库中加载红包到 {@link RedPacketEngine}，仅支持普通、专属、拼手气和心跳红包
+     *
+     * @param oId 红包消息 oId
+     * @return 红包，猜拳、摇骰子等红包以及无法恢复的红包返回 {@code null}
+     */
+    private RedPacketEngine.Packet loadRedPacket(final String oId) {
+        try {
+            final JSONObject msg = chatRoomService.getChatMsg(oId);
+            if (null == msg) {
+                return null;
+            }
+            final JSONObject redPacket = new JSONObject(new JSONObject(msg.optString("content")).optString("content"));
+            final String type = redPacket.optString("type");
+            if (!"redPacket".equals(redPacket.optString("msgType")) || !Arrays.asList("average", "specify", "random", "heartbeat").contains(type)) {
+                return null;
+            }
+
+            final JSONArray who = null == redPacket.optJSONArray("who") ? new JSONArray() : redPacket.optJSONArray("who");
+            final int remain = Math.max(0, redPacket.optInt("count") - who.length());
+            final List<Integer> shares = new ArrayList<>();
+            if (0 < remain) {
+                switch (type) {
+                    case "random":
+                        // 服务器重启导致预分配丢失，剩余金额重新分配
+                        int money = redPacket.optInt("money");
+                        int zeroCount = 2;
+                        for (int i = 0; i < who.length(); i++) {
+                            final int userMoney = who.optJSONObject(i).optInt("userMoney");
+                            money -= userMoney;
+                            if (0 == userMoney) {
+                                zeroCount--;
+                            }
+                        }
+                        shares.addAll(allocateRedPacket(oId, redPacket.optString("senderId"), Math.max(0, money), remain, Math.max(0, zeroCount)).packs);
+                        break;
+                    case "heartbeat":
+                        // 心跳红包的预分配无法恢复
+                        return null;
+                    default:
+                        shares.addAll(Collections.nCopies(remain, redPacket.optInt("money")));
+                }
+            }
+            final JSONObject sender = userQueryService.getUser(redPacket.optString("senderId"));
+            return newRedPacket(oId, redPacket, sender, shares, who);
+        } catch (final Exception e) {
+            LOGGER.log(Level.ERROR, "Loads red packet [" + oId + "] failed", e);
+            return null;
+        }
+    }
+
+    private RedPacketEngine.Packet newRedPacket(final String oId, final JSONObject redPacket, final JSONObject sender,
+                                                final List<Integer> shares, final JSONArray who) {
+        final JSONObject info = new JSONObject();
+        info.put(UserExt.USER_AVATAR_URL, sender.optString(UserExt.USER_AVATAR_URL));
+        avatarQueryService.fillUserAvatarURL(info);
+        info.put(User.USER_NAME, sender.optString(User.USER_NAME));
+        info.put("count", redPacket.optInt("count"));
+        info.put("msg", redPacket.optString("msg"));
+        final String type = redPacket.optString("type");
+        List<String> recivers = null;
+        if ("specify".equals(type)) {
+            recivers = new ArrayList<>();
+            if (StringUtils.isNotBlank(redPacket.optString("recivers"))) {
+                for (final Object reciver : new JSONArray(redPacket.optString("recivers"))) {
+                    recivers.add((String) reciver);
+                }
+            }
+        }
+        return new RedPacketEngine.Packet(oId, type, redPacket.optInt("count"), redPacket.optInt("money"), sender.optString(Keys.OBJECT_ID),
+                sender.optString(User.USER_NAME), info, recivers, shares, who);
+    }
+
+    /**
+     * 持久化一批红包领取记录，每个红包只写一次库，写入内存中的完整领取记录，然后逐条发放积分
+     * <p>
+     * 各红包独立处理：红包写库失败时其领取记录都不发放积分，积分发放失败的领取记录单独返回，重试时红包以完整记录重写，只补发失败的积分
+     * </p>
+     *
+     * @param claims 领取记录，按领取顺序
+     * @return 持久化失败、需要重试的领取记录
+     */
+    private List<RedPacketEngine.Claim> persistRedPacketClaims(final List<RedPacketEngine.Claim> claims) {
+        final List<RedPacketEngine.Claim> ret = new ArrayList<>();
+        final Map<RedPacketEngine.Packet, List<RedPacketEngine.Claim>> packetClaims = new LinkedHashMap<>();
+        for (final RedPacketEngine.Claim claim : claims) {
+            packetClaims.computeIfAbsent(claim.packet, packet -> new ArrayList<>()).add(claim);
+        }
+
+        for (final Map.Entry<RedPacketEngine.Packet, List<RedPacketEngine.Claim>> entry : packetClaims.entrySet()) {
+            final RedPacketEngine.Packet packet = entry.getKey();
+            final Transaction transaction = chatRoomRepository.beginTransaction();
+            try {
+                final JSONObject source = new JSONObject(chatRoomService.getChatMsg(packet.oId).optString("content"));
+                final JSONObject source2 = new JSONObject(source.optString("content"));
+                final JSONArray who = packet.getWho();
+                source2.put("got", who.length());
+                source2.put("who", who);
+                source.put("content", source2.toString());
+                chatRoomRepository.update(packet.oId, new JSONObject().put("content", source.toString()));
+                transaction.commit();
+            } catch (final Exception e) {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                LOGGER.log(Level.ERROR, "Updates red packet [" + packet.oId + "] failed", e);
+                ret.addAll(entry.getValue());
+                continue;
+            }
+
+            // 把钱转给用户
+            for (final RedPacketEngine.Claim claim : entry.getValue()) {
+                final boolean succ = null != pointtransferMgmtService.transfer(Pointtransfer.ID_C_SYS, claim.userId,
+                        Pointtransfer.TRANSFER_TYPE_C_ACTIVITY_RECEIVE_RED_PACKET,
+                        claim.amount, "", System.currentTimeMillis(), "");
+                if (!succ) {
+                    LOGGER.log(Level.ERROR, "Transfers red packet [" + packet.oId + "] point [" + claim.amount + "] to user [" + claim.userId + "] failed");
+                    ret.add(claim);
+                }
+            }
+        }
+        return ret;
+    }
+
     private boolean redPacketIsOpened(JSONArray who, String userId) {
         for (Object o : who) {
             JSONObject currentWho = (JSONObject) o;
@@ -2594,5 +2903,16 @@ public class ChatroomProcessor {
         }
     }
 
-    public static final Map<String, RedPacket> RED_PACKET_BUCKET = new HashMap<>(32);
+    public static final Map<String, RedPacket> RED_PACKET_BUCKET = new ConcurrentHashMap<>(32);
+
+    /**
+     * 不由 {@link RedPacketEngine} 处理的红包按 oId 分段加锁，不同红包基本不会互相等待.
+     */
+    private static final Object[] RED_PACKET_LOCKS = new Object[64];
+
+    static {
+        for (int i = 0; i < RED_PACKET_LOCKS.length; i++) {
+            RED_PACKET_LOCKS[i] = new Object();
+        }
+    }
 }
@@ -18,7 +18,6 @@
  */
 package org.b3log.symphony.processor;
 
-import com.idrsolutions.image.png.PngCompressor;
 import com.qiniu.cdn.CdnManager;
 import com.qiniu.cdn.CdnResult;
 import com.qiniu.storage.BucketManager;
@@ -31,7 +30,6 @@ import jodd.http.HttpRequest;
 import jodd.http.HttpResponse;
 import jodd.io.FileUtil;
 import jodd.net.MimeTypes;
-import net.coobird.thumbnailator.Thumbnails;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
@@ -71,8 +69,6 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -83,7 +79,7 @@ import static org.b3log.symphony.util.Symphonys.QN_ENABLED;
  *
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
  * @author <a href="http://vanessa.b3log.org">Liyuan Li</a>
- * @version 3.0.0.0, Feb 11, 2020
+ * @version 3.1.0.1, Oct 18, 2026
  * @since 1.4.0
  */
 @Singleton
@@ -103,6 +99,11 @@ public class FileUploadProcessor {
     @Inject
     private UploadRepository uploadRepository;
 
+    /**
+     * 文件名中保留的字符.
+     */
+    private static final Pattern FILE_NAME_CHAR = Pattern.compile("[a-zA-Z0-9\\u4e00-\\u9fa5]");
+
     /**
      * Register request handlers.
      */
@@ -177,7 +178,7 @@ public class FileUploadProcessor {
      * @param context the specified context
      */
     final private static SimpleCurrentLimiter uploadLimiter = new SimpleCurrentLimiter(60 * 60 * 24, 200);
-    public synchronized void uploadFile(final RequestContext context) {
+    public void uploadFile(final RequestContext context) {
         final JSONObject result = Results.newFail();
         context.renderJSONPretty(result);
 
@@ -235,196 +236,87 @@ public class FileUploadProcessor {
             return;
         }
 
-        final List<byte[]> fileBytes = new ArrayList<>();
-        final String[] staticPictureSuffixArray = {"jpg", "jpeg", "png"};
-        final String[] animatePictureSuffixArray = {"gif"};
-        final String[] audioSuffixArray = {"mp3"};
-        final String[] videoSuffixArray = {"mp4"};
+        JSONObject user = Sessions.getUser();
+        try {
+            user = ApiProcessor.getUserByKey(context.param("apiKey"));
+        } catch (NullPointerException ignored) {
+        }
+        final String userName = user.optString(User.USER_NAME);
+
+        final List<UploadPipeline.Upload> uploads = new ArrayList<>(files.size());
         for (final FileUpload file : files) {
-            byte[] bytes = file.getData();
-            int before = bytes.length;
+            final String originalName = Escapes.sanitizeFilename(file.getFilename());
             suffix = Headers.getSuffix(file);
-            if (Strings.contains(suffix, staticPictureSuffixArray)) {
-                // 静态图片处理
-                long start = System.currentTimeMillis();
-                try {
-                    if (suffix.equals("png")) {
-                        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                        PngCompressor.compress(new ByteArrayInputStream(bytes), byteArrayOutputStream);
-                        bytes = byteArrayOutputStream.toByteArray();
-                    } else {
-                        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                        Thumbnails.of(new ByteArrayInputStream(bytes))
-                                .scale(1f)
-                                .outputQuality(0.35f)
-                                .toOutputStream(byteArrayOutputStream);
-                        bytes = byteArrayOutputStream.toByteArray();
-                    }
-                    LOGGER.log(Level.INFO, "Compressed " + file.getFilename() + " as a static picture, before: " + before / 1024 + "KB, after: " + bytes.length / 1024 + "KB, time: " + (System.currentTimeMillis() - start) + "ms");
-                } catch (Exception e) {
-                    LOGGER.log(Level.ERROR, "Unable to compress " + file.getFilename() + " as a static picture", e);
-                }
-            }
+            uploads.add(new UploadPipeline.Upload(originalName, genFileKey(originalName, suffix), suffix, file.getContentType(), file.getData()));
+        }
 
-            if (Strings.contains(suffix, animatePictureSuffixArray)) {
-                // 动态图片处理
-                try {
-                    //bytes = GifUtils.gifScale(bytes, 0.7, 0.7);
-                    LOGGER.log(Level.INFO, "Compressed " + file.getFilename() + " as an animate picture, before: " + before / 1024 + "KB, after: " + bytes.length / 1024 + "KB");
-                } catch (Exception e) {
-                    LOGGER.log(Level.ERROR, "Unable to compress " + file.getFilename() + " as an animate picture", e);
+        final UploadPipeline.Store store;
+        if (QN_ENABLED) {
+            final UploadManager qiniu = uploadManager;
+            final String token = uploadToken;
+            store = new UploadPipeline.Store() {
+                @Override
+                public String put(final String key, final byte[] bytes, final String contentType) throws Exception {
+                    final com.qiniu.http.Response response = qiniu.put(bytes, key, token, null, contentType, false);
+                    // 解析上传成功的结果
+                    final JSONObject putRet = new JSONObject(response.bodyString());
+                    return Symphonys.UPLOAD_QINIU_DOMAIN + "/" + putRet.optString("key");
                 }
-            }
-
-            if (Strings.contains(suffix, audioSuffixArray)) {
-                // 音频处理
-                // LOGGER.log(Level.INFO, "Compressed " + file.getFilename() + " as an audio, before: " + before / 1024 + "KB, after: " + bytes.length / 1024 + "KB");
-            }
 
-            if (Strings.contains(suffix, videoSuffixArray)) {
-                // 视频处理
-                // LOGGER.log(Level.INFO, "Compressed " + file.getFilename() + " as a video, before: " + before / 1024 + "KB, after: " + bytes.length / 1024 + "KB");
-            }
-            fileBytes.add(bytes);
-        }
-
-        final CountDownLatch countDownLatch = new CountDownLatch(files.size());
-        for (int i = 0; i < files.size(); i++) {
-            // 检查该文件是否已经上传过
-            String md5 = MD5Calculator.calculateMd5(fileBytes.get(i));
-            final Query query = new Query().setFilter(new PropertyFilter("md5", FilterOperator.EQUAL, md5));
-            try {
-                final List<JSONObject> md5s = uploadRepository.getList(query);
-                if (!md5s.isEmpty()) {
-                    JSONObject md5in1 = md5s.get(0);
-                    String url = md5in1.optString("path");
-                    String[] filename = url.split("/");
-                    String originalName = url.split("/")[filename.length - 1];
-                    succMap.put(originalName, url);
-                    countDownLatch.countDown();
-                    LOGGER.log(Level.INFO, "Same MD5 " + originalName + " gives: " + url);
-                    continue;
+                @Override
+                public void delete(final String key) throws Exception {
+                    // 超时后才上传完成的文件，从七牛删除
+                    final Auth deleteAuth = Auth.create(Symphonys.UPLOAD_QINIU_AK, Symphonys.UPLOAD_QINIU_SK);
+                    new BucketManager(deleteAuth, new Configuration(Region.autoRegion())).delete(Symphonys.UPLOAD_QINIU_BUCKET, key);
                 }
-            } catch (RepositoryException ignored) {
-            }
-            JSONObject user = Sessions.getUser();
-            try {
-                user = ApiProcessor.getUserByKey(context.param("apiKey"));
-            } catch (NullPointerException ignored) {
-            }
-            final String userName = user.optString(User.USER_NAME);
-            // 没有重复文件，正常上传
-            final FileUpload file = files.get(i);
-            final String originalName = fileName = Escapes.sanitizeFilename(file.getFilename());
+            };
+        } else {
+            store = new UploadPipeline.LocalStore(Symphonys.UPLOAD_LOCAL_DIR, Latkes.getServePath() + "/upload/");
+        }
+        new UploadPipeline(store, this::getUploadedPaths).run(uploads, upload -> {
             // 检查上传次数
             if (!uploadLimiter.access(userName)) {
-                errFiles.add(originalName);
-                countDownLatch.countDown();
-                LOGGER.log(Level.INFO, "Out of upload limit " + originalName + " userName: " + userName);
-                continue;
+                LOGGER.log(Level.INFO, "Out of upload limit " + upload.getName() + " userName: " + userName);
+                return false;
             }
-            try {
-                String url;
-                byte[] bytes;
-                suffix = Headers.getSuffix(file);
-                String name = StringUtils.substringBeforeLast(fileName, ".");
-                final String uuid = StringUtils.substring(UUID.randomUUID().toString().replaceAll("-", ""), 0, 8);
-                String regex = "[a-zA-Z0-9\\u4e00-\\u9fa5]";
-                Matcher matcher = Pattern.compile(regex).matcher(name);
-                StringBuilder stringBuilder = new StringBuilder();
-                while (matcher.find()) {
-                    stringBuilder.append(matcher.group());
+            return true;
+        }, upload -> censor(context, userName, upload));
+
+        final List<UploadPipeline.Upload> stored = new ArrayList<>();
+        for (final UploadPipeline.Upload upload : uploads) {
+            switch (upload.getStatus()) {
+                case STORED -> {
+                    succMap.put(upload.getName(), upload.getUrl());
+                    stored.add(upload);
                 }
-                name = stringBuilder.toString();
-                fileName = name + '-' + uuid + "." + suffix;
-                fileName = genFilePath(fileName);
-                if (QN_ENABLED) {
-                    bytes = fileBytes.get(i);
-                    final String contentType = file.getContentType();
-                    com.qiniu.http.Response response = uploadManager.put(bytes, fileName, uploadToken, null, contentType, false);
-                    // 解析上传成功的结果
-                    JSONObject putRet = new JSONObject(response.bodyString());
-                    countDownLatch.countDown();
-                    url = Symphonys.UPLOAD_QINIU_DOMAIN + "/" + putRet.optString("key");
-
-                    // AI 图片审核（如果启用且是图片文件）
-                    if (!CensorFactory.isImageCallbackMode() && isImageFile(suffix)) {
-                        CensorResult censorResult = CensorFactory.getImageCensor().censor(url);
-                        if (censorResult != null && censorResult.isBlocked()) {
-                            // 违规图片，从七牛删除并刷新 CDN
-                            LOGGER.log(Level.INFO, "[AI图片审核] 图片被拦截: " + url + ", 原因: " + censorResult.getType());
-                            try {
-                                Auth deleteAuth = Auth.create(Symphonys.UPLOAD_QINIU_AK, Symphonys.UPLOAD_QINIU_SK);
-                                BucketManager bucketManager = new BucketManager(deleteAuth, new Configuration(Region.autoRegion()));
-                                bucketManager.delete(Symphonys.UPLOAD_QINIU_BUCKET, fileName);
-                                // 刷新 CDN 缓存
-                                CdnManager cdnManager = new CdnManager(deleteAuth);
-                                cdnManager.refreshUrls(new String[]{url});
-                                LOGGER.log(Level.INFO, "[AI图片审核] 已从七牛删除: " + fileName);
-                            } catch (Exception deleteEx) {
-                                LOGGER.log(Level.WARN, "[AI图片审核] 删除失败: " + fileName, deleteEx);
-                            }
-                            // 发送警告通知（不扣积分）
-                            ChatChannel.sendAdminMsg(userName, "【AI审查】您上传的图片可能违规，已被拦截删除。\n如有疑问请在此处回复我。\n原因：" + censorResult.getType());
-                            LogsService.censorLog(context, userName, "用户：" + userName + " 上传违规图片被AI拦截，原因：" + censorResult.getType());
-                            errFiles.add(originalName);
-                            continue;
-                        }
-                    }
-
+                case DUPLICATED -> {
+                    final String url = upload.getUrl();
+                    final String originalName = StringUtils.substringAfterLast(url, "/");
                     succMap.put(originalName, url);
-                } else {
-                    bytes = fileBytes.get(i);
-                    final Path path = Paths.get(Symphonys.UPLOAD_LOCAL_DIR, fileName);
-                    path.getParent().toFile().mkdirs();
-                    try (final OutputStream output = new FileOutputStream(path.toFile())) {
-                        IOUtils.write(bytes, output);
-                        countDownLatch.countDown();
-                    }
-                    url = Latkes.getServePath() + "/upload/" + fileName;
-
-                    // AI 图片审核（如果启用且是图片文件）
-                    if (!CensorFactory.isImageCallbackMode() && isImageFile(suffix)) {
-                        CensorResult censorResult = CensorFactory.getImageCensor().censor(url);
-                        if (censorResult != null && censorResult.isBlocked()) {
-                            // 违规图片，删除本地文件并记录
-                            LOGGER.log(Level.INFO, "[AI图片审核] 图片被拦截: " + url + ", 原因: " + censorResult.getType());
-                            try {
-                                path.toFile().delete();
-                                LOGGER.log(Level.INFO, "[AI图片审核] 已删除本地文件: " + path);
-                            } catch (Exception deleteEx) {
-                                LOGGER.log(Level.WARN, "[AI图片审核] 删除失败: " + path, deleteEx);
-                            }
-                            // 发送警告通知（不扣积分）
-                            ChatChannel.sendAdminMsg(userName, "【AI审查】您上传的图片可能违规，已被拦截删除。\n如有疑问请在此处回复我。\n原因：" + censorResult.getType());
-                            LogsService.censorLog(context, userName, "用户：" + userName + " 上传违规图片被AI拦截，原因：" + censorResult.getType());
-                            errFiles.add(originalName);
-                            continue;
-                        }
-                    }
+                    LOGGER.log(Level.INFO, "Same MD5 " + originalName + " gives: " + url);
+                }
+                default -> errFiles.add(upload.getName());
+            }
+        }
 
-                    succMap.put(originalName, url);
+        if (!stored.isEmpty()) {
+            // 记录到Upload表
+            final String ip = Requests.getRemoteAddr(request);
+            final String time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+            final Transaction transaction = uploadRepository.beginTransaction();
+            try {
+                for (final UploadPipeline.Upload upload : stored) {
+                    uploadRepository.add(upload.getSuffix(), userName, ip, time, upload.getUrl(), upload.getMd5(), true);
                 }
-                // 记录到Upload表
-                String ip = Requests.getRemoteAddr(request);
-                String time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
-                // 写入数据库
-                final Transaction transaction = uploadRepository.beginTransaction();
-                uploadRepository.add(suffix, userName, ip, time, url, md5, true);
                 transaction.commit();
             } catch (final Exception e) {
-                LOGGER.log(Level.ERROR, "Uploads file failed", e);
-
-                errFiles.add(originalName);
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                LOGGER.log(Level.ERROR, "Records uploads failed", e);
             }
         }
 
-        try {
-            countDownLatch.await(1, TimeUnit.MINUTES);
-        } catch (final Exception e) {
-            LOGGER.log(Level.ERROR, "Count down latch failed", e);
-        }
-
         data.put("errFiles", errFiles);
         data.put("succMap", succMap);
         result.put(Common.DATA, data);
@@ -525,6 +417,92 @@ public class FileUploadProcessor {
         return date + "/" + fileName;
     }
 
+    /**
+     * Looks up uploaded files by the specified MD5s in one query.
+     *
+     * @param md5s the specified MD5s
+     * @return &lt;md5, path&gt;
+     * @throws RepositoryException repository exception
+     */
+    private Map<String, String> getUploadedPaths(final Collection<String> md5s) throws RepositoryException {
+        final Query query = new Query().setFilter(new PropertyFilter("md5", FilterOperator.IN, md5s)).
+                select("md5", "path");
+        final Map<String, String> ret = new HashMap<>();
+        for (final JSONObject record : uploadRepository.getList(query)) {
+            ret.putIfAbsent(record.optString("md5"), record.optString("path"));
+        }
+        return ret;
+    }
+
+    /**
+     * Censors the specified stored upload, a blocked picture is deleted and the user is warned.
+     *
+     * @param context  the specified context
+     * @param userName the specified uploader
+     * @param upload   the specified upload
+     * @return {@code true} if passed, returns {@code false} if blocked
+     */
+    private static boolean censor(final RequestContext context, final String userName, final UploadPipeline.Upload upload) {
+        // AI 图片审核（如果启用且是图片文件）
+        if (CensorFactory.isImageCallbackMode() || !isImageFile(upload.getSuffix())) {
+            return true;
+        }
+        final String url = upload.getUrl();
+        final CensorResult censorResult = CensorFactory.getImageCensor().censor(url);
+        if (null == censorResult || !censorResult.isBlocked()) {
+            return true;
+        }
+
+        LOGGER.log(Level.INFO, "[AI图片审核] 图片被拦截: " + url + ", 原因: " + censorResult.getType());
+        final String fileName = upload.getKey();
+        if (QN_ENABLED) {
+            // 违规图片，从七牛删除并刷新 CDN
+            try {
+                Auth deleteAuth = Auth.create(Symphonys.UPLOAD_QINIU_AK, Symphonys.UPLOAD_QINIU_SK);
+                BucketManager bucketManager = new BucketManager(deleteAuth, new Configuration(Region.autoRegion()));
+                bucketManager.delete(Symphonys.UPLOAD_QINIU_BUCKET, fileName);
+                // 刷新 CDN 缓存
+                CdnManager cdnManager = new CdnManager(deleteAuth);
+                cdnManager.refreshUrls(new String[]{url});
+                LOGGER.log(Level.INFO, "[AI图片审核] 已从七牛删除: " + fileName);
+            } catch (Exception deleteEx) {
+                LOGGER.log(Level.WARN, "[AI图片审核] 删除失败: " + fileName, deleteEx);
+            }
+        } else {
+            // 违规图片，删除本地文件并记录
+            final Path path = Paths.get(Symphonys.UPLOAD_LOCAL_DIR, fileName);
+            try {
+                path.toFile().delete();
+                LOGGER.log(Level.INFO, "[AI图片审核] 已删除本地文件: " + path);
+            } catch (Exception deleteEx) {
+                LOGGER.log(Level.WARN, "[AI图片审核] 删除失败: " + path, deleteEx);
+            }
+        }
+        // 发送警告通知（不扣积分）
+        ChatChannel.sendAdminMsg(userName, "【AI审查】您上传的图片可能违规，已被拦截删除。\n如有疑问请在此处回复我。\n原因：" + censorResult.getType());
+        LogsService.censorLog(context, userName, "用户：" + userName + " 上传违规图片被AI拦截，原因：" + censorResult.getType());
+        return false;
+    }
+
+    /**
+     * Generates a store key for the specified original file name.
+     *
+     * @param originalName the specified original file name
+     * @param suffix       the specified suffix
+     * @return "yyyy/MM/name-uuid.suffix"
+     */
+    private static String genFileKey(final String originalName, final String suffix) {
+        String name = StringUtils.substringBeforeLast(originalName, ".");
+        final String uuid = StringUtils.substring(UUID.randomUUID().toString().replaceAll("-", ""), 0, 8);
+        final Matcher matcher = FILE_NAME_CHAR.matcher(name);
+        final StringBuilder stringBuilder = new StringBuilder();
+        while (matcher.find()) {
+            stringBuilder.append(matcher.group());
+        }
+        name = stringBuilder.toString();
+        return genFilePath(name + '-' + uuid + "." + suffix);
+    }
+
     /**
      * 判断文件后缀是否为图片类型
      *
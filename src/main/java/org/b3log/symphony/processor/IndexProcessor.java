@@ -37,6 +37,7 @@ import org.b3log.latke.ioc.Inject;
 import org.b3log.latke.ioc.Singleton;
 import org.b3log.latke.model.Pagination;
 import org.b3log.latke.model.User;
+import org.b3log.latke.repository.jdbc.JdbcRepository;
 import org.b3log.latke.service.LangPropsService;
 import org.b3log.latke.util.CollectionUtils;
 import org.b3log.latke.util.Locales;
@@ -62,6 +63,11 @@ import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -440,61 +446,173 @@ public class IndexProcessor {
         dataModel.put(Common.CURRENT, StringUtils.substringAfter(context.requestURI(), "/watch"));
     }
 
-    private static final Map<String, Object> indexModelCache = Collections.synchronizedMap(new HashMap<>());
-
-    public synchronized void loadIndexData() {
-        Map<String, Object> dataModel = new HashMap<>();
+    /**
+     * 排行、用户类区块刷新间隔.
+     */
+    private static final long RANK_TTL = 5 * 60 * 1000;
 
-        // 签到排行
-        final List<JSONObject> users = activityQueryService.getTopCheckinUsers(10);
-        dataModel.put(Common.TOP_CHECKIN_USERS, users);
+    /**
+     * 文章类区块刷新间隔.
+     */
+    private static final long ARTICLE_TTL = 60 * 1000;
 
-        // 在线时间排行
-        final List<JSONObject> onlineTopUsers = activityQueryService.getTopOnlineTimeUsers(9);
-        dataModel.put("onlineTopUsers", onlineTopUsers);
+    /**
+     * 最近文章区块刷新间隔.
+     */
+    private static final long RECENT_TTL = 30 * 1000;
 
-        // 热议
-        final List<JSONObject> hotArticles = articleQueryService.getHotArticles(11);
-        dataModel.put(Common.HOT, hotArticles);
+    /**
+     * 聊天室消息区块刷新间隔，与定时任务周期一致.
+     */
+    private static final long MESSAGE_TTL = 15 * 1000;
 
-        // 问题文章
-        final JSONObject result = articleQueryService.getQuestionArticles(0, 1, 12);
-        final List<JSONObject> qaArticles = (List<JSONObject>) result.get(Article.ARTICLES);
-        dataModel.put(Common.QNA,qaArticles);
+    /**
+     * Index model snapshot, published atomically and never modified after publication.
+     */
+    private static volatile IndexSnapshot indexSnapshot = new IndexSnapshot(Collections.emptyMap());
 
-        // 最近文章
-        final List<JSONObject> recentArticles = articleQueryService.getIndexRecentArticles(18, 1);
-        dataModel.put(Common.RECENT_ARTICLES, recentArticles);
+    /**
+     * Serializes refreshes, readers never take it once the first snapshot exists.
+     */
+    private static final ReentrantLock INDEX_REFRESH_LOCK = new ReentrantLock();
 
-        // 最近文章第二列
-        final List<JSONObject> recentArticles2 = articleQueryService.getIndexRecentArticles(18, 2);
-        dataModel.put("recentArticles2", recentArticles2);
+    /**
+     * Index sections.
+     */
+    private final List<IndexSection> indexSections = Arrays.asList(
+            new IndexSection("checkinRank", RANK_TTL, model -> {
+                // 签到排行
+                model.put(Common.TOP_CHECKIN_USERS, activityQueryService.getTopCheckinUsers(10));
+            }),
+            new IndexSection("onlineRank", RANK_TTL, model -> {
+                // 在线时间排行
+                model.put("onlineTopUsers", activityQueryService.getTopOnlineTimeUsers(9));
+            }),
+            new IndexSection("hot", ARTICLE_TTL, model -> {
+                // 热议
+                model.put(Common.HOT, articleQueryService.getHotArticles(11));
+            }),
+            new IndexSection("qna", ARTICLE_TTL, model -> {
+                // 问题文章
+                final JSONObject result = articleQueryService.getQuestionArticles(0, 1, 12);
+                model.put(Common.QNA, result.opt(Article.ARTICLES));
+            }),
+            new IndexSection("recent", RECENT_TTL, model -> {
+                // 最近文章、第二列及移动端
+                model.put(Common.RECENT_ARTICLES, articleQueryService.getIndexRecentArticles(18, 1));
+                model.put("recentArticles2", articleQueryService.getIndexRecentArticles(18, 2));
+                model.put("recentArticlesMobile", articleQueryService.getIndexRecentArticles(15, 1));
+            }),
+            new IndexSection("long", RANK_TTL, model -> {
+                // 长篇文章专区
+                model.put("longArticles", articleQueryService.getIndexLongArticles(10));
+            }),
+            new IndexSection("niceUsers", RANK_TTL, model -> {
+                // 活跃用户
+                model.put(Common.NICE_USERS, userQueryService.getNiceUsers(10));
+            }),
+            new IndexSection("perfect", ARTICLE_TTL, model -> {
+                // 优选文章
+                model.put(Common.PERFECT_ARTICLES, articleQueryService.getIndexPerfectArticles());
+            }),
+            new IndexSection("messages", MESSAGE_TTL, model -> {
+                // 聊天室信息
+                model.put(Common.MESSAGES, loadIndexMessages());
+            }),
+            new IndexSection("recentRegUsers", RANK_TTL, model -> {
+                // 最近注册的新人
+                model.put("recentRegUsers", userQueryService.getRecentRegisteredUsers(20));
+            }),
+            new IndexSection("tags", RANK_TTL, model -> {
+                // 主页标签
+                dataModelService.fillIndexTags(model);
+            }),
+            new IndexSection("misc", ARTICLE_TTL, this::loadIndexMisc)
+    );
 
-        // 长篇文章专区
-        final List<JSONObject> longArticles = articleQueryService.getIndexLongArticles(10);
-        dataModel.put("longArticles", longArticles);
+    /**
+     * Refreshes the index sections which are due, in parallel, and publishes a new snapshot.
+     */
+    public void loadIndexData() {
+        INDEX_REFRESH_LOCK.lock();
+        try {
+            final IndexSnapshot current = indexSnapshot;
+            final long now = System.currentTimeMillis();
+            final List<IndexSection> due = new ArrayList<>();
+            for (final IndexSection section : indexSections) {
+                final SectionData data = current.sections.get(section.name);
+                // 留 1 秒余量，避免与定时任务周期相同的区块被隔轮刷新
+                if (null == data || now - data.loadedAt >= section.ttl - 1000) {
+                    due.add(section);
+                }
+            }
+            if (due.isEmpty()) {
+                return;
+            }
 
-        // 最近文章（移动端）
-        final List<JSONObject> recentArticlesMobile = articleQueryService.getIndexRecentArticles(15, 1);
-        dataModel.put("recentArticlesMobile", recentArticlesMobile);
+            final Map<String, SectionData> sections = new HashMap<>(current.sections);
+            try (final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                final Map<IndexSection, Future<SectionData>> futures = new LinkedHashMap<>();
+                for (final IndexSection section : due) {
+                    futures.put(section, executor.submit(section::load));
+                }
+                for (final Map.Entry<IndexSection, Future<SectionData>> entry : futures.entrySet()) {
+                    try {
+                        sections.put(entry.getKey().name, entry.getValue().get());
+                    } catch (final Exception e) {
+                        // 加载失败时沿用上一版本的数据
+                        LOGGER.log(Level.ERROR, "Refreshes index section [" + entry.getKey().name + "] failed", e);
+                    }
+                }
+            }
 
-        // 活跃用户
-        final List<JSONObject> niceUsers = userQueryService.getNiceUsers(10);
-        dataModel.put(Common.NICE_USERS, niceUsers);
+            indexSnapshot = new IndexSnapshot(sections);
+            LOGGER.log(Level.DEBUG, "Refreshed index sections " + due.stream().map(section -> section.name).collect(Collectors.toList()));
+        } finally {
+            INDEX_REFRESH_LOCK.unlock();
+        }
+    }
 
-        // 优选文章
-        final List<JSONObject> perfectArticles = articleQueryService.getIndexPerfectArticles();
-        dataModel.put(Common.PERFECT_ARTICLES, perfectArticles);
+    /**
+     * Fills the index model into the specified data model.
+     *
+     * @param dataModel the specified data model
+     */
+    public void makeIndexData(Map<String, Object> dataModel) {
+        IndexSnapshot snapshot = indexSnapshot;
+        if (snapshot.sections.isEmpty()) {
+            // 仅在首次加载前阻塞
+            loadIndexData();
+            snapshot = indexSnapshot;
+        }
 
-        // 摸鱼派版本
-        dataModel.put(Common.FISHING_PI_VERSION, Server.FISHING_PI_VERSION);
+        dataModel.putAll(snapshot.model);
+    }
 
-        // 假期信息
-        dataModel.put("vocationData", Vocation.vocationData);
+    /**
+     * Gets refresh statistics of index sections.
+     *
+     * @return statistics, for example,
+     * <pre>
+     * [{"name": "hot", "age": 12000, "durationMillis": 35}, ...]
+     * </pre>
+     */
+    public static JSONArray getIndexStats() {
+        final JSONArray ret = new JSONArray();
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<String, SectionData> entry : indexSnapshot.sections.entrySet()) {
+            final SectionData data = entry.getValue();
+            ret.put(new JSONObject()
+                    .put("name", entry.getKey())
+                    .put("age", now - data.loadedAt)
+                    .put("durationMillis", data.durationMillis));
+        }
+        return ret;
+    }
 
-        // 聊天室信息
-        List<JSONObject> messages = ChatroomProcessor.getMessages(1,"html");
-        for (JSONObject message : messages) {
+    private List<JSONObject> loadIndexMessages() {
+        final List<JSONObject> ret = ChatroomProcessor.getMessages(1, "html");
+        for (JSONObject message : ret) {
             String content = message.optString("content");
             Document doc = Jsoup.parse(content);
 
@@ -509,13 +627,15 @@ public class IndexProcessor {
             // 更新 message 中的 content 字段
             message.put("content", doc.html());
         }
-        dataModel.put(Common.MESSAGES, messages);
+        return ret;
+    }
 
-        // 最近注册的新人
-        dataModel.put("recentRegUsers", userQueryService.getRecentRegisteredUsers(20));
+    private void loadIndexMisc(final Map<String, Object> model) {
+        // 摸鱼派版本
+        model.put(Common.FISHING_PI_VERSION, Server.FISHING_PI_VERSION);
 
-        // 主页标签
-        dataModelService.fillIndexTags(dataModel);
+        // 假期信息
+        model.put("vocationData", Vocation.vocationData);
 
         // TGIF
         Calendar calendar = Calendar.getInstance();
@@ -526,27 +646,15 @@ public class IndexProcessor {
             String articleTitle = "摸鱼周报 " + date;
             JSONObject article = articleQueryService.getArticleByTitle(articleTitle);
             if (article == null) {
-                dataModel.put("TGIF", "0");
-                dataModel.put("yyyyMMdd", date);
+                model.put("TGIF", "0");
+                model.put("yyyyMMdd", date);
             } else {
-                dataModel.put("TGIF", Latkes.getServePath() + article.optString(Article.ARTICLE_PERMALINK));
+                model.put("TGIF", Latkes.getServePath() + article.optString(Article.ARTICLE_PERMALINK));
             }
         } else {
             // 不是周五
-            dataModel.put("TGIF", "-1");
+            model.put("TGIF", "-1");
         }
-
-        //indexModelCache.clear();
-        indexModelCache.putAll(dataModel);
-        LOGGER.log(Level.INFO, "Refreshed index model cache.");
-    }
-
-    public synchronized void makeIndexData(Map<String, Object> dataModel) {
-        if (indexModelCache.isEmpty()) {
-            loadIndexData();
-        }
-
-        dataModel.putAll(new HashMap<>(indexModelCache));
     }
 
     /**
@@ -554,7 +662,7 @@ public class IndexProcessor {
      *
      * @param context the specified context
      */
-    public synchronized void showIndex(final RequestContext context) {
+    public void showIndex(final RequestContext context) {
         final AbstractFreeMarkerRenderer renderer = new SkinRenderer(context, "index.ftl");
         final Map<String, Object> dataModel = renderer.getDataModel();
         final JSONObject currentUser = Sessions.getUser();
@@ -889,4 +997,72 @@ public class IndexProcessor {
             }
         }
     }
+
+    /**
+     * An independently refreshed part of the index model.
+     */
+    private static final class IndexSection {
+
+        private final String name;
+
+        private final long ttl;
+
+        private final Consumer<Map<String, Object>> loader;
+
+        private IndexSection(final String name, final long ttl, final Consumer<Map<String, Object>> loader) {
+            this.name = name;
+            this.ttl = ttl;
+            this.loader = loader;
+        }
+
+        private SectionData load() {
+            final long start = System.currentTimeMillis();
+            final Map<String, Object> model = new HashMap<>();
+            try {
+                loader.accept(model);
+            } finally {
+                // 在独立线程中加载，需释放该线程持有的数据库连接
+                JdbcRepository.dispose();
+            }
+            final long end = System.currentTimeMillis();
+            return new SectionData(Collections.unmodifiableMap(model), end, end - start);
+        }
+    }
+
+    /**
+     * Loaded model of one section.
+     */
+    private static final class SectionData {
+
+        private final Map<String, Object> model;
+
+        private final long loadedAt;
+
+        private final long durationMillis;
+
+        private SectionData(final Map<String, Object> model, final long loadedAt, final long durationMillis) {
+            this.model = model;
+            this.loadedAt = loadedAt;
+            this.durationMillis = durationMillis;
+        }
+    }
+
+    /**
+     * Immutable index model assembled from sections.
+     */
+    private static final class IndexSnapshot {
+
+        private final Map<String, SectionData> sections;
+
+        private final Map<String, Object> model;
+
+        private IndexSnapshot(final Map<String, SectionData> sections) {
+            this.sections = Collections.unmodifiableMap(sections);
+            final Map<String, Object> merged = new HashMap<>();
+            for (final SectionData data : sections.values()) {
+                merged.putAll(data.model);
+            }
+            this.model = Collections.unmodifiableMap(merged);
+        }
+    }
 }
@@ -19,6 +19,7 @@
 package org.b3log.symphony.processor;
 
 import org.apache.commons.lang.StringUtils;
+import org.b3log.latke.Keys;
 import org.b3log.latke.http.Request;
 import org.b3log.latke.http.RequestContext;
 import org.b3log.latke.http.renderer.AbstractFreeMarkerRenderer;
@@ -41,6 +42,7 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -51,7 +53,7 @@ import java.util.Map;
  * </ul>
  *
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
- * @version 2.0.0.0, Feb 11, 2020
+ * @version 2.1.0.0, Oct 18, 2026
  * @since 1.4.0
  */
 @Singleton
@@ -97,7 +99,7 @@ public class SearchProcessor {
 
         final AbstractFreeMarkerRenderer renderer = new SkinRenderer(context, "search-articles.ftl");
 
-        if (!Symphonys.ES_ENABLED && !Symphonys.ALGOLIA_ENABLED) {
+        if (!Symphonys.ES_ENABLED && !Symphonys.ALGOLIA_ENABLED && !Symphonys.LOCAL_SEARCH_ENABLED) {
             context.sendError(404);
             return;
         }
@@ -116,6 +118,7 @@ public class SearchProcessor {
             pageSize = user.optInt(UserExt.USER_LIST_PAGE_SIZE);
         }
         final List<JSONObject> articles = new ArrayList<>();
+        final Map<String, String> highlights = new HashMap<>();
         int total = 0;
 
         if (Symphonys.ES_ENABLED) {
@@ -136,6 +139,31 @@ public class SearchProcessor {
             total = result.optInt("total");
         }
 
+        if (Symphonys.LOCAL_SEARCH_ENABLED) {
+            final JSONObject result = searchQueryService.searchLocal(keyword, pageNum, pageSize);
+            if (null == result) {
+                context.sendError(404);
+                return;
+            }
+
+            final JSONObject hitsResult = result.optJSONObject("hits");
+            final JSONArray hits = hitsResult.optJSONArray("hits");
+
+            for (int i = 0; i < hits.length(); i++) {
+                final JSONObject hit = hits.optJSONObject(i);
+                final JSONObject article = hit.optJSONObject("_source");
+                articles.add(article);
+
+                // 本地索引的高亮片段已转义，可直接作为预览内容
+                final JSONArray fragments = hit.optJSONObject("highlight").optJSONArray(Article.ARTICLE_CONTENT);
+                if (0 < fragments.length()) {
+                    highlights.put(article.optString(Keys.OBJECT_ID), StringUtils.join(fragments.toList(), " ... "));
+                }
+            }
+
+            total = hitsResult.optInt("total");
+        }
+
         if (Symphonys.ALGOLIA_ENABLED) {
             final JSONObject result = searchQueryService.searchAlgolia(keyword, pageNum, pageSize);
             if (null == result) {
@@ -159,6 +187,12 @@ public class SearchProcessor {
         articleQueryService.organizeArticles(articles);
         final Integer participantsCnt = Symphonys.ARTICLE_LIST_PARTICIPANTS_CNT;
         articleQueryService.genParticipants(articles, participantsCnt);
+        for (final JSONObject article : articles) {
+            final String highlight = highlights.get(article.optString(Keys.OBJECT_ID));
+            if (null != highlight) {
+                article.put(Article.ARTICLE_T_PREVIEW_CONTENT, highlight);
+            }
+        }
 
         dataModel.put(Article.ARTICLES, articles);
 
@@ -19,6 +19,7 @@
 package org.b3log.symphony.processor;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateFormatUtils;
 import org.b3log.latke.Keys;
 import org.b3log.latke.event.Event;
 import org.b3log.latke.event.EventManager;
@@ -740,6 +741,10 @@ public class UserProcessor {
     public static float getLiveness(String userId) {
         final BeanManager beanManager = BeanManager.getInstance();
         final LivenessQueryService livenessQueryService = beanManager.getReference(LivenessQueryService.class);
+        final JSONObject live = LivenessMgmtService.getLiveness(userId, DateFormatUtils.format(System.currentTimeMillis(), "yyyyMMdd"));
+        if (null != live) {
+            return (float) (Math.round((float) Liveness.calcPoint(live) / Symphonys.ACTIVITY_YESTERDAY_REWARD_MAX * 100 * 100)) / 100;
+        }
         if (livenessCache.containsKey(userId)) {
             float liveness = livenessCache.get(userId);
             return liveness;
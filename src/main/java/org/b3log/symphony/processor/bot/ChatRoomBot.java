@@ -36,12 +36,16 @@ import org.b3log.symphony.ai.OpenAIProvider;
 import org.b3log.symphony.ai.Provider;
 import org.b3log.symphony.model.*;
 import org.b3log.symphony.processor.ApiProcessor;
+import org.b3log.symphony.processor.AdminProcessor;
 import org.b3log.symphony.processor.ChatroomProcessor;
+import org.b3log.symphony.processor.channel.ChatroomBroadcaster;
 import org.b3log.symphony.processor.channel.ChatroomChannel;
+import org.b3log.symphony.processor.channel.ChatroomSessionRegistry;
 import org.b3log.symphony.repository.ChatRoomRepository;
 import org.b3log.symphony.repository.CloudRepository;
 import org.b3log.symphony.service.*;
 import org.b3log.symphony.util.JSONs;
+import org.b3log.symphony.util.NodeScheduler;
 import org.b3log.symphony.util.NodeUtil;
 import org.b3log.symphony.util.Sessions;
 import org.b3log.symphony.util.StatusCodes;
@@ -110,15 +114,8 @@ public class ChatRoomBot {
 
         // ==? 判断是否在 Channel 中 ==?
         /*boolean atChannel = false;
-        for (Map.Entry<WebSocketSession, JSONObject> onlineUser : ChatroomChannel.onlineUsers.entrySet()) {
-            try {
-                String uName = onlineUser.getValue().optString(User.USER_NAME);
-                if (uName.equals(userName)) {
-                    atChannel = true;
-                    break;
-                }
-            } catch (Exception ignored) {
-            }
+        if (ChatroomSessionRegistry.isOnline(userName)) {
+            atChannel = true;
         }
         if (!atChannel) {
             context.renderJSON(StatusCodes.ERR).renderMsg("发送失败：当前未在聊天室中，请刷新页面。");
@@ -164,6 +161,12 @@ public class ChatRoomBot {
                         case "gbsz":
                             cmd2 = "广播设置";
                             break;
+                        case "jdpk":
+                            cmd2 = "节点排空";
+                            break;
+                        case "jdhf":
+                            cmd2 = "节点恢复";
+                            break;
                         case "wh":
                             cmd2 = "维护";
                             break;
@@ -240,7 +243,7 @@ public class ChatRoomBot {
                                     // 切出去. 什么也不干. 拿不到命令
                                 }
                                 // 目标特殊 key 全员禁言
-                                String targetUserId = "all:fish:mute";
+                                String targetUserId = ModerationIndex.ALL_MUTE_ID;
                                 if (time.isEmpty()) {
                                     int muted = muted(targetUserId);
                                     if (muted != -1) {
@@ -302,18 +305,7 @@ public class ChatRoomBot {
                             }
                             break;
                         case "服务器状态":
-                            Map<String, Integer> sessionList = new HashMap<>();
-                            for (WebSocketSession session : ChatroomChannel.SESSIONS) {
-                                try {
-                                    String uName = ChatroomChannel.onlineUsers.get(session).optString(User.USER_NAME);
-                                    if (sessionList.containsKey(uName)) {
-                                        sessionList.put(uName, sessionList.get(uName) + 1);
-                                    } else {
-                                        sessionList.put(uName, 1);
-                                    }
-                                } catch (Exception ignored) {
-                                }
-                            }
+                            Map<String, Integer> sessionList = ChatroomSessionRegistry.getSessionCounts();
                             StringBuilder userSessionList = new StringBuilder();
                             userSessionList.append("<details><summary>故障转移区（" + ChatroomChannel.SESSIONS.size() + "人）</summary>");
                             for (Map.Entry<String, Integer> s : sessionList.entrySet()) {
@@ -337,6 +329,25 @@ public class ChatRoomBot {
                                 }
                                 userSessionList.append("</details>");
                             }
+                            userSessionList.append("<details><summary>节点连接</summary>");
+                            JSONArray nodeStats = NodeUtil.getNodeStats();
+                            for (int i = 0; i < nodeStats.length(); i++) {
+                                JSONObject stat = nodeStats.optJSONObject(i);
+                                userSessionList.append(stat.optString("name") + (stat.optBoolean("ready") ? " 在线" : " 离线") +
+                                        " RTT " + stat.optLong("rtt") + "ms（均值 " + stat.optDouble("avgRtt") + "ms）" +
+                                        " 请求 " + stat.optLong("requests") + " 错误 " + stat.optLong("errors") +
+                                        " 重连 " + stat.optLong("reconnects") +
+                                        " 健康度 " + String.format("%.2f", NodeScheduler.getHealth(stat.optString("uri"))) +
+                                        (NodeScheduler.isDrained(stat.optString("uri")) ? " 排空中" : "") + "<br>");
+                            }
+                            userSessionList.append("</details>");
+                            userSessionList.append("<details><summary>限流</summary>");
+                            appendLimiterStats(userSessionList, "红包频率", RECORD_POOL_5_IN_1M);
+                            appendLimiterStats(userSessionList, "弹幕频率", RECORD_POOL_BARRAGER);
+                            appendLimiterStats(userSessionList, "复读", RECORD_POOL_6_IN_15M);
+                            appendLimiterStats(userSessionList, "猜拳红包", RECORD_POOL_05_IN_1M);
+                            appendLimiterStats(userSessionList, "AI 对话", RECORD_POOL_AI_5_IN_1M);
+                            userSessionList.append("</details>");
                             int sessions = ChatroomChannel.SESSIONS.size() + NodeUtil.remoteUsers.length();
                             sendBotMsg("" +
                                     "当前聊天室会话数：" + sessions + "\n" +
@@ -352,17 +363,42 @@ public class ChatRoomBot {
                             break;
                         case "广播设置":
                             try {
-                                int notQuickCheck = Integer.parseInt(cmd1.split("\\s")[1]);
-                                int notQuickSleep = Integer.parseInt(cmd1.split("\\s")[2]);
-                                int quickCheck = Integer.parseInt(cmd1.split("\\s")[3]);
-                                int quickSleep = Integer.parseInt(cmd1.split("\\s")[4]);
-                                ChatroomChannel.notQuickCheck = notQuickCheck;
-                                ChatroomChannel.notQuickSleep = notQuickSleep;
-                                ChatroomChannel.quickCheck = quickCheck;
-                                ChatroomChannel.quickSleep = quickSleep;
+                                int maxPendingFrames = Integer.parseInt(cmd1.split("\\s")[1]);
+                                ChatroomBroadcaster.maxPendingFrames = maxPendingFrames;
                                 sendBotMsg("广播设置成功。");
                             } catch (Exception e) {
-                                sendBotMsg("当前参数：" + ChatroomChannel.notQuickCheck + " " + ChatroomChannel.notQuickSleep + " " + ChatroomChannel.quickCheck + " " + ChatroomChannel.quickSleep);
+                                sendBotMsg("当前参数：单会话最大积压 " + ChatroomBroadcaster.maxPendingFrames + " 帧，当前积压 " + ChatroomBroadcaster.getPendingFrames() + " 帧，" +
+                                        "扇出延迟 p50 " + AdminProcessor.manager.getFanOutLatency(4, 50) + " ms / p99 " + AdminProcessor.manager.getFanOutLatency(4, 99) + " ms");
+                            }
+                            break;
+                        case "节点排空":
+                        case "节点恢复":
+                            try {
+                                String nodeName = cmd1.split("\\s")[1];
+                                String nodeUri = null;
+                                for (Map.Entry<String, String> entry : NodeUtil.nodeNickNames.entrySet()) {
+                                    if (entry.getValue().equals(nodeName)) {
+                                        nodeUri = entry.getKey();
+                                    }
+                                }
+                                if (null == nodeUri) {
+                                    sendBotMsg("节点 " + nodeName + " 不存在。");
+                                } else if ("节点排空".equals(cmd2)) {
+                                    NodeScheduler.drain(nodeUri);
+                                    sendBotMsg("节点 " + nodeName + " 已停止分配新连接，在线用户将在每分钟的在线同步时分批迁移到其他节点。");
+                                } else {
+                                    NodeScheduler.undrain(nodeUri);
+                                    sendBotMsg("节点 " + nodeName + " 已恢复分配。");
+                                }
+                            } catch (Exception e) {
+                                StringBuilder nodeList = new StringBuilder("当前节点：\n");
+                                for (Map.Entry<String, String> entry : NodeUtil.nodeNickNames.entrySet()) {
+                                    nodeList.append("* ").append(entry.getValue())
+                                            .append(" 权重 ").append(NodeUtil.nodeWeights.getOrDefault(entry.getKey(), 1))
+                                            .append(" 健康度 ").append(String.format("%.2f", NodeScheduler.getHealth(entry.getKey())))
+                                            .append(NodeScheduler.isDrained(entry.getKey()) ? " 排空中" : "").append("\n");
+                                }
+                                sendBotMsg(nodeList.toString());
                             }
                             break;
                         case "断开会话":
@@ -376,16 +412,7 @@ public class ChatRoomBot {
                                         e.printStackTrace();
                                     }
                                     NodeUtil.sendKick(disconnectUser);
-                                    List<WebSocketSession> senderSessions = new ArrayList<>();
-                                    for (Map.Entry<WebSocketSession, JSONObject> entry : ChatroomChannel.onlineUsers.entrySet()) {
-                                        try {
-                                            String tempUserName = entry.getValue().optString(User.USER_NAME);
-                                            if (tempUserName.equals(disconnectUser)) {
-                                                senderSessions.add(entry.getKey());
-                                            }
-                                        } catch (Exception ignored) {
-                                        }
-                                    }
+                                    List<WebSocketSession> senderSessions = new ArrayList<>(ChatroomSessionRegistry.getSessions(disconnectUser));
                                     for (WebSocketSession session : senderSessions) {
                                         ChatroomChannel.removeSession(session);
                                     }
@@ -529,7 +556,9 @@ public class ChatRoomBot {
                                     "* **风控模式** 执法 风控 [用户名] [时间 `单位：分钟` `如不填此项将查询剩余风控时间` `设置为0将解除风控`]\n" +
                                     "* **查询服务器状态** 执法 服务器状态\n" +
                                     "* **刷新全体成员的聊天室缓存** 执法 刷新缓存\n" +
-                                    "* **广播设置** 执法 广播设置 [普通消息数目检测阈值] [普通消息间隔毫秒] [特殊消息数目检测阈值] [特殊消息间隔毫秒]\n" +
+                                    "* **广播设置** 执法 广播设置 [单会话最大积压帧数]（不带参数查看当前积压与扇出延迟）\n" +
+                                    "* **停止向节点分配新连接并迁走其在线用户** 执法 节点排空 [节点名]（不带参数查看节点列表）\n" +
+                                    "* **恢复向节点分配连接** 执法 节点恢复 [节点名]\n" +
                                     "* **检测聊天室内长时间不发言的成员，并将其移除** 执法 维护\n" +
                                     "* **扣除指定成员的积分** 执法 处罚 [用户名] [扣除积分数量] [理由]\n" +
                                     "* **断开指定用户的全部聊天室会话** 执法 断开会话 [用户名]\n" +
@@ -736,6 +765,11 @@ public class ChatRoomBot {
         }
     }
     
+    // 输出限流器的放行、拒绝次数
+    private static void appendLimiterStats(StringBuilder builder, String name, SimpleCurrentLimiter limiter) {
+        builder.append(name + "（" + limiter.getMode() + "） 放行 " + limiter.getHits() + " 拒绝 " + limiter.getDenies() + " 记录 " + limiter.getKeyCount() + "<br>");
+    }
+
     // 以人工智障的身份发送消息
     public static void sendBotMsg(String content) {
         Thread.startVirtualThread(() -> {
@@ -765,7 +799,7 @@ public class ChatRoomBot {
                 LOGGER.log(Level.ERROR, "Cannot save ChatRoom bot message to the database.", e);
             }
             transaction.commit();
-            msg = msg.put("md", msg.optString(Common.CONTENT)).put(Common.CONTENT, ChatroomProcessor.processMarkdown(msg.optString(Common.CONTENT)));
+            msg = msg.put("md", msg.optString(Common.CONTENT)).put(Common.CONTENT, ChatroomProcessor.processMarkdown(msg.optString("oId"), msg.optString(Common.CONTENT)));
             final JSONObject pushMsg = JSONs.clone(msg);
             pushMsg.put(Common.TIME, new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(msg.optLong(Common.TIME)));
             ChatroomChannel.notifyChat(pushMsg);
@@ -908,28 +942,10 @@ public class ChatRoomBot {
 
     // 禁言
     public static void mute(String userId, int minute) {
-        final BeanManager beanManager = BeanManager.getInstance();
-        CloudRepository cloudRepository = beanManager.getReference(CloudRepository.class);
         long muteTime = (long) minute * 1000 * 60;
-        try {
-            final Transaction transaction = cloudRepository.beginTransaction();
-            Query cloudDeleteQuery = new Query()
-                    .setFilter(CompositeFilterOperator.and(
-                            new PropertyFilter("userId", FilterOperator.EQUAL, userId),
-                            new PropertyFilter("gameId", FilterOperator.EQUAL, CloudService.SYS_MUTE)
-                    ));
-            cloudRepository.remove(cloudDeleteQuery);
-            JSONObject cloudJSON = new JSONObject();
-            long time = System.currentTimeMillis() + muteTime;
-            cloudJSON.put("userId", userId)
-                    .put("gameId", CloudService.SYS_MUTE)
-                    .put("data", "" + time);
-            cloudRepository.add(cloudJSON);
-            transaction.commit();
-            registerSiGuo(userId, time);
-        } catch (RepositoryException e) {
-            LOGGER.log(Level.ERROR, "Unable to mute [userId={}]", userId);
-        }
+        long time = System.currentTimeMillis() + muteTime;
+        ModerationIndex.set(CloudService.SYS_MUTE, userId, time);
+        registerSiGuo(userId, time);
     }
 
     // 禁言并提醒
@@ -959,43 +975,15 @@ public class ChatRoomBot {
     }
     // 检查禁言
     public static int muted(String userId) {
-        final BeanManager beanManager = BeanManager.getInstance();
-        CloudService cloudService = beanManager.getReference(CloudService.class);
-        CloudRepository cloudRepository = beanManager.getReference(CloudRepository.class);
         // 检查是否在全员禁言中  优先级高于个人禁言
-        String allMute = cloudService.getFromCloud("all:fish:mute", CloudService.SYS_MUTE);
+        int allMute = ModerationIndex.remaining(CloudService.SYS_MUTE, ModerationIndex.ALL_MUTE_ID);
         // 全员禁言存在 且 有效. 直接返回对象
-        if (!allMute.isEmpty()) {
-            if ((System.currentTimeMillis() < Long.parseLong(allMute))){
-                long remainMinute = (Long.parseLong(allMute) - System.currentTimeMillis()) / 1000;
-                // 区别个人设置
-                return (- (int) remainMinute);
-            }
+        if (allMute >= 0) {
+            // 区别个人设置
+            return -allMute;
         }
         // 检查个人禁言
-        String muteData = cloudService.getFromCloud(userId, CloudService.SYS_MUTE);
-        if (muteData.isEmpty()) {
-            return -1;
-        } else {
-            if (System.currentTimeMillis() > Long.parseLong(muteData)) {
-                try {
-                    final Transaction transaction = cloudRepository.beginTransaction();
-                    Query cloudDeleteQuery = new Query()
-                            .setFilter(CompositeFilterOperator.and(
-                                    new PropertyFilter("userId", FilterOperator.EQUAL, userId),
-                                    new PropertyFilter("gameId", FilterOperator.EQUAL, CloudService.SYS_MUTE)
-                            ));
-                    cloudRepository.remove(cloudDeleteQuery);
-                    transaction.commit();
-                } catch (RepositoryException e) {
-                    LOGGER.log(Level.ERROR, "Unable to unmute", e);
-                }
-                return -1;
-            } else {
-                long remainMinute = (Long.parseLong(muteData) - System.currentTimeMillis()) / 1000;
-                return (int) remainMinute;
-            }
-        }
+        return ModerationIndex.remaining(CloudService.SYS_MUTE, userId);
     }
 
     // 定期发送提醒
@@ -1012,26 +1000,8 @@ public class ChatRoomBot {
 
     // 风控
     public static void risksControl(String userId, int minute) {
-        final BeanManager beanManager = BeanManager.getInstance();
-        CloudRepository cloudRepository = beanManager.getReference(CloudRepository.class);
         long risksControlTime = (long) minute * 1000 * 60;
-        try {
-            final Transaction transaction = cloudRepository.beginTransaction();
-            Query cloudDeleteQuery = new Query()
-                    .setFilter(CompositeFilterOperator.and(
-                            new PropertyFilter("userId", FilterOperator.EQUAL, userId),
-                            new PropertyFilter("gameId", FilterOperator.EQUAL, CloudService.SYS_RISK)
-                    ));
-            cloudRepository.remove(cloudDeleteQuery);
-            JSONObject cloudJSON = new JSONObject();
-            cloudJSON.put("userId", userId)
-                    .put("gameId", CloudService.SYS_RISK)
-                    .put("data", ("" + (System.currentTimeMillis() + risksControlTime)));
-            cloudRepository.add(cloudJSON);
-            transaction.commit();
-        } catch (RepositoryException e) {
-            LOGGER.log(Level.ERROR, "Unable to risks control [userId={}]", userId);
-        }
+        ModerationIndex.set(CloudService.SYS_RISK, userId, System.currentTimeMillis() + risksControlTime);
     }
 
     // 风控并提醒
@@ -1042,33 +1012,7 @@ public class ChatRoomBot {
 
     // 检查风控
     public static int risksControlled(String userId) {
-        final BeanManager beanManager = BeanManager.getInstance();
-        CloudService cloudService = beanManager.getReference(CloudService.class);
-        CloudRepository cloudRepository = beanManager.getReference(CloudRepository.class);
-
-        String risksControlData = cloudService.getFromCloud(userId, CloudService.SYS_RISK);
-        if (risksControlData.isEmpty()) {
-            return -1;
-        } else {
-            if (System.currentTimeMillis() > Long.parseLong(risksControlData)) {
-                try {
-                    final Transaction transaction = cloudRepository.beginTransaction();
-                    Query cloudDeleteQuery = new Query()
-                            .setFilter(CompositeFilterOperator.and(
-                                    new PropertyFilter("userId", FilterOperator.EQUAL, userId),
-                                    new PropertyFilter("gameId", FilterOperator.EQUAL, CloudService.SYS_RISK)
-                            ));
-                    cloudRepository.remove(cloudDeleteQuery);
-                    transaction.commit();
-                } catch (RepositoryException e) {
-                    LOGGER.log(Level.ERROR, "Unable to un-risks-control", e);
-                }
-                return -1;
-            } else {
-                long remainMinute = (Long.parseLong(risksControlData) - System.currentTimeMillis()) / 1000;
-                return (int) remainMinute;
-            }
-        }
+        return ModerationIndex.remaining(CloudService.SYS_RISK, userId);
     }
 
     /**
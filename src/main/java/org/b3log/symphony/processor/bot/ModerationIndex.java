@@ -0,0 +1,205 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.processor.bot;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.b3log.latke.ioc.BeanManager;
+import org.b3log.latke.repository.FilterOperator;
+import org.b3log.latke.repository.PropertyFilter;
+import org.b3log.latke.repository.Query;
+import org.b3log.symphony.repository.CloudRepository;
+import org.b3log.symphony.service.CloudService;
+import org.b3log.symphony.util.TimerWheel;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memory-resident index of chatroom moderation states, mutes and risk controls.
+ * <p>
+ * Expiry times are loaded from the cloud records at startup and kept in one map per state, so a check is a map
+ * lookup. Changes are written through {@link CloudService}. A {@link TimerWheel} ticking once a second drops expired
+ * entries and removes their records in the background, off the request path.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.0.0.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public final class ModerationIndex {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LogManager.getLogger(ModerationIndex.class);
+
+    /**
+     * 全员禁言使用的用户 id.
+     */
+    public static final String ALL_MUTE_ID = "all:fish:mute";
+
+    /**
+     * Expiry times, &lt;gameId, &lt;userId, expireTime&gt;&gt;.
+     */
+    private static final Map<String, Map<String, Long>> STATES = Map.of(
+            CloudService.SYS_MUTE, new ConcurrentHashMap<>(),
+            CloudService.SYS_RISK, new ConcurrentHashMap<>());
+
+    /**
+     * Expiry wheel of [gameId, userId].
+     */
+    private static final TimerWheel<Entry> WHEEL = new TimerWheel<>(1000, System.currentTimeMillis());
+
+    /**
+     * Whether {@link #load()} has been called.
+     */
+    private static volatile boolean loaded;
+
+    /**
+     * Private constructor.
+     */
+    private ModerationIndex() {
+    }
+
+    /**
+     * Loads unexpired states from the cloud records and starts the expiry ticker.
+     */
+    public static synchronized void load() {
+        if (loaded) {
+            return;
+        }
+
+        final BeanManager beanManager = BeanManager.getInstance();
+        final CloudRepository cloudRepository = beanManager.getReference(CloudRepository.class);
+        final CloudService cloudService = beanManager.getReference(CloudService.class);
+        int count = 0;
+        for (final String gameId : STATES.keySet()) {
+            try {
+                final List<JSONObject> records = cloudRepository.getList(new Query()
+                        .setFilter(new PropertyFilter("gameId", FilterOperator.EQUAL, gameId)));
+                for (final JSONObject record : records) {
+                    final String userId = record.optString("userId");
+                    final String data = record.optString("data");
+                    if (!StringUtils.isNumeric(data) || data.isEmpty()) {
+                        continue;
+                    }
+                    final long expireTime = Long.parseLong(data);
+                    if (System.currentTimeMillis() >= expireTime) {
+                        cloudService.removeExpiry(userId, gameId, expireTime);
+                        continue;
+                    }
+                    STATES.get(gameId).put(userId, expireTime);
+                    WHEEL.schedule(new Entry(gameId, userId), expireTime);
+                    count++;
+                }
+            } catch (final Exception e) {
+                LOGGER.log(Level.ERROR, "Loads moderation states [" + gameId + "] failed", e);
+            }
+        }
+        loaded = true;
+        LOGGER.log(Level.INFO, "Loaded [" + count + "] moderation states");
+
+        Thread.ofVirtual().name("ModerationTicker").start(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(1000);
+                    expire(WHEEL.advance(System.currentTimeMillis()));
+                } catch (final InterruptedException e) {
+                    return;
+                } catch (final Exception e) {
+                    LOGGER.log(Level.ERROR, "Moderation ticker failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the expire time of the specified state of the specified user.
+     *
+     * @param gameId     the specified state, {@link CloudService#SYS_MUTE} or {@link CloudService#SYS_RISK}
+     * @param userId     the specified user id
+     * @param expireTime the specified expire time
+     */
+    public static void set(final String gameId, final String userId, final long expireTime) {
+        final CloudService cloudService = BeanManager.getInstance().getReference(CloudService.class);
+        cloudService.setExpiry(userId, gameId, expireTime);
+        STATES.get(gameId).put(userId, expireTime);
+        WHEEL.schedule(new Entry(gameId, userId), expireTime);
+    }
+
+    /**
+     * Gets the remaining seconds of the specified state of the specified user.
+     *
+     * @param gameId the specified state, {@link CloudService#SYS_MUTE} or {@link CloudService#SYS_RISK}
+     * @param userId the specified user id
+     * @return remaining seconds, returns {@code -1} if not in the state
+     */
+    public static int remaining(final String gameId, final String userId) {
+        final Long expireTime = STATES.get(gameId).get(userId);
+        if (null == expireTime) {
+            return -1;
+        }
+        // 时间轮按秒推进，这里仍以实际时间为准
+        final long remain = expireTime - System.currentTimeMillis();
+        if (remain < 0) {
+            return -1;
+        }
+        return (int) (remain / 1000);
+    }
+
+    /**
+     * Gets the number of indexed states.
+     *
+     * @return state count
+     */
+    public static int size() {
+        return WHEEL.size();
+    }
+
+    private static void expire(final List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        final CloudService cloudService = BeanManager.getInstance().getReference(CloudService.class);
+        for (final Entry entry : entries) {
+            final Map<String, Long> state = STATES.get(entry.gameId());
+            final Long expireTime = state.get(entry.userId());
+            // 期间被重新设置的不删除
+            if (null == expireTime || System.currentTimeMillis() < expireTime || !state.remove(entry.userId(), expireTime)) {
+                continue;
+            }
+            cloudService.removeExpiry(entry.userId(), entry.gameId(), expireTime);
+        }
+    }
+
+    /**
+     * Wheel key.
+     *
+     * @param gameId state
+     * @param userId user id
+     */
+    private record Entry(String gameId, String userId) {
+    }
+}
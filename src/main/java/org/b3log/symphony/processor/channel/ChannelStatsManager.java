@@ -19,6 +19,7 @@
 package org.b3log.symphony.processor.channel;
 
 import java.text.DecimalFormat;
+import java.util.Arrays;
 import java.util.concurrent.*;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -72,11 +73,38 @@ public class ChannelStatsManager {
         return stats != null ? stats.getMessageCount() : 0L;
     }
 
+    /**
+     * 当一次广播已送达（或放弃）全部接收者时调用此方法
+     * @param channelId 广播所在的通道ID
+     * @param latencyNanos 从入队到最后一个接收者写出的耗时（纳秒）
+     */
+    public void onFanOutCompleted(int channelId, long latencyNanos) {
+        ChannelStatistics stats = channelStatsMap.get(channelId);
+        if (stats != null) {
+            stats.addFanOutLatency(latencyNanos);
+        }
+    }
+
+    /**
+     * 获取特定通道的广播扇出延迟分位数
+     * @param channelId 通道ID
+     * @param percentile 分位数，取值 0~100，如 50、99
+     * @return 延迟（毫秒），无样本时为 0
+     */
+    public double getFanOutLatency(int channelId, double percentile) {
+        ChannelStatistics stats = channelStatsMap.get(channelId);
+        return stats != null ? stats.getFanOutLatency(percentile) : 0.0;
+    }
+
     private void resetStatistics() {
         channelStatsMap.forEach((id, stats) -> stats.reset());
     }
 
     private static class ChannelStatistics {
+        // 仅保留最近的延迟样本，足够估算 p50/p99
+        private static final int LATENCY_SAMPLES = 1024;
+        private final long[] fanOutLatencies = new long[LATENCY_SAMPLES];
+        private final AtomicLong fanOutCount = new AtomicLong();
         private final AtomicInteger messageCount = new AtomicInteger();
         private final AtomicLong totalBytesSent = new AtomicLong();
         private final AtomicLong startTime = new AtomicLong(System.currentTimeMillis());
@@ -99,7 +127,25 @@ public class ChannelStatsManager {
             return messageCount.get();
         }
 
+        void addFanOutLatency(long latencyNanos) {
+            int slot = (int) (fanOutCount.getAndIncrement() % LATENCY_SAMPLES);
+            fanOutLatencies[slot] = latencyNanos;
+        }
+
+        double getFanOutLatency(double percentile) {
+            int size = (int) Math.min(fanOutCount.get(), LATENCY_SAMPLES);
+            if (size == 0) return 0.0;
+
+            long[] samples = Arrays.copyOf(fanOutLatencies, size);
+            Arrays.sort(samples);
+            int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+            index = Math.max(0, Math.min(size - 1, index));
+            DecimalFormat df = new DecimalFormat("#.###");
+            return Double.parseDouble(df.format(samples[index] / 1_000_000.0)); // 转换为毫秒
+        }
+
         synchronized void reset() {
+            fanOutCount.set(0);
             messageCount.set(0);
             totalBytesSent.set(0);
             startTime.set(System.currentTimeMillis());
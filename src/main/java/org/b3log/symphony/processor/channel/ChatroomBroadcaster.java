@@ -0,0 +1,312 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.processor.channel;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.b3log.latke.http.WebSocketSession;
+import org.b3log.symphony.processor.AdminProcessor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chatroom broadcast engine.
+ * <p>
+ * Every session owns an ordered outbound queue which is drained by at most one writer at a time, so frames reach a
+ * client in the order they were broadcast. A frame is encoded once by the caller and shared by all queues; a writer
+ * flushes everything queued for its session in one pass, so bursts are coalesced into one batch of writes instead of
+ * one task per message. A session whose backlog exceeds {@link #maxPendingFrames} is considered a slow consumer and
+ * is disconnected rather than slowing everyone else down. Outboxes are only created for sessions still in
+ * {@link ChatroomChannel#SESSIONS}, and a session's outbox is dropped once the session is removed or a write fails.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.0.1.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public final class ChatroomBroadcaster {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LogManager.getLogger(ChatroomBroadcaster.class);
+
+    /**
+     * Channel id of chatroom in {@link ChannelStatsManager}.
+     */
+    private static final int CHANNEL_ID = 4;
+
+    /**
+     * 单个会话允许积压的最大帧数，超过即视为慢消费者并断开连接.
+     */
+    public static volatile int maxPendingFrames = 512;
+
+    /**
+     * Writer pool, one drain task per busy session.
+     */
+    private static final ExecutorService WRITER_POOL = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Outbound queues, &lt;session, outbox&gt;.
+     */
+    private static final Map<WebSocketSession, Outbox> OUTBOXES = new ConcurrentHashMap<>();
+
+    /**
+     * Serializes fan-out enqueueing so that every session observes broadcasts in the same order.
+     */
+    private static final Object FAN_OUT_LOCK = new Object();
+
+    /**
+     * Private constructor.
+     */
+    private ChatroomBroadcaster() {
+    }
+
+    /**
+     * Broadcasts the specified frame to all chatroom sessions.
+     *
+     * @param frame the specified encoded frame
+     */
+    public static void broadcast(final String frame) {
+        broadcast(frame, Collections.emptySet());
+    }
+
+    /**
+     * Broadcasts the specified frame to all chatroom sessions except the specified ones.
+     *
+     * @param frame    the specified encoded frame
+     * @param excluded the specified sessions to skip
+     */
+    public static void broadcast(final String frame, final Collection<WebSocketSession> excluded) {
+        synchronized (FAN_OUT_LOCK) {
+            final List<Outbox> targets = new ArrayList<>(ChatroomChannel.SESSIONS.size());
+            for (final WebSocketSession session : ChatroomChannel.SESSIONS) {
+                if (!excluded.contains(session)) {
+                    final Outbox outbox = outbox(session);
+                    if (null != outbox) {
+                        targets.add(outbox);
+                    }
+                }
+            }
+            if (targets.isEmpty()) {
+                return;
+            }
+
+            final FanOut fanOut = new FanOut(targets.size());
+            for (final Outbox outbox : targets) {
+                outbox.offer(new Frame(frame, fanOut));
+            }
+        }
+    }
+
+    /**
+     * Sends the specified frame to the specified session, keeping the order with broadcasts.
+     *
+     * @param session the specified session
+     * @param frame   the specified encoded frame
+     */
+    public static void send(final WebSocketSession session, final String frame) {
+        final Outbox outbox = outbox(session);
+        if (null != outbox) {
+            outbox.offer(new Frame(frame, null));
+        }
+    }
+
+    /**
+     * Drops the outbound queue of the specified session, which must have been removed from
+     * {@link ChatroomChannel#SESSIONS} already.
+     *
+     * @param session the specified session
+     */
+    public static void remove(final WebSocketSession session) {
+        final Outbox outbox;
+        // 等待进行中的扇出结束，之后的扇出不会再看到该会话
+        synchronized (FAN_OUT_LOCK) {
+            outbox = OUTBOXES.remove(session);
+        }
+        if (null != outbox) {
+            outbox.close();
+        }
+    }
+
+    /**
+     * Gets the number of frames waiting to be written over all sessions.
+     *
+     * @return pending frame count
+     */
+    public static int getPendingFrames() {
+        int ret = 0;
+        for (final Outbox outbox : OUTBOXES.values()) {
+            ret += outbox.pending.get();
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the outbox of the specified session, creating it if the session is still in the chatroom.
+     *
+     * @param session the specified session
+     * @return outbox, returns {@code null} if the session is gone
+     */
+    private static Outbox outbox(final WebSocketSession session) {
+        // 会话先从 SESSIONS 移除再移除发件箱，与同一键上的 remove 互斥，不会为已离开的会话留下发件箱
+        return OUTBOXES.computeIfAbsent(session, key -> ChatroomChannel.SESSIONS.contains(key) ? new Outbox(key) : null);
+    }
+
+    /**
+     * Disconnects a session which can not keep up with the room.
+     *
+     * @param outbox the outbox of the slow session
+     */
+    private static void evict(final Outbox outbox) {
+        if (!OUTBOXES.remove(outbox.session, outbox)) {
+            return;
+        }
+        outbox.close();
+        LOGGER.log(Level.WARN, "Chatroom session has more than [" + maxPendingFrames + "] pending frames, disconnecting it");
+        WRITER_POOL.execute(() -> {
+            ChatroomChannel.removeSession(outbox.session);
+            try {
+                outbox.session.close();
+            } catch (final Exception ignored) {
+            }
+        });
+    }
+
+    /**
+     * Tracks one broadcast until all recipients have been written.
+     */
+    private static final class FanOut {
+
+        private final long startNanos = System.nanoTime();
+
+        private final AtomicInteger remaining;
+
+        private FanOut(final int recipients) {
+            remaining = new AtomicInteger(recipients);
+        }
+
+        private void done() {
+            if (0 == remaining.decrementAndGet()) {
+                AdminProcessor.manager.onFanOutCompleted(CHANNEL_ID, System.nanoTime() - startNanos);
+            }
+        }
+    }
+
+    /**
+     * An encoded frame shared by all recipients of a broadcast.
+     */
+    private static final class Frame {
+
+        private final String text;
+
+        private final FanOut fanOut;
+
+        private Frame(final String text, final FanOut fanOut) {
+            this.text = text;
+            this.fanOut = fanOut;
+        }
+
+        private void done() {
+            if (null != fanOut) {
+                fanOut.done();
+            }
+        }
+    }
+
+    /**
+     * Ordered outbound queue of one session.
+     */
+    private static final class Outbox {
+
+        private final WebSocketSession session;
+
+        private final ConcurrentLinkedQueue<Frame> queue = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private volatile boolean closed;
+
+        private Outbox(final WebSocketSession session) {
+            this.session = session;
+        }
+
+        private void offer(final Frame frame) {
+            if (closed) {
+                frame.done();
+                return;
+            }
+            if (pending.incrementAndGet() > maxPendingFrames) {
+                pending.decrementAndGet();
+                frame.done();
+                evict(this);
+                return;
+            }
+
+            queue.offer(frame);
+            if (draining.compareAndSet(false, true)) {
+                WRITER_POOL.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Frame frame;
+                while (null != (frame = queue.poll())) {
+                    pending.decrementAndGet();
+                    if (!closed) {
+                        try {
+                            session.sendText(frame.text);
+                            AdminProcessor.manager.onMessageSent(CHANNEL_ID, frame.text.length());
+                        } catch (final Exception e) {
+                            closed = true;
+                            OUTBOXES.remove(session, this);
+                        }
+                    }
+                    frame.done();
+                }
+                draining.set(false);
+                // 释放写权后若又有新帧入队且无人接手，则继续排空
+                if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+
+        private void close() {
+            closed = true;
+            if (draining.compareAndSet(false, true)) {
+                WRITER_POOL.execute(this::drain);
+            }
+        }
+    }
+}
@@ -22,7 +22,6 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.b3log.latke.Keys;
-import org.b3log.latke.Latkes;
 import org.b3log.latke.http.WebSocketChannel;
 import org.b3log.latke.http.WebSocketSession;
 import org.b3log.latke.ioc.BeanManager;
@@ -40,7 +39,6 @@ import org.b3log.symphony.service.AvatarQueryService;
 import org.b3log.symphony.service.MembershipQueryService;
 import org.b3log.symphony.service.UserQueryService;
 import org.b3log.symphony.util.NodeUtil;
-import org.json.JSONArray;
 import org.json.JSONObject;
 import pers.adlered.simplecurrentlimiter.main.SimpleCurrentLimiter;
 
@@ -68,10 +66,6 @@ public class ChatroomChannel implements WebSocketChannel {
      */
     public static final Set<WebSocketSession> SESSIONS = Collections.newSetFromMap(new ConcurrentHashMap());
 
-    /**
-     * Online user information storage.
-     */
-    public static final ConcurrentHashMap<WebSocketSession, JSONObject> onlineUsers = new ConcurrentHashMap<>();
     /**
      * 当前讨论话题
      */
@@ -102,23 +96,16 @@ public class ChatroomChannel implements WebSocketChannel {
         if (null != userStr) {
             final JSONObject user = new JSONObject(userStr);
             String userName = user.optString(User.USER_NAME);
-            boolean joined = true;
-            for (Map.Entry<WebSocketSession, JSONObject> entry : onlineUsers.entrySet()) {
-                String name = entry.getValue().optString(User.USER_NAME);
-                if (userName.equals(name)) {
-                    joined = false;
-                }
-            }
+            boolean joined = ChatroomSessionRegistry.join(session, user);
             if (joined) {
                 String msg = getCustomMessage(1, userName);
                 if (!msg.isEmpty()) {
                     sendCustomMessage(msg);
                 }
             }
-            onlineUsers.put(session, user);
             SESSIONS.add(session);
             // 单独发送在线信息
-            final String msgStr = getOnline().toString();
+            final String msgStr = ChatroomRoster.getOnlineJSON();
             sendText(session, msgStr);
             NodeUtil.sendTell(userName, msgStr);
             AdminProcessor.manager.onMessageSent(4, msgStr.length());
@@ -235,20 +222,7 @@ public class ChatroomChannel implements WebSocketChannel {
         jsonObject.put("message", msg);
         String message = jsonObject.toString();
         NodeUtil.sendAll(message);
-        Thread.startVirtualThread(() -> {
-            int i = 0;
-            for (WebSocketSession s : ChatroomChannel.SESSIONS) {
-                i++;
-                if (i % 50 == 0) {
-                    try {
-                        Thread.sleep(100);
-                    } catch (Exception ignored) {
-                    }
-                }
-                sendText(s, message);
-                AdminProcessor.manager.onMessageSent(4, message.length());
-            }
-        });
+        ChatroomBroadcaster.broadcast(message);
     }
 
     /**
@@ -289,14 +263,6 @@ public class ChatroomChannel implements WebSocketChannel {
      *                "content": ""
      *                }
      */
-    public static int notQuickCheck = 50;
-    public static int notQuickSleep = 50;
-    public static int quickCheck = 100;
-    public static int quickSleep = 50;
-
-    //用于消息发送的线程池
-    private static final ExecutorService MESSAGE_POOL = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().factory());
-
     public static void notifyChat(final JSONObject message) {
         final BeanManager beanManager = BeanManager.getInstance();
         final AvatarQueryService avatarQueryService = beanManager.getReference(AvatarQueryService.class);
@@ -322,50 +288,15 @@ public class ChatroomChannel implements WebSocketChannel {
         } else {
             NodeUtil.sendMsg(sender, msgStr);
         }
-        // 先给发送人反馈
+        // 先给发送人反馈，再按会话队列有序扇出给其他人
+        Set<WebSocketSession> senderSessions = Collections.emptySet();
         if (!quick) {
-            List<WebSocketSession> senderSessions = new ArrayList<>();
-            for (Map.Entry<WebSocketSession, JSONObject> entry : onlineUsers.entrySet()) {
-                String userName = entry.getValue().optString(User.USER_NAME);
-                if (userName.equals(sender)) {
-                    senderSessions.add(entry.getKey());
-                }
-            }
+            senderSessions = ChatroomSessionRegistry.getSessions(sender);
             for (WebSocketSession session : senderSessions) {
-                sendText(session, msgStr);
-                AdminProcessor.manager.onMessageSent(4, msgStr.length());
+                ChatroomBroadcaster.send(session, msgStr);
             }
         }
-        MESSAGE_POOL.submit(() -> {
-            int i = 0;
-            for (WebSocketSession session : SESSIONS) {
-                try {
-                    i++;
-                    if (!quick && i % notQuickCheck == 0) {
-                        try {
-                            Thread.sleep(notQuickSleep);
-                        } catch (Exception ignored) {
-                        }
-                    } else if (quick && i % quickCheck == 0) {
-                        try {
-                            Thread.sleep(quickSleep);
-                        } catch (Exception ignored) {
-                        }
-                    }
-                    if (!quick) {
-                        String toUser = onlineUsers.get(session).optString(User.USER_NAME);
-                        if (!sender.equals(toUser)) {
-                            sendText(session, msgStr);
-                            AdminProcessor.manager.onMessageSent(4, msgStr.length());
-                        }
-                    } else {
-                        sendText(session, msgStr);
-                        AdminProcessor.manager.onMessageSent(4, msgStr.length());
-                    }
-                } catch (Exception ignored) {
-                }
-            }
-        });
+        ChatroomBroadcaster.broadcast(msgStr, senderSessions);
     }
 
     /**
@@ -373,44 +304,29 @@ public class ChatroomChannel implements WebSocketChannel {
      *
      * @param session the specified session
      */
-    public static synchronized void removeSession(final WebSocketSession session) {
-        String userName = "";
+    public static void removeSession(final WebSocketSession session) {
         try {
-            JSONObject user = onlineUsers.get(session);
-            userName = user.optString(User.USER_NAME);
-            onlineUsers.remove(session);
-            boolean left = true;
-            for (Map.Entry<WebSocketSession, JSONObject> entry : onlineUsers.entrySet()) {
-                String name = entry.getValue().optString(User.USER_NAME);
-                if (userName.equals(name)) {
-                    left = false;
-                }
-            }
-            if (left) {
-                String msg = getCustomMessage(0, userName);
+            String leftUserName = ChatroomSessionRegistry.leave(session);
+            if (null != leftUserName) {
+                String msg = getCustomMessage(0, leftUserName);
                 if (!msg.isEmpty()) {
                     sendCustomMessage(msg);
                 }
             }
-        } catch (NullPointerException ignored) {
         } catch (Exception e) {
             e.printStackTrace();
         }
 
         SESSIONS.remove(session);
+        ChatroomBroadcaster.remove(session);
     }
 
     public static Map<String, Long> check() {
-        Map<String, JSONObject> filteredOnlineUsers = new HashMap<>();
-        for (JSONObject object : onlineUsers.values()) {
-            String name = object.optString(User.USER_NAME);
-            filteredOnlineUsers.put(name, object);
-        }
         Long currentTime = System.currentTimeMillis();
         int sixHours = 1000 * 60 * 60 * 6;
         Map<String, Long> needKickUsers = new HashMap<>();
         List<String> users = new ArrayList<>();
-        for (String user : filteredOnlineUsers.keySet()) {
+        for (String user : ChatroomSessionRegistry.getUserNames()) {
             try {
                 Long activeTime = userActive.get(user);
                 Long spareTime = currentTime - activeTime;
@@ -423,20 +339,11 @@ public class ChatroomChannel implements WebSocketChannel {
         }
 
         Thread.startVirtualThread(() -> {
-            List<WebSocketSession> senderSessions = new ArrayList<>();
-            for (Map.Entry<WebSocketSession, JSONObject> entry : onlineUsers.entrySet()) {
-                try {
-                    String tempUserName = entry.getValue().optString(User.USER_NAME);
-                    if (users.contains(tempUserName)) {
-                        senderSessions.add(entry.getKey());
-                    }
-                } catch (Exception e) {
-                    LOGGER.log(Level.ERROR, "Failed to log user entry", e);
+            for (String user : users) {
+                for (WebSocketSession session : new ArrayList<>(ChatroomSessionRegistry.getSessions(user))) {
+                    removeSession(session);
                 }
             }
-            for (WebSocketSession session : senderSessions) {
-                removeSession(session);
-            }
             JdbcRepository.dispose();
         });
 
@@ -448,50 +355,7 @@ public class ChatroomChannel implements WebSocketChannel {
      * @return
      */
     public static JSONObject getOnline() {
-        final BeanManager beanManager = BeanManager.getInstance();
-        final AvatarQueryService avatarQueryService = beanManager.getReference(AvatarQueryService.class);
-        try {
-            // 使用 HashMap 去重
-            Map<String, JSONObject> filteredOnlineUsers = new HashMap<>();
-            for (JSONObject object : onlineUsers.values()) {
-                String name = object.optString(User.USER_NAME);
-                filteredOnlineUsers.put(name, object);
-            }
-
-            for (int i = 0; i < NodeUtil.remoteUsers.length(); i++) {
-                try {
-                    JSONObject temp = NodeUtil.remoteUsers.getJSONObject(i);
-                    filteredOnlineUsers.put(temp.optString(User.USER_NAME), temp);
-                } catch (Exception ignored) {
-                }
-            }
-
-            JSONArray onlineArray = new JSONArray();
-            for (String user : filteredOnlineUsers.keySet()) {
-                JSONObject object = filteredOnlineUsers.get(user);
-
-                String avatar = object.optString(UserExt.USER_AVATAR_URL);
-                String homePage = Latkes.getStaticServePath() + "/member/" + user;
-
-                JSONObject generated = new JSONObject();
-                generated.put(User.USER_NAME, user);
-                generated.put(UserExt.USER_AVATAR_URL, avatar);
-                avatarQueryService.fillUserAvatarURL(generated);
-                generated.put("homePage", homePage);
-                onlineArray.put(generated);
-            }
-
-            JSONObject result = new JSONObject();
-            result.put(Common.ONLINE_CHAT_CNT, filteredOnlineUsers.size());
-            result.put(Common.TYPE, "online");
-            result.put("users", onlineArray);
-            result.put("discussing", discussing);
-
-            return result;
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return new JSONObject().put(Common.ONLINE_CHAT_CNT, 99999).put(Common.TYPE, "online").put("users", new JSONArray());
+        return ChatroomRoster.getOnline();
     }
 
     // 发送在线信息
@@ -499,7 +363,7 @@ public class ChatroomChannel implements WebSocketChannel {
     public static void sendOnlineMsg() {
         if (!onlineMsgLock) {
             onlineMsgLock = true;
-            final String msgStr = getOnline().toString();
+            final String msgStr = ChatroomRoster.getOnlineJSON();
             NodeUtil.sendSlow(msgStr);
             Thread.startVirtualThread(() -> {
                 int i = 0;
@@ -0,0 +1,381 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.processor.channel;
+
+import org.b3log.latke.Latkes;
+import org.b3log.latke.ioc.BeanManager;
+import org.b3log.latke.model.User;
+import org.b3log.symphony.model.Common;
+import org.b3log.symphony.model.UserExt;
+import org.b3log.symphony.service.AvatarQueryService;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Versioned chatroom online roster.
+ * <p>
+ * The roster is the union of users connected to this server and users reported by chatroom nodes. It is maintained
+ * incrementally on join, leave and node roster refresh, every change bumps the version, and the encoded online
+ * message is built at most once per version. Recent changes are retained so that clients can ask for the join/leave
+ * delta since a version they already have.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.0.0.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public final class ChatroomRoster {
+
+    /**
+     * Maximum retained deltas.
+     */
+    private static final int MAX_DELTAS = 1024;
+
+    /**
+     * Guards roster mutations, version and deltas.
+     */
+    private static final Object LOCK = new Object();
+
+    /**
+     * Users connected to this server, &lt;userName, onlineUser&gt;.
+     */
+    private static final Map<String, JSONObject> LOCAL = new LinkedHashMap<>();
+
+    /**
+     * Users connected to chatroom nodes, &lt;userName, onlineUser&gt;.
+     */
+    private static final Map<String, JSONObject> REMOTE = new LinkedHashMap<>();
+
+    /**
+     * Recent deltas, oldest first.
+     */
+    private static final Deque<Delta> DELTAS = new ArrayDeque<>();
+
+    /**
+     * Current version, written under {@link #LOCK}.
+     */
+    private static volatile long version;
+
+    /**
+     * Version of the newest evicted delta, deltas since an older version can not be computed.
+     */
+    private static long horizon;
+
+    /**
+     * Snapshot of the latest built version.
+     */
+    private static volatile Snapshot snapshot = new Snapshot(-1, null, null);
+
+    /**
+     * Private constructor.
+     */
+    private ChatroomRoster() {
+    }
+
+    /**
+     * Adds the specified user connected to this server.
+     *
+     * @param user the specified user
+     */
+    public static void join(final JSONObject user) {
+        final JSONObject onlineUser = genOnlineUser(user);
+        final String userName = onlineUser.optString(User.USER_NAME);
+        synchronized (LOCK) {
+            final boolean existed = LOCAL.containsKey(userName) || REMOTE.containsKey(userName);
+            LOCAL.put(userName, onlineUser);
+            if (!existed) {
+                change(userName, onlineUser);
+            }
+        }
+    }
+
+    /**
+     * Removes the specified user which has no session on this server any more.
+     *
+     * @param userName the specified user name
+     */
+    public static void leave(final String userName) {
+        synchronized (LOCK) {
+            if (null != LOCAL.remove(userName) && !REMOTE.containsKey(userName)) {
+                change(userName, null);
+            }
+        }
+    }
+
+    /**
+     * Replaces the users reported by chatroom nodes.
+     *
+     * @param remoteUsers the specified remote users, may contain duplicated user names
+     */
+    public static void setRemoteUsers(final JSONArray remoteUsers) {
+        final Map<String, JSONObject> fresh = new LinkedHashMap<>();
+        for (int i = 0; i < remoteUsers.length(); i++) {
+            final JSONObject remoteUser = remoteUsers.optJSONObject(i);
+            if (null == remoteUser) {
+                continue;
+            }
+            final String userName = remoteUser.optString(User.USER_NAME);
+            if (!fresh.containsKey(userName)) {
+                fresh.put(userName, remoteUser);
+            }
+        }
+
+        final Map<String, JSONObject> added = new HashMap<>();
+        synchronized (LOCK) {
+            for (final Map.Entry<String, JSONObject> entry : fresh.entrySet()) {
+                if (!REMOTE.containsKey(entry.getKey())) {
+                    added.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        // 头像地址只为新增用户计算，且不占用锁
+        for (final Map.Entry<String, JSONObject> entry : added.entrySet()) {
+            entry.setValue(genOnlineUser(entry.getValue()));
+        }
+
+        synchronized (LOCK) {
+            final Iterator<Map.Entry<String, JSONObject>> iterator = REMOTE.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final String userName = iterator.next().getKey();
+                if (!fresh.containsKey(userName)) {
+                    iterator.remove();
+                    if (!LOCAL.containsKey(userName)) {
+                        change(userName, null);
+                    }
+                }
+            }
+            for (final String userName : fresh.keySet()) {
+                if (REMOTE.containsKey(userName)) {
+                    continue;
+                }
+                JSONObject onlineUser = added.get(userName);
+                if (null == onlineUser) {
+                    onlineUser = genOnlineUser(fresh.get(userName));
+                }
+                REMOTE.put(userName, onlineUser);
+                if (!LOCAL.containsKey(userName)) {
+                    change(userName, onlineUser);
+                }
+            }
+        }
+    }
+
+    /**
+     * Invalidates the cached online message, for example after the discussing topic changed.
+     */
+    public static void invalidate() {
+        synchronized (LOCK) {
+            version = version + 1;
+        }
+    }
+
+    /**
+     * Gets the current version.
+     *
+     * @return version
+     */
+    public static long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the online message, the returned object is shared and must not be modified.
+     *
+     * @return online message, for example,
+     * <pre>
+     * {
+     *     "onlineChatCnt": 2,
+     *     "type": "online",
+     *     "version": 42,
+     *     "users": [{"userName": "", "userAvatarURL": "", "homePage": "", ...}, ...],
+     *     "discussing": ""
+     * }
+     * </pre>
+     */
+    public static JSONObject getOnline() {
+        return current().online;
+    }
+
+    /**
+     * Gets the encoded online message.
+     *
+     * @return encoded online message
+     * @see #getOnline()
+     */
+    public static String getOnlineJSON() {
+        return current().json;
+    }
+
+    /**
+     * Gets the roster changes since the specified version.
+     *
+     * @param since the specified version
+     * @return delta message, for example,
+     * <pre>
+     * {
+     *     "onlineChatCnt": 2,
+     *     "type": "onlineDelta",
+     *     "version": 45,
+     *     "since": 42,
+     *     "joined": [{"userName": "", ...}, ...],
+     *     "left": ["", ...],
+     *     "discussing": ""
+     * }
+     * </pre>
+     * returns {@code null} if the version is too old to compute a delta, the full roster should be used instead
+     */
+    public static JSONObject getDelta(final long since) {
+        synchronized (LOCK) {
+            if (since > version || since < horizon) {
+                return null;
+            }
+
+            final Map<String, JSONObject> changes = new LinkedHashMap<>();
+            for (final Delta delta : DELTAS) {
+                if (delta.version > since) {
+                    changes.remove(delta.userName);
+                    changes.put(delta.userName, delta.onlineUser);
+                }
+            }
+            final JSONArray joined = new JSONArray();
+            final JSONArray left = new JSONArray();
+            for (final Map.Entry<String, JSONObject> change : changes.entrySet()) {
+                if (null == change.getValue()) {
+                    left.put(change.getKey());
+                } else {
+                    joined.put(change.getValue());
+                }
+            }
+
+            return new JSONObject()
+                    .put(Common.ONLINE_CHAT_CNT, countOnline())
+                    .put(Common.TYPE, "onlineDelta")
+                    .put("version", version)
+                    .put("since", since)
+                    .put("joined", joined)
+                    .put("left", left)
+                    .put("discussing", ChatroomChannel.discussing);
+        }
+    }
+
+    private static Snapshot current() {
+        Snapshot ret = snapshot;
+        if (ret.version == version) {
+            return ret;
+        }
+
+        synchronized (LOCK) {
+            if (snapshot.version == version) {
+                return snapshot;
+            }
+
+            final JSONArray users = new JSONArray();
+            for (final JSONObject onlineUser : LOCAL.values()) {
+                users.put(onlineUser);
+            }
+            for (final Map.Entry<String, JSONObject> entry : REMOTE.entrySet()) {
+                if (!LOCAL.containsKey(entry.getKey())) {
+                    users.put(entry.getValue());
+                }
+            }
+            final JSONObject online = new JSONObject();
+            online.put(Common.ONLINE_CHAT_CNT, users.length());
+            online.put(Common.TYPE, "online");
+            online.put("version", version);
+            online.put("users", users);
+            online.put("discussing", ChatroomChannel.discussing);
+
+            ret = new Snapshot(version, online, online.toString());
+            snapshot = ret;
+            return ret;
+        }
+    }
+
+    private static int countOnline() {
+        int ret = LOCAL.size();
+        for (final String userName : REMOTE.keySet()) {
+            if (!LOCAL.containsKey(userName)) {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    private static void change(final String userName, final JSONObject onlineUser) {
+        version = version + 1;
+        DELTAS.addLast(new Delta(version, userName, onlineUser));
+        while (DELTAS.size() > MAX_DELTAS) {
+            horizon = DELTAS.pollFirst().version;
+        }
+    }
+
+    private static JSONObject genOnlineUser(final JSONObject user) {
+        final AvatarQueryService avatarQueryService = BeanManager.getInstance().getReference(AvatarQueryService.class);
+        final String userName = user.optString(User.USER_NAME);
+        final JSONObject ret = new JSONObject();
+        ret.put(User.USER_NAME, userName);
+        ret.put(UserExt.USER_AVATAR_URL, user.optString(UserExt.USER_AVATAR_URL));
+        avatarQueryService.fillUserAvatarURL(ret);
+        ret.put("homePage", Latkes.getStaticServePath() + "/member/" + userName);
+        return ret;
+    }
+
+    /**
+     * A roster change, {@code onlineUser} is {@code null} for a leave.
+     */
+    private static final class Delta {
+
+        private final long version;
+
+        private final String userName;
+
+        private final JSONObject onlineUser;
+
+        private Delta(final long version, final String userName, final JSONObject onlineUser) {
+            this.version = version;
+            this.userName = userName;
+            this.onlineUser = onlineUser;
+        }
+    }
+
+    /**
+     * Built online message of one version.
+     */
+    private static final class Snapshot {
+
+        private final long version;
+
+        private final JSONObject online;
+
+        private final String json;
+
+        private Snapshot(final long version, final JSONObject online, final String json) {
+            this.version = version;
+            this.online = online;
+            this.json = json;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.processor.channel;
+
+import org.b3log.latke.http.WebSocketSession;
+import org.b3log.latke.model.User;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Two-way index of chatroom sessions, &lt;session, user&gt; and &lt;userName, sessions&gt;.
+ * <p>
+ * Join and leave detection is atomic per user name, so concurrent connects and disconnects of the same user agree
+ * on which one is the first session and which one is the last. The {@link ChatroomRoster} is updated within the same
+ * atomic step, so a join racing the last leave of the same user can not leave the roster out of sync.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.0.1.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public final class ChatroomSessionRegistry {
+
+    /**
+     * Session users, &lt;session, user&gt;.
+     */
+    private static final Map<WebSocketSession, JSONObject> SESSION_USERS = new ConcurrentHashMap<>();
+
+    /**
+     * User presences, &lt;userName, presence&gt;.
+     */
+    private static final Map<String, Presence> PRESENCES = new ConcurrentHashMap<>();
+
+    /**
+     * Private constructor.
+     */
+    private ChatroomSessionRegistry() {
+    }
+
+    /**
+     * Registers the specified session of the specified user, adds the user to the roster on the first session.
+     *
+     * @param session the specified session
+     * @param user    the specified user
+     * @return {@code true} if it is the first session of the user, returns {@code false} otherwise
+     */
+    public static boolean join(final WebSocketSession session, final JSONObject user) {
+        final String userName = user.optString(User.USER_NAME);
+        final boolean[] first = {false};
+        PRESENCES.compute(userName, (name, presence) -> {
+            if (null == presence) {
+                presence = new Presence();
+                first[0] = true;
+                // 与会话登记在同一原子步骤内更新在线列表
+                ChatroomRoster.join(user);
+            }
+            presence.user = user;
+            presence.sessions.add(session);
+            SESSION_USERS.put(session, user);
+            return presence;
+        });
+        return first[0];
+    }
+
+    /**
+     * Unregisters the specified session, removes the user from the roster on the last session.
+     *
+     * @param session the specified session
+     * @return the user name if it was the last session of the user, returns {@code null} otherwise
+     */
+    public static String leave(final WebSocketSession session) {
+        final JSONObject user = SESSION_USERS.get(session);
+        if (null == user) {
+            return null;
+        }
+
+        final String userName = user.optString(User.USER_NAME);
+        final boolean[] last = {false};
+        PRESENCES.computeIfPresent(userName, (name, presence) -> {
+            SESSION_USERS.remove(session);
+            presence.sessions.remove(session);
+            if (presence.sessions.isEmpty()) {
+                last[0] = true;
+                ChatroomRoster.leave(name);
+                return null;
+            }
+            return presence;
+        });
+        return last[0] ? userName : null;
+    }
+
+    /**
+     * Gets the user of the specified session.
+     *
+     * @param session the specified session
+     * @return user, returns {@code null} if not found
+     */
+    public static JSONObject getUser(final WebSocketSession session) {
+        return SESSION_USERS.get(session);
+    }
+
+    /**
+     * Gets the sessions of the specified user.
+     *
+     * @param userName the specified user name
+     * @return sessions, returns an empty set if the user is offline
+     */
+    public static Set<WebSocketSession> getSessions(final String userName) {
+        final Presence presence = PRESENCES.get(userName);
+        if (null == presence) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(presence.sessions);
+    }
+
+    /**
+     * Checks whether the specified user has at least one session.
+     *
+     * @param userName the specified user name
+     * @return {@code true} if online, returns {@code false} otherwise
+     */
+    public static boolean isOnline(final String userName) {
+        return PRESENCES.containsKey(userName);
+    }
+
+    /**
+     * Gets the names of online users.
+     *
+     * @return user names
+     */
+    public static Set<String> getUserNames() {
+        return Collections.unmodifiableSet(PRESENCES.keySet());
+    }
+
+    /**
+     * Gets online users, one per user name.
+     *
+     * @return users
+     */
+    public static List<JSONObject> getUsers() {
+        final List<JSONObject> ret = new ArrayList<>(PRESENCES.size());
+        for (final Presence presence : PRESENCES.values()) {
+            ret.add(presence.user);
+        }
+        return ret;
+    }
+
+    /**
+     * Gets session count of each online user.
+     *
+     * @return &lt;userName, sessionCount&gt;
+     */
+    public static Map<String, Integer> getSessionCounts() {
+        final Map<String, Integer> ret = new HashMap<>();
+        PRESENCES.forEach((userName, presence) -> ret.put(userName, presence.sessions.size()));
+        return ret;
+    }
+
+    /**
+     * Gets the number of online users.
+     *
+     * @return user count
+     */
+    public static int getUserCount() {
+        return PRESENCES.size();
+    }
+
+    /**
+     * Gets the number of registered sessions.
+     *
+     * @return session count
+     */
+    public static int getSessionCount() {
+        return SESSION_USERS.size();
+    }
+
+    /**
+     * Sessions of one user.
+     */
+    private static final class Presence {
+
+        private final Set<WebSocketSession> sessions = ConcurrentHashMap.newKeySet();
+
+        private volatile JSONObject user;
+    }
+}
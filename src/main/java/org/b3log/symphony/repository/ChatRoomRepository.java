@@ -18,21 +18,202 @@
  */
 package org.b3log.symphony.repository;
 
+import org.apache.commons.lang.StringUtils;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.b3log.latke.ioc.Inject;
 import org.b3log.latke.repository.AbstractRepository;
 import org.b3log.latke.repository.RepositoryException;
+import org.b3log.latke.repository.Transaction;
 import org.b3log.latke.repository.annotation.Repository;
+import org.b3log.symphony.cache.ChatMessageCache;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Repository
 public class ChatRoomRepository extends AbstractRepository {
 
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LogManager.getLogger(ChatRoomRepository.class);
+
+    /**
+     * Cache changes waiting for the transaction of the current thread to commit.
+     */
+    private static final ThreadLocal<PendingChanges> PENDING_CHANGES = new ThreadLocal<>();
+
+    /**
+     * Chat message cache.
+     */
+    @Inject
+    private ChatMessageCache chatMessageCache;
+
     /**
      * Public constructor.
      */
     public ChatRoomRepository() { super("chat_room"); }
 
+    /**
+     * Begins a transaction, changes of {@link ChatMessageCache} made in it are applied after it commits and dropped
+     * if it rolls back.
+     *
+     * @return transaction
+     */
+    @Override
+    public Transaction beginTransaction() {
+        final Transaction ret = super.beginTransaction();
+        final PendingChanges pending = PENDING_CHANGES.get();
+        if (null != pending && pending.transaction.isActive()) {
+            // 嵌套开启时复用外层事务，由任意一次提交统一应用
+            return pending;
+        }
+
+        final PendingChanges changes = new PendingChanges(ret);
+        PENDING_CHANGES.set(changes);
+        return changes;
+    }
+
     @Override
     public String add(JSONObject jsonObject) throws RepositoryException {
-        return super.add(jsonObject);
+        final String ret = super.add(jsonObject);
+        final String content = jsonObject.optString("content");
+        afterCommit(() -> chatMessageCache.putMessage(ret, content));
+        return ret;
+    }
+
+    @Override
+    public void update(final String id, final JSONObject jsonObject, final String... propertyNames) throws RepositoryException {
+        super.update(id, jsonObject, propertyNames);
+        if (jsonObject.has("content")) {
+            final String content = jsonObject.optString("content");
+            afterCommit(() -> chatMessageCache.updateMessage(id, content));
+        }
+    }
+
+    @Override
+    public void remove(final String id) throws RepositoryException {
+        super.remove(id);
+        afterCommit(() -> chatMessageCache.removeMessage(id));
+    }
+
+    /**
+     * Gets records older than the specified cursor, served from {@link ChatMessageCache} when possible.
+     *
+     * @param before the specified cursor oId, {@code null} or blank for the newest records
+     * @param size   the specified record count
+     * @return records ({@code oId} and {@code content} only), newest first
+     * @throws RepositoryException repository exception
+     */
+    public List<JSONObject> getHistory(final String before, final int size) throws RepositoryException {
+        loadWindow();
+        final List<JSONObject> ret = chatMessageCache.getMessages(before, size);
+        if (null != ret) {
+            return ret;
+        }
+
+        if (StringUtils.isBlank(before)) {
+            return select("SELECT oId, content FROM `" + getName() + "` ORDER BY oId DESC LIMIT ?", size);
+        }
+        // 基于 oId 的游标分页，深翻页无需扫描并丢弃前面的记录
+        return select("SELECT oId, content FROM `" + getName() + "` WHERE oId < ? ORDER BY oId DESC LIMIT ?", before, size);
+    }
+
+    /**
+     * Gets records of the specified page, served from {@link ChatMessageCache} when possible.
+     *
+     * @param start the specified offset
+     * @param size  the specified record count
+     * @return records ({@code oId} and {@code content} only), newest first
+     * @throws RepositoryException repository exception
+     */
+    public List<JSONObject> getPage(final int start, final int size) throws RepositoryException {
+        loadWindow();
+        final List<JSONObject> ret = chatMessageCache.getMessages(start, size);
+        if (null != ret) {
+            return ret;
+        }
+
+        return select("SELECT oId, content FROM `" + getName() + "` ORDER BY oId DESC LIMIT ?, ?", start, size);
+    }
+
+    private void loadWindow() {
+        if (chatMessageCache.isLoaded()) {
+            return;
+        }
+
+        chatMessageCache.load(() -> {
+            try {
+                return select("SELECT oId, content FROM `" + getName() + "` ORDER BY oId DESC LIMIT ?", ChatMessageCache.WINDOW);
+            } catch (final RepositoryException e) {
+                LOGGER.log(Level.ERROR, "Loads chat message window failed", e);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Applies the specified cache change once the transaction of the current thread commits, applies it at once if
+     * the change is not made in a transaction begun by this repository.
+     *
+     * @param change the specified cache change
+     */
+    private static void afterCommit(final Runnable change) {
+        final PendingChanges pending = PENDING_CHANGES.get();
+        if (null == pending || !pending.transaction.isActive()) {
+            PENDING_CHANGES.remove();
+            change.run();
+            return;
+        }
+
+        pending.changes.add(change);
+    }
+
+    /**
+     * Transaction which holds cache changes until it commits.
+     */
+    private static final class PendingChanges implements Transaction {
+
+        private final Transaction transaction;
+
+        private final List<Runnable> changes = new ArrayList<>();
+
+        private PendingChanges(final Transaction transaction) {
+            this.transaction = transaction;
+        }
+
+        @Override
+        public String getId() {
+            return transaction.getId();
+        }
+
+        @Override
+        public void commit() {
+            transaction.commit();
+            PENDING_CHANGES.remove();
+            for (final Runnable change : changes) {
+                try {
+                    change.run();
+                } catch (final Exception e) {
+                    LOGGER.log(Level.ERROR, "Applies chat message cache change failed", e);
+                }
+            }
+            changes.clear();
+        }
+
+        @Override
+        public void rollback() {
+            PENDING_CHANGES.remove();
+            changes.clear();
+            transaction.rollback();
+        }
+
+        @Override
+        public boolean isActive() {
+            return transaction.isActive();
+        }
     }
 }
@@ -28,7 +28,12 @@ import org.b3log.symphony.model.Role;
 import org.b3log.symphony.model.UserExt;
 import org.json.JSONObject;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -36,7 +41,7 @@ import java.util.concurrent.locks.ReentrantLock;
  * User repository.
  *
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
- * @version 2.2.0.0, Jun 23, 2020
+ * @version 2.3.0.0, Oct 18, 2026
  * @since 0.2.0
  */
 @Repository
@@ -107,6 +112,36 @@ public class UserRepository extends AbstractRepository {
         }
     }
 
+    /**
+     * Gets users by the specified ids, cache misses are loaded with one query.
+     *
+     * @param ids the specified ids
+     * @return &lt;id, user&gt;, users not found are absent
+     * @throws RepositoryException repository exception
+     */
+    public Map<String, JSONObject> getByIds(final Collection<String> ids) throws RepositoryException {
+        final Map<String, JSONObject> ret = new HashMap<>();
+        final Set<String> misses = new HashSet<>();
+        for (final String id : ids) {
+            final JSONObject user = userCache.getUser(id);
+            if (null != user) {
+                ret.put(id, user);
+            } else {
+                misses.add(id);
+            }
+        }
+        if (misses.isEmpty()) {
+            return ret;
+        }
+
+        final Query query = new Query().setPageCount(1).setFilter(new PropertyFilter(Keys.OBJECT_ID, FilterOperator.IN, misses));
+        for (final JSONObject user : getList(query)) {
+            userCache.putUser(user);
+            ret.put(user.optString(Keys.OBJECT_ID), user);
+        }
+        return ret;
+    }
+
     /**
      * Gets a user by the specified name.
      *
@@ -55,7 +55,7 @@ import java.util.*;
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
  * @author <a href="https://ld246.com/member/ZephyrJung">Zephyr</a>
  * @author <a href="https://qiankunpingtai.cn">qiankunpingtai</a>
- * @version 2.18.5.11, Jun 6, 2019
+ * @version 2.19.0.1, Oct 18, 2026
  * @since 0.2.0
  */
 @Service
@@ -220,6 +220,18 @@ public class ArticleMgmtService {
     @Inject
     private VisitMgmtService visitMgmtService;
 
+    /**
+     * Hot article ranking service.
+     */
+    @Inject
+    private HotArticleRankingService hotArticleRankingService;
+
+    /**
+     * Relevant article index.
+     */
+    @Inject
+    private RelevantArticleIndex relevantArticleIndex;
+
     /**
      * Determines whether the specified tag title exists in the specified tags.
      *
@@ -357,11 +369,13 @@ public class ArticleMgmtService {
      *
      * @param articleId the given article id
      */
-    @Transactional
     public void removeArticleByAdmin(final String articleId) {
+        final Transaction transaction = articleRepository.beginTransaction();
         try {
             final JSONObject article = articleRepository.get(articleId);
             if (null == article) {
+                transaction.rollback();
+
                 return;
             }
 
@@ -422,6 +436,12 @@ public class ArticleMgmtService {
             rewardRepository.removeByDataId(articleId);
             voteRepository.removeByDataId(articleId);
 
+            transaction.commit();
+
+            // 提交后再清理内存索引和搜索引擎，回滚时文章仍然可见
+            relevantArticleIndex.onArticleRemoved(articleId);
+            ArticleQueryService.removeRelevantArticles(articleId);
+
             if (Symphonys.ALGOLIA_ENABLED) {
                 searchMgmtService.removeAlgoliaDocument(article);
             }
@@ -430,11 +450,19 @@ public class ArticleMgmtService {
                 searchMgmtService.removeESDocument(article, Article.ARTICLE);
             }
 
+            if (Symphonys.LOCAL_SEARCH_ENABLED) {
+                searchMgmtService.removeLocalDocument(article);
+            }
+
             final String audioURL = article.optString(Article.ARTICLE_AUDIO_URL);
             if (StringUtils.isNotBlank(audioURL)) {
                 audioMgmtService.removeAudioFile(audioURL);
             }
         } catch (final RepositoryException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+
             LOGGER.log(Level.ERROR, "Removes an article error [id=" + articleId + "]", e);
         }
     }
@@ -1241,6 +1269,7 @@ public class ArticleMgmtService {
             final Transaction transaction = articleRepository.beginTransaction();
             articleRepository.update(articleId, article, Article.ARTICLE_THANK_CNT);
             transaction.commit();
+            hotArticleRankingService.onScoreChanged(article);
 
             final JSONObject reward = new JSONObject();
             reward.put(Keys.OBJECT_ID, thankId);
@@ -18,6 +18,8 @@
  */
 package org.b3log.symphony.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.vdurmont.emoji.EmojiParser;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.DateFormatUtils;
@@ -32,6 +34,7 @@ import org.b3log.latke.ioc.Inject;
 import org.b3log.latke.model.Pagination;
 import org.b3log.latke.model.User;
 import org.b3log.latke.repository.*;
+import org.b3log.latke.repository.jdbc.JdbcRepository;
 import org.b3log.latke.service.LangPropsService;
 import org.b3log.latke.service.ServiceException;
 import org.b3log.latke.service.annotation.Service;
@@ -55,8 +58,8 @@ import org.jsoup.select.Elements;
 
 import java.text.DecimalFormat;
 import java.util.*;
-import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Article query service.
@@ -64,7 +67,7 @@ import java.util.concurrent.TimeUnit;
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
  * @author <a href="http://vanessa.b3log.org">Liyuan Li</a>
  * @author <a href="https://qiankunpingtai.cn">qiankunpingtai</a>
- * @version 2.28.2.3, Jul 22, 2020
+ * @version 2.29.0.1, Oct 18, 2026
  * @since 0.2.0
  */
 @Service
@@ -75,6 +78,19 @@ public class ArticleQueryService {
      */
     private static final Logger LOGGER = LogManager.getLogger(ArticleQueryService.class);
 
+    /**
+     * 整理一个列表超过该耗时（毫秒）时以 INFO 级别输出耗时明细.
+     */
+    private static final long SLOW_ORGANIZE_MILLIS = 500;
+
+    /**
+     * Relevant articles, &lt;articleId, organized relevant articles&gt;.
+     */
+    private static final Cache<String, List<JSONObject>> RELEVANT_ARTICLES = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .build();
+
     /**
      * Article repository.
      */
@@ -111,6 +127,18 @@ public class ArticleQueryService {
     @Inject
     private DomainTagRepository domainTagRepository;
 
+    /**
+     * Hot article ranking service.
+     */
+    @Inject
+    private HotArticleRankingService hotArticleRankingService;
+
+    /**
+     * Relevant article index.
+     */
+    @Inject
+    private RelevantArticleIndex relevantArticleIndex;
+
     /**
      * Comment query service.
      */
@@ -696,61 +724,31 @@ public class ArticleQueryService {
      * @return relevant articles, returns an empty list if not found
      */
     public List<JSONObject> getRelevantArticles(final JSONObject article, final int fetchSize) {
+        final String articleId = article.optString(Keys.OBJECT_ID);
+        final List<JSONObject> cached = RELEVANT_ARTICLES.getIfPresent(articleId);
+        if (null != cached) {
+            return JSONs.clone(cached);
+        }
+
         final String tagsString = article.optString(Article.ARTICLE_TAGS);
-        String[] tagTitles = tagsString.split(",");
-        final List<String> excludedB3logTitles = new ArrayList<>();
-        for (int i = 0; i < tagTitles.length; i++) {
-            if (!"B3log".equalsIgnoreCase(tagTitles[i])) {
-                excludedB3logTitles.add(tagTitles[i]);
+        final List<String> tagTitles = new ArrayList<>();
+        for (final String tagTitle : tagsString.split(",")) {
+            if (!"B3log".equalsIgnoreCase(tagTitle)) {
+                tagTitles.add(tagTitle);
             }
         }
-        if (excludedB3logTitles.size() < 1) {
-            excludedB3logTitles.add("B3log");
+        if (tagTitles.isEmpty()) {
+            tagTitles.add("B3log");
         }
-        tagTitles = excludedB3logTitles.toArray(new String[0]);
-        final Set<String> fetchedArticleIds = new HashSet<>();
         try {
-            List<JSONObject> ret = new ArrayList<>();
-            final List<JSONObject> tags = new ArrayList<>();
-            for (int i = 0; i < tagTitles.length; i++) {
-                final String tagTitle = tagTitles[i];
-                final JSONObject tag = tagRepository.getByTitle(tagTitle);
-                tags.add(tag);
-            }
-            Collections.sort(tags, Comparator.comparingInt(t -> t.optInt(Tag.TAG_REFERENCE_CNT)));
-
-            for (final JSONObject tag : tags) {
-                final String tagId = tag.optString(Keys.OBJECT_ID);
-                JSONObject result = tagArticleRepository.getByTagId(tagId, 1, fetchSize);
-                final List<JSONObject> tagArticleRelations = (List<JSONObject>) result.opt(Keys.RESULTS);
-                final Set<String> articleIds = new HashSet<>();
-                for (final JSONObject tagArticleRelation : tagArticleRelations) {
-                    final String articleId = tagArticleRelation.optString(Article.ARTICLE + '_' + Keys.OBJECT_ID);
-                    if (fetchedArticleIds.contains(articleId)) {
-                        continue;
-                    }
-
-                    articleIds.add(articleId);
-                    fetchedArticleIds.add(articleId);
-                }
-
-                articleIds.remove(article.optString(Keys.OBJECT_ID));
-                final Query query = new Query().setFilter(new PropertyFilter(Keys.OBJECT_ID, FilterOperator.IN, articleIds)).
-                        select(Article.ARTICLE_TITLE, Article.ARTICLE_PERMALINK, Article.ARTICLE_AUTHOR_ID);
-                ret.addAll(articleRepository.getList(query));
-                if (ret.size() >= fetchSize) {
-                    break;
-                }
-            }
-
-            final int size = ret.size() > fetchSize ? fetchSize : ret.size();
-            ret = ret.subList(0, size);
+            final List<JSONObject> ret = relevantArticleIndex.getRelevantArticles(articleId, tagTitles, fetchSize);
+            organizeArticles(ret);
             if (ret.size() < fetchSize) {
-                final List<JSONObject> hotArticles = getHotArticles(fetchSize - ret.size());
-                ret.addAll(0, hotArticles);
+                // 热门文章已是整理过的副本，无需再次整理
+                ret.addAll(0, getHotArticles(fetchSize - ret.size()));
             }
 
-            organizeArticles(ret);
+            RELEVANT_ARTICLES.put(articleId, JSONs.clone(ret));
             return ret;
         } catch (final Exception e) {
             LOGGER.log(Level.ERROR, "Gets relevant articles failed", e);
@@ -758,6 +756,15 @@ public class ArticleQueryService {
         }
     }
 
+    /**
+     * Removes the cached relevant articles of the specified article.
+     *
+     * @param articleId the specified article id
+     */
+    public static void removeRelevantArticles(final String articleId) {
+        RELEVANT_ARTICLES.invalidate(articleId);
+    }
+
     /**
      * Gets articles by the specified tags (order by article create date desc).
      *
@@ -1431,90 +1438,21 @@ public class ArticleQueryService {
         return ret;
     }
 
+    /**
+     * Refreshes the hot articles, reconciles the ranking with database.
+     */
+    public void refreshHotArticlesCache() {
+        hotArticleRankingService.reconcile();
+    }
+
     /**
      * Gets the hot articles with the specified fetch size.
      *
      * @param fetchSize the specified fetch size
      * @return hot articles, returns an empty list if not found
      */
-    private static List<JSONObject> hotArticlesCache = Collections.synchronizedList(new ArrayList<>());
-    public synchronized void refreshHotArticlesCache() {
-        try {
-            final long thirtyDaysAgo = DateUtils.addDays(new Date(), -365).getTime();
-            List<JSONObject> ret = articleRepository.select("" +
-                    "SELECT " +
-                    "    *, " +
-                    "    (articleThankCnt + articleGoodCnt + articleCollectCnt + articleWatchCnt - articleBadCnt) AS total_score " +
-                    "FROM " +
-                    "    symphony_article " +
-                    "WHERE " +
-                    "    articleCreateTime > " + thirtyDaysAgo + " AND articleStatus <> 1 AND articleType <> 1 AND articleShowInList <> 0 " +
-                    "ORDER BY " +
-                    "    total_score DESC " +
-                    "limit 50");
-            ret.sort((o1, o2) -> {
-                long o1Time = o1.optLong(Article.ARTICLE_UPDATE_TIME);
-                long o2Time = o2.optLong(Article.ARTICLE_UPDATE_TIME);
-                if (o1Time > o2Time) {
-                    return -1;
-                } else if (o1Time == o2Time) {
-                    return 0;
-                } else {
-                    return 1;
-                }
-            });
-            organizeArticles(ret);
-            Collections.shuffle(ret);
-            hotArticlesCache = Collections.synchronizedList(new ArrayList<>(ret));
-            System.out.println(">>> Refreshed hot articles cache.");
-        } catch (Exception e) {
-            LOGGER.log(Level.ERROR, "Refresh hot articles cache failed", e);
-        }
-    }
-    public synchronized List<JSONObject> getHotArticles(final int fetchSize) {
-        try {
-            List<JSONObject> ret = Collections.synchronizedList(new ArrayList<>(hotArticlesCache));
-            if (hotArticlesCache.size() > fetchSize) {
-                ret = ret.subList(0, fetchSize);
-            }
-
-            ret.sort((o1, o2) -> {
-                int o1Time = o1.optInt("total_score");
-                int o2Time = o2.optInt("total_score");
-                if (o1Time > o2Time) {
-                    return -1;
-                } else if (o1Time == o2Time) {
-                    return 0;
-                } else {
-                    return 1;
-                }
-            });
-
-            Stopwatchs.start("Checks author status");
-            try {
-                for (final JSONObject article : ret) {
-                    final String authorId = article.optString(Article.ARTICLE_AUTHOR_ID);
-
-                    final JSONObject author = userRepository.get(authorId);
-
-                    if (UserExt.USER_STATUS_C_INVALID == author.optInt(UserExt.USER_STATUS)) {
-                        article.put(Article.ARTICLE_TITLE, langPropsService.get("articleTitleBlockLabel"));
-                        article.put(Article.ARTICLE_T_TITLE_EMOJI, langPropsService.get("articleTitleBlockLabel"));
-                        article.put(Article.ARTICLE_T_TITLE_EMOJI_UNICODE, langPropsService.get("articleTitleBlockLabel"));
-                    }
-                }
-            } finally {
-                Stopwatchs.end();
-            }
-
-//            final Integer participantsCnt = Symphonys.getInt("indexArticleParticipantsCnt");
-//            genParticipants(ret, participantsCnt);
-            return ret;
-        } catch (final RepositoryException e) {
-            LOGGER.log(Level.ERROR, "Gets index articles failed", e);
-
-            return Collections.emptyList();
-        }
+    public List<JSONObject> getHotArticles(final int fetchSize) {
+        return hotArticleRankingService.getHotArticles(fetchSize);
     }
 
     /**
@@ -1590,21 +1528,33 @@ public class ArticleQueryService {
      * @see #organizeArticle(org.json.JSONObject)
      */
     public void organizeArticles(final List<JSONObject> articles) {
+        if (articles.isEmpty()) {
+            return;
+        }
+
         Stopwatchs.start("Organize articles");
+        final long start = System.nanoTime();
         try {
-            final ForkJoinPool pool = new ForkJoinPool(Symphonys.PROCESSORS);
-            pool.submit(() -> articles.parallelStream().forEach(article -> {
+            final Map<String, JSONObject> authors = getArticleAuthors(articles);
+            final long authored = System.nanoTime();
+            final OrganizeTimings timings = new OrganizeTimings();
+            Symphonys.ORGANIZER_POOL.submit(() -> articles.parallelStream().forEach(article -> {
                 try {
-                    organizeArticle(article);
+                    organizeArticle(article, authors, timings);
                 } catch (final Exception e) {
                     LOGGER.log(Level.ERROR, "Organizes article [" + article.optString(Keys.OBJECT_ID) + "] failed", e);
                 } finally {
-                    // LOGGER.log(Level.INFO, "Stopwatch: {}{}", Strings.LINE_SEPARATOR, Stopwatchs.getTimingStat());
+                    // 整理线程池的工作线程会做阻塞查询，需归还线程本地的数据库连接
+                    JdbcRepository.dispose();
                     Stopwatchs.release();
                 }
-            }));
-            pool.shutdown();
-            pool.awaitTermination(10, TimeUnit.SECONDS);
+            })).get(10, TimeUnit.SECONDS);
+            final long end = System.nanoTime();
+
+            final long totalMillis = TimeUnit.NANOSECONDS.toMillis(end - start);
+            LOGGER.log(totalMillis >= SLOW_ORGANIZE_MILLIS ? Level.INFO : Level.DEBUG, "Organized articles [count=" + articles.size()
+                    + ", authors=" + authors.size() + ", authorLoadMs=" + TimeUnit.NANOSECONDS.toMillis(authored - start)
+                    + ", organizeMs=" + TimeUnit.NANOSECONDS.toMillis(end - authored) + ", " + timings + ", totalMs=" + totalMillis + "]");
         } catch (final Exception e) {
             LOGGER.log(Level.ERROR, "Organizes articles failed", e);
         } finally {
@@ -1612,6 +1562,31 @@ public class ArticleQueryService {
         }
     }
 
+    /**
+     * Gets authors of the specified articles, all distinct authors are loaded in one go.
+     *
+     * @param articles the specified articles
+     * @return &lt;authorId, author&gt;, the anonymous user is keyed by {@link UserExt#ANONYMOUS_USER_NAME}
+     * @throws RepositoryException repository exception
+     */
+    private Map<String, JSONObject> getArticleAuthors(final List<JSONObject> articles) throws RepositoryException {
+        final Set<String> authorIds = new HashSet<>();
+        boolean anonymous = false;
+        for (final JSONObject article : articles) {
+            if (Article.ARTICLE_ANONYMOUS_C_PUBLIC == article.optInt(Article.ARTICLE_ANONYMOUS)) {
+                authorIds.add(article.optString(Article.ARTICLE_AUTHOR_ID));
+            } else {
+                anonymous = true;
+            }
+        }
+
+        final Map<String, JSONObject> ret = userRepository.getByIds(authorIds);
+        if (anonymous) {
+            ret.put(UserExt.ANONYMOUS_USER_NAME, userRepository.getAnonymousUser());
+        }
+        return ret;
+    }
+
     /**
      * Organizes the specified article.
      * <ul>
@@ -1635,10 +1610,25 @@ public class ArticleQueryService {
      * @throws RepositoryException repository exception
      */
     public void organizeArticle(final JSONObject article) throws RepositoryException {
+        organizeArticle(article, null, new OrganizeTimings());
+    }
+
+    /**
+     * Organizes the specified article with the specified preloaded authors.
+     *
+     * @param article the specified article
+     * @param authors the specified preloaded authors, may be {@code null}
+     * @param timings the specified timings to accumulate into
+     * @throws RepositoryException repository exception
+     * @see #organizeArticle(JSONObject)
+     */
+    private void organizeArticle(final JSONObject article, final Map<String, JSONObject> authors, final OrganizeTimings timings) throws RepositoryException {
+        long start = System.nanoTime();
         article.put(Article.ARTICLE_T_ORIGINAL_CONTENT, article.optString(Article.ARTICLE_CONTENT));
         article.put(Common.OFFERED, false);
         toArticleDate(article);
-        genArticleAuthor(article);
+        genArticleAuthor(article, authors);
+        start = timings.author.lap(start);
 
         final String previewContent = getArticleMetaDesc(article);
         article.put(Article.ARTICLE_T_PREVIEW_CONTENT, previewContent);
@@ -1650,12 +1640,14 @@ public class ArticleQueryService {
             content = Images.qiniuImgProcessing(content);
             article.put(Article.ARTICLE_CONTENT, content);
         }
+        start = timings.content.lap(start);
 
         final String title = Escapes.escapeHTML(article.optString(Article.ARTICLE_TITLE));
         article.put(Article.ARTICLE_TITLE, title);
 
         article.put(Article.ARTICLE_T_TITLE_EMOJI, Emotions.convert(title));
         article.put(Article.ARTICLE_T_TITLE_EMOJI_UNICODE, EmojiParser.parseToUnicode(title));
+        start = timings.title.lap(start);
 
         if (Article.ARTICLE_STATUS_C_INVALID == article.optInt(Article.ARTICLE_STATUS)) {
             article.put(Article.ARTICLE_TITLE, langPropsService.get("articleTitleBlockLabel"));
@@ -1701,12 +1693,14 @@ public class ArticleQueryService {
         final String tagsStr = article.optString(Article.ARTICLE_TAGS);
         final List<JSONObject> tags = tagQueryService.buildTagObjs(tagsStr);
         article.put(Article.ARTICLE_T_TAG_OBJS, (Object) tags);
+        start = timings.tags.lap(start);
 
         // q&a status
         if (Article.ARTICLE_TYPE_C_QNA == article.optInt(Article.ARTICLE_TYPE)) {
             final String articleAuthorId = article.optString(Article.ARTICLE_AUTHOR_ID);
             article.put(Common.OFFERED, rewardQueryService.isRewarded(articleAuthorId, articleId, Reward.TYPE_C_ACCEPT_COMMENT));
         }
+        timings.misc.lap(start);
     }
 
     /**
@@ -1791,16 +1785,23 @@ public class ArticleQueryService {
      * Generates the specified article author name and thumbnail URL.
      *
      * @param article the specified article
+     * @param authors the specified preloaded authors, may be {@code null}
      * @throws RepositoryException repository exception
      */
-    private void genArticleAuthor(final JSONObject article) throws RepositoryException {
+    private void genArticleAuthor(final JSONObject article, final Map<String, JSONObject> authors) throws RepositoryException {
         final String authorId = article.optString(Article.ARTICLE_AUTHOR_ID);
-
-        JSONObject author;
-        if (Article.ARTICLE_ANONYMOUS_C_PUBLIC == article.optInt(Article.ARTICLE_ANONYMOUS)) {
-            author = userRepository.get(authorId);
-        } else {
-            author = userRepository.getAnonymousUser();
+        final boolean anonymous = Article.ARTICLE_ANONYMOUS_C_PUBLIC != article.optInt(Article.ARTICLE_ANONYMOUS);
+
+        JSONObject author = null;
+        if (null != authors) {
+            // 同一作者的多篇文章各自持有一份副本
+            author = authors.get(anonymous ? UserExt.ANONYMOUS_USER_NAME : authorId);
+            if (null != author) {
+                author = JSONs.clone(author);
+            }
+        }
+        if (null == author) {
+            author = anonymous ? userRepository.getAnonymousUser() : userRepository.get(authorId);
         }
         int authorAvatarType = author.optInt(UserExt.USER_AVATAR_TYPE);
         author.put(UserExt.USER_AVATAR_TYPE, authorAvatarType);
@@ -2344,4 +2345,56 @@ public class ArticleQueryService {
             return Collections.emptyList();
         }
     }
+
+    /**
+     * Time spent in each organizing phase, summed over the articles of one list.
+     */
+    private static final class OrganizeTimings {
+
+        private final Phase author = new Phase("authorMs");
+
+        private final Phase content = new Phase("contentMs");
+
+        private final Phase title = new Phase("titleMs");
+
+        private final Phase tags = new Phase("tagsMs");
+
+        private final Phase misc = new Phase("miscMs");
+
+        @Override
+        public String toString() {
+            return author + ", " + content + ", " + title + ", " + tags + ", " + misc;
+        }
+    }
+
+    /**
+     * Accumulated time of one organizing phase.
+     */
+    private static final class Phase {
+
+        private final String name;
+
+        private final LongAdder nanos = new LongAdder();
+
+        private Phase(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Adds the time elapsed since the specified start.
+         *
+         * @param start the specified start in nanoseconds
+         * @return now in nanoseconds
+         */
+        private long lap(final long start) {
+            final long now = System.nanoTime();
+            nanos.add(now - start);
+            return now;
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + TimeUnit.NANOSECONDS.toMillis(nanos.sum());
+        }
+    }
 }
@@ -18,12 +18,17 @@
  */
 package org.b3log.symphony.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateFormatUtils;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.b3log.latke.ioc.BeanManager;
 import org.b3log.latke.ioc.Inject;
 import org.b3log.latke.repository.*;
+import org.b3log.latke.repository.jdbc.JdbcRepository;
 import org.b3log.latke.service.ServiceException;
 import org.b3log.latke.service.annotation.Service;
 import org.b3log.symphony.repository.CloudRepository;
@@ -33,9 +38,25 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Cloud state service.
+ * <p>
+ * System records (bag, mute, risk) are read through an in-memory cache and written behind: a write updates the cache
+ * and marks the record dirty, and a background flusher persists the latest value of every dirty record in batches, so
+ * repeated writes to one record within a flush interval cost one database write. Read-modify-write operations lock
+ * one of {@link #LOCKS} chosen by user id instead of the whole service. Expiring records such as mutes are read from
+ * {@link org.b3log.symphony.processor.bot.ModerationIndex}, which removes a record once it expires.
+ * </p>
+ */
 @Service
 public class CloudService {
 
@@ -60,6 +81,67 @@ public class CloudService {
     final public static String SYS_MEDAL = "sys-medal";
     final public static String SYS_MUTE = "sys-mute";
     final public static String SYS_RISK = "sys-risk";
+    final public static String SYS_REWARD = "sys-reward";
+
+    /**
+     * 写回间隔（毫秒）.
+     */
+    private static final long FLUSH_INTERVAL = 1000;
+
+    /**
+     * 每个事务最多写回的记录数.
+     */
+    private static final int MAX_BATCH = 200;
+
+    /**
+     * Per-user lock stripes.
+     */
+    private static final Object[] LOCKS = new Object[256];
+
+    /**
+     * Record cache, &lt;key, data&gt;, a missing record is cached as an empty string.
+     */
+    private static final Cache<Key, String> CACHE = Caffeine.newBuilder()
+            .maximumSize(100000)
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * Records waiting to be written back, &lt;key, data&gt;, {@link #DELETED} for removal.
+     */
+    private static final Map<Key, String> DIRTY = new ConcurrentHashMap<>();
+
+    /**
+     * Marks a dirty record as removed, compared by identity.
+     */
+    private static final String DELETED = new String("");
+
+    /**
+     * Serializes write-backs.
+     */
+    private static final Object FLUSH_LOCK = new Object();
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new Object();
+        }
+        Thread.ofVirtual().name("CloudFlusher").start(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(FLUSH_INTERVAL);
+                    if (!DIRTY.isEmpty()) {
+                        writeBack();
+                    }
+                } catch (final InterruptedException e) {
+                    return;
+                } catch (final Exception e) {
+                    LOGGER.log(Level.ERROR, "Cloud flusher failed", e);
+                } finally {
+                    JdbcRepository.dispose();
+                }
+            }
+        });
+    }
 
     /**
      * 上传存档
@@ -69,10 +151,16 @@ public class CloudService {
      * @param data
      * @return
      */
-    synchronized public void sync(final String userId, final String gameId, final JSONObject data) throws ServiceException {
+    public void sync(final String userId, final String gameId, final JSONObject data) throws ServiceException {
         if (gameId.startsWith("sys-")) {
             return;
         }
+        synchronized (lock(userId)) {
+            sync0(userId, gameId, data);
+        }
+    }
+
+    private void sync0(final String userId, final String gameId, final JSONObject data) throws ServiceException {
         try {
             final Transaction transaction = cloudRepository.beginTransaction();
             // 删除旧存档
@@ -114,10 +202,16 @@ public class CloudService {
      * @param data
      * @return
      */
-    synchronized public void sync(final String userId, final String gameId, final String data) throws ServiceException {
+    public void sync(final String userId, final String gameId, final String data) throws ServiceException {
         if (gameId.startsWith("sys-")) {
             return;
         }
+        synchronized (lock(userId)) {
+            sync0(userId, gameId, data);
+        }
+    }
+
+    private void sync0(final String userId, final String gameId, final String data) throws ServiceException {
         try {
             final Transaction transaction = cloudRepository.beginTransaction();
             // 删除旧存档
@@ -149,43 +243,80 @@ public class CloudService {
      * @return
      */
     public String getFromCloud(final String userId, final String gameId) {
-        try {
-            Query cloudQuery = new Query()
-                    .setFilter(CompositeFilterOperator.and(
-                            new PropertyFilter("userId", FilterOperator.EQUAL, userId),
-                            new PropertyFilter("gameId", FilterOperator.EQUAL, gameId)
-                    ));
-            JSONObject result = cloudRepository.getFirst(cloudQuery);
-            return result.optString("data");
-        } catch (Exception e) {
-            return "";
+        return read(userId, gameId);
+    }
+
+    /**
+     * 设置到期时间类记录（禁言、风控等）
+     *
+     * @param userId
+     * @param gameId
+     * @param expireTime 到期时间戳
+     */
+    public void setExpiry(final String userId, final String gameId, final long expireTime) {
+        write(userId, gameId, String.valueOf(expireTime));
+    }
+
+    /**
+     * 删除已到期的到期时间类记录，期间被重新设置过的记录不删除
+     *
+     * @param userId
+     * @param gameId
+     * @param expireTime 已到期的到期时间戳
+     */
+    public void removeExpiry(final String userId, final String gameId, final long expireTime) {
+        synchronized (lock(userId)) {
+            if (String.valueOf(expireTime).equals(read(userId, gameId))) {
+                write(userId, gameId, null);
+            }
         }
     }
 
+    /**
+     * 标记用户今天已领取指定的每日奖励，记录为按用户编号索引的位图，跨天自动清空
+     *
+     * @param reward 奖励名称
+     * @param userNo 用户编号
+     * @return 之前未领取过返回 {@code true}，今天已领取过返回 {@code false}
+     */
+    public boolean markRewardedToday(final String reward, final int userNo) {
+        final String date = DateFormatUtils.format(System.currentTimeMillis(), "yyyyMMdd");
+        synchronized (lock(reward)) {
+            BitSet bits = new BitSet();
+            final String data = read(reward, SYS_REWARD);
+            if (!data.isEmpty()) {
+                final JSONObject record = new JSONObject(data);
+                if (date.equals(record.optString("date"))) {
+                    bits = BitSet.valueOf(Base64.getDecoder().decode(record.optString("bits")));
+                }
+            }
+            if (bits.get(userNo)) {
+                return false;
+            }
+
+            bits.set(userNo);
+            write(reward, SYS_REWARD, new JSONObject()
+                    .put("date", date)
+                    .put("bits", Base64.getEncoder().encodeToString(bits.toByteArray())).toString());
+            return true;
+        }
+    }
+
+    /**
+     * 立即写回所有待写回的记录，停机前调用
+     */
+    public void flush() {
+        writeBack();
+    }
+
     /**
      * 保存背包内容
      *
      * @param userId
      * @param data
      */
-    synchronized public void saveBag(String userId, String data) {
-        try {
-            final Transaction transaction = cloudRepository.beginTransaction();
-            Query cloudDeleteQuery = new Query()
-                    .setFilter(CompositeFilterOperator.and(
-                            new PropertyFilter("userId", FilterOperator.EQUAL, userId),
-                            new PropertyFilter("gameId", FilterOperator.EQUAL, CloudService.SYS_BAG)
-                    ));
-            cloudRepository.remove(cloudDeleteQuery);
-            JSONObject cloudJSON = new JSONObject();
-            cloudJSON.put("userId", userId)
-                    .put("gameId", CloudService.SYS_BAG)
-                    .put("data", data);
-            cloudRepository.add(cloudJSON);
-            transaction.commit();
-        } catch (RepositoryException e) {
-            LOGGER.log(Level.ERROR, "Cannot save bag data to database.", e);
-        }
+    public void saveBag(String userId, String data) {
+        write(userId, CloudService.SYS_BAG, data);
     }
 
     /**
@@ -194,18 +325,12 @@ public class CloudService {
      * @param userId
      * @return
      */
-    synchronized public String getBag(String userId) {
-        try {
-            Query cloudQuery = new Query()
-                    .setFilter(CompositeFilterOperator.and(
-                            new PropertyFilter("userId", FilterOperator.EQUAL, userId),
-                            new PropertyFilter("gameId", FilterOperator.EQUAL, CloudService.SYS_BAG)
-                    ));
-            JSONObject result = cloudRepository.getFirst(cloudQuery);
-            return result.optString("data");
-        } catch (Exception e) {
+    public String getBag(String userId) {
+        final String ret = read(userId, CloudService.SYS_BAG);
+        if (ret.isEmpty()) {
             return new JSONObject().toString();
         }
+        return ret;
     }
 
     /**
@@ -213,7 +338,8 @@ public class CloudService {
      *
      * @return
      */
-    synchronized public List<JSONObject> getBags() {
+    public List<JSONObject> getBags() {
+        writeBack();
         try {
             Query cloudQuery = new Query()
                     .setFilter(
@@ -232,13 +358,15 @@ public class CloudService {
      * @param item
      * @return
      */
-    synchronized public void removeBag(String userId, String item) {
-        JSONObject bagJSON = new JSONObject(getBag(userId));
-        if (!bagJSON.has(item)) {
-            return;
+    public void removeBag(String userId, String item) {
+        synchronized (lock(userId)) {
+            JSONObject bagJSON = new JSONObject(getBag(userId));
+            if (!bagJSON.has(item)) {
+                return;
+            }
+            bagJSON.remove(item);
+            saveBag(userId, bagJSON.toString());
         }
-        bagJSON.remove(item);
-        saveBag(userId, bagJSON.toString());
     }
 
     /**
@@ -250,44 +378,46 @@ public class CloudService {
      * @param maxTake 最多可以拿几件这个物品
      * @return 操作成功返回0，当number传递的是负数且比背包中物品数量多时返回-1
      */
-    synchronized public int putBag(String userId, String item, int number, int maxTake) {
-        JSONObject bagJSON = new JSONObject(getBag(userId));
-        if (!bagJSON.has(item)) {
-            bagJSON.put(item, 0);
-        }
-        int has = bagJSON.getInt(item);
-        int sum = has + number;
-        if (number > 0) {
-            // 增加
-            if (sum > maxTake) {
-                sum = maxTake;
-                bagJSON.put(item, sum);
-                saveBag(userId, bagJSON.toString());
-                return 1;
-            } else {
-                bagJSON.put(item, sum);
-                saveBag(userId, bagJSON.toString());
-                return 0;
+    public int putBag(String userId, String item, int number, int maxTake) {
+        synchronized (lock(userId)) {
+            JSONObject bagJSON = new JSONObject(getBag(userId));
+            if (!bagJSON.has(item)) {
+                bagJSON.put(item, 0);
             }
-        } else if (number < 0) {
-            // 扣除
-            if (sum >= 0) {
-                bagJSON.put(item, sum);
-                saveBag(userId, bagJSON.toString());
-                return 0;
-            } else {
-                return -1;
+            int has = bagJSON.getInt(item);
+            int sum = has + number;
+            if (number > 0) {
+                // 增加
+                if (sum > maxTake) {
+                    sum = maxTake;
+                    bagJSON.put(item, sum);
+                    saveBag(userId, bagJSON.toString());
+                    return 1;
+                } else {
+                    bagJSON.put(item, sum);
+                    saveBag(userId, bagJSON.toString());
+                    return 0;
+                }
+            } else if (number < 0) {
+                // 扣除
+                if (sum >= 0) {
+                    bagJSON.put(item, sum);
+                    saveBag(userId, bagJSON.toString());
+                    return 0;
+                } else {
+                    return -1;
+                }
             }
-        }
 
-        return -1;
+            return -1;
+        }
     }
 
     /**
      * 获取用户所有勋章（Cloud 风格 JSON 字符串，含未展示和过期）.
      * 返回结构保持不变：{"list":[{name,description,attr,data,enabled,expireDate}]}
      */
-    synchronized public String getMedal(String userId) {
+    public String getMedal(String userId) {
         try {
             List<JSONObject> medals = medalService.getUserMedals(userId);
             JSONArray list = new JSONArray();
@@ -322,7 +452,7 @@ public class CloudService {
      * 获取用户所有“已开启展示且未过期”的勋章（Cloud 风格 JSON）.
      * 返回结构保持不变：{"list":[{name,description,attr,data,enabled,expireDate}]}
      */
-    synchronized public String getEnabledMedal(String userId) {
+    public String getEnabledMedal(String userId) {
         try {
             List<JSONObject> medals = medalService.getUserDisplayedValidMedals(userId);
             JSONArray list = new JSONArray();
@@ -353,14 +483,21 @@ public class CloudService {
         }
     }
 
-    synchronized public void giveMedal(String userId, String name, String description, String attr, String data) {
+    public void giveMedal(String userId, String name, String description, String attr, String data) {
         giveMedal(userId, name, description, attr, data, "2099-12-31");
     }
 
     /**
      * 给用户发勋章（保持原方法签名，内部代理 MedalService）.
      */
-    synchronized public void giveMedal(String userId, String name, String description, String attr, String data, String expireDate) {
+    public void giveMedal(String userId, String name, String description, String attr, String data, String expireDate) {
+        // 勋章定义可能在此创建，整体串行避免重复创建
+        synchronized (MedalService.class) {
+            giveMedal0(userId, name, description, attr, data, expireDate);
+        }
+    }
+
+    private void giveMedal0(String userId, String name, String description, String attr, String data, String expireDate) {
         try {
             JSONObject medalDef = medalService.getMedalByExactName(name);
             if (medalDef == null) {
@@ -383,29 +520,176 @@ public class CloudService {
         }
     }
 
-    synchronized public void removeMedal(String userId, String name) {
+    public void removeMedal(String userId, String name) {
+        synchronized (lock(userId)) {
+            try {
+                JSONObject medalDef = medalService.getMedalByExactName(name);
+                if (medalDef == null) {
+                    return;
+                }
+                String medalId = medalDef.optString("medal_id");
+                medalService.revokeMedalFromUser(userId, medalId);
+            } catch (ServiceException e) {
+                LOGGER.log(Level.ERROR, "Failed to remove medal [" + name + "] for user [" + userId + "]", e);
+            }
+        }
+    }
+
+    public void toggleMedal(String userId, String name, boolean enabled) {
+        synchronized (lock(userId)) {
+            try {
+                JSONObject medalDef = medalService.getMedalByExactName(name);
+                if (medalDef == null) {
+                    return;
+                }
+                String medalId = medalDef.optString("medal_id");
+                medalService.setUserMedalDisplay(userId, medalId, enabled);
+            } catch (ServiceException e) {
+                LOGGER.log(Level.ERROR, "Failed to toggle medal [" + name + "] for user [" + userId + "]", e);
+            }
+        }
+    }
+
+    /**
+     * Reads the specified record, system records are cached and other records (game saves) are read from database.
+     *
+     * @param userId the specified user id
+     * @param gameId the specified game id
+     * @return data, returns an empty string if not found
+     */
+    private String read(final String userId, final String gameId) {
+        if (!gameId.startsWith("sys-")) {
+            return Objects.toString(load(userId, gameId), "");
+        }
+
+        final Key key = new Key(userId, gameId);
+        String ret = DIRTY.get(key);
+        if (null != ret) {
+            return ret;
+        }
+        ret = CACHE.getIfPresent(key);
+        if (null != ret) {
+            return ret;
+        }
+
+        synchronized (lock(userId)) {
+            ret = DIRTY.get(key);
+            if (null == ret) {
+                ret = CACHE.getIfPresent(key);
+            }
+            if (null != ret) {
+                return ret;
+            }
+
+            ret = load(userId, gameId);
+            if (null == ret) {
+                // 读库失败不缓存
+                return "";
+            }
+            CACHE.put(key, ret);
+            return ret;
+        }
+    }
+
+    /**
+     * Loads the specified record from database.
+     *
+     * @param userId the specified user id
+     * @param gameId the specified game id
+     * @return data, returns an empty string if not found, returns {@code null} if failed
+     */
+    private String load(final String userId, final String gameId) {
         try {
-            JSONObject medalDef = medalService.getMedalByExactName(name);
-            if (medalDef == null) {
-                return;
+            final Query cloudQuery = new Query()
+                    .setFilter(CompositeFilterOperator.and(
+                            new PropertyFilter("userId", FilterOperator.EQUAL, userId),
+                            new PropertyFilter("gameId", FilterOperator.EQUAL, gameId)
+                    ));
+            final JSONObject result = cloudRepository.getFirst(cloudQuery);
+            return null == result ? "" : result.optString("data");
+        } catch (final Exception e) {
+            LOGGER.log(Level.ERROR, "Cannot read cloud data [userId=" + userId + ", gameId=" + gameId + "]", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the specified record behind.
+     *
+     * @param userId the specified user id
+     * @param gameId the specified game id
+     * @param data   the specified data, {@code null} to remove the record
+     */
+    private void write(final String userId, final String gameId, final String data) {
+        final Key key = new Key(userId, gameId);
+        synchronized (lock(userId)) {
+            CACHE.put(key, null == data ? "" : data);
+            DIRTY.put(key, null == data ? DELETED : data);
+        }
+    }
+
+    private static Object lock(final String userId) {
+        return LOCKS[Math.floorMod(Objects.hashCode(userId), LOCKS.length)];
+    }
+
+    /**
+     * Persists dirty records, one transaction per batch. A record is marked clean only if it has not been written again
+     * meanwhile, a failed batch stays dirty and is retried by the next write-back.
+     */
+    private static void writeBack() {
+        synchronized (FLUSH_LOCK) {
+            final Map<Key, String> batch = new HashMap<>();
+            for (final Map.Entry<Key, String> entry : DIRTY.entrySet()) {
+                batch.put(entry.getKey(), entry.getValue());
+                if (batch.size() >= MAX_BATCH) {
+                    writeBack(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                writeBack(batch);
             }
-            String medalId = medalDef.optString("medal_id");
-            medalService.revokeMedalFromUser(userId, medalId);
-        } catch (ServiceException e) {
-            LOGGER.log(Level.ERROR, "Failed to remove medal [" + name + "] for user [" + userId + "]", e);
         }
     }
 
-    synchronized public void toggleMedal(String userId, String name, boolean enabled) {
+    private static void writeBack(final Map<Key, String> batch) {
+        final CloudRepository cloudRepository = BeanManager.getInstance().getReference(CloudRepository.class);
+        final Transaction transaction = cloudRepository.beginTransaction();
         try {
-            JSONObject medalDef = medalService.getMedalByExactName(name);
-            if (medalDef == null) {
-                return;
+            for (final Map.Entry<Key, String> entry : batch.entrySet()) {
+                final Key key = entry.getKey();
+                cloudRepository.remove(new Query()
+                        .setFilter(CompositeFilterOperator.and(
+                                new PropertyFilter("userId", FilterOperator.EQUAL, key.userId()),
+                                new PropertyFilter("gameId", FilterOperator.EQUAL, key.gameId())
+                        )));
+                if (DELETED != entry.getValue()) {
+                    cloudRepository.add(new JSONObject()
+                            .put("userId", key.userId())
+                            .put("gameId", key.gameId())
+                            .put("data", entry.getValue()));
+                }
             }
-            String medalId = medalDef.optString("medal_id");
-            medalService.setUserMedalDisplay(userId, medalId, enabled);
-        } catch (ServiceException e) {
-            LOGGER.log(Level.ERROR, "Failed to toggle medal [" + name + "] for user [" + userId + "]", e);
+            transaction.commit();
+        } catch (final Exception e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            LOGGER.log(Level.ERROR, "Cannot write back [" + batch.size() + "] cloud records", e);
+            return;
+        }
+
+        for (final Map.Entry<Key, String> entry : batch.entrySet()) {
+            DIRTY.remove(entry.getKey(), entry.getValue());
         }
     }
+
+    /**
+     * Record key.
+     *
+     * @param userId user id
+     * @param gameId game id
+     */
+    private record Key(String userId, String gameId) {
+    }
 }
@@ -29,6 +29,7 @@ import org.b3log.latke.ioc.Inject;
 import org.b3log.latke.model.Pagination;
 import org.b3log.latke.model.User;
 import org.b3log.latke.repository.*;
+import org.b3log.latke.repository.jdbc.JdbcRepository;
 import org.b3log.latke.service.LangPropsService;
 import org.b3log.latke.service.annotation.Service;
 import org.b3log.latke.util.Locales;
@@ -43,14 +44,13 @@ import org.b3log.symphony.util.*;
 import org.json.JSONObject;
 
 import java.util.*;
-import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Comment management service.
  *
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
- * @version 2.12.2.8, Jun 23, 2020
+ * @version 2.13.0.1, Oct 18, 2026
  * @since 0.2.0
  */
 @Service
@@ -813,19 +813,17 @@ public class CommentQueryService {
 
         Stopwatchs.start("Organizes comments");
         try {
-            final ForkJoinPool pool = new ForkJoinPool(Symphonys.PROCESSORS);
-            pool.submit(() -> comments.parallelStream().forEach(comment -> {
+            Symphonys.ORGANIZER_POOL.submit(() -> comments.parallelStream().forEach(comment -> {
                 try {
                     organizeComment(comment);
                 } catch (final Exception e) {
                     LOGGER.log(Level.ERROR, "Organizes comment [" + comment.optString(Keys.OBJECT_ID) + "] failed", e);
                 } finally {
                     // LOGGER.log(Level.INFO, "Stopwatch: {}{}", Strings.LINE_SEPARATOR, Stopwatchs.getTimingStat());
+                    JdbcRepository.dispose();
                     Stopwatchs.release();
                 }
-            }));
-            pool.shutdown();
-            pool.awaitTermination(10, TimeUnit.SECONDS);
+            })).get(10, TimeUnit.SECONDS);
         } catch (final Exception e) {
             LOGGER.log(Level.ERROR, "Organizes comments failed", e);
         } finally {
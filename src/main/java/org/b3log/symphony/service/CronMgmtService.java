@@ -129,8 +129,6 @@ public class CronMgmtService {
     public void start() {
         long delay = 10000;
 
-        livenessMgmtService.initCheckLiveness();
-
         Symphonys.SCHEDULED_EXECUTOR_SERVICE.scheduleAtFixedRate(() -> {
             try {
                 ChatRoomBot.nightDisableCheck();
@@ -153,17 +151,6 @@ public class CronMgmtService {
         }, delay, 30 * 60 * 1000, TimeUnit.MILLISECONDS);
         delay += 2000;
 
-        Symphonys.SCHEDULED_EXECUTOR_SERVICE.scheduleAtFixedRate(() -> {
-            try {
-                livenessMgmtService.checkLiveness();
-            } catch (final Exception e) {
-                LOGGER.log(Level.ERROR, "Executes cron failed", e);
-            } finally {
-                Stopwatchs.release();
-            }
-        }, delay, 60 * 1000, TimeUnit.MILLISECONDS);
-        delay += 2000;
-
         Symphonys.SCHEDULED_EXECUTOR_SERVICE.scheduleAtFixedRate(() -> {
             try {
                 livenessMgmtService.autoCheckin();
@@ -220,7 +207,7 @@ public class CronMgmtService {
             } finally {
                 Stopwatchs.release();
             }
-        }, delay, 60 * 1000, TimeUnit.MILLISECONDS);
+        }, delay, 15 * 1000, TimeUnit.MILLISECONDS);
         delay += 2000;
 
         Symphonys.SCHEDULED_EXECUTOR_SERVICE.scheduleAtFixedRate(() -> {
@@ -53,7 +53,7 @@ import java.util.*;
  * Data model service.
  *
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
- * @version 1.12.2.42, Feb 12, 2020
+ * @version 1.13.0.0, Oct 18, 2026
  * @since 0.2.0
  */
 @Service
@@ -291,7 +291,8 @@ public class DataModelService {
             staticResourceVersion = Latkes.getStaticResourceVersion();
         }
         dataModel.put(Common.STATIC_RESOURCE_VERSION, staticResourceVersion);
-        dataModel.put("esEnabled", Symphonys.ES_ENABLED);
+        // 本地搜索与 Elasticsearch 共用站内搜索入口
+        dataModel.put("esEnabled", Symphonys.ES_ENABLED || Symphonys.LOCAL_SEARCH_ENABLED);
         dataModel.put("algoliaEnabled", Symphonys.ALGOLIA_ENABLED);
         dataModel.put("algoliaAppId", Symphonys.ALGOLIA_APP_ID);
         dataModel.put("algoliaSearchKey", Symphonys.ALGOLIA_SEARCH_KEY);
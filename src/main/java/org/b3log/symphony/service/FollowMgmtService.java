@@ -23,6 +23,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.b3log.latke.ioc.Inject;
 import org.b3log.latke.repository.RepositoryException;
+import org.b3log.latke.repository.Transaction;
 import org.b3log.latke.repository.annotation.Transactional;
 import org.b3log.latke.service.annotation.Service;
 import org.b3log.symphony.model.Article;
@@ -37,7 +38,7 @@ import org.json.JSONObject;
  * Follow management service.
  *
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
- * @version 1.3.1.3, Jun 6, 2019
+ * @version 1.4.0.1, Oct 18, 2026
  * @since 0.2.5
  */
 @Service
@@ -66,6 +67,12 @@ public class FollowMgmtService {
     @Inject
     private ArticleRepository articleRepository;
 
+    /**
+     * Hot article ranking service.
+     */
+    @Inject
+    private HotArticleRankingService hotArticleRankingService;
+
     /**
      * The specified follower follows the specified following tag.
      *
@@ -104,11 +111,19 @@ public class FollowMgmtService {
      * @param followerId         the specified follower id
      * @param followingArticleId the specified following article id
      */
-    @Transactional
     public void followArticle(final String followerId, final String followingArticleId) {
+        final Transaction transaction = followRepository.beginTransaction();
         try {
-            follow(followerId, followingArticleId, Follow.FOLLOWING_TYPE_C_ARTICLE);
+            final JSONObject article = follow(followerId, followingArticleId, Follow.FOLLOWING_TYPE_C_ARTICLE);
+            transaction.commit();
+            if (null != article) {
+                hotArticleRankingService.onScoreChanged(article);
+            }
         } catch (final RepositoryException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+
             final String msg = "User[id=" + followerId + "] follows an article[id=" + followingArticleId + "] failed";
             LOGGER.log(Level.ERROR, msg, e);
         }
@@ -120,11 +135,19 @@ public class FollowMgmtService {
      * @param followerId         the specified follower id
      * @param followingArticleId the specified following article id
      */
-    @Transactional
     public void watchArticle(final String followerId, final String followingArticleId) {
+        final Transaction transaction = followRepository.beginTransaction();
         try {
-            follow(followerId, followingArticleId, Follow.FOLLOWING_TYPE_C_ARTICLE_WATCH);
+            final JSONObject article = follow(followerId, followingArticleId, Follow.FOLLOWING_TYPE_C_ARTICLE_WATCH);
+            transaction.commit();
+            if (null != article) {
+                hotArticleRankingService.onScoreChanged(article);
+            }
         } catch (final RepositoryException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+
             final String msg = "User[id=" + followerId + "] watches an article[id=" + followingArticleId + "] failed";
             LOGGER.log(Level.ERROR, msg, e);
         }
@@ -168,11 +191,19 @@ public class FollowMgmtService {
      * @param followerId         the specified follower id
      * @param followingArticleId the specified following article id
      */
-    @Transactional
     public void unfollowArticle(final String followerId, final String followingArticleId) {
+        final Transaction transaction = followRepository.beginTransaction();
         try {
-            unfollow(followerId, followingArticleId, Follow.FOLLOWING_TYPE_C_ARTICLE);
+            final JSONObject article = unfollow(followerId, followingArticleId, Follow.FOLLOWING_TYPE_C_ARTICLE);
+            transaction.commit();
+            if (null != article) {
+                hotArticleRankingService.onScoreChanged(article);
+            }
         } catch (final RepositoryException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+
             final String msg = "User[id=" + followerId + "] unfollows an article[id=" + followingArticleId + "] failed";
             LOGGER.log(Level.ERROR, msg, e);
         }
@@ -185,11 +216,19 @@ public class FollowMgmtService {
      * @param followerId         the specified follower id
      * @param followingArticleId the specified following article id
      */
-    @Transactional
     public void unwatchArticle(final String followerId, final String followingArticleId) {
+        final Transaction transaction = followRepository.beginTransaction();
         try {
-            unfollow(followerId, followingArticleId, Follow.FOLLOWING_TYPE_C_ARTICLE_WATCH);
+            final JSONObject article = unfollow(followerId, followingArticleId, Follow.FOLLOWING_TYPE_C_ARTICLE_WATCH);
+            transaction.commit();
+            if (null != article) {
+                hotArticleRankingService.onScoreChanged(article);
+            }
         } catch (final RepositoryException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+
             final String msg = "User[id=" + followerId + "] unwatches an article[id=" + followingArticleId + "] failed";
             LOGGER.log(Level.ERROR, msg, e);
         }
@@ -201,18 +240,21 @@ public class FollowMgmtService {
      * @param followerId    the specified follower id
      * @param followingId   the specified following entity id
      * @param followingType the specified following type
+     * @return the updated article if an article is (un)followed or (un)watched, returns {@code null} otherwise
      * @throws RepositoryException repository exception
      */
-    private synchronized void follow(final String followerId, final String followingId, final int followingType) throws RepositoryException {
+    private synchronized JSONObject follow(final String followerId, final String followingId, final int followingType) throws RepositoryException {
         if (followRepository.exists(followerId, followingId, followingType)) {
-            return;
+            return null;
         }
 
+        JSONObject ret = null;
+
         if (Follow.FOLLOWING_TYPE_C_TAG == followingType) {
             final JSONObject tag = tagRepository.get(followingId);
             if (null == tag) {
                 LOGGER.log(Level.ERROR, "Not found tag [id={}] to follow", followingId);
-                return;
+                return null;
             }
 
             tag.put(Tag.TAG_FOLLOWER_CNT, tag.optInt(Tag.TAG_FOLLOWER_CNT) + 1);
@@ -223,22 +265,24 @@ public class FollowMgmtService {
             final JSONObject article = articleRepository.get(followingId);
             if (null == article) {
                 LOGGER.log(Level.ERROR, "Not found article [id={}] to follow", followingId);
-                return;
+                return null;
             }
 
             article.put(Article.ARTICLE_COLLECT_CNT, article.optInt(Article.ARTICLE_COLLECT_CNT) + 1);
 
             articleRepository.update(followingId, article, Article.ARTICLE_COLLECT_CNT);
+            ret = article;
         } else if (Follow.FOLLOWING_TYPE_C_ARTICLE_WATCH == followingType) {
             final JSONObject article = articleRepository.get(followingId);
             if (null == article) {
                 LOGGER.log(Level.ERROR, "Not found article [id={}] to watch", followingId);
-                return;
+                return null;
             }
 
             article.put(Article.ARTICLE_WATCH_CNT, article.optInt(Article.ARTICLE_WATCH_CNT) + 1);
 
             articleRepository.update(followingId, article, Article.ARTICLE_WATCH_CNT);
+            ret = article;
         }
 
         final JSONObject follow = new JSONObject();
@@ -247,6 +291,8 @@ public class FollowMgmtService {
         follow.put(Follow.FOLLOWING_TYPE, followingType);
 
         followRepository.add(follow);
+
+        return ret;
     }
 
     /**
@@ -255,16 +301,18 @@ public class FollowMgmtService {
      * @param followerId    the specified follower id
      * @param followingId   the specified following entity id
      * @param followingType the specified following type
+     * @return the updated article if an article is (un)followed or (un)watched, returns {@code null} otherwise
      * @throws RepositoryException repository exception
      */
-    public synchronized void unfollow(final String followerId, final String followingId, final int followingType) throws RepositoryException {
+    public synchronized JSONObject unfollow(final String followerId, final String followingId, final int followingType) throws RepositoryException {
         followRepository.removeByFollowerIdAndFollowingId(followerId, followingId, followingType);
+        JSONObject ret = null;
 
         if (Follow.FOLLOWING_TYPE_C_TAG == followingType) {
             final JSONObject tag = tagRepository.get(followingId);
             if (null == tag) {
                 LOGGER.log(Level.ERROR, "Not found tag [id={}] to unfollow", followingId);
-                return;
+                return null;
             }
 
             tag.put(Tag.TAG_FOLLOWER_CNT, tag.optInt(Tag.TAG_FOLLOWER_CNT) - 1);
@@ -279,7 +327,7 @@ public class FollowMgmtService {
             final JSONObject article = articleRepository.get(followingId);
             if (null == article) {
                 LOGGER.log(Level.ERROR, "Not found article [id={}] to unfollow", followingId);
-                return;
+                return null;
             }
 
             article.put(Article.ARTICLE_COLLECT_CNT, article.optInt(Article.ARTICLE_COLLECT_CNT) - 1);
@@ -288,11 +336,12 @@ public class FollowMgmtService {
             }
 
             articleRepository.update(followingId, article, Article.ARTICLE_COLLECT_CNT);
+            ret = article;
         } else if (Follow.FOLLOWING_TYPE_C_ARTICLE_WATCH == followingType) {
             final JSONObject article = articleRepository.get(followingId);
             if (null == article) {
                 LOGGER.log(Level.ERROR, "Not found article [id={}] to unwatch", followingId);
-                return;
+                return null;
             }
 
             article.put(Article.ARTICLE_WATCH_CNT, article.optInt(Article.ARTICLE_WATCH_CNT) - 1);
@@ -301,6 +350,9 @@ public class FollowMgmtService {
             }
 
             articleRepository.update(followingId, article, Article.ARTICLE_WATCH_CNT);
+            ret = article;
         }
+
+        return ret;
     }
 }
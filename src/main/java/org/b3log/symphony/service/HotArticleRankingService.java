@@ -0,0 +1,362 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.service;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.b3log.latke.Keys;
+import org.b3log.latke.ioc.BeanManager;
+import org.b3log.latke.ioc.Inject;
+import org.b3log.latke.repository.jdbc.JdbcRepository;
+import org.b3log.latke.service.LangPropsService;
+import org.b3log.latke.service.annotation.Service;
+import org.b3log.symphony.model.Article;
+import org.b3log.symphony.model.UserExt;
+import org.b3log.symphony.repository.ArticleRepository;
+import org.b3log.symphony.repository.UserRepository;
+import org.b3log.symphony.util.JSONs;
+import org.b3log.symphony.util.Symphonys;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hot article ranking service.
+ * <p>
+ * Keeps the top {@link #TOP_K} articles by score (thank + good + collect + watch - bad) of the recent year in an
+ * immutable snapshot, with articles organized and titles of invalid authors already blocked. Readers only read the
+ * volatile snapshot. Score changes are applied incrementally by publishing a new snapshot, and the full SQL ranking
+ * only runs for periodic reconciliation.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.0.0.1, Oct 18, 2026
+ * @since 3.7.0
+ */
+@Service
+public class HotArticleRankingService {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LogManager.getLogger(HotArticleRankingService.class);
+
+    /**
+     * Ranking size.
+     */
+    public static final int TOP_K = 50;
+
+    /**
+     * Score key.
+     */
+    public static final String TOTAL_SCORE = "total_score";
+
+    /**
+     * 参与排行的文章发布时间窗口（天）.
+     */
+    private static final int WINDOW_DAYS = 365;
+
+    /**
+     * Score counters.
+     */
+    private static final String[] SCORE_FIELDS = {Article.ARTICLE_THANK_CNT, Article.ARTICLE_GOOD_CNT,
+            Article.ARTICLE_COLLECT_CNT, Article.ARTICLE_WATCH_CNT, Article.ARTICLE_BAD_CNT};
+
+    /**
+     * Score descending.
+     */
+    private static final Comparator<JSONObject> BY_SCORE = Comparator.comparingInt((JSONObject article) -> article.optInt(TOTAL_SCORE)).reversed();
+
+    /**
+     * Current ranking.
+     */
+    private static volatile Ranking ranking = new Ranking(Collections.emptyList());
+
+    /**
+     * Serializes writers.
+     */
+    private static final Object WRITE_LOCK = new Object();
+
+    /**
+     * Score changes received while reconciling, re-applied on top of the reconciled ranking, &lt;articleId, article&gt;.
+     */
+    private static final Map<String, JSONObject> PENDING_CHANGES = new LinkedHashMap<>();
+
+    /**
+     * Whether a reconciliation is running, guarded by {@link #WRITE_LOCK}.
+     */
+    private static boolean reconciling;
+
+    /**
+     * Applied incremental changes.
+     */
+    private static final AtomicLong INCREMENTS = new AtomicLong();
+
+    /**
+     * Article repository.
+     */
+    @Inject
+    private ArticleRepository articleRepository;
+
+    /**
+     * User repository.
+     */
+    @Inject
+    private UserRepository userRepository;
+
+    /**
+     * Language service.
+     */
+    @Inject
+    private LangPropsService langPropsService;
+
+    /**
+     * Gets hot articles with the specified fetch size.
+     *
+     * @param fetchSize the specified fetch size
+     * @return hot articles ordered by score, the returned articles are copies which may be modified
+     */
+    public List<JSONObject> getHotArticles(final int fetchSize) {
+        final List<JSONObject> articles = ranking.articles;
+        final int size = Math.max(0, Math.min(fetchSize, articles.size()));
+        final List<JSONObject> ret = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ret.add(JSONs.clone(articles.get(i)));
+        }
+        ret.sort(BY_SCORE);
+        return ret;
+    }
+
+    /**
+     * Reloads the ranking from database.
+     */
+    public void reconcile() {
+        synchronized (WRITE_LOCK) {
+            reconciling = true;
+        }
+        List<JSONObject> pending = Collections.emptyList();
+        try {
+            final long since = DateUtils.addDays(new Date(), -WINDOW_DAYS).getTime();
+            final List<JSONObject> articles = articleRepository.select("" +
+                    "SELECT " +
+                    "    *, " +
+                    "    (articleThankCnt + articleGoodCnt + articleCollectCnt + articleWatchCnt - articleBadCnt) AS " + TOTAL_SCORE + " " +
+                    "FROM " +
+                    "    `" + articleRepository.getName() + "` " +
+                    "WHERE " +
+                    "    articleCreateTime > ? AND articleStatus <> ? AND articleType <> ? AND articleShowInList <> 0 " +
+                    "ORDER BY " +
+                    "    " + TOTAL_SCORE + " DESC " +
+                    "LIMIT ?", since, Article.ARTICLE_STATUS_C_INVALID, Article.ARTICLE_TYPE_C_DISCUSSION, TOP_K);
+            organize(articles);
+            // 每次对账后随机轮换展示顺序，取前若干篇时不总是同一批
+            Collections.shuffle(articles);
+
+            synchronized (WRITE_LOCK) {
+                ranking = new Ranking(articles);
+                pending = new ArrayList<>(PENDING_CHANGES.values());
+            }
+            LOGGER.log(Level.DEBUG, "Reconciled hot articles [size=" + articles.size() + ", increments=" + INCREMENTS.get() + "]");
+        } catch (final Exception e) {
+            LOGGER.log(Level.ERROR, "Reconciles hot articles failed", e);
+        } finally {
+            synchronized (WRITE_LOCK) {
+                reconciling = false;
+                PENDING_CHANGES.clear();
+            }
+        }
+
+        for (final JSONObject article : pending) {
+            apply(article);
+        }
+    }
+
+    /**
+     * Applies a score change of the specified article asynchronously.
+     *
+     * @param article the specified article with updated counters
+     */
+    public void onScoreChanged(final JSONObject article) {
+        final JSONObject changed = JSONs.clone(article);
+        Symphonys.EXECUTOR_SERVICE.submit(() -> {
+            try {
+                apply(changed);
+            } finally {
+                JdbcRepository.dispose();
+            }
+        });
+    }
+
+    private void apply(final JSONObject changed) {
+        try {
+            final String articleId = changed.optString(Keys.OBJECT_ID);
+            final int score = score(changed);
+            changed.put(TOTAL_SCORE, score);
+
+            synchronized (WRITE_LOCK) {
+                if (reconciling) {
+                    PENDING_CHANGES.put(articleId, changed);
+                }
+                final Ranking current = ranking;
+                final Integer index = current.positions.get(articleId);
+                if (null != index) {
+                    final JSONObject updated = JSONs.clone(current.articles.get(index));
+                    for (final String field : SCORE_FIELDS) {
+                        updated.put(field, changed.optInt(field));
+                    }
+                    updated.put(TOTAL_SCORE, score);
+                    ranking = current.set(index, updated);
+                    INCREMENTS.incrementAndGet();
+                    return;
+                }
+                if (!isEligible(changed) || !current.admits(score)) {
+                    return;
+                }
+            }
+
+            // 新进榜文章在锁外整理
+            final List<JSONObject> entrant = new ArrayList<>(Collections.singletonList(changed));
+            organize(entrant);
+            synchronized (WRITE_LOCK) {
+                final Ranking current = ranking;
+                if (current.positions.containsKey(articleId) || !current.admits(score)) {
+                    return;
+                }
+                ranking = current.articles.size() < TOP_K ? current.add(changed) : current.set(current.minIndex, changed);
+                INCREMENTS.incrementAndGet();
+            }
+        } catch (final Exception e) {
+            LOGGER.log(Level.ERROR, "Applies hot article score change failed", e);
+        }
+    }
+
+    /**
+     * Organizes the specified articles and blocks titles of invalid authors.
+     *
+     * @param articles the specified articles
+     * @throws Exception exception
+     */
+    private void organize(final List<JSONObject> articles) throws Exception {
+        final Set<String> authorIds = new HashSet<>();
+        for (final JSONObject article : articles) {
+            authorIds.add(article.optString(Article.ARTICLE_AUTHOR_ID));
+        }
+        final Map<String, JSONObject> authors = userRepository.getByIds(authorIds);
+
+        BeanManager.getInstance().getReference(ArticleQueryService.class).organizeArticles(articles);
+
+        final String blockLabel = langPropsService.get("articleTitleBlockLabel");
+        for (final JSONObject article : articles) {
+            final JSONObject author = authors.get(article.optString(Article.ARTICLE_AUTHOR_ID));
+            if (null == author || UserExt.USER_STATUS_C_INVALID == author.optInt(UserExt.USER_STATUS)) {
+                article.put(Article.ARTICLE_TITLE, blockLabel);
+                article.put(Article.ARTICLE_T_TITLE_EMOJI, blockLabel);
+                article.put(Article.ARTICLE_T_TITLE_EMOJI_UNICODE, blockLabel);
+            }
+        }
+    }
+
+    private static boolean isEligible(final JSONObject article) {
+        final long since = DateUtils.addDays(new Date(), -WINDOW_DAYS).getTime();
+        return article.optLong(Article.ARTICLE_CREATE_TIME) > since
+                && Article.ARTICLE_STATUS_C_INVALID != article.optInt(Article.ARTICLE_STATUS)
+                && Article.ARTICLE_TYPE_C_DISCUSSION != article.optInt(Article.ARTICLE_TYPE)
+                && 0 != article.optInt(Article.ARTICLE_SHOW_IN_LIST, 1);
+    }
+
+    private static int score(final JSONObject article) {
+        return article.optInt(Article.ARTICLE_THANK_CNT) + article.optInt(Article.ARTICLE_GOOD_CNT)
+                + article.optInt(Article.ARTICLE_COLLECT_CNT) + article.optInt(Article.ARTICLE_WATCH_CNT)
+                - article.optInt(Article.ARTICLE_BAD_CNT);
+    }
+
+    /**
+     * Gets ranking statistics.
+     *
+     * @return statistics, for example,
+     * <pre>
+     * {
+     *     "size": 50,
+     *     "minScore": 12,
+     *     "increments": 1024
+     * }
+     * </pre>
+     */
+    public static JSONObject getStats() {
+        final Ranking current = ranking;
+        return new JSONObject()
+                .put("size", current.articles.size())
+                .put("minScore", current.articles.isEmpty() ? 0 : current.articles.get(current.minIndex).optInt(TOTAL_SCORE))
+                .put("increments", INCREMENTS.get());
+    }
+
+    /**
+     * Immutable ranking, articles are kept in display rotation order.
+     */
+    private static final class Ranking {
+
+        private final List<JSONObject> articles;
+
+        private final Map<String, Integer> positions;
+
+        private final int minIndex;
+
+        private Ranking(final List<JSONObject> articles) {
+            this.articles = Collections.unmodifiableList(new ArrayList<>(articles));
+            final Map<String, Integer> positions = new HashMap<>();
+            int min = 0;
+            for (int i = 0; i < articles.size(); i++) {
+                positions.put(articles.get(i).optString(Keys.OBJECT_ID), i);
+                if (articles.get(i).optInt(TOTAL_SCORE) < articles.get(min).optInt(TOTAL_SCORE)) {
+                    min = i;
+                }
+            }
+            this.positions = positions;
+            this.minIndex = min;
+        }
+
+        private boolean admits(final int score) {
+            return articles.size() < TOP_K || score > articles.get(minIndex).optInt(TOTAL_SCORE);
+        }
+
+        private Ranking set(final int index, final JSONObject article) {
+            final List<JSONObject> list = new ArrayList<>(articles);
+            list.set(index, article);
+            return new Ranking(list);
+        }
+
+        private Ranking add(final JSONObject article) {
+            final List<JSONObject> list = new ArrayList<>(articles);
+            list.add(article);
+            return new Ranking(list);
+        }
+    }
+}
@@ -27,24 +27,40 @@ import org.b3log.latke.ioc.BeanManager;
 import org.b3log.latke.ioc.Inject;
 import org.b3log.latke.model.User;
 import org.b3log.latke.repository.RepositoryException;
-import org.b3log.latke.repository.annotation.Transactional;
+import org.b3log.latke.repository.Transaction;
+import org.b3log.latke.repository.jdbc.JdbcRepository;
 import org.b3log.latke.service.annotation.Service;
 import org.b3log.latke.util.Stopwatchs;
 import org.b3log.symphony.model.Liveness;
+import org.b3log.symphony.model.UserExt;
 import org.b3log.symphony.processor.UserProcessor;
 import org.b3log.symphony.repository.LivenessRepository;
 import org.b3log.symphony.util.Symphonys;
 import org.json.JSONObject;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Liveness management service.
+ * <p>
+ * Liveness of each user and day is counted in memory. The row is read once when a counter is created, increments only
+ * touch the counter, and a background flusher writes dirty counters back in batches every {@link #FLUSH_INTERVAL}
+ * milliseconds and on shutdown. Since every increment goes through one counter, concurrent increments are not lost.
+ * </p>
+ * <p>
+ * Rewards are driven by the increment which crosses a threshold: the daily check-in at 10% and the check-in card at
+ * 100%. Cards given today are recorded in a persistent bitmap ({@link CloudService#markRewardedToday}), so a restart
+ * does not give them again.
+ * </p>
  *
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
- * @version 1.0.0.1, Jun 12, 2018
+ * @version 1.1.0.2, Oct 18, 2026
  * @since 1.4.0
  */
 @Service
@@ -55,6 +71,78 @@ public class LivenessMgmtService {
      */
     private static final Logger LOGGER = LogManager.getLogger(LivenessMgmtService.class);
 
+    /**
+     * 写回间隔（毫秒）.
+     */
+    private static final long FLUSH_INTERVAL = 5000;
+
+    /**
+     * 每个事务最多写回的记录数.
+     */
+    private static final int MAX_BATCH = 200;
+
+    /**
+     * 自动签到的活跃度阈值（%）.
+     */
+    private static final float CHECKIN_THRESHOLD = 10;
+
+    /**
+     * 赠送免签卡的活跃度阈值（%）.
+     */
+    private static final float GIFT_THRESHOLD = 100;
+
+    /**
+     * Reward name of the check-in card in the daily reward bitmap.
+     */
+    private static final String GIFT_REWARD = "liveness100";
+
+    /**
+     * Date of the last auto check-in run.
+     */
+    private static volatile String autoCheckinDate;
+
+    /**
+     * Counted fields.
+     */
+    private static final String[] FIELDS = {
+            Liveness.LIVENESS_POINT,
+            Liveness.LIVENESS_ACTIVITY,
+            Liveness.LIVENESS_ARTICLE,
+            Liveness.LIVENESS_COMMENT,
+            Liveness.LIVENESS_PV,
+            Liveness.LIVENESS_REWARD,
+            Liveness.LIVENESS_THANK,
+            Liveness.LIVENESS_VOTE,
+            Liveness.LIVENESS_ACCEPT_ANSWER
+    };
+
+    /**
+     * Live counters, &lt;key, counter&gt;.
+     */
+    private static final Map<Key, Counter> COUNTERS = new ConcurrentHashMap<>();
+
+    /**
+     * Serializes write-backs.
+     */
+    private static final Object FLUSH_LOCK = new Object();
+
+    static {
+        Thread.ofVirtual().name("LivenessFlusher").start(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(FLUSH_INTERVAL);
+                    writeBack();
+                } catch (final InterruptedException e) {
+                    return;
+                } catch (final Exception e) {
+                    LOGGER.log(Level.ERROR, "Liveness flusher failed", e);
+                } finally {
+                    JdbcRepository.dispose();
+                }
+            }
+        });
+    }
+
     /**
      * Liveness repository.
      */
@@ -85,40 +173,25 @@ public class LivenessMgmtService {
      * @param userId the specified user id
      * @param field  the specified field
      */
-    @Transactional
     public void incLiveness(final String userId, final String field) {
         Stopwatchs.start("Inc liveness");
         final String date = DateFormatUtils.format(System.currentTimeMillis(), "yyyyMMdd");
 
         try {
-            JSONObject liveness = livenessRepository.getByUserAndDate(userId, date);
-            if (null == liveness) {
-                liveness = new JSONObject();
-
-                liveness.put(Liveness.LIVENESS_USER_ID, userId);
-                liveness.put(Liveness.LIVENESS_DATE, date);
-                liveness.put(Liveness.LIVENESS_POINT, 0);
-                liveness.put(Liveness.LIVENESS_ACTIVITY, 0);
-                liveness.put(Liveness.LIVENESS_ARTICLE, 0);
-                liveness.put(Liveness.LIVENESS_COMMENT, 0);
-                liveness.put(Liveness.LIVENESS_PV, 0);
-                liveness.put(Liveness.LIVENESS_REWARD, 0);
-                liveness.put(Liveness.LIVENESS_THANK, 0);
-                liveness.put(Liveness.LIVENESS_VOTE, 0);
-                liveness.put(Liveness.LIVENESS_VOTE, 0);
-                liveness.put(Liveness.LIVENESS_ACCEPT_ANSWER, 0);
-
-                livenessRepository.add(liveness);
-            }
-
-            liveness.put(field, liveness.optInt(field) + 1);
+            final Counter counter = getCounter(userId, date);
+            counter.inc(field);
 
             final int livenessMax = Symphonys.ACTIVITY_YESTERDAY_REWARD_MAX;
-            final int currentLiveness = Liveness.calcPoint(liveness);
+            final int currentLiveness = Liveness.calcPoint(counter.toJSON());
             float livenessPercent = (float) (Math.round((float) currentLiveness / livenessMax * 100 * 100)) / 100;
             UserProcessor.livenessCache.put(userId, livenessPercent);
 
-            livenessRepository.update(liveness.optString(Keys.OBJECT_ID), liveness);
+            // 越过阈值的那次自增负责发放奖励，在独立线程中执行，不占用调用方事务
+            final boolean checkin = livenessPercent >= CHECKIN_THRESHOLD && counter.claim(Counter.CHECKIN);
+            final boolean gift = livenessPercent >= GIFT_THRESHOLD && counter.claim(Counter.GIFT);
+            if (checkin || gift) {
+                Thread.ofVirtual().start(() -> reward(userId, livenessPercent, checkin, gift));
+            }
         } catch (final RepositoryException e) {
             LOGGER.log(Level.ERROR, "Updates a liveness [" + date + "] field [" + field + "] failed", e);
         } finally {
@@ -126,66 +199,145 @@ public class LivenessMgmtService {
         }
     }
 
-    private static Map<String, String> gifts = new HashMap<>();
+    /**
+     * Gets the live liveness of the specified user and date.
+     *
+     * @param userId the specified user id
+     * @param date   the specified date, for example 20261018
+     * @return liveness, returns {@code null} if it is not counted in memory
+     */
+    public static JSONObject getLiveness(final String userId, final String date) {
+        final Counter counter = COUNTERS.get(new Key(userId, date));
+        if (null == counter) {
+            return null;
+        }
+        return counter.toJSON();
+    }
 
-    // 系统刚启动时运行，避免重复发放免签卡
-    public void initCheckLiveness() {
-        final String date = DateFormatUtils.format(System.currentTimeMillis(), "yyyyMMdd");
+    /**
+     * Drops the counters of the specified user without writing them back, called after the rows have been removed.
+     *
+     * @param userId the specified user id
+     */
+    public static void removeCounters(final String userId) {
+        synchronized (FLUSH_LOCK) {
+            COUNTERS.keySet().removeIf(key -> key.userId().equals(userId));
+        }
+    }
+
+    /**
+     * Writes all dirty counters back.
+     */
+    public void flush() {
+        writeBack();
+    }
+
+    private Counter getCounter(final String userId, final String date) throws RepositoryException {
+        final Key key = new Key(userId, date);
+        final Counter ret = COUNTERS.get(key);
+        if (null != ret) {
+            return ret;
+        }
+
+        final Counter counter = new Counter(livenessRepository.getByUserAndDate(userId, date));
+        final Counter existing = COUNTERS.putIfAbsent(key, counter);
+        return null == existing ? counter : existing;
+    }
+
+    /**
+     * Persists dirty counters, one transaction per batch, and drops clean counters of previous days. A failed batch
+     * stays dirty and is retried by the next write-back.
+     */
+    private static void writeBack() {
+        synchronized (FLUSH_LOCK) {
+            final String today = DateFormatUtils.format(System.currentTimeMillis(), "yyyyMMdd");
+            final List<Map.Entry<Key, Counter>> batch = new ArrayList<>();
+            for (final Map.Entry<Key, Counter> entry : COUNTERS.entrySet()) {
+                final Counter counter = entry.getValue();
+                if (counter.isDirty()) {
+                    batch.add(entry);
+                    if (batch.size() >= MAX_BATCH) {
+                        writeBack(batch);
+                        batch.clear();
+                    }
+                } else if (!today.equals(entry.getKey().date())) {
+                    COUNTERS.remove(entry.getKey(), counter);
+                }
+            }
+            if (!batch.isEmpty()) {
+                writeBack(batch);
+            }
+        }
+    }
+
+    private static void writeBack(final List<Map.Entry<Key, Counter>> batch) {
+        final LivenessRepository livenessRepository = BeanManager.getInstance().getReference(LivenessRepository.class);
+        final long[] versions = new long[batch.size()];
+        final String[] ids = new String[batch.size()];
+        final Transaction transaction = livenessRepository.beginTransaction();
         try {
-            List<JSONObject> userList = livenessRepository.getByDate(date);
-            for (JSONObject i : userList) {
-                String userId = i.optString(Liveness.LIVENESS_USER_ID);
-                JSONObject user = userQueryService.getUser(userId);
-                final int livenessMax = Symphonys.ACTIVITY_YESTERDAY_REWARD_MAX;
-                final int currentLiveness = livenessQueryService.getCurrentLivenessPoint(userId);
-                float liveness = (float) (Math.round((float) currentLiveness / livenessMax * 100 * 100)) / 100;
-                if (liveness == 100) {
-                    LOGGER.log(Level.INFO, "Ignore gifts for " + user.optString(User.USER_NAME));
-                    gifts.put(userId, date);
+            for (int i = 0; i < batch.size(); i++) {
+                final Key key = batch.get(i).getKey();
+                final Counter counter = batch.get(i).getValue();
+                versions[i] = counter.version.get();
+                final JSONObject liveness = counter.toJSON();
+                liveness.put(Liveness.LIVENESS_USER_ID, key.userId());
+                liveness.put(Liveness.LIVENESS_DATE, key.date());
+                if (null == counter.id) {
+                    ids[i] = livenessRepository.add(liveness);
+                } else {
+                    ids[i] = counter.id;
+                    livenessRepository.update(counter.id, liveness);
                 }
             }
-        } catch (RepositoryException e) {
-            LOGGER.log(Level.ERROR, "Init check liveness [" + date + "] failed", e);
+            transaction.commit();
+        } catch (final Exception e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            LOGGER.log(Level.ERROR, "Cannot write back [" + batch.size() + "] liveness counters", e);
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            final Counter counter = batch.get(i).getValue();
+            counter.id = ids[i];
+            counter.flushedVersion = versions[i];
         }
     }
 
-    public void checkLiveness() {
+    private void reward(final String userId, final float liveness, final boolean checkin, final boolean gift) {
         final BeanManager beanManager = BeanManager.getInstance();
-        final ActivityMgmtService activityMgmtService = beanManager.getReference(ActivityMgmtService.class);
-        final CloudService cloudService = beanManager.getReference(CloudService.class);
-        final String date = DateFormatUtils.format(System.currentTimeMillis(), "yyyyMMdd");
         try {
-            List<JSONObject> userList = livenessRepository.getByDate(date);
-            for (JSONObject i : userList) {
-                String userId = i.optString(Liveness.LIVENESS_USER_ID);
-                JSONObject user = userQueryService.getUser(userId);
-                final int livenessMax = Symphonys.ACTIVITY_YESTERDAY_REWARD_MAX;
-                final int currentLiveness = livenessQueryService.getCurrentLivenessPoint(userId);
-                float liveness = (float) (Math.round((float) currentLiveness / livenessMax * 100 * 100)) / 100;
-                if (liveness >= 10) {
-                    if (!activityQueryService.isCheckedinToday(userId)) {
-                        activityMgmtService.dailyCheckin(userId);
-                        LOGGER.log(Level.INFO, "Checkin for " + user.optString(User.USER_NAME) + " liveness is " + liveness + "%");
-                    }
-                }
-                if (liveness == 100) {
-                    if (gifts.get(userId) == null || !gifts.get(userId).equals(date)) {
-                        if (cloudService.putBag(userId, "checkin1day", 1, Integer.MAX_VALUE) == 0) {
-                            LOGGER.log(Level.INFO, "Checkin card 1 day for " + user.optString(User.USER_NAME));
-                        }
-                        gifts.put(userId, date);
+            final JSONObject user = userQueryService.getUser(userId);
+            if (checkin && !activityQueryService.isCheckedinToday(userId)) {
+                beanManager.getReference(ActivityMgmtService.class).dailyCheckin(userId);
+                LOGGER.log(Level.INFO, "Checkin for " + user.optString(User.USER_NAME) + " liveness is " + liveness + "%");
+            }
+            if (gift) {
+                final CloudService cloudService = beanManager.getReference(CloudService.class);
+                if (cloudService.markRewardedToday(GIFT_REWARD, user.optInt(UserExt.USER_NO))) {
+                    if (cloudService.putBag(userId, "checkin1day", 1, Integer.MAX_VALUE) == 0) {
+                        LOGGER.log(Level.INFO, "Checkin card 1 day for " + user.optString(User.USER_NAME));
                     }
+                } else {
+                    LOGGER.log(Level.INFO, "Ignore gifts for " + user.optString(User.USER_NAME));
                 }
             }
-        } catch (RepositoryException e) {
-            LOGGER.log(Level.ERROR, "Check liveness [" + date + "] failed", e);
+        } catch (final Exception e) {
+            LOGGER.log(Level.ERROR, "Rewards liveness of user [" + userId + "] failed", e);
+        } finally {
+            JdbcRepository.dispose();
+            Stopwatchs.release();
         }
     }
 
     public void autoCheckin() {
         final String date = DateFormatUtils.format(System.currentTimeMillis(), "HHmm");
         int numDate = Integer.parseInt(date);
-        if (numDate >= 0 && numDate <= 5) {
+        final String today = DateFormatUtils.format(System.currentTimeMillis(), "yyyyMMdd");
+        // 每天只扫描一次背包
+        if (numDate >= 0 && numDate <= 5 && !today.equals(autoCheckinDate)) {
             // 自动签到
             final BeanManager beanManager = BeanManager.getInstance();
             final ActivityMgmtService activityMgmtService = beanManager.getReference(ActivityMgmtService.class);
@@ -201,6 +353,108 @@ public class LivenessMgmtService {
                     }
                 }
             }
+            // 扫描完成后才记录日期，失败时下一分钟重试，已签到的用户会被跳过
+            autoCheckinDate = today;
+        }
+    }
+
+    /**
+     * Counter key.
+     *
+     * @param userId user id
+     * @param date   date, for example 20261018
+     */
+    private record Key(String userId, String date) {
+    }
+
+    /**
+     * Liveness counter of one user and day.
+     */
+    private static final class Counter {
+
+        /**
+         * Field values, indexed as {@link #FIELDS}.
+         */
+        private final AtomicIntegerArray values = new AtomicIntegerArray(FIELDS.length);
+
+        /**
+         * Reward flag of the check-in.
+         */
+        private static final int CHECKIN = 1;
+
+        /**
+         * Reward flag of the check-in card.
+         */
+        private static final int GIFT = 2;
+
+        /**
+         * Claimed reward flags.
+         */
+        private final AtomicInteger rewards = new AtomicInteger();
+
+        /**
+         * Incremented on every change.
+         */
+        private final AtomicLong version = new AtomicLong();
+
+        /**
+         * Version written back, accessed under {@link #FLUSH_LOCK}.
+         */
+        private long flushedVersion;
+
+        /**
+         * Row id, {@code null} if the row has not been added yet, accessed under {@link #FLUSH_LOCK}.
+         */
+        private String id;
+
+        private Counter(final JSONObject liveness) {
+            if (null != liveness) {
+                id = liveness.optString(Keys.OBJECT_ID);
+                for (int i = 0; i < FIELDS.length; i++) {
+                    values.set(i, liveness.optInt(FIELDS[i]));
+                }
+            }
+        }
+
+        private void inc(final String field) {
+            for (int i = 0; i < FIELDS.length; i++) {
+                if (FIELDS[i].equals(field)) {
+                    values.incrementAndGet(i);
+                    version.incrementAndGet();
+                    return;
+                }
+            }
+            LOGGER.log(Level.WARN, "Unknown liveness field [" + field + "]");
+        }
+
+        /**
+         * Claims the specified reward flag.
+         *
+         * @param reward the specified reward flag
+         * @return {@code true} if claimed by this call, returns {@code false} if claimed before
+         */
+        private boolean claim(final int reward) {
+            while (true) {
+                final int current = rewards.get();
+                if (0 != (current & reward)) {
+                    return false;
+                }
+                if (rewards.compareAndSet(current, current | reward)) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean isDirty() {
+            return version.get() != flushedVersion;
+        }
+
+        private JSONObject toJSON() {
+            final JSONObject ret = new JSONObject();
+            for (int i = 0; i < FIELDS.length; i++) {
+                ret.put(FIELDS[i], values.get(i));
+            }
+            return ret;
         }
     }
 }
@@ -65,6 +65,11 @@ public class LivenessQueryService {
         try {
             final String date = DateFormatUtils.format(new Date(), "yyyyMMdd");
 
+            final JSONObject live = LivenessMgmtService.getLiveness(userId, date);
+            if (null != live) {
+                return Liveness.calcPoint(live);
+            }
+
             try {
                 final JSONObject liveness = livenessRepository.getByUserAndDate(userId, date);
                 if (null == liveness) {
@@ -93,7 +98,19 @@ public class LivenessQueryService {
         final String date = DateFormatUtils.format(yesterday, "yyyyMMdd");
 
         try {
-            return livenessRepository.getByUserAndDate(userId, date);
+            // 跨天后最后一次写回之前，以内存中的计数为准
+            final JSONObject live = LivenessMgmtService.getLiveness(userId, date);
+            final JSONObject ret = livenessRepository.getByUserAndDate(userId, date);
+            if (null == live) {
+                return ret;
+            }
+            if (null == ret) {
+                return live.put(Liveness.LIVENESS_USER_ID, userId).put(Liveness.LIVENESS_DATE, date);
+            }
+            for (final String key : live.keySet()) {
+                ret.put(key, live.opt(key));
+            }
+            return ret;
         } catch (final RepositoryException e) {
             LOGGER.log(Level.ERROR, "Gets yesterday's liveness failed", e);
 
@@ -0,0 +1,283 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apache.commons.lang.StringUtils;
+import org.b3log.latke.Keys;
+import org.b3log.latke.ioc.Inject;
+import org.b3log.latke.repository.FilterOperator;
+import org.b3log.latke.repository.PropertyFilter;
+import org.b3log.latke.repository.Query;
+import org.b3log.latke.repository.RepositoryException;
+import org.b3log.latke.service.annotation.Service;
+import org.b3log.symphony.model.Article;
+import org.b3log.symphony.model.Tag;
+import org.b3log.symphony.repository.ArticleRepository;
+import org.b3log.symphony.repository.TagArticleRepository;
+import org.b3log.symphony.repository.TagRepository;
+import org.b3log.symphony.util.JSONs;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relevant article index.
+ * <p>
+ * Keeps a posting of the newest {@link #POSTING_SIZE} articles of each tag, loaded from tag-article relations on
+ * first use and kept up to date by article add, update and remove. Relevant articles of an article are read from the
+ * postings of its tags, rarely used tags first, without touching database once the postings are loaded.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.0.0.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+@Service
+public class RelevantArticleIndex {
+
+    /**
+     * Maximum articles per tag.
+     */
+    public static final int POSTING_SIZE = 32;
+
+    /**
+     * Postings, &lt;tagTitle, posting&gt;, expired postings are reloaded so that drift is bounded.
+     */
+    private static final Cache<String, Posting> POSTINGS = Caffeine.newBuilder()
+            .maximumSize(20000)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
+
+    /**
+     * Newest first.
+     */
+    private static final Comparator<JSONObject> NEWEST_FIRST = Comparator.comparing((JSONObject article) -> article.optString(Keys.OBJECT_ID)).reversed();
+
+    /**
+     * Tag repository.
+     */
+    @Inject
+    private TagRepository tagRepository;
+
+    /**
+     * Tag-Article repository.
+     */
+    @Inject
+    private TagArticleRepository tagArticleRepository;
+
+    /**
+     * Article repository.
+     */
+    @Inject
+    private ArticleRepository articleRepository;
+
+    /**
+     * Gets relevant articles of the specified article.
+     *
+     * @param articleId the specified article id, excluded from the result
+     * @param tagTitles the specified tag titles of the article
+     * @param fetchSize the specified fetch size
+     * @return relevant articles with fields oId, articleTitle, articlePermalink and articleAuthorId, the returned
+     * articles are copies which may be modified
+     * @throws RepositoryException repository exception
+     */
+    public List<JSONObject> getRelevantArticles(final String articleId, final List<String> tagTitles, final int fetchSize) throws RepositoryException {
+        final List<Posting> postings = new ArrayList<>(tagTitles.size());
+        for (final String tagTitle : tagTitles) {
+            postings.add(getPosting(tagTitle));
+        }
+        postings.sort(Comparator.comparingInt(posting -> posting.referenceCnt));
+
+        final Set<String> fetched = new HashSet<>();
+        fetched.add(articleId);
+        final List<JSONObject> ret = new ArrayList<>(fetchSize);
+        for (final Posting posting : postings) {
+            // 每个标签最多取 fetchSize 篇，与按标签分页查询时一致
+            final int size = Math.min(fetchSize, posting.articles.size());
+            for (int i = 0; i < size && ret.size() < fetchSize; i++) {
+                final JSONObject article = posting.articles.get(i);
+                if (fetched.add(article.optString(Keys.OBJECT_ID))) {
+                    ret.add(JSONs.clone(article));
+                }
+            }
+            if (ret.size() >= fetchSize) {
+                break;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Adds the specified article to loaded postings of its tags.
+     *
+     * @param article the specified article
+     */
+    public void onArticleAdded(final JSONObject article) {
+        final JSONObject summary = summarize(article);
+        for (final String tagTitle : getTagTitles(article)) {
+            POSTINGS.asMap().computeIfPresent(tagTitle, (title, posting) -> posting.put(summary, 1));
+        }
+    }
+
+    /**
+     * Moves the specified article between loaded postings after its tags or title changed.
+     *
+     * @param article    the specified updated article
+     * @param oldArticle the specified article before update, may be {@code null}
+     */
+    public void onArticleUpdated(final JSONObject article, final JSONObject oldArticle) {
+        final String articleId = article.optString(Keys.OBJECT_ID);
+        final Set<String> tagTitles = getTagTitles(article);
+        if (null != oldArticle) {
+            for (final String oldTagTitle : getTagTitles(oldArticle)) {
+                if (!tagTitles.contains(oldTagTitle)) {
+                    POSTINGS.asMap().computeIfPresent(oldTagTitle, (title, posting) -> posting.remove(articleId, -1));
+                }
+            }
+        }
+
+        final JSONObject summary = summarize(article);
+        for (final String tagTitle : tagTitles) {
+            POSTINGS.asMap().computeIfPresent(tagTitle, (title, posting) -> posting.put(summary, posting.contains(articleId) ? 0 : 1));
+        }
+    }
+
+    /**
+     * Removes the specified article from all loaded postings.
+     *
+     * @param articleId the specified article id
+     */
+    public void onArticleRemoved(final String articleId) {
+        for (final String tagTitle : new ArrayList<>(POSTINGS.asMap().keySet())) {
+            POSTINGS.asMap().computeIfPresent(tagTitle, (title, posting) -> posting.contains(articleId) ? posting.remove(articleId, -1) : posting);
+        }
+    }
+
+    private Posting getPosting(final String tagTitle) throws RepositoryException {
+        final Posting ret = POSTINGS.getIfPresent(tagTitle);
+        if (null != ret) {
+            return ret;
+        }
+
+        final Posting loaded = load(tagTitle);
+        // 加载期间若已有事件写入则以已有的为准
+        final Posting existing = POSTINGS.asMap().putIfAbsent(tagTitle, loaded);
+        return null == existing ? loaded : existing;
+    }
+
+    private Posting load(final String tagTitle) throws RepositoryException {
+        final JSONObject tag = tagRepository.getByTitle(tagTitle);
+        if (null == tag) {
+            return new Posting(0, Collections.emptyList());
+        }
+
+        final JSONObject result = tagArticleRepository.getByTagId(tag.optString(Keys.OBJECT_ID), 1, POSTING_SIZE);
+        final List<JSONObject> relations = (List<JSONObject>) result.opt(Keys.RESULTS);
+        final Set<String> articleIds = new LinkedHashSet<>();
+        for (final JSONObject relation : relations) {
+            articleIds.add(relation.optString(Article.ARTICLE + '_' + Keys.OBJECT_ID));
+        }
+        if (articleIds.isEmpty()) {
+            return new Posting(tag.optInt(Tag.TAG_REFERENCE_CNT), Collections.emptyList());
+        }
+
+        final Query query = new Query().setFilter(new PropertyFilter(Keys.OBJECT_ID, FilterOperator.IN, articleIds)).
+                select(Article.ARTICLE_TITLE, Article.ARTICLE_PERMALINK, Article.ARTICLE_AUTHOR_ID);
+        final List<JSONObject> articles = new ArrayList<>();
+        for (final JSONObject article : articleRepository.getList(query)) {
+            articles.add(summarize(article));
+        }
+        articles.sort(NEWEST_FIRST);
+        return new Posting(tag.optInt(Tag.TAG_REFERENCE_CNT), Collections.unmodifiableList(articles));
+    }
+
+    private static JSONObject summarize(final JSONObject article) {
+        return new JSONObject()
+                .put(Keys.OBJECT_ID, article.optString(Keys.OBJECT_ID))
+                .put(Article.ARTICLE_TITLE, article.optString(Article.ARTICLE_TITLE))
+                .put(Article.ARTICLE_PERMALINK, article.optString(Article.ARTICLE_PERMALINK))
+                .put(Article.ARTICLE_AUTHOR_ID, article.optString(Article.ARTICLE_AUTHOR_ID));
+    }
+
+    private static Set<String> getTagTitles(final JSONObject article) {
+        final Set<String> ret = new LinkedHashSet<>();
+        for (final String tagTitle : article.optString(Article.ARTICLE_TAGS).split(",")) {
+            if (StringUtils.isNotBlank(tagTitle)) {
+                ret.add(tagTitle.trim());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Immutable newest articles of one tag.
+     */
+    private static final class Posting {
+
+        private final int referenceCnt;
+
+        private final List<JSONObject> articles;
+
+        private Posting(final int referenceCnt, final List<JSONObject> articles) {
+            this.referenceCnt = referenceCnt;
+            this.articles = articles;
+        }
+
+        private boolean contains(final String articleId) {
+            for (final JSONObject article : articles) {
+                if (articleId.equals(article.optString(Keys.OBJECT_ID))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private Posting put(final JSONObject summary, final int referenceDelta) {
+            final String articleId = summary.optString(Keys.OBJECT_ID);
+            final List<JSONObject> list = new ArrayList<>(articles.size() + 1);
+            for (final JSONObject article : articles) {
+                if (!articleId.equals(article.optString(Keys.OBJECT_ID))) {
+                    list.add(article);
+                }
+            }
+            list.add(summary);
+            list.sort(NEWEST_FIRST);
+            return new Posting(Math.max(0, referenceCnt + referenceDelta), Collections.unmodifiableList(list.size() > POSTING_SIZE ? new ArrayList<>(list.subList(0, POSTING_SIZE)) : list));
+        }
+
+        private Posting remove(final String articleId, final int referenceDelta) {
+            final List<JSONObject> list = new ArrayList<>(articles.size());
+            for (final JSONObject article : articles) {
+                if (!articleId.equals(article.optString(Keys.OBJECT_ID))) {
+                    list.add(article);
+                }
+            }
+            return new Posting(Math.max(0, referenceCnt + referenceDelta), Collections.unmodifiableList(list));
+        }
+    }
+}
@@ -25,24 +25,46 @@ import okio.Utf8;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.commons.lang.StringUtils;
 import org.b3log.latke.Keys;
+import org.b3log.latke.ioc.Inject;
+import org.b3log.latke.repository.CompositeFilterOperator;
+import org.b3log.latke.repository.FilterOperator;
+import org.b3log.latke.repository.PropertyFilter;
+import org.b3log.latke.repository.Query;
+import org.b3log.latke.repository.RepositoryException;
+import org.b3log.latke.repository.SortDirection;
 import org.b3log.latke.service.annotation.Service;
 import org.b3log.symphony.model.Article;
+import org.b3log.symphony.model.Tag;
+import org.b3log.symphony.repository.ArticleRepository;
+import org.b3log.symphony.util.BulkIndexQueue;
+import org.b3log.symphony.util.LocalSearchIndex;
 import org.b3log.symphony.util.Markdowns;
 import org.b3log.symphony.util.Symphonys;
 import org.json.JSONObject;
 import org.jsoup.Jsoup;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Search management service.
  * <p>
- * Uses <a href="https://www.elastic.co/products/elasticsearch">Elasticsearch</a> or
- * <a href="https://www.algolia.com">Algolia</a> as the underlying engine.
+ * Uses <a href="https://www.elastic.co/products/elasticsearch">Elasticsearch</a>,
+ * <a href="https://www.algolia.com">Algolia</a> or the in-process {@link LocalSearchIndex} as the underlying engine.
  *
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
- * @version 1.3.2.9, Aug 31, 2018
+ * @version 1.5.1.1, Oct 18, 2026
  * @since 1.4.0
  */
 @Service
@@ -59,9 +81,319 @@ public class SearchMgmtService {
     public static final String ES_INDEX_NAME = "symphony";
 
     /**
-     * Rebuilds ES index.
+     * 重建索引时每页读取的文章数.
+     */
+    private static final int REBUILD_PAGE_SIZE = 200;
+
+    /**
+     * 并行发送 Elasticsearch 批量请求的最大数.
+     */
+    private static final int ES_BULK_WORKERS = 4;
+
+    /**
+     * 全量重建时等待批量队列排空的最长时间（毫秒）.
+     */
+    private static final long ES_REBUILD_DRAIN_TIMEOUT = 30 * 60 * 1000;
+
+    /**
+     * Elasticsearch indexing queue, opened on first use.
+     */
+    private static volatile BulkIndexQueue esQueue;
+
+    /**
+     * Local search index, opened on first use.
+     */
+    private static volatile LocalSearchIndex localIndex;
+
+    /**
+     * Guards swapping {@link #localIndex} and the updates mirrored into {@link #rebuildingIndex}.
+     */
+    private static final Object LOCAL_INDEX_LOCK = new Object();
+
+    /**
+     * Local search index being rebuilt, {@code null} if no rebuild is running.
+     */
+    private static LocalSearchIndex rebuildingIndex;
+
+    /**
+     * Ids of the articles updated or removed while rebuilding, the rebuild keeps their mirrored state.
+     */
+    private static final Set<String> REBUILD_TOUCHED = new HashSet<>();
+
+    /**
+     * Article repository.
+     */
+    @Inject
+    private ArticleRepository articleRepository;
+
+    /**
+     * Gets the local search index.
+     *
+     * @return local search index, returns {@code null} if it can not be opened
+     */
+    static LocalSearchIndex getLocalIndex() {
+        LocalSearchIndex ret = localIndex;
+        if (null != ret) {
+            return ret;
+        }
+
+        synchronized (SearchMgmtService.class) {
+            if (null == localIndex) {
+                try {
+                    localIndex = new LocalSearchIndex(Symphonys.LOCAL_SEARCH_DIR);
+                } catch (final Exception e) {
+                    LOGGER.log(Level.ERROR, "Opens local search index [dir=" + Symphonys.LOCAL_SEARCH_DIR + "] failed", e);
+                }
+            }
+            return localIndex;
+        }
+    }
+
+    /**
+     * Rebuilds local search index, streams valid articles from the repository in pages ordered by id.
+     * <p>
+     * The new index is built in a sibling directory while the current one keeps serving searches, updates made in the
+     * meantime are applied to both. The new index replaces the current one only once it is complete.
+     * </p>
+     */
+    public void rebuildLocalIndex() {
+        final LocalSearchIndex current = getLocalIndex();
+        if (null == current) {
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        final Path dir = Paths.get(Symphonys.LOCAL_SEARCH_DIR).toAbsolutePath().normalize();
+        final Path rebuildDir = dir.resolveSibling(dir.getFileName() + ".rebuild");
+        final LocalSearchIndex index;
+        synchronized (LOCAL_INDEX_LOCK) {
+            if (null != rebuildingIndex) {
+                LOGGER.log(Level.WARN, "Local search index is being rebuilt");
+                return;
+            }
+            try {
+                index = new LocalSearchIndex(rebuildDir.toString());
+            } catch (final Exception e) {
+                LOGGER.log(Level.ERROR, "Opens local search index [dir=" + rebuildDir + "] failed", e);
+                return;
+            }
+            // 上次重建中断时可能留有残余数据
+            index.clear();
+            rebuildingIndex = index;
+            REBUILD_TOUCHED.clear();
+        }
+
+        boolean built = false;
+        int count = 0;
+        try {
+            count = forEachIndexablePage(false, articles -> {
+                final List<LocalSearchIndex.Document> documents = new ArrayList<>(articles.size());
+                for (final JSONObject article : articles) {
+                    documents.add(toLocalDocument(article));
+                }
+                synchronized (LOCAL_INDEX_LOCK) {
+                    // 重建期间已更新或删除的文章以同步写入的为准
+                    documents.removeIf(document -> REBUILD_TOUCHED.contains(document.getId()));
+                    index.putAll(documents);
+                }
+            });
+            built = true;
+        } catch (final Exception e) {
+            LOGGER.log(Level.ERROR, "Rebuilds local search index failed", e);
+        }
+
+        synchronized (LOCAL_INDEX_LOCK) {
+            rebuildingIndex = null;
+            REBUILD_TOUCHED.clear();
+            if (built) {
+                try {
+                    index.moveTo(dir.toString());
+                    localIndex = index;
+                } catch (final Exception e) {
+                    built = false;
+                    LOGGER.log(Level.ERROR, "Swaps in rebuilt local search index failed", e);
+                }
+            }
+            closeQuietly(built ? current : index);
+        }
+        if (!built) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(rebuildDir);
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARN, "Removes local search index rebuild directory [" + rebuildDir + "] failed", e);
+        }
+        LOGGER.info("Rebuilt local search index [docs=" + count + ", ms=" + (System.currentTimeMillis() - start) + "]");
+    }
+
+    /**
+     * Updates/Adds indexing the specified article in local search index, an article which is not valid is removed.
+     *
+     * @param doc the specified article
+     */
+    public void updateLocalDocument(final JSONObject doc) {
+        if (null == getLocalIndex()) {
+            return;
+        }
+
+        final String id = doc.optString(Keys.OBJECT_ID);
+        if (Article.ARTICLE_STATUS_C_VALID != doc.optInt(Article.ARTICLE_STATUS)) {
+            removeLocalDocument(id);
+            return;
+        }
+        try {
+            final List<LocalSearchIndex.Document> documents = List.of(toLocalDocument(doc));
+            synchronized (LOCAL_INDEX_LOCK) {
+                localIndex.putAll(documents);
+                if (null != rebuildingIndex) {
+                    rebuildingIndex.putAll(documents);
+                    REBUILD_TOUCHED.add(id);
+                }
+            }
+        } catch (final Exception e) {
+            LOGGER.log(Level.ERROR, "Updates local doc failed", e);
+        }
+    }
+
+    /**
+     * Removes the specified article in local search index.
+     *
+     * @param doc the specified article
+     */
+    public void removeLocalDocument(final JSONObject doc) {
+        if (null != getLocalIndex()) {
+            removeLocalDocument(doc.optString(Keys.OBJECT_ID));
+        }
+    }
+
+    private static void removeLocalDocument(final String id) {
+        synchronized (LOCAL_INDEX_LOCK) {
+            localIndex.remove(id);
+            if (null != rebuildingIndex) {
+                rebuildingIndex.remove(id);
+                REBUILD_TOUCHED.add(id);
+            }
+        }
+    }
+
+    private static void closeQuietly(final LocalSearchIndex index) {
+        try {
+            index.close();
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARN, "Closes local search index failed", e);
+        }
+    }
+
+    /**
+     * Gets the Elasticsearch indexing queue, operations left in its journal by the last run are resumed when opened.
+     *
+     * @return indexing queue, returns {@code null} if it can not be opened
+     */
+    public static BulkIndexQueue getESQueue() {
+        BulkIndexQueue ret = esQueue;
+        if (null != ret) {
+            return ret;
+        }
+
+        synchronized (SearchMgmtService.class) {
+            if (null == esQueue) {
+                try {
+                    esQueue = new BulkIndexQueue(Symphonys.ES_QUEUE_DIR, ES_INDEX_NAME, ES_BULK_WORKERS, SearchMgmtService::sendESBulk);
+                } catch (final Exception e) {
+                    LOGGER.log(Level.ERROR, "Opens search index queue [dir=" + Symphonys.ES_QUEUE_DIR + "] failed", e);
+                }
+            }
+            return esQueue;
+        }
+    }
+
+    /**
+     * Stops the Elasticsearch indexing queue if it is opened, operations which are not sent stay in its journal.
+     */
+    public static void shutdownESQueue() {
+        final BulkIndexQueue queue = esQueue;
+        if (null != queue) {
+            queue.shutdown(5000);
+        }
+    }
+
+    /**
+     * Gets the Elasticsearch indexing statistics.
+     *
+     * @return statistics, returns {@code null} if the queue is not opened
+     * @see BulkIndexQueue#getStats()
+     */
+    public static JSONObject getESIndexingStats() {
+        final BulkIndexQueue queue = esQueue;
+        return null == queue ? null : queue.getStats();
+    }
+
+    private static String sendESBulk(final String body) throws Exception {
+        final HttpResponse response = HttpRequest.post(Symphonys.ES_SERVER + "/_bulk").
+                body(body.getBytes(StandardCharsets.UTF_8), "application/x-ndjson").
+                connectionTimeout(5000).timeout(30000).send();
+        response.charset("UTF-8");
+        if (200 != response.statusCode()) {
+            throw new IOException("Bulk request failed [status=" + response.statusCode() + "]");
+        }
+        return response.bodyText();
+    }
+
+    /**
+     * Streams valid normal and city broadcast articles which are not in the sandbox, in pages ordered by id.
+     *
+     * @param full     whether to read all fields, reads only the fields needed by the local search index otherwise
+     * @param consumer the specified page consumer
+     * @return number of streamed articles
+     * @throws RepositoryException repository exception
+     */
+    private int forEachIndexablePage(final boolean full, final Consumer<List<JSONObject>> consumer) throws RepositoryException {
+        String lastId = "0";
+        int ret = 0;
+        while (true) {
+            final Query query = new Query().setFilter(CompositeFilterOperator.and(
+                    new PropertyFilter(Keys.OBJECT_ID, FilterOperator.GREATER_THAN, lastId),
+                    new PropertyFilter(Article.ARTICLE_STATUS, FilterOperator.EQUAL, Article.ARTICLE_STATUS_C_VALID),
+                    new PropertyFilter(Article.ARTICLE_TYPE, FilterOperator.IN,
+                            Arrays.asList(Article.ARTICLE_TYPE_C_NORMAL, Article.ARTICLE_TYPE_C_CITY_BROADCAST)))).
+                    addSort(Keys.OBJECT_ID, SortDirection.ASCENDING).setPageCount(1).setPage(1, REBUILD_PAGE_SIZE);
+            if (!full) {
+                query.select(Keys.OBJECT_ID, Article.ARTICLE_TITLE, Article.ARTICLE_CONTENT, Article.ARTICLE_TAGS);
+            }
+            final List<JSONObject> articles = articleRepository.getList(query);
+            if (articles.isEmpty()) {
+                return ret;
+            }
+
+            final List<JSONObject> page = new ArrayList<>(articles.size());
+            for (final JSONObject article : articles) {
+                if (!StringUtils.containsIgnoreCase(article.optString(Article.ARTICLE_TAGS), Tag.TAG_TITLE_C_SANDBOX)) {
+                    page.add(article);
+                }
+            }
+            consumer.accept(page);
+            ret += page.size();
+            lastId = articles.get(articles.size() - 1).optString(Keys.OBJECT_ID);
+        }
+    }
+
+    private static LocalSearchIndex.Document toLocalDocument(final JSONObject article) {
+        final String html = Markdowns.toHTML(article.optString(Article.ARTICLE_CONTENT));
+        return new LocalSearchIndex.Document(article.optString(Keys.OBJECT_ID), article.optString(Article.ARTICLE_TITLE), Jsoup.parse(html).text());
+    }
+
+    /**
+     * Rebuilds ES index, recreates the index then streams valid articles from the repository in pages ordered by id
+     * into the bulk indexing queue, and waits until they are all indexed.
      */
     public void rebuildESIndex() {
+        final BulkIndexQueue queue = getESQueue();
+        if (null == queue) {
+            return;
+        }
+
         try {
             HttpRequest.delete(Symphonys.ES_SERVER + "/" + ES_INDEX_NAME).timeout(3000).send();
             HttpRequest.put(Symphonys.ES_SERVER + "/" + ES_INDEX_NAME).timeout(3000).send();
@@ -82,10 +414,30 @@ public class SearchMgmtService {
             content.put("analyzer", "ik_smart");
             content.put("search_analyzer", "ik_smart");
 
-            HttpRequest.post(Symphonys.ES_SERVER + "/" + ES_INDEX_NAME + "/" + Article.ARTICLE + "/_mapping").bodyText(mapping.toString()).timeout(3000).contentTypeJson();
+            HttpRequest.post(Symphonys.ES_SERVER + "/" + ES_INDEX_NAME + "/" + Article.ARTICLE + "/_mapping").bodyText(mapping.toString()).timeout(3000).contentTypeJson().send();
         } catch (final Exception e) {
             LOGGER.log(Level.ERROR, "Removes index failed", e);
         }
+
+        final long start = System.currentTimeMillis();
+        // 重建期间被实时更新过的文章不再用分页读取的旧数据覆盖
+        queue.beginRebuild();
+        try {
+            final int count = forEachIndexablePage(true, articles -> {
+                for (final JSONObject article : articles) {
+                    // 全量重建可重新执行，不写入队列日志
+                    queue.index(Article.ARTICLE, article.optString(Keys.OBJECT_ID), article, false);
+                }
+            });
+            final boolean drained = queue.awaitIdle(ES_REBUILD_DRAIN_TIMEOUT);
+            final long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            LOGGER.info("Rebuilt ES index [docs=" + count + ", drained=" + drained + ", ms=" + elapsed
+                    + ", docsPerSecond=" + count * 1000L / elapsed + ", stats=" + queue.getStats() + "]");
+        } catch (final Exception e) {
+            LOGGER.log(Level.ERROR, "Rebuilds ES index failed", e);
+        } finally {
+            queue.endRebuild();
+        }
     }
 
     /**
@@ -122,35 +474,28 @@ public class SearchMgmtService {
     }
 
     /**
-     * Updates/Adds indexing the specified document in ES.
+     * Updates/Adds indexing the specified document in ES, the operation is queued and sent in a bulk request.
      *
      * @param doc  the specified document
      * @param type the specified document type
      */
     public void updateESDocument(final JSONObject doc, final String type) {
-        try {
-            final JSONObject payload = new JSONObject();
-            payload.put("doc", doc);
-            payload.put("upsert", doc);
-
-            HttpRequest.post(Symphonys.ES_SERVER + "/" + ES_INDEX_NAME + "/" + type + "/" + doc.optString(Keys.OBJECT_ID) + "/_update").
-                    bodyText(payload.toString()).contentTypeJson().timeout(5000).sendAsync();
-        } catch (final Exception e) {
-            LOGGER.log(Level.ERROR, "Updates doc failed", e);
+        final BulkIndexQueue queue = getESQueue();
+        if (null != queue) {
+            queue.index(type, doc.optString(Keys.OBJECT_ID), doc, true);
         }
     }
 
     /**
-     * Removes the specified document in ES.
+     * Removes the specified document in ES, the operation is queued and sent in a bulk request.
      *
      * @param doc  the specified document
      * @param type the specified document type
      */
     public void removeESDocument(final JSONObject doc, final String type) {
-        try {
-            HttpRequest.delete(Symphonys.ES_SERVER + "/" + ES_INDEX_NAME + "/" + type + "/" + doc.optString(Keys.OBJECT_ID)).timeout(5000).sendAsync();
-        } catch (final Exception e) {
-            LOGGER.log(Level.ERROR, "Updates doc failed", e);
+        final BulkIndexQueue queue = getESQueue();
+        if (null != queue) {
+            queue.delete(type, doc.optString(Keys.OBJECT_ID));
         }
     }
 
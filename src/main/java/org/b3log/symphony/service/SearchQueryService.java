@@ -23,23 +23,37 @@ import jodd.http.HttpResponse;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.b3log.latke.Keys;
+import org.b3log.latke.ioc.Inject;
+import org.b3log.latke.repository.CompositeFilterOperator;
+import org.b3log.latke.repository.FilterOperator;
+import org.b3log.latke.repository.PropertyFilter;
+import org.b3log.latke.repository.Query;
 import org.b3log.latke.service.annotation.Service;
 import org.b3log.latke.util.URLs;
 import org.b3log.symphony.model.Article;
+import org.b3log.symphony.repository.ArticleRepository;
+import org.b3log.symphony.util.LocalSearchIndex;
 import org.b3log.symphony.util.Symphonys;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Search query service.
  * <p>
  * Uses <a href="https://www.elastic.co/products/elasticsearch">Elasticsearch</a> as the underlying engine. Uses
- * <a href="https://www.algolia.com">Algolia</a> as the underlying engine.
+ * <a href="https://www.algolia.com">Algolia</a> as the underlying engine. Uses the in-process
+ * {@link LocalSearchIndex} as the underlying engine when no Elasticsearch is deployed.
  * </p>
  *
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
  * @author <a href="https://ld246.com/member/ZephyrJung">Zephyr</a>
- * @version 1.2.1.3, Aug 2, 2018
+ * @version 1.3.0.1, Oct 18, 2026
  * @since 1.4.0
  */
 @Service
@@ -50,6 +64,89 @@ public class SearchQueryService {
      */
     private static final Logger LOGGER = LogManager.getLogger(SearchQueryService.class);
 
+    /**
+     * Article repository.
+     */
+    @Inject
+    private ArticleRepository articleRepository;
+
+    /**
+     * Search management service.
+     */
+    @Inject
+    private SearchMgmtService searchMgmtService;
+
+    /**
+     * Searches by local search index.
+     *
+     * @param keyword     the specified keyword
+     * @param currentPage the specified current page number
+     * @param pageSize    the specified page size
+     * @return search result in the shape of an Elasticsearch response, for example,
+     * <pre>
+     * {
+     *     "took": 3,
+     *     "hits": {
+     *         "total": 42,
+     *         "hits": [{
+     *             "_id": "", "_score": 1.5, "_source": article,
+     *             "highlight": {"articleContent": ["... &lt;em&gt;keyword&lt;/em&gt; ..."]}
+     *         }, ....]
+     *     }
+     * }
+     * </pre>
+     * returns {@code null} if the local search index is not available. Hits whose article is no longer valid are
+     * left out of the hits and the total, and are removed from the index
+     */
+    public JSONObject searchLocal(final String keyword, final int currentPage, final int pageSize) {
+        final LocalSearchIndex index = SearchMgmtService.getLocalIndex();
+        if (null == index) {
+            return null;
+        }
+
+        try {
+            final long start = System.currentTimeMillis();
+            final LocalSearchIndex.Result result = index.search(keyword, (currentPage - 1) * pageSize, pageSize);
+            final List<String> ids = new ArrayList<>();
+            for (final LocalSearchIndex.Hit hit : result.getHits()) {
+                ids.add(hit.getId());
+            }
+
+            final Map<String, JSONObject> articles = new HashMap<>();
+            if (!ids.isEmpty()) {
+                final Query query = new Query().setFilter(CompositeFilterOperator.and(
+                        new PropertyFilter(Keys.OBJECT_ID, FilterOperator.IN, ids),
+                        new PropertyFilter(Article.ARTICLE_STATUS, FilterOperator.EQUAL, Article.ARTICLE_STATUS_C_VALID))).
+                        setPageCount(1).setPage(1, ids.size());
+                for (final JSONObject article : articleRepository.getList(query)) {
+                    articles.put(article.optString(Keys.OBJECT_ID), article);
+                }
+            }
+
+            final JSONArray hits = new JSONArray();
+            int stale = 0;
+            for (final LocalSearchIndex.Hit hit : result.getHits()) {
+                final JSONObject article = articles.get(hit.getId());
+                if (null == article) {
+                    // 文章已删除或已失效，从索引中移除，后续分页不再计入
+                    stale++;
+                    searchMgmtService.removeLocalDocument(new JSONObject().put(Keys.OBJECT_ID, hit.getId()));
+                    continue;
+                }
+
+                hits.put(new JSONObject().put("_id", hit.getId()).put("_score", hit.getScore()).put("_source", article).
+                        put("highlight", new JSONObject().put(Article.ARTICLE_CONTENT, new JSONArray(hit.getHighlights()))));
+            }
+
+            return new JSONObject().put("took", System.currentTimeMillis() - start).
+                    put("hits", new JSONObject().put("total", Math.max(0, result.getTotal() - stale)).put("hits", hits));
+        } catch (final Exception e) {
+            LOGGER.log(Level.ERROR, "Queries failed", e);
+
+            return null;
+        }
+    }
+
     /**
      * Searches by Elasticsearch.
      *
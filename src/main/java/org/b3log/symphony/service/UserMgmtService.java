@@ -190,6 +190,7 @@ public class UserMgmtService {
             emotionRepository.removeByUserId(userId);
 
             transaction.commit();
+            LivenessMgmtService.removeCounters(userId);
         } catch (final RepositoryException e) {
             if (transaction.isActive()) {
                 transaction.rollback();
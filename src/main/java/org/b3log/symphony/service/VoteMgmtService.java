@@ -24,7 +24,7 @@ import org.apache.logging.log4j.Logger;
 import org.b3log.latke.Keys;
 import org.b3log.latke.ioc.Inject;
 import org.b3log.latke.repository.RepositoryException;
-import org.b3log.latke.repository.annotation.Transactional;
+import org.b3log.latke.repository.Transaction;
 import org.b3log.latke.service.annotation.Service;
 import org.b3log.symphony.model.Article;
 import org.b3log.symphony.model.Comment;
@@ -42,7 +42,7 @@ import java.util.List;
  * Vote management service.
  *
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
- * @version 1.1.1.1, Jun 6, 2019
+ * @version 1.2.0.1, Oct 18, 2026
  * @since 1.3.0
  */
 @Service
@@ -65,6 +65,12 @@ public class VoteMgmtService {
     @Inject
     private ArticleRepository articleRepository;
 
+    /**
+     * Hot article ranking service.
+     */
+    @Inject
+    private HotArticleRankingService hotArticleRankingService;
+
     /**
      * Tag-Article repository.
      */
@@ -123,62 +129,85 @@ public class VoteMgmtService {
      * @param dataId   the specified data id
      * @param dataType the specified data type
      */
-    @Transactional
     public void voteCancel(final String userId, final String dataId, final int dataType) {
+        final Transaction transaction = voteRepository.beginTransaction();
         try {
-            final int oldType = voteRepository.removeIfExists(userId, dataId, dataType);
-
-            if (Vote.DATA_TYPE_C_ARTICLE == dataType) {
-                final JSONObject article = articleRepository.get(dataId);
-                if (null == article) {
-                    LOGGER.log(Level.ERROR, "Not found article [id={}] to vote cancel", dataId);
-                    return;
-                }
-
-                if (Vote.TYPE_C_UP == oldType) {
-                    article.put(Article.ARTICLE_GOOD_CNT, article.optInt(Article.ARTICLE_GOOD_CNT) - 1);
-                } else if (Vote.TYPE_C_DOWN == oldType) {
-                    article.put(Article.ARTICLE_BAD_CNT, article.optInt(Article.ARTICLE_BAD_CNT) - 1);
-                }
-
-                final int ups = article.optInt(Article.ARTICLE_GOOD_CNT);
-                final int downs = article.optInt(Article.ARTICLE_BAD_CNT);
-                final long t = article.optLong(Keys.OBJECT_ID) / 1000;
-
-                final double redditScore = redditArticleScore(ups, downs, t);
-                article.put(Article.REDDIT_SCORE, redditScore);
-
-                updateTagArticleScore(article);
-
-                articleRepository.update(dataId, article, Article.ARTICLE_GOOD_CNT, Article.ARTICLE_BAD_CNT, Article.REDDIT_SCORE);
-            } else if (Vote.DATA_TYPE_C_COMMENT == dataType) {
-                final JSONObject comment = commentRepository.get(dataId);
-                if (null == comment) {
-                    LOGGER.log(Level.ERROR, "Not found comment [id={}] to vote cancel", dataId);
-                    return;
-                }
-
-                if (Vote.TYPE_C_UP == oldType) {
-                    comment.put(Comment.COMMENT_GOOD_CNT, comment.optInt(Comment.COMMENT_GOOD_CNT) - 1);
-                } else if (Vote.TYPE_C_DOWN == oldType) {
-                    comment.put(Comment.COMMENT_BAD_CNT, comment.optInt(Comment.COMMENT_BAD_CNT) - 1);
-                }
-
-                final int ups = comment.optInt(Comment.COMMENT_GOOD_CNT);
-                final int downs = comment.optInt(Comment.COMMENT_BAD_CNT);
-
-                final double redditScore = redditCommentScore(ups, downs);
-                comment.put(Comment.COMMENT_SCORE, redditScore);
-
-                commentRepository.update(dataId, comment);
-            } else {
-                LOGGER.warn("Wrong data type [" + dataType + "]");
-            }
+            final JSONObject article = cancel(userId, dataId, dataType);
+            transaction.commit();
+            onArticleScoreChanged(article);
         } catch (final RepositoryException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+
             LOGGER.log(Level.ERROR, e.getMessage());
         }
     }
 
+    /**
+     * Cancels the vote of the specified user on the specified data entity.
+     *
+     * @param userId   the specified user id
+     * @param dataId   the specified data entity id
+     * @param dataType the specified data type
+     * @return the updated article if an article is voted, returns {@code null} otherwise
+     * @throws RepositoryException repository exception
+     */
+    private JSONObject cancel(final String userId, final String dataId, final int dataType) throws RepositoryException {
+        final int oldType = voteRepository.removeIfExists(userId, dataId, dataType);
+        JSONObject ret = null;
+
+        if (Vote.DATA_TYPE_C_ARTICLE == dataType) {
+            final JSONObject article = articleRepository.get(dataId);
+            if (null == article) {
+                LOGGER.log(Level.ERROR, "Not found article [id={}] to vote cancel", dataId);
+                return null;
+            }
+
+            if (Vote.TYPE_C_UP == oldType) {
+                article.put(Article.ARTICLE_GOOD_CNT, article.optInt(Article.ARTICLE_GOOD_CNT) - 1);
+            } else if (Vote.TYPE_C_DOWN == oldType) {
+                article.put(Article.ARTICLE_BAD_CNT, article.optInt(Article.ARTICLE_BAD_CNT) - 1);
+            }
+
+            final int ups = article.optInt(Article.ARTICLE_GOOD_CNT);
+            final int downs = article.optInt(Article.ARTICLE_BAD_CNT);
+            final long t = article.optLong(Keys.OBJECT_ID) / 1000;
+
+            final double redditScore = redditArticleScore(ups, downs, t);
+            article.put(Article.REDDIT_SCORE, redditScore);
+
+            updateTagArticleScore(article);
+
+            articleRepository.update(dataId, article, Article.ARTICLE_GOOD_CNT, Article.ARTICLE_BAD_CNT, Article.REDDIT_SCORE);
+            ret = article;
+        } else if (Vote.DATA_TYPE_C_COMMENT == dataType) {
+            final JSONObject comment = commentRepository.get(dataId);
+            if (null == comment) {
+                LOGGER.log(Level.ERROR, "Not found comment [id={}] to vote cancel", dataId);
+                return null;
+            }
+
+            if (Vote.TYPE_C_UP == oldType) {
+                comment.put(Comment.COMMENT_GOOD_CNT, comment.optInt(Comment.COMMENT_GOOD_CNT) - 1);
+            } else if (Vote.TYPE_C_DOWN == oldType) {
+                comment.put(Comment.COMMENT_BAD_CNT, comment.optInt(Comment.COMMENT_BAD_CNT) - 1);
+            }
+
+            final int ups = comment.optInt(Comment.COMMENT_GOOD_CNT);
+            final int downs = comment.optInt(Comment.COMMENT_BAD_CNT);
+
+            final double redditScore = redditCommentScore(ups, downs);
+            comment.put(Comment.COMMENT_SCORE, redditScore);
+
+            commentRepository.update(dataId, comment);
+        } else {
+            LOGGER.warn("Wrong data type [" + dataType + "]");
+        }
+
+        return ret;
+    }
+
     /**
      * The specified user vote up the specified article/comment.
      *
@@ -186,11 +215,17 @@ public class VoteMgmtService {
      * @param dataId   the specified article/comment id
      * @param dataType the specified data type
      */
-    @Transactional
     public void voteUp(final String userId, final String dataId, final int dataType) {
+        final Transaction transaction = voteRepository.beginTransaction();
         try {
-            up(userId, dataId, dataType);
+            final JSONObject article = up(userId, dataId, dataType);
+            transaction.commit();
+            onArticleScoreChanged(article);
         } catch (final RepositoryException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+
             final String msg = "User[id=" + userId + "] vote up an [" + dataType + "][id=" + dataId + "] failed";
             LOGGER.log(Level.ERROR, msg, e);
         }
@@ -204,11 +239,17 @@ public class VoteMgmtService {
      * @param userId the specified user id
      * @param dataId the specified article id
      */
-    @Transactional
     public void voteDown(final String userId, final String dataId, final int dataType) {
+        final Transaction transaction = voteRepository.beginTransaction();
         try {
-            down(userId, dataId, dataType);
+            final JSONObject article = down(userId, dataId, dataType);
+            transaction.commit();
+            onArticleScoreChanged(article);
         } catch (final RepositoryException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+
             final String msg = "User[id=" + userId + "] vote down an [" + dataType + "][id=" + dataId + "] failed";
             LOGGER.log(Level.ERROR, msg, e);
         }
@@ -222,16 +263,18 @@ public class VoteMgmtService {
      * @param userId   the specified user id
      * @param dataId   the specified data entity id
      * @param dataType the specified data type
+     * @return the updated article if an article is voted, returns {@code null} otherwise
      * @throws RepositoryException repository exception
      */
-    private void up(final String userId, final String dataId, final int dataType) throws RepositoryException {
+    private JSONObject up(final String userId, final String dataId, final int dataType) throws RepositoryException {
         final int oldType = voteRepository.removeIfExists(userId, dataId, dataType);
+        JSONObject ret = null;
 
         if (Vote.DATA_TYPE_C_ARTICLE == dataType) {
             final JSONObject article = articleRepository.get(dataId);
             if (null == article) {
                 LOGGER.log(Level.ERROR, "Not found article [id={}] to vote up", dataId);
-                return;
+                return null;
             }
 
             if (-1 == oldType) {
@@ -251,11 +294,12 @@ public class VoteMgmtService {
             updateTagArticleScore(article);
 
             articleRepository.update(dataId, article, Article.ARTICLE_GOOD_CNT, Article.ARTICLE_BAD_CNT, Article.REDDIT_SCORE);
+            ret = article;
         } else if (Vote.DATA_TYPE_C_COMMENT == dataType) {
             final JSONObject comment = commentRepository.get(dataId);
             if (null == comment) {
                 LOGGER.log(Level.ERROR, "Not found comment [id={}] to vote up", dataId);
-                return;
+                return null;
             }
 
             if (-1 == oldType) {
@@ -283,6 +327,8 @@ public class VoteMgmtService {
         vote.put(Vote.DATA_TYPE, dataType);
 
         voteRepository.add(vote);
+
+        return ret;
     }
 
     /**
@@ -291,16 +337,18 @@ public class VoteMgmtService {
      * @param userId   the specified user id
      * @param dataId   the specified data entity id
      * @param dataType the specified data type
+     * @return the updated article if an article is voted, returns {@code null} otherwise
      * @throws RepositoryException repository exception
      */
-    private void down(final String userId, final String dataId, final int dataType) throws RepositoryException {
+    private JSONObject down(final String userId, final String dataId, final int dataType) throws RepositoryException {
         final int oldType = voteRepository.removeIfExists(userId, dataId, dataType);
+        JSONObject ret = null;
 
         if (Vote.DATA_TYPE_C_ARTICLE == dataType) {
             final JSONObject article = articleRepository.get(dataId);
             if (null == article) {
                 LOGGER.log(Level.ERROR, "Not found article [id={}] to vote down", dataId);
-                return;
+                return null;
             }
 
             if (-1 == oldType) {
@@ -320,11 +368,12 @@ public class VoteMgmtService {
             updateTagArticleScore(article);
 
             articleRepository.update(dataId, article, Article.ARTICLE_GOOD_CNT, Article.ARTICLE_BAD_CNT, Article.REDDIT_SCORE);
+            ret = article;
         } else if (Vote.DATA_TYPE_C_COMMENT == dataType) {
             final JSONObject comment = commentRepository.get(dataId);
             if (null == comment) {
                 LOGGER.log(Level.ERROR, "Not found comment [id={}] to vote up", dataId);
-                return;
+                return null;
             }
 
             if (-1 == oldType) {
@@ -352,6 +401,19 @@ public class VoteMgmtService {
         vote.put(Vote.DATA_TYPE, dataType);
 
         voteRepository.add(vote);
+
+        return ret;
+    }
+
+    /**
+     * Refreshes the hot ranking with the specified committed article.
+     *
+     * @param article the specified article, {@code null} if no article is changed
+     */
+    private void onArticleScoreChanged(final JSONObject article) {
+        if (null != article) {
+            hotArticleRankingService.onScoreChanged(article);
+        }
     }
 
     private void updateTagArticleScore(final JSONObject article) throws RepositoryException {
@@ -0,0 +1,854 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.util;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffered Elasticsearch bulk indexing queue.
+ * <p>
+ * Index and delete operations are queued per document, a newer operation on a queued document replaces the older
+ * one. A flusher cuts batches of at most {@link #MAX_BATCH_DOCS} documents or {@link #MAX_BATCH_BYTES} bytes, as soon
+ * as that much is queued or the oldest operation has waited {@link #FLUSH_INTERVAL_MILLIS}, and sends each batch as one
+ * {@code _bulk} request on one of several parallel workers. A document is never in two batches at once, so operations
+ * on the same document are applied in order.
+ * </p>
+ * <p>
+ * A failed request is retried with exponential backoff, rejected items (429 and 5xx) are queued again, other item
+ * errors are counted and dropped. Durable operations are journaled under the queue directory until Elasticsearch
+ * acknowledges them and are replayed on open, so they survive restarts.
+ * </p>
+ * <p>
+ * Only the rebuild producer is throttled: non-durable operations block while the queue holds
+ * {@link #MAX_PENDING} minus {@link #LIVE_RESERVE} operations, durable live operations never block and are counted as
+ * overflowed once the queue is over {@link #MAX_PENDING}. A non-durable operation never replaces a pending durable one,
+ * and while a rebuild is running ({@link #beginRebuild()}) it is dropped for documents touched by a live operation, as
+ * it was built from data read earlier.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.1.0.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public final class BulkIndexQueue implements Closeable {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LogManager.getLogger(BulkIndexQueue.class);
+
+    /**
+     * 每批最多文档数.
+     */
+    public static final int MAX_BATCH_DOCS = 500;
+
+    /**
+     * 每批最大字节数.
+     */
+    public static final int MAX_BATCH_BYTES = 5 * 1024 * 1024;
+
+    /**
+     * 最早的待发送操作等待超过该时间（毫秒）即发送，即使批次未满.
+     */
+    public static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    /**
+     * 待发送操作数上限，超过后实时操作仍然入队但计入溢出.
+     */
+    public static final int MAX_PENDING = 20000;
+
+    /**
+     * 为实时操作保留的容量，重建操作在待发送操作数达到 {@link #MAX_PENDING} 减去该值时阻塞.
+     */
+    public static final int LIVE_RESERVE = 5000;
+
+    /**
+     * 首次重试退避（毫秒）.
+     */
+    private static final long BASE_BACKOFF_MILLIS = 500;
+
+    /**
+     * 最大重试退避（毫秒）.
+     */
+    private static final long MAX_BACKOFF_MILLIS = 60000;
+
+    /**
+     * 单个被拒绝的文档最多尝试次数.
+     */
+    private static final int MAX_ITEM_ATTEMPTS = 10;
+
+    /**
+     * 日志超过该行数且仍有未确认的操作时重写.
+     */
+    private static final int MAX_JOURNAL_LINES = 50000;
+
+    /**
+     * Journal file name.
+     */
+    private static final String JOURNAL_FILE = "pending.log";
+
+    /**
+     * Index name.
+     */
+    private final String indexName;
+
+    /**
+     * Bulk request sender.
+     */
+    private final Sender sender;
+
+    /**
+     * Maximum concurrent bulk requests.
+     */
+    private final int workers;
+
+    /**
+     * Journal file.
+     */
+    private final Path journalFile;
+
+    /**
+     * Guards the queue state and the journal.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signaled when a batch may be ready.
+     */
+    private final Condition changed = lock.newCondition();
+
+    /**
+     * Signaled when pending operations drop below the limit.
+     */
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Signaled when a batch completes.
+     */
+    private final Condition completed = lock.newCondition();
+
+    /**
+     * Pending operations, &lt;type/id, operation&gt;, in queueing order.
+     */
+    private final Map<String, Op> pending = new LinkedHashMap<>();
+
+    /**
+     * Batches being sent.
+     */
+    private final Set<List<Op>> inFlight = new HashSet<>();
+
+    /**
+     * Keys of documents being sent.
+     */
+    private final Set<String> inFlightKeys = new HashSet<>();
+
+    /**
+     * Bulk request workers.
+     */
+    private final ExecutorService workerPool = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Flusher thread.
+     */
+    private final Thread flusher;
+
+    /**
+     * Bytes of pending operations.
+     */
+    private long pendingBytes;
+
+    /**
+     * Journal writer.
+     */
+    private Writer journal;
+
+    /**
+     * Lines written to the journal since it was last rewritten.
+     */
+    private int journalLines;
+
+    /**
+     * Last operation sequence.
+     */
+    private long seq;
+
+    /**
+     * Consecutive failed bulk requests.
+     */
+    private int failures;
+
+    /**
+     * No batch is sent before this time.
+     */
+    private long backoffUntil;
+
+    /**
+     * Callers waiting for the queue to drain, pending operations are sent without waiting for a full batch.
+     */
+    private int draining;
+
+    /**
+     * Keys of documents touched by durable operations since the rebuild began, {@code null} if no rebuild is running.
+     */
+    private Set<String> rebuildTouched;
+
+    /**
+     * Whether the queue is over {@link #MAX_PENDING}, the warning is logged once per overflow.
+     */
+    private boolean overflowing;
+
+    /**
+     * Whether closed.
+     */
+    private volatile boolean closed;
+
+    private final LongAdder enqueued = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private final LongAdder indexed = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder retried = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder overflowed = new LongAdder();
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder requestMillis = new LongAdder();
+
+    private long lastStatsMillis = System.currentTimeMillis();
+
+    private long lastStatsIndexed;
+
+    /**
+     * Opens the queue, replays the journal under the specified directory and starts flushing.
+     *
+     * @param dir       the specified journal directory
+     * @param indexName the specified index name
+     * @param workers   the specified maximum concurrent bulk requests
+     * @param sender    the specified bulk request sender
+     * @throws IOException io exception
+     */
+    public BulkIndexQueue(final String dir, final String indexName, final int workers, final Sender sender) throws IOException {
+        this.indexName = indexName;
+        this.workers = workers;
+        this.sender = sender;
+        final Path path = Paths.get(dir);
+        Files.createDirectories(path);
+        journalFile = path.resolve(JOURNAL_FILE);
+
+        if (Files.exists(journalFile)) {
+            replay();
+        }
+        rewriteJournal();
+        if (!pending.isEmpty()) {
+            LOGGER.log(Level.INFO, "Replayed [" + pending.size() + "] pending search index operations");
+        }
+
+        flusher = new Thread(this::flushLoop, "BulkIndexQueue-" + indexName);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Queues indexing the specified document. A non-durable operation blocks while the queue is full for rebuilds and is
+     * dropped if a newer durable operation exists for the document.
+     *
+     * @param type    the specified document type
+     * @param id      the specified document id
+     * @param doc     the specified document
+     * @param durable whether to journal the operation, a full rebuild can be rerun so it needs not
+     */
+    public void index(final String type, final String id, final JSONObject doc, final boolean durable) {
+        enqueue(new Op("index", type, id, doc.toString(), durable));
+    }
+
+    /**
+     * Queues deleting the specified document, never blocks.
+     *
+     * @param type the specified document type
+     * @param id   the specified document id
+     */
+    public void delete(final String type, final String id) {
+        enqueue(new Op("delete", type, id, null, true));
+    }
+
+    /**
+     * Begins tracking documents touched by durable operations, non-durable operations queued afterwards for those
+     * documents are dropped until {@link #endRebuild()}.
+     */
+    public void beginRebuild() {
+        lock.lock();
+        try {
+            rebuildTouched = new HashSet<>();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends tracking documents touched during a rebuild.
+     */
+    public void endRebuild() {
+        lock.lock();
+        try {
+            rebuildTouched = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all queued operations are acknowledged, pending operations are sent without waiting for full
+     * batches meanwhile.
+     *
+     * @param timeoutMillis the specified timeout in milliseconds
+     * @return {@code true} if drained, returns {@code false} on timeout
+     * @throws InterruptedException interrupted exception
+     */
+    public boolean awaitIdle(final long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            draining++;
+            changed.signalAll();
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (!pending.isEmpty() || !inFlight.isEmpty()) {
+                if (0 >= remaining) {
+                    return false;
+                }
+                remaining = completed.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            draining--;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the queue statistics.
+     *
+     * @return statistics, for example,
+     * <pre>
+     * {
+     *     "pending": 12, "inFlight": 500, "lagMillis": 830,
+     *     "enqueued": 1000, "coalesced": 3, "dropped": 2, "overflowed": 0, "indexed": 985, "failed": 0, "retried": 500,
+     *     "requests": 3, "avgRequestMillis": 120, "docsPerSecond": 410.5, "failures": 0, "backoffMillis": 0
+     * }
+     * </pre>
+     */
+    public JSONObject getStats() {
+        lock.lock();
+        try {
+            final long now = System.currentTimeMillis();
+            long oldest = now;
+            for (final Op op : pending.values()) {
+                oldest = Math.min(oldest, op.enqueuedAt);
+            }
+            int inFlightOps = 0;
+            for (final List<Op> batch : inFlight) {
+                inFlightOps += batch.size();
+                for (final Op op : batch) {
+                    oldest = Math.min(oldest, op.enqueuedAt);
+                }
+            }
+
+            final long indexedCnt = indexed.sum();
+            final long elapsed = Math.max(1, now - lastStatsMillis);
+            final double docsPerSecond = (indexedCnt - lastStatsIndexed) * 1000.0 / elapsed;
+            lastStatsMillis = now;
+            lastStatsIndexed = indexedCnt;
+            final long requestCnt = requests.sum();
+
+            return new JSONObject().
+                    put("pending", pending.size()).
+                    put("inFlight", inFlightOps).
+                    put("lagMillis", now - oldest).
+                    put("enqueued", enqueued.sum()).
+                    put("coalesced", coalesced.sum()).
+                    put("dropped", dropped.sum()).
+                    put("overflowed", overflowed.sum()).
+                    put("indexed", indexedCnt).
+                    put("failed", failed.sum()).
+                    put("retried", retried.sum()).
+                    put("requests", requestCnt).
+                    put("avgRequestMillis", 0 == requestCnt ? 0 : requestMillis.sum() / requestCnt).
+                    put("docsPerSecond", Math.round(docsPerSecond * 10) / 10.0).
+                    put("failures", failures).
+                    put("backoffMillis", Math.max(0, backoffUntil - now));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the queue, waiting at most the specified time for queued operations to be sent. Durable operations
+     * which are not acknowledged stay in the journal.
+     *
+     * @param timeoutMillis the specified timeout in milliseconds
+     */
+    public void shutdown(final long timeoutMillis) {
+        try {
+            if (!awaitIdle(timeoutMillis)) {
+                LOGGER.log(Level.WARN, "Search index queue is not drained, [" + pending.size() + "] operations are left");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        lock.lock();
+        try {
+            closed = true;
+            changed.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        workerPool.shutdownNow();
+        try {
+            flusher.join(1000);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        lock.lock();
+        try {
+            journal.close();
+        } catch (final IOException e) {
+            LOGGER.log(Level.ERROR, "Closes search index journal failed", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        shutdown(10000);
+    }
+
+    private void enqueue(final Op op) {
+        lock.lock();
+        try {
+            if (op.durable) {
+                if (pending.size() >= MAX_PENDING) {
+                    // 实时操作不阻塞也不丢弃，超出上限时计数并告警
+                    overflowed.increment();
+                    if (!overflowing) {
+                        overflowing = true;
+                        LOGGER.log(Level.WARN, "Search index queue is over [" + MAX_PENDING + "], live operations are still queued");
+                    }
+                }
+                if (null != rebuildTouched) {
+                    rebuildTouched.add(op.key());
+                }
+            } else {
+                // 只有重建生产者受背压限制
+                while (pending.size() >= MAX_PENDING - LIVE_RESERVE && !closed) {
+                    try {
+                        notFull.await();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        dropped.increment();
+                        return;
+                    }
+                }
+                // 重建操作基于更早读取的数据，不能覆盖实时操作
+                final Op queued = pending.get(op.key());
+                if (closed || (null != queued && queued.durable) || (null != rebuildTouched && rebuildTouched.contains(op.key()))) {
+                    dropped.increment();
+                    return;
+                }
+            }
+
+            op.seq = ++seq;
+            if (op.durable) {
+                journal(op.toJSON());
+            }
+            final Op replaced = pending.put(op.key(), op);
+            if (null != replaced) {
+                // 同一文档仍在排队的旧操作被新操作覆盖
+                op.enqueuedAt = replaced.enqueuedAt;
+                pendingBytes -= replaced.bytes;
+                coalesced.increment();
+                ack(List.of(replaced));
+            }
+            pendingBytes += op.bytes;
+            enqueued.increment();
+            if (pending.size() >= MAX_BATCH_DOCS || pendingBytes >= MAX_BATCH_BYTES) {
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            final List<Op> batch;
+            lock.lock();
+            try {
+                batch = awaitBatch();
+            } catch (final InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            if (null == batch) {
+                return;
+            }
+
+            try {
+                workerPool.execute(() -> send(batch));
+            } catch (final Exception e) {
+                // 关闭时工作线程池已停止，批次留在日志中
+                return;
+            }
+        }
+    }
+
+    private List<Op> awaitBatch() throws InterruptedException {
+        while (!closed) {
+            final long now = System.currentTimeMillis();
+            long wait = FLUSH_INTERVAL_MILLIS;
+            if (!pending.isEmpty() && inFlight.size() < workers) {
+                if (now < backoffUntil) {
+                    wait = backoffUntil - now;
+                } else {
+                    final long age = now - pending.values().iterator().next().enqueuedAt;
+                    if (0 < draining || pending.size() >= MAX_BATCH_DOCS || pendingBytes >= MAX_BATCH_BYTES || age >= FLUSH_INTERVAL_MILLIS) {
+                        final List<Op> ret = takeBatch();
+                        if (!ret.isEmpty()) {
+                            return ret;
+                        }
+                    } else {
+                        wait = FLUSH_INTERVAL_MILLIS - age;
+                    }
+                }
+            }
+            changed.await(Math.max(1, wait), TimeUnit.MILLISECONDS);
+        }
+        return null;
+    }
+
+    private List<Op> takeBatch() {
+        final List<Op> ret = new ArrayList<>();
+        long bytes = 0;
+        final Iterator<Op> iterator = pending.values().iterator();
+        while (iterator.hasNext() && ret.size() < MAX_BATCH_DOCS && bytes < MAX_BATCH_BYTES) {
+            final Op op = iterator.next();
+            // 已在发送中的文档等上一批完成后再发，保证同一文档的操作有序
+            if (inFlightKeys.contains(op.key())) {
+                continue;
+            }
+            iterator.remove();
+            ret.add(op);
+            bytes += op.bytes;
+            inFlightKeys.add(op.key());
+        }
+        if (!ret.isEmpty()) {
+            pendingBytes -= bytes;
+            inFlight.add(ret);
+            if (pending.size() < MAX_PENDING) {
+                overflowing = false;
+            }
+            notFull.signalAll();
+        }
+        return ret;
+    }
+
+    private void send(final List<Op> batch) {
+        final StringBuilder body = new StringBuilder();
+        for (final Op op : batch) {
+            final JSONObject meta = new JSONObject().put("_index", indexName).put("_type", op.type).put("_id", op.id);
+            if (op.isIndex()) {
+                body.append(new JSONObject().put("update", meta.put("retry_on_conflict", 3))).append('\n');
+                body.append("{\"doc\":").append(op.source).append(",\"doc_as_upsert\":true}\n");
+            } else {
+                body.append(new JSONObject().put("delete", meta)).append('\n');
+            }
+        }
+
+        final List<Op> done = new ArrayList<>();
+        final List<Op> retry = new ArrayList<>();
+        boolean rejected = false;
+        final long start = System.currentTimeMillis();
+        try {
+            final JSONArray items = new JSONObject(sender.send(body.toString())).optJSONArray("items");
+            if (null == items || items.length() != batch.size()) {
+                throw new IOException("Unexpected bulk response");
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                final Op op = batch.get(i);
+                final JSONObject item = items.optJSONObject(i).optJSONObject(op.isIndex() ? "update" : "delete");
+                final int status = null == item ? 500 : item.optInt("status");
+                if ((200 <= status && 300 > status) || (404 == status && !op.isIndex())) {
+                    indexed.increment();
+                    done.add(op);
+                } else if ((429 == status || 500 <= status) && ++op.attempts < MAX_ITEM_ATTEMPTS) {
+                    rejected = true;
+                    retry.add(op);
+                } else {
+                    failed.increment();
+                    done.add(op);
+                    LOGGER.log(Level.WARN, "Search index operation failed [op=" + op.action + ", id=" + op.id + ", status=" + status
+                            + ", error=" + (null == item ? "" : item.opt("error")) + "]");
+                }
+            }
+        } catch (final Exception e) {
+            LOGGER.log(Level.WARN, "Bulk request of [" + batch.size() + "] operations failed: " + e.getMessage());
+            rejected = true;
+            done.clear();
+            retry.clear();
+            retry.addAll(batch);
+        }
+        requests.increment();
+        requestMillis.add(System.currentTimeMillis() - start);
+        retried.add(retry.size());
+
+        complete(batch, done, retry, rejected);
+    }
+
+    private void complete(final List<Op> batch, final List<Op> done, final List<Op> retry, final boolean rejected) {
+        lock.lock();
+        try {
+            inFlight.remove(batch);
+            for (final Op op : batch) {
+                inFlightKeys.remove(op.key());
+            }
+            ack(done);
+            for (final Op op : retry) {
+                if (pending.containsKey(op.key())) {
+                    // 重试前该文档已有更新的操作
+                    ack(List.of(op));
+                    continue;
+                }
+                pending.put(op.key(), op);
+                pendingBytes += op.bytes;
+            }
+
+            if (rejected) {
+                failures++;
+                final long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(16, failures - 1));
+                backoffUntil = System.currentTimeMillis() + backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            } else {
+                failures = 0;
+            }
+
+            if (pending.isEmpty() && inFlight.isEmpty()) {
+                if (0 < journalLines) {
+                    rewriteJournal();
+                }
+            } else if (journalLines > MAX_JOURNAL_LINES) {
+                rewriteJournal();
+            }
+            completed.signalAll();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ack(final List<Op> ops) {
+        final JSONArray seqs = new JSONArray();
+        for (final Op op : ops) {
+            if (op.durable) {
+                seqs.put(op.seq);
+            }
+        }
+        if (0 < seqs.length()) {
+            journal(new JSONObject().put("ack", seqs));
+        }
+    }
+
+    private void journal(final JSONObject entry) {
+        try {
+            journal.write(entry.toString());
+            journal.write('\n');
+            journal.flush();
+            journalLines++;
+        } catch (final IOException e) {
+            LOGGER.log(Level.ERROR, "Writes search index journal failed", e);
+        }
+    }
+
+    private void replay() throws IOException {
+        final Map<Long, Op> ops = new TreeMap<>();
+        try (final BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String line;
+            while (null != (line = reader.readLine())) {
+                final JSONObject entry;
+                try {
+                    entry = new JSONObject(line);
+                } catch (final Exception e) {
+                    // 进程异常退出时最后一行可能不完整
+                    continue;
+                }
+                final JSONArray acks = entry.optJSONArray("ack");
+                if (null != acks) {
+                    for (int i = 0; i < acks.length(); i++) {
+                        ops.remove(acks.optLong(i));
+                    }
+                    continue;
+                }
+
+                final Op op = new Op(entry.optString("op"), entry.optString("type"), entry.optString("id"),
+                        entry.has("doc") ? entry.optString("doc") : null, true);
+                op.seq = entry.optLong("seq");
+                ops.put(op.seq, op);
+            }
+        }
+
+        for (final Op op : ops.values()) {
+            final Op replaced = pending.put(op.key(), op);
+            if (null != replaced) {
+                pendingBytes -= replaced.bytes;
+            }
+            pendingBytes += op.bytes;
+            seq = Math.max(seq, op.seq);
+        }
+    }
+
+    private void rewriteJournal() {
+        try {
+            if (null != journal) {
+                journal.close();
+            }
+
+            final Path tmp = journalFile.resolveSibling(JOURNAL_FILE + ".tmp");
+            try (final BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                final List<Op> ops = new ArrayList<>();
+                for (final List<Op> batch : inFlight) {
+                    ops.addAll(batch);
+                }
+                ops.addAll(pending.values());
+                for (final Op op : ops) {
+                    if (op.durable) {
+                        out.write(op.toJSON().toString());
+                        out.write('\n');
+                    }
+                }
+            }
+            Files.move(tmp, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journal = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            journalLines = 0;
+        } catch (final IOException e) {
+            LOGGER.log(Level.ERROR, "Rewrites search index journal failed", e);
+        }
+    }
+
+    /**
+     * Bulk request sender.
+     */
+    public interface Sender {
+
+        /**
+         * Sends the specified bulk request body.
+         *
+         * @param body the specified newline delimited JSON body
+         * @return response body
+         * @throws Exception if the request failed
+         */
+        String send(String body) throws Exception;
+    }
+
+    /**
+     * A queued operation.
+     */
+    private static final class Op {
+
+        private final String action;
+
+        private final String type;
+
+        private final String id;
+
+        private final String source;
+
+        private final boolean durable;
+
+        private final int bytes;
+
+        private long seq;
+
+        private long enqueuedAt = System.currentTimeMillis();
+
+        private int attempts;
+
+        private Op(final String action, final String type, final String id, final String source, final boolean durable) {
+            this.action = action;
+            this.type = type;
+            this.id = id;
+            this.source = source;
+            this.durable = durable;
+            bytes = 128 + (null == source ? 0 : source.length());
+        }
+
+        private boolean isIndex() {
+            return "index".equals(action);
+        }
+
+        private String key() {
+            return type + "/" + id;
+        }
+
+        private JSONObject toJSON() {
+            final JSONObject ret = new JSONObject().put("seq", seq).put("op", action).put("type", type).put("id", id);
+            if (null != source) {
+                ret.put("doc", source);
+            }
+            return ret;
+        }
+    }
+}
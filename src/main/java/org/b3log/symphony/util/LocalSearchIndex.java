@@ -0,0 +1,719 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.util;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process full text index, used as the search backend when no Elasticsearch is deployed.
+ * <p>
+ * Documents have a title and a plain text content. Latin words are indexed as lower case terms, CJK runs are indexed
+ * as unigrams and bigrams and queried by bigrams, so Chinese queries need no dictionary. A document matches when it
+ * contains every query term in its title or content, hits are ranked by BM25 with the title boosted over the content,
+ * and content fragments around the matches are highlighted with {@code <em>}.
+ * </p>
+ * <p>
+ * The index lives in memory and is persisted as an append-only log of put/remove operations under its directory,
+ * which is replayed on open and compacted once removed entries outnumber live documents.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.1.0.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public final class LocalSearchIndex implements Closeable {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LogManager.getLogger(LocalSearchIndex.class);
+
+    /**
+     * 标题权重.
+     */
+    public static final double TITLE_BOOST = 2.0;
+
+    /**
+     * 内容权重.
+     */
+    public static final double CONTENT_BOOST = 1.0;
+
+    /**
+     * 高亮片段长度.
+     */
+    public static final int FRAGMENT_SIZE = 150;
+
+    /**
+     * 最多高亮片段数.
+     */
+    public static final int MAX_FRAGMENTS = 3;
+
+    /**
+     * BM25 k1.
+     */
+    private static final double K1 = 1.2;
+
+    /**
+     * BM25 b.
+     */
+    private static final double B = 0.75;
+
+    /**
+     * 日志中已删除条目少于该数时不压缩.
+     */
+    private static final int MIN_COMPACT_DEAD = 1024;
+
+    /**
+     * 命中排序，分数相同时较新的文档（id 较大）在前.
+     */
+    private static final Comparator<Hit> HIT_ORDER = Comparator.comparingDouble((Hit hit) -> hit.score).reversed().
+            thenComparing((Hit hit) -> hit.id, Comparator.reverseOrder());
+
+    /**
+     * Log file name.
+     */
+    private static final String LOG_FILE = "index.log";
+
+    /**
+     * Log file.
+     */
+    private Path logFile;
+
+    /**
+     * Guards documents, postings, statistics and the log writer.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Documents, &lt;id, document&gt;.
+     */
+    private final Map<String, Doc> docs = new HashMap<>();
+
+    /**
+     * Postings, &lt;term, &lt;id, [titleTf, contentTf]&gt;&gt;.
+     */
+    private final Map<String, Map<String, int[]>> postings = new HashMap<>();
+
+    /**
+     * Sum of title lengths in terms.
+     */
+    private long titleLengthSum;
+
+    /**
+     * Sum of content lengths in terms.
+     */
+    private long contentLengthSum;
+
+    /**
+     * Log entries which no longer describe a live document.
+     */
+    private int dead;
+
+    /**
+     * Log writer.
+     */
+    private Writer writer;
+
+    /**
+     * Opens the index under the specified directory, creating it if absent.
+     *
+     * @param dir the specified directory
+     * @throws IOException io exception
+     */
+    public LocalSearchIndex(final String dir) throws IOException {
+        final Path path = Paths.get(dir);
+        Files.createDirectories(path);
+        logFile = path.resolve(LOG_FILE);
+
+        final long start = System.currentTimeMillis();
+        if (Files.exists(logFile)) {
+            replay();
+        }
+        if (dead > docs.size()) {
+            compact();
+        } else {
+            writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        LOGGER.log(Level.INFO, "Opened local search index [dir=" + path.toAbsolutePath() + ", docs=" + docs.size()
+                + ", terms=" + postings.size() + ", ms=" + (System.currentTimeMillis() - start) + "]");
+    }
+
+    /**
+     * Adds or replaces the specified document.
+     *
+     * @param id      the specified document id
+     * @param title   the specified title
+     * @param content the specified plain text content
+     */
+    public void put(final String id, final String title, final String content) {
+        putAll(Collections.singletonList(new Document(id, title, content)));
+    }
+
+    /**
+     * Adds or replaces the specified documents, the log is flushed once for all of them.
+     *
+     * @param documents the specified documents
+     */
+    public void putAll(final Collection<Document> documents) {
+        lock.writeLock().lock();
+        try {
+            for (final Document document : documents) {
+                unindex(document.id);
+                index(document.id, document.title, document.content);
+                append(new JSONObject().put("op", "put").put("id", document.id).
+                        put("title", document.title).put("content", document.content));
+            }
+            flush();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the specified document.
+     *
+     * @param id the specified document id
+     */
+    public void remove(final String id) {
+        lock.writeLock().lock();
+        try {
+            if (!unindex(id)) {
+                return;
+            }
+            append(new JSONObject().put("op", "remove").put("id", id));
+            dead++;
+            flush();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all documents.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            docs.clear();
+            postings.clear();
+            titleLengthSum = 0;
+            contentLengthSum = 0;
+            compact();
+        } catch (final IOException e) {
+            LOGGER.log(Level.ERROR, "Clears local search index failed", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of documents.
+     *
+     * @return document count
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Searches the specified keyword.
+     *
+     * @param keyword the specified keyword
+     * @param from    the specified offset of the first hit
+     * @param size    the specified maximum hit count
+     * @return search result
+     */
+    public Result search(final String keyword, final int from, final int size) {
+        final Set<String> terms = new LinkedHashSet<>(tokenize(keyword, true));
+        if (terms.isEmpty()) {
+            return new Result(0, Collections.emptyList());
+        }
+
+        lock.readLock().lock();
+        try {
+            final List<Map<String, int[]>> termPostings = new ArrayList<>(terms.size());
+            Map<String, int[]> smallest = null;
+            for (final String term : terms) {
+                final Map<String, int[]> posting = postings.get(term);
+                if (null == posting) {
+                    return new Result(0, Collections.emptyList());
+                }
+                termPostings.add(posting);
+                if (null == smallest || posting.size() < smallest.size()) {
+                    smallest = posting;
+                }
+            }
+
+            final int docCount = docs.size();
+            final double avgTitleLength = Math.max(1, (double) titleLengthSum / docCount);
+            final double avgContentLength = Math.max(1, (double) contentLengthSum / docCount);
+            final double[] idfs = new double[termPostings.size()];
+            for (int i = 0; i < idfs.length; i++) {
+                final int df = termPostings.get(i).size();
+                idfs[i] = Math.log(1 + (docCount - df + 0.5) / (df + 0.5));
+            }
+
+            // 只保留前 from + size 个命中，堆顶为其中最差的
+            final int limit = Math.max(0, from) + size;
+            final PriorityQueue<Hit> top = new PriorityQueue<>(limit + 1, HIT_ORDER.reversed());
+            int total = 0;
+            candidates:
+            for (final String id : smallest.keySet()) {
+                final Doc doc = docs.get(id);
+                double score = 0;
+                for (int i = 0; i < idfs.length; i++) {
+                    final int[] tfs = termPostings.get(i).get(id);
+                    if (null == tfs) {
+                        continue candidates;
+                    }
+                    score += idfs[i] * (TITLE_BOOST * bm25(tfs[0], doc.titleLength, avgTitleLength)
+                            + CONTENT_BOOST * bm25(tfs[1], doc.contentLength, avgContentLength));
+                }
+                total++;
+                final Hit hit = new Hit(id, score);
+                if (top.size() < limit) {
+                    top.add(hit);
+                } else if (0 < limit && 0 > HIT_ORDER.compare(hit, top.peek())) {
+                    top.poll();
+                    top.add(hit);
+                }
+            }
+            final List<Hit> hits = new ArrayList<>(top);
+            hits.sort(HIT_ORDER);
+
+            final List<Hit> page = new ArrayList<>();
+            for (int i = Math.max(0, from); i < hits.size() && page.size() < size; i++) {
+                final Hit hit = hits.get(i);
+                hit.highlights = highlight(docs.get(hit.id).content, keyword);
+                page.add(hit);
+            }
+            return new Result(total, page);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Moves the log of this index into the specified directory, replacing the log of the index previously stored
+     * there, so that this index is the one opened from that directory from now on.
+     *
+     * @param dir the specified directory
+     * @throws IOException io exception
+     */
+    public void moveTo(final String dir) throws IOException {
+        lock.writeLock().lock();
+        try {
+            final Path path = Paths.get(dir);
+            Files.createDirectories(path);
+            final Path target = path.resolve(LOG_FILE);
+            writer.close();
+            try {
+                Files.move(logFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                logFile = target;
+            } finally {
+                writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            writer.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Tokenizes the specified text into lower case terms.
+     * <p>
+     * Runs of letters and digits outside CJK scripts form one term each. Runs of CJK characters produce bigrams, and
+     * also unigrams when indexing so that single character queries still match.
+     * </p>
+     *
+     * @param text  the specified text
+     * @param query whether the text is a query
+     * @return terms in order, with duplicates
+     */
+    public static List<String> tokenize(final String text, final boolean query) {
+        final List<String> ret = new ArrayList<>();
+        if (null == text) {
+            return ret;
+        }
+
+        final StringBuilder word = new StringBuilder();
+        final List<Integer> cjk = new ArrayList<>();
+        int i = 0;
+        while (i <= text.length()) {
+            final int codePoint = i < text.length() ? text.codePointAt(i) : ' ';
+            if (isCJK(codePoint)) {
+                flushWord(word, ret);
+                cjk.add(codePoint);
+            } else {
+                flushCJK(cjk, query, ret);
+                if (Character.isLetterOrDigit(codePoint)) {
+                    word.appendCodePoint(Character.toLowerCase(codePoint));
+                } else {
+                    flushWord(word, ret);
+                }
+            }
+            i += Character.charCount(codePoint);
+        }
+        return ret;
+    }
+
+    /**
+     * Highlights the specified keyword in the specified plain text.
+     *
+     * @param text    the specified plain text
+     * @param keyword the specified keyword
+     * @return HTML escaped fragments with matches wrapped in {@code <em>}, at most {@link #MAX_FRAGMENTS}
+     */
+    public static List<String> highlight(final String text, final String keyword) {
+        final List<String> ret = new ArrayList<>();
+        final List<String> segments = new ArrayList<>();
+        for (final String segment : keyword.split("[^\\p{L}\\p{N}]+")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        if (segments.isEmpty() || null == text) {
+            return ret;
+        }
+
+        // 匹配区间，按起点有序且互不重叠
+        final List<int[]> matches = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            int end = -1;
+            for (final String segment : segments) {
+                if (text.regionMatches(true, i, segment, 0, segment.length())) {
+                    end = Math.max(end, i + segment.length());
+                }
+            }
+            if (0 < end) {
+                matches.add(new int[]{i, end});
+                i = end;
+            } else {
+                i++;
+            }
+        }
+
+        int m = 0;
+        while (m < matches.size() && ret.size() < MAX_FRAGMENTS) {
+            final int start = Math.max(0, matches.get(m)[0] - FRAGMENT_SIZE / 5);
+            final int end = Math.min(text.length(), start + FRAGMENT_SIZE);
+            final StringBuilder fragment = new StringBuilder();
+            int pos = start;
+            while (m < matches.size() && matches.get(m)[1] <= end) {
+                fragment.append(escape(text.substring(pos, matches.get(m)[0])));
+                fragment.append("<em>").append(escape(text.substring(matches.get(m)[0], matches.get(m)[1]))).append("</em>");
+                pos = matches.get(m)[1];
+                m++;
+            }
+            if (pos == start) {
+                // 单个匹配比片段还长
+                m++;
+                continue;
+            }
+            fragment.append(escape(text.substring(pos, end)));
+            ret.add(fragment.toString());
+        }
+        return ret;
+    }
+
+    private static double bm25(final int tf, final int length, final double avgLength) {
+        if (0 == tf) {
+            return 0;
+        }
+        return tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / avgLength));
+    }
+
+    private static boolean isCJK(final int codePoint) {
+        final Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return Character.UnicodeScript.HAN == script || Character.UnicodeScript.HIRAGANA == script
+                || Character.UnicodeScript.KATAKANA == script || Character.UnicodeScript.HANGUL == script;
+    }
+
+    private static void flushWord(final StringBuilder word, final List<String> terms) {
+        if (0 < word.length()) {
+            terms.add(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    private static void flushCJK(final List<Integer> cjk, final boolean query, final List<String> terms) {
+        if (cjk.isEmpty()) {
+            return;
+        }
+        if (1 == cjk.size() || !query) {
+            for (final int codePoint : cjk) {
+                terms.add(new String(Character.toChars(codePoint)));
+            }
+        }
+        for (int i = 0; i + 1 < cjk.size(); i++) {
+            terms.add(new StringBuilder().appendCodePoint(cjk.get(i)).appendCodePoint(cjk.get(i + 1)).toString());
+        }
+        cjk.clear();
+    }
+
+    private static String escape(final String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private void index(final String id, final String title, final String content) {
+        final Doc doc = new Doc(title, content);
+        final List<String> titleTerms = tokenize(title, false);
+        final List<String> contentTerms = tokenize(content, false);
+        doc.titleLength = titleTerms.size();
+        doc.contentLength = contentTerms.size();
+        for (final String term : titleTerms) {
+            postings.computeIfAbsent(term, k -> new HashMap<>()).computeIfAbsent(id, k -> new int[2])[0]++;
+        }
+        for (final String term : contentTerms) {
+            postings.computeIfAbsent(term, k -> new HashMap<>()).computeIfAbsent(id, k -> new int[2])[1]++;
+        }
+        docs.put(id, doc);
+        titleLengthSum += doc.titleLength;
+        contentLengthSum += doc.contentLength;
+    }
+
+    private boolean unindex(final String id) {
+        final Doc doc = docs.remove(id);
+        if (null == doc) {
+            return false;
+        }
+
+        final Set<String> terms = new LinkedHashSet<>(tokenize(doc.title, false));
+        terms.addAll(tokenize(doc.content, false));
+        for (final String term : terms) {
+            final Map<String, int[]> posting = postings.get(term);
+            if (null != posting) {
+                posting.remove(id);
+                if (posting.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+        titleLengthSum -= doc.titleLength;
+        contentLengthSum -= doc.contentLength;
+        // 被替换或删除的文档在日志中的 put 条目已失效
+        dead++;
+        return true;
+    }
+
+    private void replay() throws IOException {
+        try (final BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+            String line;
+            while (null != (line = reader.readLine())) {
+                final JSONObject entry;
+                try {
+                    entry = new JSONObject(line);
+                } catch (final Exception e) {
+                    // 进程异常退出时最后一行可能不完整
+                    LOGGER.log(Level.WARN, "Skipped a broken local search index log entry");
+                    dead++;
+                    continue;
+                }
+                final String id = entry.optString("id");
+                if ("put".equals(entry.optString("op"))) {
+                    unindex(id);
+                    index(id, entry.optString("title"), entry.optString("content"));
+                } else {
+                    unindex(id);
+                    dead++;
+                }
+            }
+        }
+    }
+
+    private void append(final JSONObject entry) {
+        try {
+            writer.write(entry.toString());
+            writer.write('\n');
+        } catch (final IOException e) {
+            LOGGER.log(Level.ERROR, "Writes local search index log failed", e);
+        }
+    }
+
+    private void flush() {
+        try {
+            writer.flush();
+            if (dead > MIN_COMPACT_DEAD && dead > docs.size()) {
+                compact();
+            }
+        } catch (final IOException e) {
+            LOGGER.log(Level.ERROR, "Writes local search index log failed", e);
+        }
+    }
+
+    private void compact() throws IOException {
+        if (null != writer) {
+            writer.close();
+        }
+
+        final Path tmp = logFile.resolveSibling(LOG_FILE + ".tmp");
+        try (final BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (final Map.Entry<String, Doc> entry : docs.entrySet()) {
+                out.write(new JSONObject().put("op", "put").put("id", entry.getKey()).
+                        put("title", entry.getValue().title).put("content", entry.getValue().content).toString());
+                out.write('\n');
+            }
+        }
+        Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dead = 0;
+        writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * A document to index.
+     */
+    public static final class Document {
+
+        private final String id;
+
+        private final String title;
+
+        private final String content;
+
+        /**
+         * Constructs a document.
+         *
+         * @param id      the specified id
+         * @param title   the specified title
+         * @param content the specified plain text content
+         */
+        public Document(final String id, final String title, final String content) {
+            this.id = id;
+            this.title = null == title ? "" : title;
+            this.content = null == content ? "" : content;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    /**
+     * A search hit.
+     */
+    public static final class Hit {
+
+        private final String id;
+
+        private final double score;
+
+        private List<String> highlights;
+
+        private Hit(final String id, final double score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public List<String> getHighlights() {
+            return highlights;
+        }
+    }
+
+    /**
+     * A page of search hits.
+     */
+    public static final class Result {
+
+        private final int total;
+
+        private final List<Hit> hits;
+
+        private Result(final int total, final List<Hit> hits) {
+            this.total = total;
+            this.hits = hits;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public List<Hit> getHits() {
+            return hits;
+        }
+    }
+
+    /**
+     * An indexed document.
+     */
+    private static final class Doc {
+
+        private final String title;
+
+        private final String content;
+
+        private int titleLength;
+
+        private int contentLength;
+
+        private Doc(final String title, final String content) {
+            this.title = title;
+            this.content = content;
+        }
+    }
+}
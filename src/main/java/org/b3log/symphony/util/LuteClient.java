@@ -0,0 +1,287 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.util;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * <a href="https://github.com/88250/lute">Lute</a> HTTP engine client.
+ * <p>
+ * Requests share one HTTP client, so connections to the engine are kept alive and reused. A batch is sent as
+ * concurrent requests over those connections and costs about one round trip. The client is guarded by a circuit
+ * breaker: after {@link #FAILURE_THRESHOLD} consecutive failed or slow renders it opens, fails fast and notifies the
+ * availability listener, then probes the engine in the background until it renders correctly again.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.0.0.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public final class LuteClient {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LogManager.getLogger(LuteClient.class);
+
+    /**
+     * 连续失败（含慢响应）多少次后熔断.
+     */
+    static final int FAILURE_THRESHOLD = 5;
+
+    /**
+     * 超过该耗时的渲染视为慢响应，计入失败次数.
+     */
+    private static final long SLOW_MILLIS = 2000;
+
+    /**
+     * 熔断后探测间隔的上限.
+     */
+    private static final long MAX_PROBE_INTERVAL = 5 * 60 * 1000;
+
+    /**
+     * Probe markdown.
+     */
+    private static final String PROBE_MARKDOWN = "旧日的足迹";
+
+    /**
+     * Engine URI.
+     */
+    private final URI uri;
+
+    /**
+     * Shared HTTP client, keeps connections alive.
+     */
+    private final HttpClient httpClient;
+
+    /**
+     * Availability listener, notified when the circuit opens ({@code false}) or closes ({@code true}).
+     */
+    private final Consumer<Boolean> availabilityListener;
+
+    /**
+     * First probe interval after the circuit opens, doubled on each failed probe.
+     */
+    private final long probeInterval;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private final AtomicBoolean open = new AtomicBoolean();
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder trips = new LongAdder();
+
+    /**
+     * Constructs a client of the specified engine URL.
+     *
+     * @param url                  the specified engine URL
+     * @param availabilityListener the specified availability listener
+     */
+    public LuteClient(final String url, final Consumer<Boolean> availabilityListener) {
+        this(url, availabilityListener, 30 * 1000);
+    }
+
+    LuteClient(final String url, final Consumer<Boolean> availabilityListener, final long probeInterval) {
+        this.uri = URI.create(url);
+        this.availabilityListener = availabilityListener;
+        this.probeInterval = probeInterval;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(1))
+                .build();
+    }
+
+    /**
+     * Checks whether the engine renders correctly, bypassing the circuit breaker.
+     *
+     * @return {@code true} if available
+     */
+    public boolean probe() {
+        try {
+            final HttpResponse<String> response = httpClient.send(request(PROBE_MARKDOWN), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            return 200 == response.statusCode() && response.body().contains("<p>" + PROBE_MARKDOWN + "</p>");
+        } catch (final Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Renders the specified markdown text.
+     *
+     * @param markdownText the specified markdown text
+     * @return HTML
+     * @throws Exception if the circuit is open or the render failed
+     */
+    public String render(final String markdownText) throws Exception {
+        if (open.get()) {
+            throw new IllegalStateException("Lute circuit is open");
+        }
+
+        requests.increment();
+        final long start = System.currentTimeMillis();
+        try {
+            final HttpResponse<String> response = httpClient.send(request(markdownText), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            if (200 != response.statusCode()) {
+                throw new IllegalStateException("Lute responded [" + response.statusCode() + "]");
+            }
+            onCompleted(System.currentTimeMillis() - start);
+            return response.body();
+        } catch (final Exception e) {
+            onFailed();
+            throw e;
+        }
+    }
+
+    /**
+     * Renders the specified markdown texts in one round of concurrent requests.
+     *
+     * @param markdownTexts the specified markdown texts
+     * @return HTMLs in the same order, an element is {@code null} if that render failed or the circuit is open
+     */
+    public List<String> render(final List<String> markdownTexts) {
+        final List<String> ret = new ArrayList<>(markdownTexts.size());
+        if (open.get()) {
+            for (int i = 0; i < markdownTexts.size(); i++) {
+                ret.add(null);
+            }
+            return ret;
+        }
+
+        final long start = System.currentTimeMillis();
+        final List<CompletableFuture<HttpResponse<String>>> futures = new ArrayList<>(markdownTexts.size());
+        for (final String markdownText : markdownTexts) {
+            requests.increment();
+            futures.add(httpClient.sendAsync(request(markdownText), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)));
+        }
+        for (final CompletableFuture<HttpResponse<String>> future : futures) {
+            try {
+                final HttpResponse<String> response = future.join();
+                if (200 != response.statusCode()) {
+                    throw new IllegalStateException("Lute responded [" + response.statusCode() + "]");
+                }
+                onCompleted(System.currentTimeMillis() - start);
+                ret.add(response.body());
+            } catch (final Exception e) {
+                onFailed();
+                ret.add(null);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Opens the circuit and starts probing the engine in the background.
+     */
+    public void trip() {
+        if (!open.compareAndSet(false, true)) {
+            return;
+        }
+
+        trips.increment();
+        LOGGER.log(Level.WARN, "[Lute] is unavailable, falling back to the built-in engine");
+        availabilityListener.accept(false);
+        scheduleProbe(probeInterval);
+    }
+
+    /**
+     * Checks whether the circuit is open.
+     *
+     * @return {@code true} if open
+     */
+    public boolean isOpen() {
+        return open.get();
+    }
+
+    /**
+     * Gets the client statistics.
+     *
+     * @return statistics, for example,
+     * <pre>
+     * {
+     *     "open": false,
+     *     "requests": 1024,
+     *     "failures": 3,
+     *     "trips": 0
+     * }
+     * </pre>
+     */
+    public JSONObject getStats() {
+        return new JSONObject()
+                .put("open", open.get())
+                .put("requests", requests.sum())
+                .put("failures", failures.sum())
+                .put("trips", trips.sum());
+    }
+
+    private void onCompleted(final long elapsedMillis) {
+        if (elapsedMillis > SLOW_MILLIS) {
+            onFailed();
+            return;
+        }
+        consecutiveFailures.set(0);
+    }
+
+    private void onFailed() {
+        failures.increment();
+        if (consecutiveFailures.incrementAndGet() >= FAILURE_THRESHOLD) {
+            trip();
+        }
+    }
+
+    private void scheduleProbe(final long delay) {
+        CompletableFuture.runAsync(() -> {
+            if (probe()) {
+                consecutiveFailures.set(0);
+                open.set(false);
+                LOGGER.log(Level.INFO, "[Lute] is available again");
+                availabilityListener.accept(true);
+            } else {
+                scheduleProbe(Math.min(delay * 2, MAX_PROBE_INTERVAL));
+            }
+        }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+    }
+
+    private HttpRequest request(final String markdownText) {
+        return HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofSeconds(7))
+                .POST(HttpRequest.BodyPublishers.ofString(markdownText, StandardCharsets.UTF_8))
+                .build();
+    }
+}
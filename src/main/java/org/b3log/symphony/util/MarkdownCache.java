@@ -0,0 +1,227 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Byte-budgeted cache of rendered markdown, one instance per render variant.
+ * <p>
+ * Entries are keyed by a 64-bit hash of the source text computed in one pass without allocation. Length and
+ * {@link String#hashCode()} of the source are kept as a fingerprint, a lookup whose fingerprint does not match is a
+ * miss, so a hash collision never serves the HTML of another text. Eviction is by the estimated bytes of the cached
+ * HTML, so a few long articles can not push out thousands of chat messages of another region, and an entry larger
+ * than 1/64 of the budget is not cached at all. A region may equally be keyed by an identifier of immutable content,
+ * for example the oId of a chat message, in which case the identifier plays the role of the source text.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.0.0.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public final class MarkdownCache {
+
+    /**
+     * Estimated per-entry overhead in bytes, key, entry object, string header and cache node.
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * All regions, for statistics.
+     */
+    private static final List<MarkdownCache> REGIONS = new CopyOnWriteArrayList<>();
+
+    /**
+     * Region name.
+     */
+    private final String name;
+
+    /**
+     * Byte budget.
+     */
+    private final long maxBytes;
+
+    /**
+     * Cache.
+     */
+    private final Cache<Long, Entry> cache;
+
+    /**
+     * Constructs a region with the specified name and byte budget.
+     *
+     * @param name     the specified name
+     * @param maxBytes the specified byte budget
+     */
+    public MarkdownCache(final String name, final long maxBytes) {
+        this(name, maxBytes, 0);
+    }
+
+    /**
+     * Constructs a region with the specified name, byte budget and time to live.
+     *
+     * @param name       the specified name
+     * @param maxBytes   the specified byte budget
+     * @param ttlMinutes the specified time to live after write in minutes, {@code 0} for no expiry
+     */
+    public MarkdownCache(final String name, final long maxBytes, final long ttlMinutes) {
+        this.name = name;
+        this.maxBytes = maxBytes;
+        final Caffeine<Long, Entry> builder = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((final Long key, final Entry entry) -> entry.weight())
+                .recordStats();
+        if (0 < ttlMinutes) {
+            builder.expireAfterWrite(ttlMinutes, TimeUnit.MINUTES);
+        }
+        cache = builder.build();
+        REGIONS.add(this);
+    }
+
+    /**
+     * Gets the cached HTML of the specified source text.
+     *
+     * @param source the specified source text
+     * @return HTML, returns {@code null} if not found
+     */
+    public String get(final String source) {
+        final Entry entry = cache.getIfPresent(hash64(source));
+        if (null == entry || entry.length != source.length() || entry.fingerprint != source.hashCode()) {
+            return null;
+        }
+        return entry.html;
+    }
+
+    /**
+     * Caches the specified HTML of the specified source text.
+     *
+     * @param source the specified source text
+     * @param html   the specified HTML
+     */
+    public void put(final String source, final String html) {
+        final Entry entry = new Entry(source.length(), source.hashCode(), html);
+        if (entry.weight() > maxBytes / 64) {
+            return;
+        }
+        cache.put(hash64(source), entry);
+    }
+
+    /**
+     * Removes the cached HTML of the specified source text.
+     *
+     * @param source the specified source text
+     */
+    public void remove(final String source) {
+        cache.invalidate(hash64(source));
+    }
+
+    /**
+     * Gets the statistics of this region.
+     *
+     * @return statistics, for example,
+     * <pre>
+     * {
+     *     "name": "toHTML",
+     *     "hits": 1024,
+     *     "misses": 64,
+     *     "hitRate": 0.941,
+     *     "evictions": 3,
+     *     "entries": 512,
+     *     "bytes": 1048576,
+     *     "maxBytes": 67108864
+     * }
+     * </pre>
+     */
+    public JSONObject getStats() {
+        final CacheStats stats = cache.stats();
+        final long bytes = cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L);
+        return new JSONObject()
+                .put("name", name)
+                .put("hits", stats.hitCount())
+                .put("misses", stats.missCount())
+                .put("hitRate", Math.round(stats.hitRate() * 1000) / 1000.0)
+                .put("evictions", stats.evictionCount())
+                .put("entries", cache.estimatedSize())
+                .put("bytes", bytes)
+                .put("maxBytes", maxBytes);
+    }
+
+    /**
+     * Gets the statistics of all regions.
+     *
+     * @return statistics of all regions
+     * @see #getStats()
+     */
+    public static JSONArray getAllStats() {
+        final JSONArray ret = new JSONArray();
+        for (final MarkdownCache region : REGIONS) {
+            ret.put(region.getStats());
+        }
+        return ret;
+    }
+
+    /**
+     * Computes a 64-bit hash of the specified text, FNV-1a over UTF-16 chars finalized with the MurmurHash3 mixer.
+     *
+     * @param text the specified text
+     * @return hash
+     */
+    static long hash64(final String text) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Cached HTML with the fingerprint of its source.
+     */
+    private static final class Entry {
+
+        private final int length;
+
+        private final int fingerprint;
+
+        private final String html;
+
+        private Entry(final int length, final int fingerprint, final String html) {
+            this.length = length;
+            this.fingerprint = fingerprint;
+            this.html = html;
+        }
+
+        private int weight() {
+            return ENTRY_OVERHEAD + 2 * html.length();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.util;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared Markdown rendering service.
+ * <p>
+ * At most {@link Symphonys#MARKDOWN_CONCURRENCY} renders, pooled or inline, run at the same time, further renders
+ * wait for a permit and are rejected once {@link Symphonys#MARKDOWN_QUEUE} renders are already waiting. Deadlines are
+ * cooperative: a render task calls {@link #checkDeadline()} between its phases and gives up once its deadline has
+ * passed or its caller has stopped waiting, so a timed out render releases its permit instead of being killed.
+ * Remote I/O such as a Lute round trip should be done by the caller before submitting, so it does not hold a permit.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.0.2.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public final class MarkdownRenderPool {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LogManager.getLogger(MarkdownRenderPool.class);
+
+    /**
+     * 渲染耗时采样数.
+     */
+    private static final int RENDER_TIME_SAMPLES = 1024;
+
+    /**
+     * Render workers.
+     */
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Render permits.
+     */
+    private static final Semaphore PERMITS = new Semaphore(Math.max(1, Symphonys.MARKDOWN_CONCURRENCY), true);
+
+    /**
+     * Deadline (in nanos) of the render running on the current thread.
+     */
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    /**
+     * Renders waiting for a permit.
+     */
+    private static final AtomicInteger QUEUED = new AtomicInteger();
+
+    /**
+     * Renders holding a permit.
+     */
+    private static final AtomicInteger ACTIVE = new AtomicInteger();
+
+    private static final LongAdder RENDERED = new LongAdder();
+
+    private static final LongAdder TIMEOUTS = new LongAdder();
+
+    private static final LongAdder REJECTED = new LongAdder();
+
+    private static final LongAdder DEGRADED = new LongAdder();
+
+    /**
+     * Recent render times (in nanos), a ring buffer.
+     */
+    private static final long[] RENDER_TIMES = new long[RENDER_TIME_SAMPLES];
+
+    private static final AtomicLong RENDER_TIME_COUNT = new AtomicLong();
+
+    /**
+     * Private constructor.
+     */
+    private MarkdownRenderPool() {
+    }
+
+    /**
+     * Runs the specified render task on the current thread with the specified timeout, used for small inputs which
+     * are not worth a thread hop. The render takes a permit like a pooled one, unless it is nested in a render which
+     * already holds one.
+     *
+     * @param task          the specified render task
+     * @param timeoutMillis the specified timeout in milliseconds
+     * @return rendered HTML
+     * @throws RejectedExecutionException if too many renders are waiting
+     * @throws TimeoutException           if the render does not complete in time
+     * @throws Exception                  render exception
+     */
+    public static String renderInline(final Callable<String> task, final long timeoutMillis) throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        final Long previous = DEADLINE.get();
+        if (null != previous) {
+            // 嵌套渲染沿用外层的许可，截止时间取两者中较早的一个
+            DEADLINE.set(previous - deadline < 0 ? previous : deadline);
+            final long start = System.nanoTime();
+            try {
+                return task.call();
+            } finally {
+                DEADLINE.set(previous);
+                onRendered(System.nanoTime() - start);
+            }
+        }
+
+        if (QUEUED.get() >= Symphonys.MARKDOWN_QUEUE) {
+            REJECTED.increment();
+            throw new RejectedExecutionException("Too many markdown renders waiting [" + QUEUED.get() + "]");
+        }
+        QUEUED.incrementAndGet();
+        if (!acquire(deadline)) {
+            TIMEOUTS.increment();
+            throw new TimeoutException("Markdown render waited too long for a permit");
+        }
+
+        ACTIVE.incrementAndGet();
+        DEADLINE.set(deadline);
+        final long start = System.nanoTime();
+        try {
+            return task.call();
+        } catch (final CancellationException e) {
+            TIMEOUTS.increment();
+            throw new TimeoutException("Markdown render exceeded [" + timeoutMillis + "ms]");
+        } finally {
+            DEADLINE.remove();
+            ACTIVE.decrementAndGet();
+            PERMITS.release();
+            onRendered(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Runs the specified render task on a render worker and waits for it at most the specified timeout.
+     *
+     * @param task          the specified render task
+     * @param timeoutMillis the specified timeout in milliseconds
+     * @return rendered HTML
+     * @throws RejectedExecutionException if too many renders are waiting
+     * @throws TimeoutException           if the render does not complete in time
+     * @throws Exception                  render exception
+     */
+    public static String render(final Callable<String> task, final long timeoutMillis) throws Exception {
+        if (QUEUED.get() >= Symphonys.MARKDOWN_QUEUE) {
+            REJECTED.increment();
+            throw new RejectedExecutionException("Too many markdown renders waiting [" + QUEUED.get() + "]");
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        QUEUED.incrementAndGet();
+        // 任务开始执行或在开始前被取消，二者只有一个会把排队数减回去
+        final AtomicBoolean started = new AtomicBoolean();
+        final Future<String> future;
+        try {
+            future = EXECUTOR.submit(() -> {
+                if (!started.compareAndSet(false, true)) {
+                    throw new CancellationException("Markdown render cancelled before start");
+                }
+                return run(task, deadline);
+            });
+        } catch (final RejectedExecutionException e) {
+            QUEUED.decrementAndGet();
+            throw e;
+        }
+
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            TIMEOUTS.increment();
+            // 中断仅作为提示，渲染任务在下一个检查点自行退出
+            if (future.cancel(true) && started.compareAndSet(false, true)) {
+                // 任务还未开始，不会再执行 run，由这里归还排队数
+                QUEUED.decrementAndGet();
+            }
+            throw e;
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof CancellationException) {
+                TIMEOUTS.increment();
+                throw new TimeoutException("Markdown render exceeded [" + timeoutMillis + "ms]");
+            }
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Checks the deadline of the render running on the current thread.
+     *
+     * @throws CancellationException if the deadline has passed or the caller has stopped waiting
+     */
+    public static void checkDeadline() {
+        final Long deadline = DEADLINE.get();
+        if (null == deadline) {
+            return;
+        }
+        if (Thread.currentThread().isInterrupted() || System.nanoTime() - deadline > 0) {
+            throw new CancellationException("Markdown render deadline exceeded");
+        }
+    }
+
+    /**
+     * Records a degraded render, for example an input too large to be rendered.
+     */
+    public static void onDegraded() {
+        DEGRADED.increment();
+    }
+
+    /**
+     * Gets the number of renders waiting for a permit.
+     *
+     * @return queue depth
+     */
+    public static int getQueued() {
+        return QUEUED.get();
+    }
+
+    /**
+     * Gets the render time of the specified percentile over recent renders.
+     *
+     * @param percentile the specified percentile, for example 99
+     * @return render time in milliseconds
+     */
+    public static double getRenderTime(final double percentile) {
+        final int size = (int) Math.min(RENDER_TIME_COUNT.get(), RENDER_TIME_SAMPLES);
+        if (0 == size) {
+            return 0;
+        }
+
+        final long[] samples = Arrays.copyOf(RENDER_TIMES, size);
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+        index = Math.max(0, Math.min(size - 1, index));
+        return Math.round(samples[index] / 1_000.0) / 1_000.0;
+    }
+
+    /**
+     * Gets the rendering statistics.
+     *
+     * @return statistics, for example,
+     * <pre>
+     * {
+     *     "queued": 0,
+     *     "active": 2,
+     *     "rendered": 1024,
+     *     "timeouts": 0,
+     *     "rejected": 0,
+     *     "degraded": 1,
+     *     "p50": 3.2,
+     *     "p99": 41.5
+     * }
+     * </pre>
+     */
+    public static JSONObject getStats() {
+        return new JSONObject()
+                .put("queued", QUEUED.get())
+                .put("active", ACTIVE.get())
+                .put("rendered", RENDERED.sum())
+                .put("timeouts", TIMEOUTS.sum())
+                .put("rejected", REJECTED.sum())
+                .put("degraded", DEGRADED.sum())
+                .put("p50", getRenderTime(50))
+                .put("p99", getRenderTime(99));
+    }
+
+    private static String run(final Callable<String> task, final long deadline) throws Exception {
+        if (!acquire(deadline)) {
+            throw new CancellationException("Markdown render waited too long for a permit");
+        }
+
+        ACTIVE.incrementAndGet();
+        DEADLINE.set(deadline);
+        final long start = System.nanoTime();
+        try {
+            return task.call();
+        } catch (final CancellationException e) {
+            LOGGER.log(Level.DEBUG, "Markdown render abandoned after [" + (System.nanoTime() - start) / 1_000_000 + "ms]");
+            throw e;
+        } finally {
+            DEADLINE.remove();
+            ACTIVE.decrementAndGet();
+            PERMITS.release();
+            onRendered(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Waits for a render permit until the specified deadline, the caller has already been counted as queued.
+     *
+     * @param deadline the specified deadline (in nanos)
+     * @return {@code true} if a permit is acquired, returns {@code false} otherwise
+     */
+    private static boolean acquire(final long deadline) {
+        try {
+            return PERMITS.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            QUEUED.decrementAndGet();
+        }
+    }
+
+    private static void onRendered(final long nanos) {
+        RENDERED.increment();
+        final int slot = (int) (RENDER_TIME_COUNT.getAndIncrement() % RENDER_TIME_SAMPLES);
+        RENDER_TIMES[slot] = nanos;
+    }
+}
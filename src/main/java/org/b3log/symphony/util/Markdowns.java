@@ -18,27 +18,17 @@
  */
 package org.b3log.symphony.util;
 
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeoutException;
 
-import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -48,7 +38,6 @@ import org.b3log.latke.ioc.BeanManager;
 import org.b3log.latke.service.LangPropsService;
 import org.b3log.latke.util.Callstacks;
 import org.b3log.latke.util.Stopwatchs;
-import org.b3log.symphony.model.Common;
 import org.b3log.symphony.model.UserExt;
 import org.b3log.symphony.service.UserQueryService;
 import org.json.JSONObject;
@@ -89,14 +78,14 @@ public final class Markdowns {
     private static final Logger LOGGER = LogManager.getLogger(Markdowns.class);
 
     /**
-     * Markdown cache.
+     * Markdown to HTML cache.
      */
-    private static final Map<String, JSONObject> MD_CACHE = Collections.synchronizedMap(new LinkedHashMap<String, JSONObject>() {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry eldest) {
-            return size() > 1000;
-        }
-    });
+    private static final MarkdownCache HTML_CACHE = new MarkdownCache("toHTML", 64L * 1024 * 1024);
+
+    /**
+     * Chat HTML cleaning cache.
+     */
+    private static final MarkdownCache CLEAN_CHAT_CACHE = new MarkdownCache("cleanChat", 16L * 1024 * 1024);
 
     /**
      * Lute engine serve path. https://github.com/88250/lute
@@ -126,19 +115,25 @@ public final class Markdowns {
     private static final HtmlRenderer RENDERER = HtmlRenderer.builder(OPTIONS).build();
 
     /**
-     * Whether Lute is available.
+     * Whether Lute is available, switched off and on by the circuit breaker of {@link #LUTE}.
      */
-    public static boolean LUTE_AVAILABLE;
+    public static volatile boolean LUTE_AVAILABLE;
+
+    /**
+     * Lute client, {@code null} if Lute is not configured.
+     */
+    private static final LuteClient LUTE = StringUtils.isBlank(LUTE_ENGINE_URL) ? null :
+            new LuteClient(LUTE_ENGINE_URL, available -> LUTE_AVAILABLE = available);
 
     static {
-        try {
-            final String html = toHtmlByLute("旧日的足迹");
-            LUTE_AVAILABLE = StringUtils.contains(html, "<p>旧日的足迹</p>");
+        if (null != LUTE) {
+            LUTE_AVAILABLE = LUTE.probe();
             if (LUTE_AVAILABLE) {
                 LOGGER.log(Level.INFO, "[Lute] is available");
+            } else {
+                // 启动时不可用也持续探测，恢复后自动启用
+                LUTE.trip();
             }
-        } catch (final Exception e) {
-            // ignored
         }
     }
 
@@ -265,6 +260,20 @@ public final class Markdowns {
      * @return safe HTML content
      */
     public static String cleanChat(final String content, final String baseURI) {
+        // 聊天室都以空的 base URI 清理，只缓存这种情况
+        if (!StringUtils.isEmpty(baseURI)) {
+            return cleanChat0(content, baseURI);
+        }
+
+        String ret = CLEAN_CHAT_CACHE.get(content);
+        if (null == ret) {
+            ret = cleanChat0(content, baseURI);
+            CLEAN_CHAT_CACHE.put(content, ret);
+        }
+        return ret;
+    }
+
+    private static String cleanChat0(final String content, final String baseURI) {
         final Whitelist whitelist = Whitelist.relaxed().addAttributes(":all", "id", "target",  "data-src", "aria-name", "aria-label");
         inputWhitelistChat(whitelist);
         final Document.OutputSettings outputSettings = new Document.OutputSettings();
@@ -362,6 +371,61 @@ public final class Markdowns {
      * 'markdownErrorLabel' if exception
      */
     public static String toHTML(final String markdownText) {
+        return toHTML(markdownText, null);
+    }
+
+    /**
+     * Converts the specified markdown texts to HTML, the cache misses are rendered by Lute in one round trip.
+     *
+     * @param markdownTexts the specified markdown texts
+     * @return converted HTMLs in the same order
+     * @see #toHTML(String)
+     */
+    public static List<String> toHTML(final List<String> markdownTexts) {
+        final Map<String, String> luteHTMLs = new HashMap<>();
+        if (LUTE_AVAILABLE) {
+            final List<String> misses = new ArrayList<>();
+            for (final String markdownText : markdownTexts) {
+                if (StringUtils.isNotBlank(markdownText) && markdownText.length() <= Symphonys.MARKDOWN_MAX_LENGTH
+                        && !luteHTMLs.containsKey(markdownText) && null == getHTML(markdownText)) {
+                    luteHTMLs.put(markdownText, null);
+                    misses.add(markdownText);
+                }
+            }
+            if (1 < misses.size()) {
+                final List<String> htmls = LUTE.render(misses);
+                for (int i = 0; i < misses.size(); i++) {
+                    luteHTMLs.put(misses.get(i), htmls.get(i));
+                }
+            } else {
+                luteHTMLs.clear();
+            }
+        }
+
+        final List<String> ret = new ArrayList<>(markdownTexts.size());
+        for (final String markdownText : markdownTexts) {
+            ret.add(toHTML(markdownText, luteHTMLs.get(markdownText)));
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the Lute client statistics.
+     *
+     * @return statistics, returns {@code null} if Lute is not configured
+     */
+    public static JSONObject getLuteStats() {
+        return null == LUTE ? null : LUTE.getStats();
+    }
+
+    /**
+     * Converts the specified markdown text to HTML.
+     *
+     * @param markdownText the specified markdown text
+     * @param luteHTML     the HTML already rendered by Lute, {@code null} to render it now
+     * @return converted HTML
+     */
+    private static String toHTML(final String markdownText, final String luteHTML) {
         if (StringUtils.isBlank(markdownText)) {
             return "";
         }
@@ -371,27 +435,35 @@ public final class Markdowns {
             return cachedHTML;
         }
 
+        if (markdownText.length() > Symphonys.MARKDOWN_MAX_LENGTH) {
+            // 超长内容不值得占用渲染资源，转义后按纯文本展示
+            MarkdownRenderPool.onDegraded();
+            LOGGER.log(Level.WARN, "Markdown is too large to render [length=" + markdownText.length() + ", md=" + StringUtils.substring(markdownText, 0, 256) + "]");
+            return "<p>" + StringUtils.replace(StringEscapeUtils.escapeHtml(markdownText), "\n", "<br>") + "</p>";
+        }
+
         final BeanManager beanManager = BeanManager.getInstance();
         final LangPropsService langPropsService = beanManager.getReference(LangPropsService.class);
         final UserQueryService userQueryService = beanManager.getReference(UserQueryService.class);
-        final ExecutorService pool = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().factory());
-        final long[] threadId = new long[1];
-
-        final Callable<String> call = () -> {
-            threadId[0] = Thread.currentThread().getId();
 
-            String html = null;
-            if (LUTE_AVAILABLE) {
-                try {
-                    html = toHtmlByLute(markdownText);
-                } catch (final Exception e) {
-                    LOGGER.log(Level.WARN, "Failed to use [Lute] for markdown [md=" + StringUtils.substring(markdownText, 0, 256) + "]: " + e.getMessage());
-                }
+        // Lute 是远程调用，在获取渲染许可之前完成，Lute 变慢时不占用渲染许可
+        String renderedHTML = luteHTML;
+        if (null == renderedHTML && LUTE_AVAILABLE) {
+            try {
+                renderedHTML = toHtmlByLute(markdownText);
+            } catch (final Exception e) {
+                LOGGER.log(Level.WARN, "Failed to use [Lute] for markdown [md=" + StringUtils.substring(markdownText, 0, 256) + "]: " + e.getMessage());
             }
+        }
+        final String luteRendered = renderedHTML;
 
+        final Callable<String> call = () -> {
+            String html = luteRendered;
             if (StringUtils.isBlank(html)) {
+                MarkdownRenderPool.checkDeadline();
                 html = toHtmlByFlexmark(markdownText);
             }
+            MarkdownRenderPool.checkDeadline();
 
             if (!StringUtils.startsWith(html, "<p>")) {
                 html = "<p>" + html + "</p>";
@@ -404,12 +476,14 @@ public final class Markdowns {
             html = html.replaceAll("class=\"language-math\"", "><latex></latex");
             html = Markdowns.clean(html, Latkes.getServePath(), whitelist, outputSettings);
             html = html.replaceAll("><latex></latex", " class=\"language-math\"");
+            MarkdownRenderPool.checkDeadline();
             final Document doc = Jsoup.parseBodyFragment(html);
             final List<org.jsoup.nodes.Node> toRemove = new ArrayList<>();
             doc.traverse(new NodeVisitor() {
                 @Override
                 public void head(final org.jsoup.nodes.Node node, int depth) {
                     if (node instanceof org.jsoup.nodes.TextNode) {
+                        MarkdownRenderPool.checkDeadline();
                         final org.jsoup.nodes.TextNode textNode = (org.jsoup.nodes.TextNode) node;
                         final org.jsoup.nodes.Node parent = textNode.parent();
 
@@ -496,25 +570,20 @@ public final class Markdowns {
 
         Stopwatchs.start("Md to HTML");
         try {
-            final Future<String> future = pool.submit(call);
+            // 短内容直接在当前线程渲染，省去线程切换
+            if (markdownText.length() <= Symphonys.MARKDOWN_INLINE_LENGTH) {
+                return MarkdownRenderPool.renderInline(call, Symphonys.MARKDOWN_TIMEOUT);
+            }
 
-            return future.get(Symphonys.MARKDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+            return MarkdownRenderPool.render(call, Symphonys.MARKDOWN_TIMEOUT);
         } catch (final TimeoutException e) {
             LOGGER.log(Level.ERROR, "Markdown timeout [md=" + StringUtils.substring(markdownText, 0, 256) + "]");
             Callstacks.printCallstack(Level.ERROR, new String[]{"org.b3log"}, null);
-
-            final Set<Thread> threads = Thread.getAllStackTraces().keySet();
-            for (final Thread thread : threads) {
-                if (thread.getId() == threadId[0]) {
-                    thread.stop();
-                    break;
-                }
-            }
+        } catch (final RejectedExecutionException e) {
+            LOGGER.log(Level.WARN, e.getMessage() + " [md=" + StringUtils.substring(markdownText, 0, 256) + "]");
         } catch (final Exception e) {
             LOGGER.log(Level.ERROR, "Markdown failed [md=" + StringUtils.substring(markdownText, 0, 256) + "]", e);
         } finally {
-            pool.shutdownNow();
-
             Stopwatchs.end();
         }
 
@@ -522,24 +591,7 @@ public final class Markdowns {
     }
 
     private static String toHtmlByLute(final String markdownText) throws Exception {
-        final URL url = new URL(LUTE_ENGINE_URL);
-        final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setConnectTimeout(1000);
-        conn.setReadTimeout(7000);
-        conn.setDoOutput(true);
-
-        try (final OutputStream outputStream = conn.getOutputStream()) {
-            IOUtils.write(markdownText, outputStream, "UTF-8");
-        }
-
-        String ret;
-        try (final InputStream inputStream = conn.getInputStream()) {
-            ret = IOUtils.toString(inputStream, StandardCharsets.UTF_8);
-        }
-
-        conn.disconnect();
-
-        return ret;
+        return LUTE.render(markdownText);
     }
 
     private static String toHtmlByFlexmark(final String markdownText) {
@@ -555,13 +607,7 @@ public final class Markdowns {
      * @return HTML
      */
     private static String getHTML(final String markdownText) {
-        final String hash = DigestUtils.md5Hex(markdownText);
-        final JSONObject value = MD_CACHE.get(hash);
-        if (null == value) {
-            return null;
-        }
-
-        return value.optString(Common.DATA);
+        return HTML_CACHE.get(markdownText);
     }
 
     /**
@@ -571,10 +617,7 @@ public final class Markdowns {
      * @param html         the specified HTML
      */
     private static void putHTML(final String markdownText, final String html) {
-        final String hash = DigestUtils.md5Hex(markdownText);
-        final JSONObject value = new JSONObject();
-        value.put(Common.DATA, html);
-        MD_CACHE.put(hash, value);
+        HTML_CACHE.put(markdownText, html);
     }
 
     private static void inputWhitelist(final Whitelist whitelist) {
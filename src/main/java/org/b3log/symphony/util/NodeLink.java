@@ -0,0 +1,509 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.util;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Long-lived admin link from master to one chatroom node.
+ * <p>
+ * The node protocol answers each admin command with exactly one text frame and carries no request id, so requests
+ * are numbered locally and correlated with responses in send order. A response that fails the acceptance check of the
+ * oldest outstanding request (for example an unsolicited chatroom broadcast) is dropped instead of being delivered to
+ * the wrong caller. A timed out request leaves its late response on the link and breaks the send order correlation,
+ * so the link is reconnected and the other outstanding requests fail. Liveness is checked with WebSocket ping/pong, which also measures RTT, and a broken link reconnects with
+ * exponential backoff plus jitter.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.0.1.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public final class NodeLink {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LogManager.getLogger(NodeLink.class);
+
+    /**
+     * Heartbeat interval in milliseconds.
+     */
+    private static final long HEARTBEAT_INTERVAL = 15 * 1000;
+
+    /**
+     * Maximum reconnect backoff in milliseconds.
+     */
+    private static final long MAX_BACKOFF = 60 * 1000;
+
+    /**
+     * Accepts a plain acknowledgement, such as the response of {@code hello} or {@code push}, which is neither a
+     * chatroom broadcast nor a list.
+     */
+    public static final Predicate<String> ACK = frame -> !isBroadcast(frame) && !frame.trim().startsWith("[");
+
+    /**
+     * Request id generator, shared by all links.
+     */
+    private static final AtomicLong REQUEST_ID = new AtomicLong();
+
+    /**
+     * Node URI, for example wss://node1.fishpi.cn/chat-room-channel.
+     */
+    private final String uri;
+
+    /**
+     * HTTP client, shared by all links.
+     */
+    private final HttpClient client;
+
+    /**
+     * Admin key.
+     */
+    private final String adminKey;
+
+    /**
+     * Outstanding requests, oldest first. Guarded by {@code this}.
+     */
+    private final Deque<Pending> pending = new ArrayDeque<>();
+
+    /**
+     * Current connection, {@code null} if not connected.
+     */
+    private volatile WebSocket webSocket;
+
+    /**
+     * Whether the handshake succeeded on the current connection.
+     */
+    private volatile boolean ready;
+
+    /**
+     * Whether this link has been closed for good.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Tail of the send chain, the JDK WebSocket does not allow overlapping sends. Guarded by {@code this}.
+     */
+    private CompletableFuture<?> sendChain = CompletableFuture.completedFuture(null);
+
+    /**
+     * Whether a reconnect is already scheduled.
+     */
+    private final AtomicBoolean reconnecting = new AtomicBoolean();
+
+    /**
+     * Consecutive failed connects, drives the backoff.
+     */
+    private int failedAttempts;
+
+    /**
+     * Nano time of the last unanswered ping, {@code 0} if none.
+     */
+    private volatile long pingSentNanos;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong reconnectCount = new AtomicLong();
+    private volatile long rttMillis = -1;
+    private volatile double avgRttMillis = -1;
+    private volatile long lastConnectedTime;
+
+    /**
+     * Constructs a link.
+     *
+     * @param uri      the specified node URI
+     * @param client   the specified HTTP client
+     * @param adminKey the specified admin key
+     */
+    NodeLink(final String uri, final HttpClient client, final String adminKey) {
+        this.uri = uri;
+        this.client = client;
+        this.adminKey = adminKey;
+    }
+
+    /**
+     * Connects and performs the hello handshake.
+     *
+     * @return future completed when the link is ready, or exceptionally if the attempt failed (a retry is scheduled)
+     */
+    CompletableFuture<Void> connect() {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Link closed"));
+        }
+
+        final String serverUri = uri + "?apiKey=" + adminKey;
+        return client.newWebSocketBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .buildAsync(URI.create(serverUri), new Listener())
+                .thenCompose(ws -> {
+                    webSocket = ws;
+                    return request("hello", ACK, 10 * 1000);
+                })
+                .thenAccept(response -> {
+                    ready = true;
+                    lastConnectedTime = System.currentTimeMillis();
+                    synchronized (this) {
+                        failedAttempts = 0;
+                    }
+                })
+                .whenComplete((v, e) -> {
+                    if (null != e) {
+                        LOGGER.log(Level.ERROR, "Failed to connect to node [" + uri + "]: " + e.getMessage());
+                        broken(e);
+                    }
+                });
+    }
+
+    /**
+     * Sends the specified admin command and waits for its response.
+     *
+     * @param command       the specified command, without the admin key prefix, for example "online"
+     * @param accepts       checks whether a frame can be the response of this command
+     * @param timeoutMillis the specified timeout in milliseconds
+     * @return future of the response
+     */
+    public CompletableFuture<String> request(final String command, final Predicate<String> accepts, final long timeoutMillis) {
+        final WebSocket ws = webSocket;
+        if (null == ws || closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Node [" + uri + "] is not connected"));
+        }
+
+        final Pending request = new Pending(REQUEST_ID.incrementAndGet(), accepts);
+        requestCount.incrementAndGet();
+        synchronized (this) {
+            pending.addLast(request);
+        }
+        send(adminKey + ":::" + command).whenComplete((v, e) -> {
+            if (null != e) {
+                request.future.completeExceptionally(e);
+            }
+        });
+
+        return request.future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((response, e) -> {
+            synchronized (this) {
+                pending.remove(request);
+            }
+            if (null != e) {
+                errorCount.incrementAndGet();
+                if (e instanceof TimeoutException) {
+                    LOGGER.log(Level.WARN, "Node [" + uri + "] request #" + request.id + " [" + abbreviate(command) + "] timed out, reconnecting");
+                    // 超时请求的响应可能稍后到达，会被当作下一个请求的响应，只能重连
+                    if (ws == webSocket) {
+                        broken(e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends the specified admin command without waiting for a response.
+     *
+     * @param command the specified command, without the admin key prefix
+     */
+    public void notice(final String command) {
+        if (null == webSocket || closed) {
+            return;
+        }
+        send(adminKey + ":::" + command).whenComplete((v, e) -> {
+            if (null != e) {
+                errorCount.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Closes this link for good.
+     */
+    void close() {
+        closed = true;
+        ready = false;
+        final WebSocket ws = webSocket;
+        webSocket = null;
+        failAll(new IllegalStateException("Link closed"));
+        if (null != ws) {
+            ws.sendClose(WebSocket.NORMAL_CLOSURE, "Normal Closure");
+        }
+    }
+
+    /**
+     * Sends a ping, and treats the link as broken if the previous ping got no pong.
+     */
+    void heartbeat() {
+        final WebSocket ws = webSocket;
+        if (null == ws || closed) {
+            return;
+        }
+        if (0 != pingSentNanos && System.nanoTime() - pingSentNanos > 2 * TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_INTERVAL)) {
+            errorCount.incrementAndGet();
+            LOGGER.log(Level.WARN, "Node [" + uri + "] missed heartbeat, reconnecting");
+            broken(new TimeoutException("Heartbeat timeout"));
+            return;
+        }
+        if (0 == pingSentNanos) {
+            pingSentNanos = System.nanoTime();
+            ws.sendPing(ByteBuffer.allocate(0));
+        }
+    }
+
+    /**
+     * Gets the node URI.
+     *
+     * @return node URI
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * Whether this link is connected and handshaken.
+     *
+     * @return {@code true} if ready
+     */
+    public boolean isReady() {
+        return ready && !closed;
+    }
+
+    /**
+     * Gets the last measured round trip time.
+     *
+     * @return RTT in milliseconds, {@code -1} if not measured yet
+     */
+    public long getRttMillis() {
+        return rttMillis;
+    }
+
+    /**
+     * Gets the moving average of round trip time.
+     *
+     * @return average RTT in milliseconds, {@code -1} if not measured yet
+     */
+    public double getAvgRttMillis() {
+        return avgRttMillis;
+    }
+
+    /**
+     * Gets the number of sent requests.
+     *
+     * @return request count
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Gets the number of failed requests, sends and heartbeats.
+     *
+     * @return error count
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Gets metrics of this link.
+     *
+     * @return metrics
+     */
+    public JSONObject getStats() {
+        return new JSONObject()
+                .put("uri", uri)
+                .put("ready", isReady())
+                .put("rtt", rttMillis)
+                .put("avgRtt", Math.round(avgRttMillis * 10) / 10.0)
+                .put("requests", requestCount.get())
+                .put("errors", errorCount.get())
+                .put("reconnects", reconnectCount.get())
+                .put("connectedTime", lastConnectedTime);
+    }
+
+    private synchronized CompletableFuture<?> send(final String text) {
+        final WebSocket ws = webSocket;
+        if (null == ws) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Node [" + uri + "] is not connected"));
+        }
+        sendChain = sendChain.handle((v, e) -> null).thenCompose(v -> ws.sendText(text, true));
+        return sendChain;
+    }
+
+    private void onResponse(final String text) {
+        final Pending request;
+        synchronized (this) {
+            request = pending.peekFirst();
+            if (null == request || !request.accepts.test(text)) {
+                return;
+            }
+            pending.pollFirst();
+        }
+        request.future.complete(text);
+    }
+
+    private void broken(final Throwable cause) {
+        ready = false;
+        final WebSocket ws = webSocket;
+        webSocket = null;
+        if (null != ws) {
+            ws.abort();
+        }
+        pingSentNanos = 0;
+        failAll(cause);
+        if (closed || !reconnecting.compareAndSet(false, true)) {
+            return;
+        }
+
+        final long delay;
+        synchronized (this) {
+            final long backoff = Math.min(MAX_BACKOFF, 1000L << Math.min(failedAttempts, 6));
+            failedAttempts++;
+            delay = (long) (backoff * (0.5 + ThreadLocalRandom.current().nextDouble()));
+        }
+        reconnectCount.incrementAndGet();
+        Symphonys.SCHEDULED_EXECUTOR_SERVICE.schedule(() -> {
+            reconnecting.set(false);
+            if (!closed && null == webSocket) {
+                connect();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void failAll(final Throwable cause) {
+        synchronized (this) {
+            final Iterator<Pending> iterator = pending.iterator();
+            while (iterator.hasNext()) {
+                iterator.next().future.completeExceptionally(cause);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Checks whether the specified frame is a chatroom broadcast, a JSON object with a {@code type}, which is never a
+     * response of an admin command.
+     *
+     * @param frame the specified frame
+     * @return {@code true} if it is a broadcast
+     */
+    public static boolean isBroadcast(final String frame) {
+        final String text = frame.trim();
+        if (!text.startsWith("{")) {
+            return false;
+        }
+        try {
+            return new JSONObject(text).has("type");
+        } catch (final Exception e) {
+            return false;
+        }
+    }
+
+    private static String abbreviate(final String command) {
+        return command.length() > 32 ? command.substring(0, 32) + "..." : command;
+    }
+
+    /**
+     * An outstanding request.
+     */
+    private static final class Pending {
+
+        private final long id;
+
+        private final Predicate<String> accepts;
+
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private Pending(final long id, final Predicate<String> accepts) {
+            this.id = id;
+            this.accepts = accepts;
+        }
+    }
+
+    /**
+     * Frame listener of the current connection.
+     */
+    private final class Listener implements WebSocket.Listener {
+
+        private final StringBuilder messageBuffer = new StringBuilder();
+
+        @Override
+        public void onOpen(final WebSocket ws) {
+            ws.request(1);
+        }
+
+        @Override
+        public CompletionStage<?> onText(final WebSocket ws, final CharSequence data, final boolean last) {
+            messageBuffer.append(data);
+            if (last) {
+                final String message = messageBuffer.toString();
+                messageBuffer.setLength(0);
+                onResponse(message);
+            }
+            ws.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onPong(final WebSocket ws, final ByteBuffer message) {
+            final long sent = pingSentNanos;
+            if (0 != sent) {
+                final long rtt = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sent);
+                rttMillis = rtt;
+                avgRttMillis = avgRttMillis < 0 ? rtt : avgRttMillis * 0.8 + rtt * 0.2;
+                pingSentNanos = 0;
+            }
+            ws.request(1);
+            return null;
+        }
+
+        @Override
+        public void onError(final WebSocket ws, final Throwable error) {
+            if (ws == webSocket) {
+                errorCount.incrementAndGet();
+                broken(error);
+            }
+        }
+
+        @Override
+        public CompletionStage<?> onClose(final WebSocket ws, final int statusCode, final String reason) {
+            if (ws == webSocket) {
+                broken(new IllegalStateException("Closed by node [" + statusCode + " " + reason + "]"));
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.util;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.b3log.symphony.model.Common;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Health-aware chatroom node scheduler.
+ * <p>
+ * A node's effective weight is its configured weight scaled by a health factor derived from the RTT and error rate
+ * measured by its {@link NodeLink}. New clients go to the ready node whose load is lowest relative to its share of the
+ * effective weight. Each rebalance tick moves a small batch of users off drained or overloaded nodes by telling them,
+ * through their current node, to reconnect to a less loaded one.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.0.1.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public final class NodeScheduler {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LogManager.getLogger(NodeScheduler.class);
+
+    /**
+     * 负载超过期望值的该倍数时才迁移，避免来回抖动.
+     */
+    private static final double OVERLOAD_TOLERANCE = 1.2;
+
+    /**
+     * 每轮每个节点最多迁移的用户数.
+     */
+    private static final int MAX_MIGRATIONS_PER_TICK = 20;
+
+    /**
+     * Drained nodes, no new clients are assigned and existing ones are migrated away.
+     */
+    private static final Set<String> DRAINED = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Health factors in (0, 1], &lt;node, factor&gt;.
+     */
+    private static final Map<String, Double> HEALTH = new ConcurrentHashMap<>();
+
+    /**
+     * Link counters at the previous tick, &lt;node, [requests, errors]&gt;.
+     */
+    private static final Map<String, long[]> LAST_COUNTERS = new HashMap<>();
+
+    /**
+     * Private constructor.
+     */
+    private NodeScheduler() {
+    }
+
+    /**
+     * Assigns a node for a new client and counts the client on it.
+     *
+     * @return node URI, returns {@code null} if no node is available
+     */
+    public static synchronized String assign() {
+        final String ret = pick(null, Collections.emptyMap());
+        if (null != ret) {
+            NodeUtil.wsOnline.merge(ret, 1, Integer::sum);
+        }
+        return ret;
+    }
+
+    /**
+     * Drains the specified node.
+     *
+     * @param node the specified node URI
+     */
+    public static void drain(final String node) {
+        DRAINED.add(node);
+        LOGGER.log(Level.INFO, "Draining chatroom node [" + node + "]");
+    }
+
+    /**
+     * Stops draining the specified node.
+     *
+     * @param node the specified node URI
+     */
+    public static void undrain(final String node) {
+        DRAINED.remove(node);
+    }
+
+    /**
+     * Checks whether the specified node is drained.
+     *
+     * @param node the specified node URI
+     * @return {@code true} if drained
+     */
+    public static boolean isDrained(final String node) {
+        return DRAINED.contains(node);
+    }
+
+    /**
+     * Gets the health factor of the specified node.
+     *
+     * @param node the specified node URI
+     * @return health factor in (0, 1]
+     */
+    public static double getHealth(final String node) {
+        return HEALTH.getOrDefault(node, 1.0);
+    }
+
+    /**
+     * Refreshes health factors and migrates a batch of users off drained or overloaded nodes, called after the
+     * online roster of nodes has been refreshed.
+     */
+    public static synchronized void rebalance() {
+        refreshHealth();
+
+        final List<String> candidates = candidates(null);
+        if (candidates.isEmpty()) {
+            return;
+        }
+        final double totalWeight = totalWeight(candidates);
+        final int totalClients = NodeUtil.wsOnline.values().stream().mapToInt(Integer::intValue).sum();
+
+        for (final String node : new ArrayList<>(NodeUtil.wsOnline.keySet())) {
+            final int current = NodeUtil.wsOnline.getOrDefault(node, 0);
+            final int excess;
+            if (DRAINED.contains(node) || !candidates.contains(node)) {
+                excess = current;
+            } else {
+                final double expected = totalClients * effectiveWeight(node) / totalWeight;
+                if (current <= expected * OVERLOAD_TOLERANCE) {
+                    continue;
+                }
+                excess = (int) Math.ceil(current - expected);
+            }
+            if (excess > 0) {
+                migrate(node, Math.min(excess, MAX_MIGRATIONS_PER_TICK));
+            }
+        }
+    }
+
+    private static void migrate(final String from, final int count) {
+        final NodeLink link = NodeUtil.nodeLinks.get(from);
+        final Map<String, Integer> users = NodeUtil.remoteUserPerNode.get(from);
+        if (null == link || !link.isReady() || null == users) {
+            return;
+        }
+
+        // 本轮已通知迁移的人数，仅用于分散目标节点；在线数等节点下次上报后再更新
+        final Map<String, Integer> planned = new HashMap<>();
+        int moved = 0;
+        for (final Map.Entry<String, Integer> user : users.entrySet()) {
+            if (moved >= count) {
+                break;
+            }
+            final String to = pick(from, planned);
+            if (null == to) {
+                break;
+            }
+
+            final JSONObject frame = new JSONObject()
+                    .put(Common.TYPE, "migrate")
+                    .put("node", to)
+                    .put("name", NodeUtil.nodeNickNames.get(to));
+            link.notice("tell " + user.getKey() + " " + frame);
+            planned.merge(to, user.getValue(), Integer::sum);
+            moved += user.getValue();
+        }
+        if (0 < moved) {
+            LOGGER.log(Level.INFO, "Asked [" + moved + "] chatroom clients to move off node [" + from + "]");
+        }
+    }
+
+    private static String pick(final String excluded, final Map<String, Integer> planned) {
+        final List<String> candidates = candidates(excluded);
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        final double totalWeight = totalWeight(candidates);
+        final int totalClients = candidates.stream().mapToInt(node -> load(node, planned)).sum() + 1;
+        String ret = null;
+        double retRatio = Double.MAX_VALUE;
+        for (final String node : candidates) {
+            final double weight = effectiveWeight(node);
+            final double expected = totalClients * weight / totalWeight;
+            // 实际/期望比值（包含即将分配的这个客户端），相同时选有效权重更高的节点
+            final double ratio = (load(node, planned) + 1) / Math.max(1, expected);
+            if (null == ret || ratio < retRatio || (ratio == retRatio && weight > effectiveWeight(ret))) {
+                ret = node;
+                retRatio = ratio;
+            }
+        }
+        return ret;
+    }
+
+    private static int load(final String node, final Map<String, Integer> planned) {
+        return NodeUtil.wsOnline.getOrDefault(node, 0) + planned.getOrDefault(node, 0);
+    }
+
+    private static List<String> candidates(final String excluded) {
+        final List<String> ret = new ArrayList<>();
+        for (final String node : NodeUtil.wsOnline.keySet()) {
+            final NodeLink link = NodeUtil.nodeLinks.get(node);
+            if (node.equals(excluded) || DRAINED.contains(node) || null == link || !link.isReady()) {
+                continue;
+            }
+            ret.add(node);
+        }
+        return ret;
+    }
+
+    private static double totalWeight(final List<String> nodes) {
+        double ret = 0;
+        for (final String node : nodes) {
+            ret += effectiveWeight(node);
+        }
+        return ret;
+    }
+
+    private static double effectiveWeight(final String node) {
+        return NodeUtil.nodeWeights.getOrDefault(node, 1) * getHealth(node);
+    }
+
+    private static void refreshHealth() {
+        final List<Double> rtts = new ArrayList<>();
+        for (final NodeLink link : NodeUtil.nodeLinks.values()) {
+            if (0 <= link.getAvgRttMillis()) {
+                rtts.add(link.getAvgRttMillis());
+            }
+        }
+        final double medianRtt = median(rtts);
+
+        for (final NodeLink link : NodeUtil.nodeLinks.values()) {
+            final String node = link.getUri();
+            final long requests = link.getRequestCount();
+            final long errors = link.getErrorCount();
+            final long[] last = LAST_COUNTERS.getOrDefault(node, new long[]{0, 0});
+            LAST_COUNTERS.put(node, new long[]{requests, errors});
+
+            final long newRequests = Math.max(1, requests - last[0]);
+            final double errorRate = Math.min(1, (double) (errors - last[1]) / newRequests);
+            double health = 1 - 0.8 * errorRate;
+            // RTT 高于中位数时按比例降权
+            if (0 < medianRtt && medianRtt < link.getAvgRttMillis()) {
+                health *= medianRtt / link.getAvgRttMillis();
+            }
+            HEALTH.put(node, Math.max(0.05, health));
+        }
+        HEALTH.keySet().retainAll(NodeUtil.nodeLinks.keySet());
+        LAST_COUNTERS.keySet().retainAll(NodeUtil.nodeLinks.keySet());
+    }
+
+    private static double median(final List<Double> values) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        final double[] sorted = values.stream().mapToDouble(Double::doubleValue).toArray();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -18,19 +18,17 @@
  */
 package org.b3log.symphony.util;
 
-import java.net.URI;
 import java.net.http.HttpClient;
-import java.net.http.WebSocket;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionStage;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -39,26 +37,26 @@ import javax.net.ssl.X509TrustManager;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.b3log.latke.Latkes;
-import org.b3log.latke.ioc.BeanManager;
-import org.b3log.latke.model.User;
-import org.b3log.symphony.model.Common;
-import org.b3log.symphony.model.UserExt;
 import org.b3log.symphony.processor.bot.ChatRoomBot;
-import org.b3log.symphony.processor.channel.ChatroomChannel;
-import org.b3log.symphony.service.AvatarQueryService;
+import org.b3log.symphony.processor.channel.ChatroomRoster;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 public class NodeUtil {
 
-    private static final ExecutorService BROADCAST_POOL = Executors.newVirtualThreadPerTaskExecutor();
+    /**
+     * 节点请求超时时间（毫秒）
+     */
+    private static final long REQUEST_TIMEOUT = 10 * 1000;
 
     public static List<String> uriNodes = new ArrayList<>();
 
-    public static List<WebSocket> wsNodes = new ArrayList<>();
+    /**
+     * 到各节点的常驻连接，&lt;节点地址, 连接&gt;
+     */
+    public static final Map<String, NodeLink> nodeLinks = new ConcurrentHashMap<>();
 
-    public static Map<String, Integer> wsOnline = new HashMap<>();
+    public static Map<String, Integer> wsOnline = new ConcurrentHashMap<>();
 
     private static final Logger LOGGER = LogManager.getLogger(NodeUtil.class);
 
@@ -70,9 +68,38 @@ public class NodeUtil {
 
     public static Map<String, Integer> nodeWeights = new HashMap<>();
 
-    public static void init() {
+    private static HttpClient httpClient;
+
+    private static boolean heartbeatStarted = false;
+
+    /**
+     * 按配置同步节点连接：已连接的节点复用连接，新增节点建立连接，移除的节点断开连接
+     */
+    public static synchronized void init() {
         LOGGER.log(Level.INFO, "Loading nodes");
-        List<WebSocket> tmp_wsNodes = new ArrayList<>();
+        if (null == httpClient) {
+            try {
+                httpClient = HttpClient.newBuilder()
+                        .sslContext(createInsecureSSLContext())
+                        .build();
+            } catch (Exception e) {
+                LOGGER.log(Level.ERROR, "Failed to create node http client", e);
+                return;
+            }
+        }
+        if (!heartbeatStarted) {
+            heartbeatStarted = true;
+            Symphonys.SCHEDULED_EXECUTOR_SERVICE.scheduleAtFixedRate(() -> {
+                for (NodeLink link : nodeLinks.values()) {
+                    try {
+                        link.heartbeat();
+                    } catch (Exception e) {
+                        LOGGER.log(Level.ERROR, "Node heartbeat failed", e);
+                    }
+                }
+            }, 15, 15, TimeUnit.SECONDS);
+        }
+
         List<String> tmp_uriNodes = new ArrayList<>();
         HashMap<String, String> tmp_nodeNickNames = new HashMap<>();
         Map<String, Integer> tmp_nodeWeights = new HashMap<>();
@@ -80,51 +107,42 @@ public class NodeUtil {
         for (String i : nodes) {
             tmp_nodeNickNames.put(i.split(",")[0], i.split(",")[1]);
             tmp_nodeWeights.put(i.split(",")[0], Integer.parseInt(i.split(",")[2]));
-            i = i.split(",")[0];
-            String serverUri = i + "?apiKey=" + Symphonys.get("chatroom.node.adminKey");
-            try {
-                SSLContext sslContext = createInsecureSSLContext();
-                HttpClient client = HttpClient.newBuilder()
-                        .sslContext(sslContext)
-                        .build();
-
-                CompletableFuture<String> future = new CompletableFuture<>();
-                WebSocket webSocket = client.newWebSocketBuilder()
-                        .buildAsync(URI.create(serverUri), new WebSocketListener(future))
-                        .join();
+            tmp_uriNodes.add(i.split(",")[0]);
+        }
 
-                webSocket.sendText(Symphonys.get("chatroom.node.adminKey") + ":::hello", true);
-                future.get(10, TimeUnit.SECONDS);
-                tmp_wsNodes.add(webSocket);
-                tmp_uriNodes.add(i);
-            } catch (Exception e) {
-                LOGGER.log(Level.ERROR, "Failed to connect to node: " + serverUri, e);
+        String adminKey = Symphonys.get("chatroom.node.adminKey");
+        List<CompletableFuture<Void>> connecting = new ArrayList<>();
+        for (String uri : tmp_uriNodes) {
+            if (!nodeLinks.containsKey(uri)) {
+                NodeLink link = new NodeLink(uri, httpClient, adminKey);
+                nodeLinks.put(uri, link);
+                connecting.add(link.connect());
             }
         }
-
-        for (WebSocket i : wsNodes) {
-            i.sendClose(1000, "Nornal Closure");
+        for (String uri : new ArrayList<>(nodeLinks.keySet())) {
+            if (!tmp_uriNodes.contains(uri)) {
+                nodeLinks.remove(uri).close();
+                wsOnline.remove(uri);
+            }
+        }
+        // 新节点并行握手，最多等待一个超时周期
+        try {
+            CompletableFuture.allOf(connecting.toArray(new CompletableFuture[0])).get(REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (Exception ignored) {
         }
-        wsNodes.clear();
+
         uriNodes.clear();
         nodeNickNames.clear();
         nodeWeights.clear();
 
-        wsNodes.addAll(tmp_wsNodes);
         uriNodes.addAll(tmp_uriNodes);
         nodeNickNames.putAll(tmp_nodeNickNames);
         nodeWeights.putAll(tmp_nodeWeights);
     }
 
     public static void notice(String text) {
-        String msg = Symphonys.get("chatroom.node.adminKey") + ":::" + text;
-        for (WebSocket ws : wsNodes) {
-            BROADCAST_POOL.submit(() -> {
-                try {
-                    ws.sendText(msg, true);
-                } catch (Exception ignore) {
-                }
-            });
+        for (NodeLink link : nodeLinks.values()) {
+            link.notice(text);
         }
     }
 
@@ -149,42 +167,29 @@ public class NodeUtil {
     }
 
     public static void sendClear() {
-        for (String i : uriNodes) {
+        Map<String, CompletableFuture<String>> responses = requestAll("clear", response -> response.trim().startsWith("{") && !NodeLink.isBroadcast(response));
+        for (Map.Entry<String, CompletableFuture<String>> entry : responses.entrySet()) {
+            String i = entry.getKey();
             try {
-                String serverUri = i + "?apiKey=" + Symphonys.get("chatroom.node.adminKey");
-                SSLContext sslContext = createInsecureSSLContext();
-                HttpClient client = HttpClient.newBuilder()
-                        .sslContext(sslContext)
-                        .build();
-                CompletableFuture<String> responseFuture = new CompletableFuture<>();
-                WebSocket webSocket = client.newWebSocketBuilder()
-                        .buildAsync(URI.create(serverUri), new WebSocketListener(responseFuture))
-                        .join();
-                webSocket.sendText(Symphonys.get("chatroom.node.adminKey") + ":::clear", true);
-                try {
-                    String response = responseFuture.get(10, TimeUnit.SECONDS);
-                    String nickName = NodeUtil.nodeNickNames.get(i);
-                    if (response.equals("{}")) {
-                        ChatRoomBot.sendBotMsg(nickName + "：报告！没有超过6小时未活跃的成员，一切都很和谐~");
-                    } else {
-                        Map<String, Object> result = new JSONObject(response).toMap();
-                        StringBuilder stringBuilder = new StringBuilder();
-                        stringBuilder.append(nickName + "：报告！成功扫描超过6小时未活跃的成员，并已将他们断开连接：<br>");
-                        stringBuilder.append("<details><summary>不活跃用户列表</summary>");
-                        for (String j : result.keySet()) {
-                            long time = Long.parseLong(result.get(j).toString());
-                            stringBuilder.append(j + " AFK " + time + "小时<br>");
-                        }
-                        stringBuilder.append("</details>");
-                        ChatRoomBot.sendBotMsg(stringBuilder.toString());
+                String response = entry.getValue().join();
+                String nickName = NodeUtil.nodeNickNames.get(i);
+                if (response.equals("{}")) {
+                    ChatRoomBot.sendBotMsg(nickName + "：报告！没有超过6小时未活跃的成员，一切都很和谐~");
+                } else {
+                    Map<String, Object> result = new JSONObject(response).toMap();
+                    StringBuilder stringBuilder = new StringBuilder();
+                    stringBuilder.append(nickName + "：报告！成功扫描超过6小时未活跃的成员，并已将他们断开连接：<br>");
+                    stringBuilder.append("<details><summary>不活跃用户列表</summary>");
+                    for (String j : result.keySet()) {
+                        long time = Long.parseLong(result.get(j).toString());
+                        stringBuilder.append(j + " AFK " + time + "小时<br>");
                     }
-                    webSocket.sendClose(1000, "Nornal Closure");
-                } catch (Exception e) {
-                    webSocket.sendClose(1000, "Nornal Closure");
-                    LOGGER.log(Level.ERROR,
-                            "Send clear command to " + serverUri + " has no response within 10 seconds. giveup.", e);
+                    stringBuilder.append("</details>");
+                    ChatRoomBot.sendBotMsg(stringBuilder.toString());
                 }
-            } catch (Exception ignored) {
+            } catch (Exception e) {
+                LOGGER.log(Level.ERROR,
+                        "Send clear command to " + i + " has no response within 10 seconds. giveup.", e);
             }
         }
     }
@@ -193,42 +198,31 @@ public class NodeUtil {
         JSONArray onlineList = new JSONArray();
         Map<String, Integer> tmp_wsOnline = new HashMap<>();
         HashMap<String, HashMap<String, Integer>> tmp_remoteUserPerNode = new HashMap<>();
-        for (String i : uriNodes) {
+        // 并行查询所有节点，耗时取决于最慢的节点
+        Map<String, CompletableFuture<String>> responses = requestAll("online", response -> response.trim().startsWith("["));
+        for (Map.Entry<String, CompletableFuture<String>> entry : responses.entrySet()) {
+            String i = entry.getKey();
             tmp_remoteUserPerNode.put(i, new HashMap<>());
             try {
-                String serverUri = i + "?apiKey=" + Symphonys.get("chatroom.node.adminKey");
-                SSLContext sslContext = createInsecureSSLContext();
-                HttpClient client = HttpClient.newBuilder()
-                        .sslContext(sslContext)
-                        .build();
-                CompletableFuture<String> responseFuture = new CompletableFuture<>();
-                WebSocket webSocket = client.newWebSocketBuilder()
-                        .buildAsync(URI.create(serverUri), new WebSocketListener(responseFuture))
-                        .join();
-                webSocket.sendText(Symphonys.get("chatroom.node.adminKey") + ":::online", true);
-                try {
-                    String response = responseFuture.get(10, TimeUnit.SECONDS);
-                    JSONArray jsonArray = new JSONArray(response);
-                    for (int j = 0; j < jsonArray.length(); j++) {
-                        onlineList.put(jsonArray.get(j));
-                        JSONObject jsonObject = jsonArray.getJSONObject(j);
-                        String userName = jsonObject.optString("userName");
-                        if (tmp_remoteUserPerNode.get(i).containsKey(userName)) {
-                            tmp_remoteUserPerNode.get(i).put(userName, tmp_remoteUserPerNode.get(i).get(userName) + 1);
-                        } else {
-                            tmp_remoteUserPerNode.get(i).put(userName, 1);
-                        }
+                String response = entry.getValue().join();
+                JSONArray jsonArray = new JSONArray(response);
+                for (int j = 0; j < jsonArray.length(); j++) {
+                    onlineList.put(jsonArray.get(j));
+                    JSONObject jsonObject = jsonArray.getJSONObject(j);
+                    String userName = jsonObject.optString("userName");
+                    if (tmp_remoteUserPerNode.get(i).containsKey(userName)) {
+                        tmp_remoteUserPerNode.get(i).put(userName, tmp_remoteUserPerNode.get(i).get(userName) + 1);
+                    } else {
+                        tmp_remoteUserPerNode.get(i).put(userName, 1);
                     }
-                    tmp_wsOnline.put(i, jsonArray.length());
-                    webSocket.sendClose(1000, "Nornal Closure");
-                } catch (Exception e) {
-                    webSocket.sendClose(1000, "Nornal Closure");
-                    LOGGER.log(Level.ERROR, serverUri + " No response within 10 seconds. giveup.", e);
                 }
-            } catch (Exception ignored) {
+                tmp_wsOnline.put(i, jsonArray.length());
+            } catch (Exception e) {
+                LOGGER.log(Level.ERROR, i + " No response within 10 seconds. giveup.", e);
             }
         }
         remoteUsers = onlineList;
+        ChatroomRoster.setRemoteUsers(onlineList);
 
         wsOnline.clear();
         remoteUserPerNode.clear();
@@ -237,70 +231,49 @@ public class NodeUtil {
         remoteUserPerNode.putAll(tmp_remoteUserPerNode);
 
         // 推送在线信息给子节点
-        final BeanManager beanManager = BeanManager.getInstance();
-        final AvatarQueryService avatarQueryService = beanManager.getReference(AvatarQueryService.class);
-
-        Map<String, JSONObject> filteredOnlineUsers = new HashMap<>();
-        for (JSONObject object : ChatroomChannel.onlineUsers.values()) {
-            String name = object.optString(User.USER_NAME);
-            filteredOnlineUsers.put(name, object);
-        }
-
-        for (int i = 0; i < NodeUtil.remoteUsers.length(); i++) {
+        String result = ChatroomRoster.getOnlineJSON();
+        for (Map.Entry<String, CompletableFuture<String>> entry : requestAll("push " + result, NodeLink.ACK).entrySet()) {
             try {
-                JSONObject temp = NodeUtil.remoteUsers.getJSONObject(i);
-                filteredOnlineUsers.put(temp.optString(User.USER_NAME), temp);
-            } catch (Exception ignored) {
+                entry.getValue().join();
+            } catch (Exception e) {
+                LOGGER.log(Level.ERROR,
+                        "Push online list to " + entry.getKey() + " has no response within 10 seconds. giveup.", e);
             }
         }
 
-        JSONArray onlineArray = new JSONArray();
-        for (String user : filteredOnlineUsers.keySet()) {
-            JSONObject object = filteredOnlineUsers.get(user);
-
-            String avatar = object.optString(UserExt.USER_AVATAR_URL);
-            String homePage = Latkes.getStaticServePath() + "/member/" + user;
+        // 根据最新的在线分布迁移排空或过载节点上的用户
+        NodeScheduler.rebalance();
+    }
 
-            JSONObject generated = new JSONObject();
-            generated.put(User.USER_NAME, user);
-            generated.put(UserExt.USER_AVATAR_URL, avatar);
-            avatarQueryService.fillUserAvatarURL(generated);
-            generated.put("homePage", homePage);
-            onlineArray.put(generated);
+    /**
+     * 获取各节点连接的指标
+     *
+     * @return 指标列表
+     */
+    public static JSONArray getNodeStats() {
+        JSONArray ret = new JSONArray();
+        for (NodeLink link : nodeLinks.values()) {
+            ret.put(link.getStats().put("name", nodeNickNames.get(link.getUri())));
         }
+        return ret;
+    }
 
-        JSONObject result = new JSONObject();
-        result.put(Common.ONLINE_CHAT_CNT, filteredOnlineUsers.size());
-        result.put(Common.TYPE, "online");
-        result.put("users", onlineArray);
-        result.put("discussing", ChatroomChannel.discussing);
-
+    /**
+     * 向所有已就绪节点并行发送请求
+     *
+     * @param command 命令
+     * @param accepts 响应校验
+     * @return &lt;节点地址, 响应&gt;
+     */
+    private static Map<String, CompletableFuture<String>> requestAll(String command, Predicate<String> accepts) {
+        Map<String, CompletableFuture<String>> ret = new LinkedHashMap<>();
         for (String i : uriNodes) {
-            try {
-                String serverUri = i + "?apiKey=" + Symphonys.get("chatroom.node.adminKey");
-                SSLContext sslContext = createInsecureSSLContext();
-                HttpClient client = HttpClient.newBuilder()
-                        .sslContext(sslContext)
-                        .build();
-                CompletableFuture<String> responseFuture = new CompletableFuture<>();
-                WebSocket webSocket = client.newWebSocketBuilder()
-                        .buildAsync(URI.create(serverUri), new WebSocketListener(responseFuture))
-                        .join();
-
-                String message = Symphonys.get("chatroom.node.adminKey") + ":::push " + result;
-                webSocket.sendText(message, true);
-
-                try {
-                    String response = responseFuture.get(10, TimeUnit.SECONDS);
-                    webSocket.sendClose(1000, "Nornal Closure");
-                } catch (Exception e) {
-                    webSocket.sendClose(1000, "Nornal Closure");
-                    LOGGER.log(Level.ERROR,
-                            "Push online list to " + serverUri + " has no response within 10 seconds. giveup.", e);
-                }
-            } catch (Exception ignored) {
+            NodeLink link = nodeLinks.get(i);
+            if (null != link && link.isReady()) {
+                ret.put(i, link.request(command, accepts, REQUEST_TIMEOUT));
             }
         }
+        return ret;
     }
 
     // 创建忽略 SSL 证书的 SSLContext
@@ -326,68 +299,4 @@ public class NodeUtil {
         sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
         return sslContext;
     }
-
-    private static class WebSocketListener implements WebSocket.Listener {
-        private final CompletableFuture<String> responseFuture;
-
-        public WebSocketListener(CompletableFuture<String> responseFuture) {
-            this.responseFuture = responseFuture;
-        }
-
-        @Override
-        public void onOpen(WebSocket webSocket) {
-            webSocket.request(1); // 请求接收一条消息
-        }
-
-        private final StringBuilder messageBuffer = new StringBuilder();
-
-        @Override
-        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
-            messageBuffer.append(data);
-
-            if (last) {
-                String completeMessage = messageBuffer.toString();
-                messageBuffer.setLength(0);
-
-                if (!responseFuture.isDone()) {
-                    responseFuture.complete(completeMessage);
-                }
-            }
-
-            webSocket.request(1);
-            return CompletableFuture.completedFuture(null);
-        }
-
-        @Override
-        public void onError(WebSocket webSocket, Throwable error) {
-            responseFuture.completeExceptionally(error); // 异常时完成 Future
-        }
-
-        @Override
-        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
-            return CompletableFuture.completedFuture(null);
-        }
-    }
-
-    private static class WebSocketListenerNoFuture implements WebSocket.Listener {
-        @Override
-        public void onOpen(WebSocket webSocket) {
-            webSocket.request(1); // 请求接收一条消息
-        }
-
-        @Override
-        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
-            webSocket.request(1); // 请求接收下一条消息
-            return CompletableFuture.completedFuture(null);
-        }
-
-        @Override
-        public void onError(WebSocket webSocket, Throwable error) {
-        }
-
-        @Override
-        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
-            return CompletableFuture.completedFuture(null);
-        }
-    }
 }
@@ -0,0 +1,674 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.util;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.b3log.latke.repository.jdbc.JdbcRepository;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Chatroom red packet claim engine.
+ * <p>
+ * Every open packet lives in memory keyed by its message oId. Its amounts are split in advance into a lock-free queue
+ * and the users who have claimed it are kept in a concurrent set, so a claim is one set insertion plus one queue poll
+ * and claims on different packets never touch shared state. Claims are handed to a persistence sink in batches by a
+ * single background flusher, which writes the packet state and the point transfers outside the request path. Claims
+ * the sink fails to persist are retried with exponential backoff and parked with an error log after
+ * {@link #MAX_ATTEMPTS} attempts, a parked claim counts as persisted so that its packet can be reloaded. A packet is dropped from memory once it is
+ * fully claimed and all of its claims have been persisted, or once it has been idle for {@link #PACKET_IDLE_MILLIS}
+ * with all of its claims persisted, after that the database is the source of truth again.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.1.2.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public final class RedPacketEngine {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LogManager.getLogger(RedPacketEngine.class);
+
+    /**
+     * 攒批等待时间（毫秒）.
+     */
+    private static final long FLUSH_DELAY = 50;
+
+    /**
+     * 每批最多持久化的领取记录数.
+     */
+    private static final int MAX_BATCH = 256;
+
+    /**
+     * 首次重试退避（毫秒）.
+     */
+    private static final long BASE_RETRY_DELAY = 1000;
+
+    /**
+     * 最大重试退避（毫秒）.
+     */
+    private static final long MAX_RETRY_DELAY = 60 * 1000;
+
+    /**
+     * 单条领取记录最多尝试落库次数，超过后搁置.
+     */
+    private static final int MAX_ATTEMPTS = 8;
+
+    /**
+     * 红包闲置超过该时间（毫秒）且领取记录都已落库时移出内存.
+     */
+    private static final long PACKET_IDLE_MILLIS = 30 * 60 * 1000;
+
+    /**
+     * 清理闲置红包的间隔（毫秒）.
+     */
+    private static final long SWEEP_INTERVAL = 60 * 1000;
+
+    /**
+     * Open packets, &lt;oId, packet&gt;.
+     */
+    private static final Map<String, Packet> PACKETS = new ConcurrentHashMap<>();
+
+    /**
+     * Claims waiting to be persisted.
+     */
+    private static final BlockingQueue<Claim> PENDING = new LinkedBlockingQueue<>();
+
+    /**
+     * Claim counter.
+     */
+    private static final LongAdder CLAIMS = new LongAdder();
+
+    /**
+     * Persisted batch counter.
+     */
+    private static final LongAdder BATCHES = new LongAdder();
+
+    /**
+     * Persistence failure counter.
+     */
+    private static final LongAdder FAILURES = new LongAdder();
+
+    /**
+     * Parked claim counter.
+     */
+    private static final LongAdder PARKED = new LongAdder();
+
+    /**
+     * Guards {@link #flush()} so that batches are persisted in claim order.
+     */
+    private static final Object FLUSH_LOCK = new Object();
+
+    /**
+     * Persistence sink.
+     */
+    private static volatile Function<List<Claim>, List<Claim>> sink;
+
+    static {
+        Thread.ofVirtual().name("RedPacketFlusher").start(() -> {
+            long lastSweep = System.currentTimeMillis();
+            while (true) {
+                try {
+                    Thread.sleep(FLUSH_DELAY);
+                    if (!PENDING.isEmpty()) {
+                        flush(false);
+                    }
+                    final long now = System.currentTimeMillis();
+                    if (now - lastSweep >= SWEEP_INTERVAL) {
+                        lastSweep = now;
+                        sweep(now - PACKET_IDLE_MILLIS);
+                    }
+                } catch (final InterruptedException e) {
+                    return;
+                } catch (final Exception e) {
+                    LOGGER.log(Level.ERROR, "Red packet flusher failed", e);
+                } finally {
+                    JdbcRepository.dispose();
+                }
+            }
+        });
+    }
+
+    /**
+     * Private constructor.
+     */
+    private RedPacketEngine() {
+    }
+
+    /**
+     * Sets the persistence sink, it receives claims in claim order and is never called concurrently. The sink returns
+     * the claims it failed to persist, which are retried with backoff.
+     *
+     * @param persistenceSink the specified sink
+     */
+    public static void setSink(final Function<List<Claim>, List<Claim>> persistenceSink) {
+        sink = persistenceSink;
+    }
+
+    /**
+     * Registers a newly sent packet.
+     *
+     * @param packet the specified packet
+     */
+    public static void register(final Packet packet) {
+        packet.accessedAt = System.currentTimeMillis();
+        PACKETS.put(packet.oId, packet);
+    }
+
+    /**
+     * Gets the packet of the specified oId, loading it with the specified loader if it is not in memory. The loader
+     * runs at most once per packet while other packets are unaffected.
+     *
+     * @param oId    the specified oId
+     * @param loader the specified loader, returns {@code null} if the packet can not be handled by this engine
+     * @return packet, returns {@code null} if not found
+     */
+    public static Packet get(final String oId, final Function<String, Packet> loader) {
+        Packet ret = PACKETS.get(oId);
+        if (null == ret) {
+            ret = PACKETS.computeIfAbsent(oId, loader);
+        }
+        if (null != ret) {
+            ret.accessedAt = System.currentTimeMillis();
+            if (ret.isSettled()) {
+                // 已领完且已落库的红包不再常驻内存
+                PACKETS.remove(oId, ret);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Drops packets not accessed since the specified time whose claims have all been persisted, a partially claimed
+     * packet is loaded again from the database on next access.
+     *
+     * @param idleSince the specified time
+     * @return number of dropped packets
+     */
+    static int sweep(final long idleSince) {
+        int ret = 0;
+        for (final Packet packet : PACKETS.values()) {
+            if (packet.accessedAt < idleSince && packet.isPersisted() && PACKETS.remove(packet.oId, packet)) {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Claims a share of the specified packet for the specified user.
+     *
+     * @param packet   the specified packet
+     * @param userId   the specified user id
+     * @param userName the specified user name
+     * @param avatar   the specified avatar URL
+     * @return claim
+     */
+    public static Claim claim(final Packet packet, final String userId, final String userName, final String avatar) {
+        if (null != packet.recivers && !packet.recivers.contains(userName)) {
+            return new Claim(packet, Outcome.NOT_RECIVER, userId, 0, packet.got.get());
+        }
+        if (!packet.claimed.add(userId)) {
+            return new Claim(packet, Outcome.ALREADY, userId, 0, packet.got.get());
+        }
+        packet.inFlight.incrementAndGet();
+        try {
+            final Integer share = packet.shares.poll();
+            if (null == share) {
+                packet.claimed.remove(userId);
+                return new Claim(packet, Outcome.EMPTY, userId, 0, packet.got.get());
+            }
+
+            final int got = packet.got.incrementAndGet();
+            packet.who.add(new JSONObject()
+                    .put("userMoney", share)
+                    .put("userId", userId)
+                    .put("userName", userName)
+                    .put("time", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(System.currentTimeMillis()))
+                    .put("avatar", avatar));
+            final Claim ret = new Claim(packet, Outcome.CLAIMED, userId, share, got);
+            CLAIMS.increment();
+            PENDING.offer(ret);
+            return ret;
+        } finally {
+            packet.inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Persists all pending claims now, including those waiting for a retry.
+     */
+    public static void flush() {
+        flush(true);
+    }
+
+    /**
+     * Persists pending claims.
+     *
+     * @param force whether to retry failed claims before their backoff ends
+     */
+    private static void flush(final boolean force) {
+        synchronized (FLUSH_LOCK) {
+            final long now = System.currentTimeMillis();
+            final List<Claim> drained = new ArrayList<>();
+            final List<Claim> batch = new ArrayList<>();
+            final List<Claim> deferred = new ArrayList<>();
+            while (0 < PENDING.drainTo(drained, MAX_BATCH)) {
+                for (final Claim claim : drained) {
+                    if (!force && claim.retryAt > now) {
+                        deferred.add(claim);
+                    } else {
+                        batch.add(claim);
+                    }
+                }
+                drained.clear();
+                if (batch.isEmpty()) {
+                    continue;
+                }
+
+                for (final Claim claim : persist(batch)) {
+                    if (++claim.attempts >= MAX_ATTEMPTS) {
+                        park(claim);
+                        continue;
+                    }
+                    claim.retryAt = now + Math.min(MAX_RETRY_DELAY, BASE_RETRY_DELAY << (claim.attempts - 1));
+                    deferred.add(claim);
+                }
+                batch.clear();
+            }
+            // 失败的领取记录退避后重试，避免持久层故障时在此空转
+            PENDING.addAll(deferred);
+        }
+    }
+
+    /**
+     * Gives up persisting the specified claim.
+     *
+     * @param claim the specified claim
+     */
+    private static void park(final Claim claim) {
+        PARKED.increment();
+        LOGGER.log(Level.ERROR, "Red packet claim is parked after [" + claim.attempts + "] attempts, needs manual compensation [packet="
+                + claim.packet.oId + ", user=" + claim.userId + ", amount=" + claim.amount + "]");
+        // 搁置的领取记录不再重试，红包随后可以从库中重新加载
+        final Packet packet = claim.packet;
+        packet.persisted.incrementAndGet();
+        if (packet.isSettled()) {
+            PACKETS.remove(packet.oId, packet);
+        }
+    }
+
+    /**
+     * Gets statistics.
+     *
+     * @return statistics, for example,
+     * <pre>
+     * {
+     *     "packets": 3,
+     *     "pending": 0,
+     *     "claims": 120,
+     *     "batches": 17,
+     *     "failures": 0,
+     *     "parked": 0
+     * }
+     * </pre>
+     */
+    public static JSONObject getStats() {
+        return new JSONObject()
+                .put("packets", PACKETS.size())
+                .put("pending", PENDING.size())
+                .put("claims", CLAIMS.sum())
+                .put("batches", BATCHES.sum())
+                .put("failures", FAILURES.sum())
+                .put("parked", PARKED.sum());
+    }
+
+    /**
+     * Persists the specified batch.
+     *
+     * @param batch the specified batch
+     * @return claims failed to persist
+     */
+    private static List<Claim> persist(final List<Claim> batch) {
+        final Function<List<Claim>, List<Claim>> persistenceSink = sink;
+        if (null == persistenceSink) {
+            LOGGER.log(Level.ERROR, "Red packet persistence sink is not set, [" + batch.size() + "] claims are kept pending");
+            FAILURES.increment();
+            return new ArrayList<>(batch);
+        }
+
+        List<Claim> failed;
+        try {
+            failed = persistenceSink.apply(batch);
+            BATCHES.increment();
+        } catch (final Exception e) {
+            LOGGER.log(Level.ERROR, "Persists red packet claims failed", e);
+            failed = batch;
+        }
+
+        final Set<Claim> failedClaims = Collections.newSetFromMap(new IdentityHashMap<>());
+        failedClaims.addAll(failed);
+        final List<Claim> ret = new ArrayList<>();
+        for (final Claim claim : batch) {
+            if (failedClaims.contains(claim)) {
+                ret.add(claim);
+                continue;
+            }
+            final Packet packet = claim.packet;
+            packet.persisted.incrementAndGet();
+            if (packet.isSettled()) {
+                PACKETS.remove(packet.oId, packet);
+            }
+        }
+
+        if (!ret.isEmpty()) {
+            FAILURES.increment();
+            final StringBuilder claims = new StringBuilder();
+            for (final Claim claim : ret) {
+                claims.append(claim.packet.oId).append(':').append(claim.userId).append('=').append(claim.amount).append(' ');
+            }
+            // 落库失败的红包保留在内存中，以内存状态为准，避免重新加载后重复领取
+            LOGGER.log(Level.WARN, "Red packet claims failed to persist [" + claims + "]");
+        }
+        return ret;
+    }
+
+    /**
+     * Claim outcome.
+     */
+    public enum Outcome {
+
+        /**
+         * Got a share.
+         */
+        CLAIMED,
+
+        /**
+         * Has claimed before.
+         */
+        ALREADY,
+
+        /**
+         * No share left.
+         */
+        EMPTY,
+
+        /**
+         * Not a receiver of a specified packet.
+         */
+        NOT_RECIVER
+    }
+
+    /**
+     * Result of one claim.
+     */
+    public static final class Claim {
+
+        /**
+         * Packet.
+         */
+        public final Packet packet;
+
+        /**
+         * Outcome.
+         */
+        public final Outcome outcome;
+
+        /**
+         * Claimer id.
+         */
+        public final String userId;
+
+        /**
+         * Claimed amount, may be negative for a heartbeat packet.
+         */
+        public final int amount;
+
+        /**
+         * Claimed count of the packet including this claim.
+         */
+        public final int got;
+
+        /**
+         * Failed persistence attempts, accessed under {@link #FLUSH_LOCK}.
+         */
+        private int attempts;
+
+        /**
+         * Not retried before this time, accessed under {@link #FLUSH_LOCK}.
+         */
+        private long retryAt;
+
+        private Claim(final Packet packet, final Outcome outcome, final String userId, final int amount, final int got) {
+            this.packet = packet;
+            this.outcome = outcome;
+            this.userId = userId;
+            this.amount = amount;
+            this.got = got;
+        }
+    }
+
+    /**
+     * In-memory state of one packet.
+     */
+    public static final class Packet {
+
+        /**
+         * Message oId.
+         */
+        public final String oId;
+
+        /**
+         * Packet type.
+         */
+        public final String type;
+
+        /**
+         * Total count.
+         */
+        public final int count;
+
+        /**
+         * Amount, the total of a random or heartbeat packet or each share of an average or specified packet.
+         */
+        public final int money;
+
+        /**
+         * Sender id.
+         */
+        public final String senderId;
+
+        /**
+         * Sender name.
+         */
+        public final String senderName;
+
+        /**
+         * Display info of the sender and the message, shared and must not be modified.
+         */
+        private final JSONObject info;
+
+        /**
+         * Receiver names of a specified packet, {@code null} if anyone can claim.
+         */
+        private final List<String> recivers;
+
+        /**
+         * Remaining shares.
+         */
+        private final ConcurrentLinkedQueue<Integer> shares;
+
+        /**
+         * Claimer ids.
+         */
+        private final Set<String> claimed = ConcurrentHashMap.newKeySet();
+
+        /**
+         * Claim records in claim order.
+         */
+        private final ConcurrentLinkedQueue<JSONObject> who = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Claimed count.
+         */
+        private final AtomicInteger got;
+
+        /**
+         * Persisted claim count.
+         */
+        private final AtomicInteger persisted;
+
+        /**
+         * Claims between taking a share and queueing it for persistence.
+         */
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        /**
+         * Last access time.
+         */
+        private volatile long accessedAt = System.currentTimeMillis();
+
+        /**
+         * Constructs a packet.
+         *
+         * @param oId        the specified message oId
+         * @param type       the specified type
+         * @param count      the specified total count
+         * @param money      the specified amount
+         * @param senderId   the specified sender id
+         * @param senderName the specified sender name
+         * @param info       the specified display info, for example,
+         *                   {"userName": "", "userAvatarURL": "", "count": 10, "msg": ""}
+         * @param recivers   the specified receiver names, {@code null} if anyone can claim
+         * @param shares     the specified remaining shares
+         * @param who        the specified claim records so far, each has a {@code userId}
+         */
+        public Packet(final String oId, final String type, final int count, final int money, final String senderId, final String senderName,
+                      final JSONObject info, final Collection<String> recivers, final Collection<Integer> shares, final JSONArray who) {
+            this.oId = oId;
+            this.type = type;
+            this.count = count;
+            this.money = money;
+            this.senderId = senderId;
+            this.senderName = senderName;
+            this.info = info;
+            this.recivers = null == recivers ? null : List.copyOf(recivers);
+            this.shares = new ConcurrentLinkedQueue<>(shares);
+            for (int i = 0; i < who.length(); i++) {
+                final JSONObject record = who.optJSONObject(i);
+                this.who.add(record);
+                claimed.add(record.optString("userId"));
+            }
+            got = new AtomicInteger(this.who.size());
+            persisted = new AtomicInteger(this.who.size());
+        }
+
+        /**
+         * Checks whether the specified user has claimed this packet.
+         *
+         * @param userId the specified user id
+         * @return {@code true} if claimed
+         */
+        public boolean hasClaimed(final String userId) {
+            return claimed.contains(userId);
+        }
+
+        /**
+         * Gets the claimed count.
+         *
+         * @return claimed count
+         */
+        public int getGot() {
+            return got.get();
+        }
+
+        /**
+         * Gets the display info with the current claimed count.
+         *
+         * @return display info
+         */
+        public JSONObject getInfo() {
+            final JSONObject ret = JSONs.clone(info);
+            ret.put("got", got.get());
+            return ret;
+        }
+
+        /**
+         * Gets the receiver names.
+         *
+         * @return receiver names, empty if anyone can claim
+         */
+        public JSONArray getRecivers() {
+            return null == recivers ? new JSONArray() : new JSONArray(recivers);
+        }
+
+        /**
+         * Checks whether all shares have been claimed and persisted.
+         *
+         * @return {@code true} if settled
+         */
+        public boolean isSettled() {
+            // 先看份额再看进行中的领取，拿到最后一份的领取一定已计入 inFlight
+            return shares.isEmpty() && isPersisted();
+        }
+
+        /**
+         * Checks whether all claims so far have been persisted.
+         *
+         * @return {@code true} if persisted
+         */
+        private boolean isPersisted() {
+            return 0 == inFlight.get() && persisted.get() >= got.get();
+        }
+
+        /**
+         * Gets a snapshot of the claim records.
+         *
+         * @return claim records in claim order
+         */
+        public JSONArray getWho() {
+            final JSONArray ret = new JSONArray();
+            for (final JSONObject record : who) {
+                ret.put(record);
+            }
+            return ret;
+        }
+    }
+}
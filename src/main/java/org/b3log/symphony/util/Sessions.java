@@ -18,6 +18,7 @@
  */
 package org.b3log.symphony.util;
 
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.Level;
@@ -32,6 +33,7 @@ import org.b3log.latke.ioc.BeanManager;
 import org.b3log.latke.model.User;
 import org.b3log.latke.util.Crypts;
 import org.b3log.latke.util.Requests;
+import org.b3log.symphony.cache.UserCache;
 import org.b3log.symphony.model.Common;
 import org.b3log.symphony.model.UserExt;
 import org.b3log.symphony.processor.ApiProcessor;
@@ -42,12 +44,13 @@ import org.json.JSONObject;
 
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Session utilities.
  *
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
- * @version 2.1.2.0, May 31, 2020
+ * @version 2.2.0.1, Oct 18, 2026
  */
 public final class Sessions {
 
@@ -61,6 +64,22 @@ public final class Sessions {
      */
     private static final Cache SESSION_CACHE = CacheFactory.getCache("sessions");
 
+    /**
+     * Decrypted login cookies, &lt;cookieValue, identity&gt;.
+     */
+    private static final com.github.benmanes.caffeine.cache.Cache<String, CookieIdentity> COOKIE_CACHE = Caffeine.newBuilder()
+            .maximumSize(50000)
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * Serialized session users, &lt;userId, userJSON&gt;.
+     */
+    private static final com.github.benmanes.caffeine.cache.Cache<String, String> USER_JSON_CACHE = Caffeine.newBuilder()
+            .maximumSize(20000)
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .build();
+
     /**
      * Cookie name.
      */
@@ -316,6 +335,7 @@ public final class Sessions {
             }
 
             SESSION_CACHE.put(userId, user);
+            USER_JSON_CACHE.invalidate(userId);
 
             final JSONObject csrfToken = new JSONObject();
             csrfToken.put(Common.DATA, RandomStringUtils.randomAlphanumeric(12));
@@ -362,6 +382,13 @@ public final class Sessions {
         }
 
         SESSION_CACHE.remove(userId);
+        USER_JSON_CACHE.invalidate(userId);
+        UserCache.removeApiKeys(userId);
+        for (final Cookie cookie : request.getCookies()) {
+            if (COOKIE_NAME.equals(cookie.getName())) {
+                COOKIE_CACHE.invalidate(cookie.getValue());
+            }
+        }
 
         final Session httpSession = request.getSession();
         httpSession.setAttribute(User.USER, null);
@@ -410,24 +437,21 @@ public final class Sessions {
                     return null;
                 }
 
-                final String value = Crypts.decryptByAES(cookie.getValue(), Symphonys.COOKIE_SECRET);
-                final JSONObject cookieJSONObject = new JSONObject(value);
-
-                final String userId = cookieJSONObject.optString(Keys.OBJECT_ID);
-                if (StringUtils.isBlank(userId)) {
+                final CookieIdentity identity = COOKIE_CACHE.get(cookie.getValue(), Sessions::decryptCookie);
+                if (null == identity) {
                     return null;
                 }
 
+                final String userId = identity.userId;
                 JSONObject ret = SESSION_CACHE.get(userId);
                 if (null == ret) {
-                    ret = tryLogInWithCookie(cookieJSONObject, request);
+                    ret = tryLogInWithCookie(userId, identity.password, request);
                 }
                 if (null == ret) {
                     return null;
                 }
 
-                final String token = cookieJSONObject.optString(Keys.TOKEN);
-                final String password = StringUtils.substringBeforeLast(token, COOKIE_ITEM_SEPARATOR);
+                final String password = identity.password;
                 final String userPassword = ret.optString(User.USER_PASSWORD);
                 if (!userPassword.equals(password)) {
                     return null;
@@ -437,14 +461,17 @@ public final class Sessions {
                         || UserExt.USER_STATUS_C_INVALID_LOGIN == ret.optInt(UserExt.USER_STATUS)
                         || UserExt.USER_STATUS_C_DEACTIVATED == ret.optInt(UserExt.USER_STATUS)) {
                     SESSION_CACHE.remove(userId);
+                    USER_JSON_CACHE.invalidate(userId);
 
                     return null;
                 }
 
                 final String ip = Requests.getRemoteAddr(request);
-                if (StringUtils.isNotBlank(ip)) {
+                if (StringUtils.isNotBlank(ip) && !ip.equals(ret.optString(UserExt.USER_LATEST_LOGIN_IP))) {
                     ret.put(UserExt.USER_LATEST_LOGIN_IP, ip);
                     SESSION_CACHE.put(userId, ret);
+                    // 会话用户已变更，序列化缓存同步失效
+                    USER_JSON_CACHE.invalidate(userId);
                 }
 
                 return JSONs.clone(ret);
@@ -455,25 +482,43 @@ public final class Sessions {
         return null;
     }
 
+    /**
+     * Decrypts the specified login cookie value.
+     *
+     * @param cookieValue the specified cookie value
+     * @return identity, returns {@code null} if the cookie is malformed
+     */
+    private static CookieIdentity decryptCookie(final String cookieValue) {
+        try {
+            final String value = Crypts.decryptByAES(cookieValue, Symphonys.COOKIE_SECRET);
+            final JSONObject cookieJSONObject = new JSONObject(value);
+            final String userId = cookieJSONObject.optString(Keys.OBJECT_ID);
+            if (StringUtils.isBlank(userId)) {
+                return null;
+            }
+
+            final String token = cookieJSONObject.optString(Keys.TOKEN);
+            return new CookieIdentity(userId, StringUtils.substringBeforeLast(token, COOKIE_ITEM_SEPARATOR));
+        } catch (final Exception e) {
+            return null;
+        }
+    }
+
     /**
      * Tries to login with cookie.
      *
-     * @param cookieJSONObject the specified cookie json object
-     * @param request          the specified request
+     * @param userId   the specified user id decrypted from cookie
+     * @param password the specified password decrypted from cookie
+     * @param request  the specified request
      * @return returns user if logged in, returns {@code null} otherwise
      */
-    private static JSONObject tryLogInWithCookie(final JSONObject cookieJSONObject,
+    private static JSONObject tryLogInWithCookie(final String userId, final String password,
                                                  final Request request) {
         final BeanManager beanManager = BeanManager.getInstance();
         final UserRepository userRepository = beanManager.getReference(UserRepository.class);
         final UserMgmtService userMgmtService = beanManager.getReference(UserMgmtService.class);
 
         try {
-            final String userId = cookieJSONObject.optString(Keys.OBJECT_ID);
-            if (StringUtils.isBlank(userId)) {
-                return null;
-            }
-
             final JSONObject ret = userRepository.get(userId);
             if (null == ret) {
                 return null;
@@ -485,12 +530,11 @@ public final class Sessions {
             }
 
             final String userPassword = ret.optString(User.USER_PASSWORD);
-            final String token = cookieJSONObject.optString(Keys.TOKEN);
-            final String password = StringUtils.substringBeforeLast(token, COOKIE_ITEM_SEPARATOR);
             if (userPassword.equals(password)) {
                 //userMgmtService.updateOnlineStatus(userId, ip, true, true);
 
                 SESSION_CACHE.put(userId, ret);
+                USER_JSON_CACHE.invalidate(userId);
 
                 return ret;
             }
@@ -523,6 +567,17 @@ public final class Sessions {
      */
     public static void put(final String key, final JSONObject value) {
         SESSION_CACHE.put(key, value);
+        USER_JSON_CACHE.invalidate(key);
+    }
+
+    /**
+     * Gets the serialized form of the specified session user, serialized at most once until the user changes.
+     *
+     * @param user the specified session user
+     * @return user JSON string
+     */
+    public static String toUserJSON(final JSONObject user) {
+        return USER_JSON_CACHE.get(user.optString(Keys.OBJECT_ID), id -> user.toString());
     }
 
     /**
@@ -530,4 +585,19 @@ public final class Sessions {
      */
     private Sessions() {
     }
+
+    /**
+     * User identity decrypted from a login cookie.
+     */
+    private static final class CookieIdentity {
+
+        private final String userId;
+
+        private final String password;
+
+        private CookieIdentity(final String userId, final String password) {
+            this.userId = userId;
+            this.password = password;
+        }
+    }
 }
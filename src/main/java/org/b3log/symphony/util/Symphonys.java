@@ -45,6 +45,7 @@ import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
 import java.util.*;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.SynchronousQueue;
@@ -54,7 +55,7 @@ import java.util.concurrent.TimeUnit;
  * Symphony utilities.
  *
  * @author <a href="http://88250.b3log.org">Liang Ding</a>
- * @version 1.9.0.6, May 9, 2019
+ * @version 1.12.0.0, Oct 18, 2026
  * @since 0.1.0
  */
 public final class Symphonys {
@@ -110,6 +111,11 @@ public final class Symphonys {
      */
     public static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
 
+    /**
+     * Article and comment organizer pool, shared by all requests instead of a pool per list.
+     */
+    public static final ForkJoinPool ORGANIZER_POOL = new ForkJoinPool(PROCESSORS);
+
     static {
         try {
             InputStream resourceAsStream;
@@ -764,6 +770,21 @@ public final class Symphonys {
      */
     public static final String ES_SERVER = get("es.server");
 
+    /**
+     * Elasticsearch 批量索引队列日志目录，未发送的索引操作保存在这里，重启后继续发送.
+     */
+    public static final String ES_QUEUE_DIR = StringUtils.replace(get("es.queue.dir"), "~", System.getProperty("user.home"));
+
+    /**
+     * 是否启用内嵌的本地搜索，适用于未部署 Elasticsearch 的小型站点.
+     */
+    public static final boolean LOCAL_SEARCH_ENABLED = getBoolean("search.local.enabled");
+
+    /**
+     * 本地搜索索引目录.
+     */
+    public static final String LOCAL_SEARCH_DIR = StringUtils.replace(get("search.local.dir"), "~", System.getProperty("user.home"));
+
     /**
      * 是否启用 <a href="https://www.algolia.com" target="_blank">Algolia</a>搜索.
      */
@@ -876,6 +897,26 @@ public final class Symphonys {
      */
     public static final int MARKDOWN_TIMEOUT = getInt("markdown.timeout");
 
+    /**
+     * Markdown 同时渲染的最大数量，超出的渲染排队等待.
+     */
+    public static final int MARKDOWN_CONCURRENCY = getInt("markdown.concurrency");
+
+    /**
+     * Markdown 渲染最大排队数，超出后新的渲染直接失败.
+     */
+    public static final int MARKDOWN_QUEUE = getInt("markdown.queue");
+
+    /**
+     * Markdown 渲染的最大字符数，超出后不再渲染，按纯文本展示.
+     */
+    public static final int MARKDOWN_MAX_LENGTH = getInt("markdown.maxLength");
+
+    /**
+     * 不超过该字符数的 Markdown 在调用线程上直接渲染，不经过渲染线程池.
+     */
+    public static final int MARKDOWN_INLINE_LENGTH = getInt("markdown.inlineLength");
+
     /**
      * URL 权限规则.
      * <p>
@@ -0,0 +1,214 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hierarchical timer wheel.
+ * <p>
+ * Level {@code n} has {@link #SLOTS} slots of {@code SLOTS^n} ticks each, so four levels of one-second ticks cover
+ * about 194 days and later deadlines wait in an overflow set. A key sits in the slot of the lowest level whose range
+ * covers its deadline and is moved one level down whenever the wheel below it completes a revolution, so advancing
+ * one tick only touches one slot plus, once every {@link #SLOTS} ticks, the cascading slots. Scheduling a key again
+ * replaces its previous deadline. The wheel is driven by its owner through {@link #advance(long)}.
+ * </p>
+ *
+ * @param <K> the type of keys
+ * @author rhythm
+ * @version 1.0.0.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public final class TimerWheel<K> {
+
+    /**
+     * Slots per level.
+     */
+    private static final int SLOTS = 64;
+
+    /**
+     * Bits of slot index.
+     */
+    private static final int SLOT_BITS = 6;
+
+    /**
+     * Levels.
+     */
+    private static final int LEVELS = 4;
+
+    /**
+     * Tick length in milliseconds.
+     */
+    private final long tickMillis;
+
+    /**
+     * Slots, [level][slot].
+     */
+    private final List<List<Set<K>>> wheels = new ArrayList<>();
+
+    /**
+     * Keys beyond the range of the top level.
+     */
+    private final Set<K> overflow = new HashSet<>();
+
+    /**
+     * Deadline ticks, &lt;key, tick&gt;.
+     */
+    private final Map<K, Long> deadlines = new HashMap<>();
+
+    /**
+     * Containing slots, &lt;key, slot&gt;.
+     */
+    private final Map<K, Set<K>> locations = new HashMap<>();
+
+    /**
+     * Current tick.
+     */
+    private long currentTick;
+
+    /**
+     * Constructs a wheel.
+     *
+     * @param tickMillis the specified tick length in milliseconds
+     * @param now        the specified current time in milliseconds
+     */
+    public TimerWheel(final long tickMillis, final long now) {
+        this.tickMillis = tickMillis;
+        currentTick = now / tickMillis;
+        for (int level = 0; level < LEVELS; level++) {
+            final List<Set<K>> slots = new ArrayList<>(SLOTS);
+            for (int slot = 0; slot < SLOTS; slot++) {
+                slots.add(new HashSet<>());
+            }
+            wheels.add(slots);
+        }
+    }
+
+    /**
+     * Schedules the specified key to expire at the specified time, replacing its previous deadline.
+     *
+     * @param key      the specified key
+     * @param deadline the specified time in milliseconds
+     */
+    public synchronized void schedule(final K key, final long deadline) {
+        cancel(key);
+        // 向上取整，保证不早于到期时间触发；已到期的在下一拍触发
+        final long tick = Math.max(currentTick + 1, (deadline + tickMillis - 1) / tickMillis);
+        deadlines.put(key, tick);
+        place(key, tick);
+    }
+
+    /**
+     * Cancels the specified key.
+     *
+     * @param key the specified key
+     */
+    public synchronized void cancel(final K key) {
+        deadlines.remove(key);
+        final Set<K> slot = locations.remove(key);
+        if (null != slot) {
+            slot.remove(key);
+        }
+    }
+
+    /**
+     * Gets the number of scheduled keys.
+     *
+     * @return key count
+     */
+    public synchronized int size() {
+        return deadlines.size();
+    }
+
+    /**
+     * Advances the wheel to the specified time.
+     *
+     * @param now the specified time in milliseconds
+     * @return keys expired, in deadline order
+     */
+    public synchronized List<K> advance(final long now) {
+        final List<K> ret = new ArrayList<>();
+        final long targetTick = now / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade();
+
+            final Set<K> slot = wheels.get(0).get((int) (currentTick & (SLOTS - 1)));
+            for (final K key : new ArrayList<>(slot)) {
+                if (deadlines.get(key) <= currentTick) {
+                    slot.remove(key);
+                    locations.remove(key);
+                    deadlines.remove(key);
+                    ret.add(key);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Moves keys down from every level whose lower wheel has just completed a revolution, highest level first.
+     */
+    private void cascade() {
+        int level = 0;
+        while (level < LEVELS && 0 == ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1))) {
+            level++;
+        }
+        if (LEVELS == level) {
+            replace(overflow);
+        }
+        for (int l = Math.min(level, LEVELS - 1); l >= 1; l--) {
+            replace(wheels.get(l).get((int) ((currentTick >>> (SLOT_BITS * l)) & (SLOTS - 1))));
+        }
+    }
+
+    private void replace(final Set<K> slot) {
+        final List<K> keys = new ArrayList<>(slot);
+        slot.clear();
+        for (final K key : keys) {
+            place(key, deadlines.get(key));
+        }
+    }
+
+    private void place(final K key, final long tick) {
+        final long delta = tick - currentTick;
+        Set<K> slot = null;
+        if (delta <= 0) {
+            // 降级时恰好到期，放入本拍即将处理的槽
+            slot = wheels.get(0).get((int) (currentTick & (SLOTS - 1)));
+        } else {
+            for (int level = 0; level < LEVELS; level++) {
+                if (delta < 1L << (SLOT_BITS * (level + 1))) {
+                    slot = wheels.get(level).get((int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1)));
+                    break;
+                }
+            }
+            if (null == slot) {
+                slot = overflow;
+            }
+        }
+        slot.add(key);
+        locations.put(key, slot);
+    }
+}
@@ -0,0 +1,629 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.idrsolutions.image.png.PngCompressor;
+import net.coobird.thumbnailator.Thumbnails;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Concurrent file upload pipeline.
+ * <p>
+ * A batch of uploads goes through four stages: digest and compress on a bounded CPU pool, one batched duplicate
+ * lookup by MD5 (backed by an in-memory MD5 index), admission, then store and verify in parallel on virtual threads.
+ * The MD5 of a file is the digest of the bytes actually stored, computed while the compressor streams its output.
+ * Identical files in one batch are stored once. Per-stage timings of every batch are logged as one structured line.
+ * </p>
+ * <p>
+ * Storage and duplicate lookup are pluggable, with {@link LocalStore} the pipeline runs fully offline.
+ * </p>
+ * <p>
+ * Stores still running when the store stage times out are cancelled, a file such a store manages to write afterwards
+ * is deleted again via {@link Store#delete(String)}, so a failed upload never leaves an orphan object behind.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.0.1.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public final class UploadPipeline {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LogManager.getLogger(UploadPipeline.class);
+
+    /**
+     * 存储阶段整体超时（毫秒）.
+     */
+    private static final long STORE_TIMEOUT = 60 * 1000;
+
+    /**
+     * Static picture suffixes, these are compressed before storing.
+     */
+    private static final Set<String> STATIC_PICTURE_SUFFIXES = Set.of("jpg", "jpeg", "png");
+
+    /**
+     * Compress pool, bounded to the CPU count, the caller runs the task itself when the queue is full.
+     */
+    private static final ExecutorService COMPRESS_POOL;
+
+    /**
+     * Store pool.
+     */
+    private static final ExecutorService STORE_POOL = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Stored files, &lt;md5, url&gt;.
+     */
+    private static final Cache<String, String> MD5_INDEX = Caffeine.newBuilder().maximumSize(50000).build();
+
+    /**
+     * Digests of received files, &lt;rawMd5, md5&gt;, lets a re-upload of a known picture skip compression.
+     */
+    private static final Cache<String, String> RAW_MD5S = Caffeine.newBuilder().maximumSize(50000).build();
+
+    static {
+        final int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        final AtomicInteger threadNo = new AtomicInteger();
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(threads * 16), runnable -> {
+            final Thread ret = new Thread(runnable, "UploadCompressor-" + threadNo.incrementAndGet());
+            ret.setDaemon(true);
+            return ret;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        COMPRESS_POOL = pool;
+    }
+
+    /**
+     * Store.
+     */
+    private final Store store;
+
+    /**
+     * Duplicate lookup.
+     */
+    private final Md5Lookup lookup;
+
+    /**
+     * Store stage timeout in milliseconds.
+     */
+    private final long storeTimeout;
+
+    /**
+     * Constructs a pipeline with the specified store and duplicate lookup.
+     *
+     * @param store  the specified store
+     * @param lookup the specified duplicate lookup
+     */
+    public UploadPipeline(final Store store, final Md5Lookup lookup) {
+        this(store, lookup, STORE_TIMEOUT);
+    }
+
+    /**
+     * Constructs a pipeline with the specified store, duplicate lookup and store stage timeout.
+     *
+     * @param store        the specified store
+     * @param lookup       the specified duplicate lookup
+     * @param storeTimeout the specified store stage timeout in milliseconds
+     */
+    UploadPipeline(final Store store, final Md5Lookup lookup, final long storeTimeout) {
+        this.store = store;
+        this.lookup = lookup;
+        this.storeTimeout = storeTimeout;
+    }
+
+    /**
+     * Runs the specified uploads through the pipeline, the status of every upload is set on return.
+     *
+     * @param uploads   the specified uploads
+     * @param admission decides whether a new (not duplicated) upload may be stored, for example a rate limit
+     * @param verifier  checks a stored upload, returns {@code false} to reject it, the verifier is responsible for
+     *                  removing the rejected file from the store
+     */
+    public void run(final List<Upload> uploads, final Predicate<Upload> admission, final Predicate<Upload> verifier) {
+        final long start = System.nanoTime();
+
+        // 1. 摘要与压缩
+        final List<Callable<Void>> digests = new ArrayList<>(uploads.size());
+        for (final Upload upload : uploads) {
+            digests.add(() -> {
+                digest(upload);
+                return null;
+            });
+        }
+        try {
+            COMPRESS_POOL.invokeAll(digests);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final long digested = System.nanoTime();
+
+        // 2. 批量查重，同一批次内的相同文件只存储一次
+        final Map<String, Upload> leaders = new HashMap<>();
+        final Set<String> unknown = new LinkedHashSet<>();
+        for (final Upload upload : uploads) {
+            if (null == upload.md5) {
+                upload.status = Status.FAILED;
+                continue;
+            }
+            final String url = MD5_INDEX.getIfPresent(upload.md5);
+            if (null != url) {
+                upload.duplicated(url);
+                continue;
+            }
+            if (null != leaders.putIfAbsent(upload.md5, upload)) {
+                continue;
+            }
+            unknown.add(upload.md5);
+        }
+        if (!unknown.isEmpty()) {
+            try {
+                final Map<String, String> found = lookup.lookup(unknown);
+                MD5_INDEX.putAll(found);
+                for (final Map.Entry<String, String> entry : found.entrySet()) {
+                    final Upload leader = leaders.get(entry.getKey());
+                    if (null != leader) {
+                        leader.duplicated(entry.getValue());
+                    }
+                }
+            } catch (final Exception e) {
+                LOGGER.log(Level.ERROR, "Looks up duplicated uploads failed", e);
+            }
+        }
+        final long looked = System.nanoTime();
+
+        // 3. 准入后并行存储与校验
+        final Map<Upload, Future<?>> stores = new HashMap<>();
+        for (final Upload upload : uploads) {
+            if (null != upload.status || leaders.get(upload.md5) != upload) {
+                continue;
+            }
+            if (!admission.test(upload)) {
+                upload.status = Status.REJECTED;
+                continue;
+            }
+            stores.put(upload, STORE_POOL.submit(() -> store(upload, verifier)));
+        }
+        final long deadline = looked + TimeUnit.MILLISECONDS.toNanos(storeTimeout);
+        try {
+            for (final Future<?> future : stores.values()) {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (final TimeoutException e) {
+            LOGGER.log(Level.WARN, "Stores uploads timed out after [" + storeTimeout + "ms]");
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException ignored) {
+            // 单个文件的异常已在 store 中处理
+        }
+        // 超时或被中断时放弃仍在进行的存储，之后才写完的文件由 store 自行删除，避免留下孤儿文件
+        for (final Map.Entry<Upload, Future<?>> entry : stores.entrySet()) {
+            if (!entry.getValue().isDone() && entry.getKey().abandon()) {
+                entry.getValue().cancel(true);
+            }
+        }
+
+        int stored = 0, duplicated = 0, rejected = 0, failed = 0;
+        long bytesIn = 0, bytesOut = 0, hashNanos = 0, compressNanos = 0;
+        for (final Upload upload : uploads) {
+            if (null == upload.status && null != upload.md5) {
+                final Upload leader = leaders.get(upload.md5);
+                if (null != leader && leader != upload && null != leader.status) {
+                    if (Status.STORED == leader.status || Status.DUPLICATED == leader.status) {
+                        upload.duplicated(leader.url);
+                    } else {
+                        upload.status = leader.status;
+                    }
+                }
+            }
+            if (null == upload.status) {
+                upload.status = Status.FAILED;
+            }
+            switch (upload.status) {
+                case STORED -> stored++;
+                case DUPLICATED -> duplicated++;
+                case REJECTED -> rejected++;
+                default -> failed++;
+            }
+            bytesIn += upload.size;
+            bytesOut += null == upload.data ? 0 : upload.data.length;
+            hashNanos += upload.hashNanos;
+            compressNanos += upload.compressNanos;
+        }
+        final long end = System.nanoTime();
+
+        LOGGER.log(Level.INFO, "Upload pipeline [files=" + uploads.size() + ", stored=" + stored + ", duplicated=" + duplicated
+                + ", rejected=" + rejected + ", failed=" + failed + ", bytesIn=" + bytesIn + ", bytesOut=" + bytesOut
+                + ", hashMs=" + millis(hashNanos) + ", compressMs=" + millis(compressNanos) + ", digestStageMs=" + millis(digested - start)
+                + ", lookupMs=" + millis(looked - digested) + ", storeMs=" + millis(end - looked) + ", totalMs=" + millis(end - start) + "]");
+    }
+
+    /**
+     * Digests the specified upload, compresses static pictures whose digest is not known yet.
+     *
+     * @param upload the specified upload
+     */
+    private static void digest(final Upload upload) {
+        long start = System.nanoTime();
+        final String rawMd5 = MD5Calculator.bytesToHex(md5().digest(upload.data));
+        upload.hashNanos = System.nanoTime() - start;
+
+        if (!STATIC_PICTURE_SUFFIXES.contains(upload.suffix)) {
+            upload.md5 = rawMd5;
+            return;
+        }
+        final String knownMd5 = RAW_MD5S.getIfPresent(rawMd5);
+        if (null != knownMd5 && null != MD5_INDEX.getIfPresent(knownMd5)) {
+            upload.md5 = knownMd5;
+            return;
+        }
+
+        start = System.nanoTime();
+        try {
+            final MessageDigest digest = md5();
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(upload.data.length);
+            try (final OutputStream output = new DigestOutputStream(bytes, digest)) {
+                if ("png".equals(upload.suffix)) {
+                    PngCompressor.compress(new ByteArrayInputStream(upload.data), output);
+                } else {
+                    Thumbnails.of(new ByteArrayInputStream(upload.data))
+                            .scale(1f)
+                            .outputQuality(0.35f)
+                            .toOutputStream(output);
+                }
+            }
+            upload.data = bytes.toByteArray();
+            upload.md5 = MD5Calculator.bytesToHex(digest.digest());
+            RAW_MD5S.put(rawMd5, upload.md5);
+            LOGGER.log(Level.DEBUG, "Compressed " + upload.name + " as a static picture, before: " + upload.size / 1024
+                    + "KB, after: " + upload.data.length / 1024 + "KB");
+        } catch (final Exception e) {
+            LOGGER.log(Level.ERROR, "Unable to compress " + upload.name + " as a static picture", e);
+            upload.md5 = rawMd5;
+        } finally {
+            upload.compressNanos = System.nanoTime() - start;
+        }
+    }
+
+    private void store(final Upload upload, final Predicate<Upload> verifier) {
+        try {
+            upload.url = store.put(upload.key, upload.data, upload.contentType);
+            if (upload.isAbandoned()) {
+                discard(upload);
+                return;
+            }
+            if (!verifier.test(upload)) {
+                upload.settle(Status.REJECTED);
+                return;
+            }
+            if (!upload.settle(Status.STORED)) {
+                discard(upload);
+                return;
+            }
+            MD5_INDEX.put(upload.md5, upload.url);
+        } catch (final Exception e) {
+            if (!upload.settle(Status.FAILED)) {
+                return;
+            }
+            LOGGER.log(Level.ERROR, "Uploads file [" + upload.name + "] failed", e);
+        }
+    }
+
+    /**
+     * Deletes the file of the specified abandoned upload from the store.
+     *
+     * @param upload the specified upload
+     */
+    private void discard(final Upload upload) {
+        try {
+            store.delete(upload.key);
+            LOGGER.log(Level.WARN, "Deleted file [" + upload.key + "] of an abandoned upload [" + upload.name + "]");
+        } catch (final Exception e) {
+            LOGGER.log(Level.ERROR, "Deletes file [" + upload.key + "] of an abandoned upload [" + upload.name + "] failed", e);
+        }
+    }
+
+    /**
+     * Forgets the stored file of the specified MD5, for example after it has been deleted.
+     *
+     * @param md5 the specified MD5
+     */
+    public static void forget(final String md5) {
+        MD5_INDEX.invalidate(md5);
+        // 原始文件摘要同样指向已删除的文件，需一并抹除，否则再次上传会直接命中
+        RAW_MD5S.asMap().values().removeIf(md5::equals);
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 algorithm not found", e);
+        }
+    }
+
+    private static long millis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Upload status.
+     */
+    public enum Status {
+
+        /**
+         * Stored as a new file.
+         */
+        STORED,
+
+        /**
+         * Same content has been stored before, the existing URL is used.
+         */
+        DUPLICATED,
+
+        /**
+         * Rejected by admission or verification.
+         */
+        REJECTED,
+
+        /**
+         * Failed.
+         */
+        FAILED
+    }
+
+    /**
+     * File storage.
+     */
+    @FunctionalInterface
+    public interface Store {
+
+        /**
+         * Stores the specified data under the specified key.
+         *
+         * @param key         the specified key, for example "2026/10/a-1b2c3d4e.png"
+         * @param data        the specified data
+         * @param contentType the specified content type
+         * @return URL of the stored file
+         * @throws Exception exception
+         */
+        String put(String key, byte[] data, String contentType) throws Exception;
+
+        /**
+         * Deletes the file stored under the specified key, does nothing by default.
+         *
+         * @param key the specified key
+         * @throws Exception exception
+         */
+        default void delete(final String key) throws Exception {
+        }
+    }
+
+    /**
+     * Duplicate lookup.
+     */
+    @FunctionalInterface
+    public interface Md5Lookup {
+
+        /**
+         * Looks up stored files by the specified MD5s in one go.
+         *
+         * @param md5s the specified MD5s
+         * @return &lt;md5, url&gt; of the found files
+         * @throws Exception exception
+         */
+        Map<String, String> lookup(Collection<String> md5s) throws Exception;
+    }
+
+    /**
+     * Local directory store.
+     */
+    public static final class LocalStore implements Store {
+
+        /**
+         * Root directory.
+         */
+        private final String dir;
+
+        /**
+         * URL prefix of stored files.
+         */
+        private final String urlPrefix;
+
+        /**
+         * Constructs a local store.
+         *
+         * @param dir       the specified root directory
+         * @param urlPrefix the specified URL prefix, for example "http://localhost:8080/upload/"
+         */
+        public LocalStore(final String dir, final String urlPrefix) {
+            this.dir = dir;
+            this.urlPrefix = urlPrefix;
+        }
+
+        @Override
+        public String put(final String key, final byte[] data, final String contentType) throws Exception {
+            final Path path = Paths.get(dir, key);
+            Files.createDirectories(path.getParent());
+            Files.write(path, data);
+            return urlPrefix + key;
+        }
+
+        @Override
+        public void delete(final String key) throws Exception {
+            Files.deleteIfExists(Paths.get(dir, key));
+        }
+
+        /**
+         * Gets the local path of the specified key.
+         *
+         * @param key the specified key
+         * @return local path
+         */
+        public Path getPath(final String key) {
+            return Paths.get(dir, key);
+        }
+    }
+
+    /**
+     * A file going through the pipeline.
+     */
+    public static final class Upload {
+
+        private final String name;
+
+        private final String key;
+
+        private final String suffix;
+
+        private final String contentType;
+
+        private final int size;
+
+        private volatile byte[] data;
+
+        private volatile String md5;
+
+        private volatile String url;
+
+        private volatile Status status;
+
+        private volatile long hashNanos;
+
+        private volatile long compressNanos;
+
+        /**
+         * Whether the pipeline has given up waiting for the store of this upload, guarded by this upload.
+         */
+        private boolean abandoned;
+
+        /**
+         * Constructs an upload.
+         *
+         * @param name        the specified original file name
+         * @param key         the specified store key
+         * @param suffix      the specified suffix, for example "png"
+         * @param contentType the specified content type
+         * @param data        the specified data
+         */
+        public Upload(final String name, final String key, final String suffix, final String contentType, final byte[] data) {
+            this.name = name;
+            this.key = key;
+            this.suffix = suffix;
+            this.contentType = contentType;
+            this.size = data.length;
+            this.data = data;
+        }
+
+        private void duplicated(final String url) {
+            this.url = url;
+            status = Status.DUPLICATED;
+        }
+
+        /**
+         * Gives up the pending store of this upload, marks it failed.
+         *
+         * @return {@code true} if abandoned, {@code false} if the store has already settled
+         */
+        private synchronized boolean abandon() {
+            if (null != status) {
+                return false;
+            }
+            abandoned = true;
+            status = Status.FAILED;
+            return true;
+        }
+
+        private synchronized boolean isAbandoned() {
+            return abandoned;
+        }
+
+        /**
+         * Settles the store of this upload with the specified status, unless it has been abandoned.
+         *
+         * @param status the specified status
+         * @return {@code true} if settled, {@code false} if abandoned
+         */
+        private synchronized boolean settle(final Status status) {
+            if (abandoned) {
+                return false;
+            }
+            this.status = status;
+            return true;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getSuffix() {
+            return suffix;
+        }
+
+        public String getMd5() {
+            return md5;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+    }
+}
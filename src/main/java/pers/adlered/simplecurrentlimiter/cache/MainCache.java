@@ -18,29 +18,115 @@
  */
 package pers.adlered.simplecurrentlimiter.cache;
 
-import pers.adlered.simplecurrentlimiter.cache.pair.CachePair;
+import pers.adlered.simplecurrentlimiter.cache.pair.CacheEntry;
 
-import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
 
 /**
  * <h3>SimpleCurrentLimiter</h3>
- * <p>存储字符串、次数信息</p>
+ * <p>存储字符串、限流状态</p>
+ * <p>按过期时间清理：一个字符串在过期时间内没有访问，其状态与从未访问等价，可以安全移除。
+ * 只有未过期的字符串数量超过容量时才会淘汰最久未访问的，避免活跃用户因缓存被挤满而绕过限流。</p>
  *
  * @author : https://github.com/AdlerED
  * @date : 2019-10-10 22:49
  **/
 public class MainCache {
-    // 缓存 存储CachePair
-    public Map<String, CachePair> cachePairMap = Collections.synchronizedMap(new LinkedHashMap<String, CachePair>() {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry eldest) {
-            return size() > 2000;
-        }
-    });
+    // 平均每多少次访问清理一次过期状态
+    private static final int SWEEP_INTERVAL = 4096;
+    // 缓存 存储CacheEntry
+    public final Map<String, CacheEntry> cacheEntryMap = new ConcurrentHashMap<>();
     // 过期时间（毫秒）
-    public long expireTime = -1;
+    public volatile long expireTime = -1;
     // 时间单位次数
-    public long frequencyTime = -1;
+    public volatile long frequencyTime = -1;
+    // 容量，未过期的字符串超过该数量时淘汰最久未访问的
+    public volatile int capacity = 65536;
+    // 时钟（毫秒），测试时可替换
+    public volatile LongSupplier clock = System::currentTimeMillis;
+    // 同一时刻只允许一个线程清理
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    /**
+     * 获取字符串的状态，不存在则创建
+     */
+    protected CacheEntry entry(String str) {
+        CacheEntry entry = cacheEntryMap.get(str);
+        if (entry == null) {
+            entry = cacheEntryMap.computeIfAbsent(str, k -> {
+                CacheEntry newEntry = new CacheEntry();
+                newEntry.lastAccess = clock.getAsLong();
+                return newEntry;
+            });
+        }
+        if (ThreadLocalRandom.current().nextInt(SWEEP_INTERVAL) == 0 || cacheEntryMap.size() > capacity) {
+            sweep();
+        }
+        return entry;
+    }
+
+    /**
+     * 清理过期状态，仍超过容量时淘汰最久未访问的状态
+     */
+    public void sweep() {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long currentTimeStamp = clock.getAsLong();
+            long expire = this.expireTime;
+            if (expire != -1) {
+                for (Map.Entry<String, CacheEntry> e : cacheEntryMap.entrySet()) {
+                    CacheEntry entry = e.getValue();
+                    if (currentTimeStamp - entry.lastAccess > expire) {
+                        synchronized (entry) {
+                            // 加锁后复查，期间可能刚被访问
+                            if (currentTimeStamp - entry.lastAccess > expire) {
+                                entry.removed = true;
+                                cacheEntryMap.remove(e.getKey(), entry);
+                            }
+                        }
+                    }
+                }
+            }
+            int overflow = cacheEntryMap.size() - capacity;
+            if (overflow > 0) {
+                // 淘汰到容量的 90%，避免每次访问都触发
+                overflow += capacity / 10;
+                // 先取最近访问时间的快照再排序，排序期间的并发访问不影响比较结果
+                record Candidate(String str, CacheEntry entry, long lastAccess) {
+                }
+                List<Candidate> candidates = new ArrayList<>(cacheEntryMap.size());
+                for (Map.Entry<String, CacheEntry> e : cacheEntryMap.entrySet()) {
+                    candidates.add(new Candidate(e.getKey(), e.getValue(), e.getValue().lastAccess));
+                }
+                candidates.sort(Comparator.comparingLong(Candidate::lastAccess));
+                Iterator<Candidate> iterator = candidates.iterator();
+                while (overflow-- > 0 && iterator.hasNext()) {
+                    Candidate candidate = iterator.next();
+                    evict(candidate.str(), candidate.entry());
+                }
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    /**
+     * 移除字符串的状态
+     */
+    protected void evict(String str, CacheEntry entry) {
+        synchronized (entry) {
+            entry.removed = true;
+            cacheEntryMap.remove(str, entry);
+        }
+    }
 }
@@ -0,0 +1,43 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package pers.adlered.simplecurrentlimiter.cache.pair;
+
+/**
+ * <h3>SimpleCurrentLimiter</h3>
+ * <p>单个字符串的限流状态，全部为原始类型字段，原地更新，访问时不再分配对象；读写需持有本对象的锁</p>
+ *
+ * @author rhythm
+ * @date : 2026-10-18
+ **/
+public class CacheEntry {
+    // 固定窗口：窗口开始时间、窗口内次数
+    public long windowStart;
+    public long count;
+    // 令牌桶：剩余令牌、上次补充时间
+    public double tokens;
+    public long lastRefill;
+    // 滑动窗口日志：放行时间环形队列
+    public long[] log;
+    public int logHead;
+    public int logSize;
+    // 最近访问时间，用于过期清理
+    public volatile long lastAccess;
+    // 已从缓存中移除，持有旧引用的线程需重新获取
+    public boolean removed;
+}
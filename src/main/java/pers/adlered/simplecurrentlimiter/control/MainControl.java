@@ -19,59 +19,183 @@
 package pers.adlered.simplecurrentlimiter.control;
 
 import pers.adlered.simplecurrentlimiter.cache.MainCache;
+import pers.adlered.simplecurrentlimiter.cache.pair.CacheEntry;
 import pers.adlered.simplecurrentlimiter.cache.pair.CachePair;
+import pers.adlered.simplecurrentlimiter.main.LimitMode;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
 
 /**
  * <h3>SimpleCurrentLimiter</h3>
  * <p>底层数据控制</p>
+ * <p>每个字符串的状态有自己的锁，不同字符串的访问互不阻塞；命中、拒绝次数使用 LongAdder 统计。</p>
  *
  * @author : https://github.com/AdlerED
  * @date : 2019-10-10 22:55
  **/
 public class MainControl extends MainCache {
+    // 滑动窗口日志允许的最大次数
+    private static final long MAX_LOG_SIZE = 65536;
+    // 限流算法
+    private volatile LimitMode mode = LimitMode.FIXED_WINDOW;
+    // 放行次数
+    private final LongAdder hits = new LongAdder();
+    // 拒绝次数
+    private final LongAdder denies = new LongAdder();
+
     public boolean write(String str) {
-        boolean isOK = true;
-        // 先读取查看是否已经存在
-        long frequency = -1l;
-        long timeStamp = -1l;
-        long currentTimeStamp = System.currentTimeMillis();
-        CachePair verifyPair = this.cachePairMap.get(str);
-        if (verifyPair == null) {
-            frequency = 1l;
-            timeStamp = currentTimeStamp;
-        } else {
-            frequency = verifyPair.getFrequency() + 1l;
-            timeStamp = verifyPair.getTimeStamp();
-            // 超时刷新
-            if (this.expireTime != -1) {
-                if ((currentTimeStamp - timeStamp) > this.expireTime) {
-                    frequency = 1l;
-                    timeStamp = currentTimeStamp;
+        long currentTimeStamp = clock.getAsLong();
+        while (true) {
+            CacheEntry entry = entry(str);
+            boolean isOK;
+            synchronized (entry) {
+                // 已被清理，重新获取
+                if (entry.removed) {
+                    continue;
+                }
+                entry.lastAccess = currentTimeStamp;
+                switch (mode) {
+                    case TOKEN_BUCKET:
+                        isOK = takeToken(entry, currentTimeStamp);
+                        break;
+                    case SLIDING_WINDOW:
+                        isOK = appendLog(entry, currentTimeStamp);
+                        break;
+                    default:
+                        isOK = countWindow(entry, currentTimeStamp);
                 }
             }
+            if (isOK) {
+                hits.increment();
+            } else {
+                denies.increment();
+            }
+            return isOK;
+        }
+    }
+
+    private boolean countWindow(CacheEntry entry, long currentTimeStamp) {
+        // 超时刷新
+        if (entry.count == 0 || (this.expireTime != -1 && (currentTimeStamp - entry.windowStart) > this.expireTime)) {
+            entry.count = 0;
+            entry.windowStart = currentTimeStamp;
+        }
+        entry.count++;
+        return entry.count <= this.frequencyTime;
+    }
+
+    private boolean takeToken(CacheEntry entry, long currentTimeStamp) {
+        double capacity = this.frequencyTime;
+        if (entry.lastRefill == 0) {
+            entry.tokens = capacity;
+        } else if (this.expireTime > 0) {
+            // 每个过期时间补满一桶
+            entry.tokens = Math.min(capacity, entry.tokens + (currentTimeStamp - entry.lastRefill) * capacity / this.expireTime);
         }
-        if (frequency > this.frequencyTime) {
-            isOK = false;
+        entry.lastRefill = currentTimeStamp;
+        if (entry.tokens >= 1) {
+            entry.tokens -= 1;
+            return true;
         }
-        CachePair newPair = new CachePair();
-        newPair.setFrequency(frequency);
-        newPair.setTimeStamp(timeStamp);
-        this.cachePairMap.put(str, newPair);
-        return isOK;
+        return false;
+    }
+
+    private boolean appendLog(CacheEntry entry, long currentTimeStamp) {
+        int limit = (int) Math.min(this.frequencyTime, MAX_LOG_SIZE);
+        if (limit <= 0) {
+            return false;
+        }
+        if (entry.log == null || entry.log.length != limit) {
+            entry.log = new long[limit];
+            entry.logHead = 0;
+            entry.logSize = 0;
+        }
+        // 丢弃窗口外的记录
+        while (entry.logSize > 0 && this.expireTime != -1 && currentTimeStamp - entry.log[entry.logHead] > this.expireTime) {
+            entry.logHead = (entry.logHead + 1) % limit;
+            entry.logSize--;
+        }
+        if (entry.logSize >= limit) {
+            return false;
+        }
+        entry.log[(entry.logHead + entry.logSize) % limit] = currentTimeStamp;
+        entry.logSize++;
+        return true;
     }
 
     public void remove(String str) {
-        this.cachePairMap.remove(str);
+        CacheEntry entry = this.cacheEntryMap.get(str);
+        if (entry != null) {
+            evict(str, entry);
+        }
     }
 
+    /**
+     * 获取字符串当前的次数与窗口开始时间快照
+     * <p>固定窗口为窗口内访问次数（含被拒绝的），令牌桶为已消耗的令牌数，滑动窗口为窗口内放行次数</p>
+     */
     public CachePair getPair(String str) {
-        return this.cachePairMap.get(str);
+        CacheEntry entry = this.cacheEntryMap.get(str);
+        if (entry == null) {
+            return null;
+        }
+        CachePair pair = new CachePair();
+        synchronized (entry) {
+            switch (mode) {
+                case TOKEN_BUCKET:
+                    pair.setFrequency(this.frequencyTime - (long) entry.tokens);
+                    pair.setTimeStamp(entry.lastRefill);
+                    break;
+                case SLIDING_WINDOW:
+                    pair.setFrequency(entry.logSize);
+                    pair.setTimeStamp(entry.logSize > 0 ? entry.log[entry.logHead] : entry.lastAccess);
+                    break;
+                default:
+                    pair.setFrequency(entry.count);
+                    pair.setTimeStamp(entry.windowStart);
+            }
+        }
+        return pair;
+    }
+
+    public void setMode(LimitMode mode) {
+        if (this.mode != mode) {
+            this.mode = mode;
+            for (String str : this.cacheEntryMap.keySet()) {
+                remove(str);
+            }
+        }
+    }
+
+    public LimitMode getMode() {
+        return mode;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getDenies() {
+        return denies.sum();
+    }
+
+    public int getKeyCount() {
+        return this.cacheEntryMap.size();
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
     }
 
     public void setFrequencyTime(long frequencyTime) {
         this.frequencyTime = frequencyTime;
     }
 
+    public void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
     public void setExpireTimeMilli(long timeMilli) {
         this.expireTime = timeMilli;
     }
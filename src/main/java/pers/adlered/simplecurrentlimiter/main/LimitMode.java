@@ -0,0 +1,44 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package pers.adlered.simplecurrentlimiter.main;
+
+/**
+ * <h3>SimpleCurrentLimiter</h3>
+ * <p>限流算法</p>
+ *
+ * @author rhythm
+ * @date : 2026-10-18
+ **/
+public enum LimitMode {
+
+    /**
+     * 固定窗口：首次访问开启窗口，窗口内超过次数即拒绝（被拒绝的访问也计数），窗口过期后重新计数。
+     */
+    FIXED_WINDOW,
+
+    /**
+     * 令牌桶：桶容量为次数上限，按“次数 / 过期时间”的速率匀速补充令牌，允许短时突发。
+     */
+    TOKEN_BUCKET,
+
+    /**
+     * 滑动窗口日志：记录最近一个过期时间内被放行的访问时间，数量达到上限即拒绝，没有窗口边界处的双倍突发。
+     */
+    SLIDING_WINDOW
+}
@@ -21,27 +21,27 @@ package pers.adlered.simplecurrentlimiter.main;
 import pers.adlered.simplecurrentlimiter.cache.pair.CachePair;
 import pers.adlered.simplecurrentlimiter.control.MainControl;
 
+import java.util.function.LongSupplier;
+
 /**
  * <h3>SimpleCurrentLimiter</h3>
  * <p>简单限流器，用于IP地址访问次数验证，其它字符串访问次数验证</p>
+ * <p>默认为固定窗口算法，可通过 {@link LimitMode} 选择令牌桶或滑动窗口日志</p>
  *
  * @author : https://github.com/AdlerED
  * @date : 2019-10-10 22:45
  **/
 public class SimpleCurrentLimiter {
-    MainControl mainControl = null;
+    private final MainControl mainControl = new MainControl();
 
-    private MainControl getMainControl() {
-        if (mainControl == null) {
-            mainControl = new MainControl();
-        }
-        return mainControl;
+    public SimpleCurrentLimiter(long expireTimeSecond, long frequencyTime) {
+        this(expireTimeSecond, frequencyTime, LimitMode.FIXED_WINDOW);
     }
 
-    public SimpleCurrentLimiter(long expireTimeSecond, long frequencyTime) {
-        MainControl mainControl = getMainControl();
+    public SimpleCurrentLimiter(long expireTimeSecond, long frequencyTime, LimitMode mode) {
         mainControl.setExpireTimeSecond(expireTimeSecond);
         mainControl.setFrequencyTime(frequencyTime);
+        mainControl.setMode(mode);
     }
 
     /**
@@ -49,42 +49,76 @@ public class SimpleCurrentLimiter {
      * @return 用户令牌
      */
     public boolean access(String str) {
-        MainControl mainControl = getMainControl();
         return mainControl.write(str);
     }
 
     public void remove(String str) {
-        MainControl mainControl = getMainControl();
         mainControl.remove(str);
     }
 
+    /**
+     * @return 状态快照，修改它不影响限流器
+     */
     public CachePair get(String str) {
-        MainControl mainControl = getMainControl();
         return mainControl.getPair(str);
     }
 
+    public LimitMode getMode() {
+        return mainControl.getMode();
+    }
+
+    /**
+     * @return 放行次数
+     */
+    public long getHits() {
+        return mainControl.getHits();
+    }
+
+    /**
+     * @return 拒绝次数
+     */
+    public long getDenies() {
+        return mainControl.getDenies();
+    }
+
+    /**
+     * @return 当前记录的字符串数量
+     */
+    public int getKeyCount() {
+        return mainControl.getKeyCount();
+    }
+
+    /**
+     * 设置容量，未过期的字符串超过该数量时才会淘汰最久未访问的
+     */
+    public void setCapacity(int capacity) {
+        mainControl.setCapacity(capacity);
+    }
+
+    /**
+     * 设置时钟（毫秒），默认为系统时间，测试时可传入可控的时钟
+     */
+    public void setClock(LongSupplier clock) {
+        mainControl.setClock(clock);
+    }
+
     public void setExpireTimeMilli(long timeMilli) {
-        MainControl mainControl = getMainControl();
         mainControl.setExpireTimeMilli(timeMilli);
     }
 
     public void setExpireTimeSecond(long timeSecond) {
-        MainControl mainControl = getMainControl();
         mainControl.setExpireTimeSecond(timeSecond);
     }
 
     public void setExpireTimeMin(long timeMin) {
-        MainControl mainControl = getMainControl();
         mainControl.setExpireTimeMin(timeMin);
     }
 
     public void setExpireTimeHour(long timeHour) {
-        MainControl mainControl = getMainControl();
         mainControl.setExpireTimeHour(timeHour);
     }
 
     public void setFrequencyTime(long frequencyTime) {
-        MainControl mainControl = getMainControl();
         mainControl.setFrequencyTime(frequencyTime);
     }
 }
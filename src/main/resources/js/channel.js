@@ -448,6 +448,16 @@ var ChatRoomChannel = {
                     }
                     Util.listenUserCard();
                     break;
+                case 'migrate':
+                    // 服务端调度：切换到负载更低的节点，沿用当前连接的鉴权参数
+                    let currentUrl = ChatRoomChannel.ws.url;
+                    let query = currentUrl.indexOf('?') > -1 ? currentUrl.substring(currentUrl.indexOf('?')) : '';
+                    if (data.name) {
+                        $('#nodeButton').html(`<svg style='vertical-align: -2px;'><use xlink:href="#server"></use></svg> ` + data.name);
+                    }
+                    ChatRoomChannel.ws.close();
+                    ChatRoomChannel.init(data.node + query);
+                    break;
                 case 'revoke':
                     $("#chatroom" + data.oId).remove();
                     $("#chatindex" + data.oId).remove();
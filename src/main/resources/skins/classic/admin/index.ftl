@@ -59,6 +59,20 @@
             <li>商店频道 <span id="c7c"></span> 次 平均 <span id="c7b"></span> KB/s</li>
             <li>用户频道 <span id="c8c"></span> 次 平均 <span id="c8b"></span> KB/s</li>
         </ul>
+        <span style="padding: 0 0 7px 10px;display: block;font-weight: 550;">实时：近十分钟聊天室广播扇出延迟</span>
+        <ul>
+            <li>p50 <span id="c4p50"></span> ms</li>
+            <li>p99 <span id="c4p99"></span> ms</li>
+        </ul>
+        <span style="padding: 0 0 7px 10px;display: block;font-weight: 550;">实时：Markdown 渲染</span>
+        <ul>
+            <li>排队 <span id="mdQueued"></span> 渲染中 <span id="mdActive"></span></li>
+            <li>近期耗时 p50 <span id="mdP50"></span> ms / p99 <span id="mdP99"></span> ms</li>
+            <li>累计超时 <span id="mdTimeouts"></span> 拒绝 <span id="mdRejected"></span> 降级 <span id="mdDegraded"></span></li>
+            <li>Lute 可用 <span id="luteAvailable"></span> 失败 <span id="luteFailures"></span> 熔断 <span id="luteTrips"></span> 次</li>
+        </ul>
+        <span style="padding: 0 0 7px 10px;display: block;font-weight: 550;">实时：Markdown 缓存</span>
+        <ul id="mdCaches"></ul>
     </div>
     <script>
         function updateStats() {
@@ -92,6 +106,33 @@
                     document.getElementById('c7b').textContent = data.c7b;
                     document.getElementById('c8c').textContent = data.c8c;
                     document.getElementById('c8b').textContent = data.c8b;
+
+                    // 更新聊天室广播扇出延迟
+                    document.getElementById('c4p50').textContent = data.c4p50;
+                    document.getElementById('c4p99').textContent = data.c4p99;
+
+                    // 更新 Markdown 渲染指标
+                    document.getElementById('mdQueued').textContent = data.mdQueued;
+                    document.getElementById('mdActive').textContent = data.mdActive;
+                    document.getElementById('mdP50').textContent = data.mdP50;
+                    document.getElementById('mdP99').textContent = data.mdP99;
+                    document.getElementById('mdTimeouts').textContent = data.mdTimeouts;
+                    document.getElementById('mdRejected').textContent = data.mdRejected;
+                    document.getElementById('mdDegraded').textContent = data.mdDegraded;
+                    document.getElementById('luteAvailable').textContent = data.luteAvailable ? '是' : '否';
+                    document.getElementById('luteFailures').textContent = data.luteFailures;
+                    document.getElementById('luteTrips').textContent = data.luteTrips;
+
+                    // 更新 Markdown 缓存指标
+                    const mdCaches = document.getElementById('mdCaches');
+                    mdCaches.innerHTML = '';
+                    data.mdCaches.forEach(region => {
+                        const li = document.createElement('li');
+                        li.textContent = region.name + ' 命中率 ' + (region.hitRate * 100).toFixed(1) + '%（命中 ' + region.hits +
+                            ' 未命中 ' + region.misses + '） 淘汰 ' + region.evictions + ' 条目 ' + region.entries +
+                            ' 占用 ' + (region.bytes / 1048576).toFixed(1) + '/' + (region.maxBytes / 1048576).toFixed(0) + ' MB';
+                        mdCaches.appendChild(li);
+                    });
                 })
                 .catch(error => {
                     console.error('Error fetching data:', error);
@@ -0,0 +1,188 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.util;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * {@link BulkIndexQueue} test case, runs against a fake bulk endpoint.
+ *
+ * @author rhythm
+ * @version 1.1.0.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public class BulkIndexQueueTestCase {
+
+    private Path dir;
+
+    @BeforeClass
+    public void before() throws Exception {
+        dir = Files.createTempDirectory("bulk-index-queue");
+    }
+
+    @AfterClass
+    public void after() throws Exception {
+        try (final Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void batchAndCoalesce() throws Exception {
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        final BulkIndexQueue queue = new BulkIndexQueue(dir.resolve("batch").toString(), "symphony", 4, body -> {
+            final List<String> actions = actions(body);
+            batchSizes.add(actions.size());
+            return respond(actions, 200);
+        });
+
+        for (int i = 0; i < 1200; i++) {
+            queue.index("article", String.valueOf(i), new JSONObject().put("articleTitle", "title " + i), false);
+        }
+        // 还未发送的同一文档只发送最新的操作
+        queue.index("article", "1199", new JSONObject().put("articleTitle", "new title"), false);
+        Assert.assertTrue(queue.awaitIdle(10000));
+
+        final JSONObject stats = queue.getStats();
+        Assert.assertEquals(stats.optLong("indexed") + stats.optLong("coalesced"), 1201);
+        Assert.assertEquals(batchSizes.stream().mapToInt(Integer::intValue).sum(), stats.optLong("indexed"));
+        Assert.assertTrue(batchSizes.stream().allMatch(size -> size <= BulkIndexQueue.MAX_BATCH_DOCS));
+        Assert.assertEquals(stats.optInt("pending"), 0);
+        queue.shutdown(1000);
+    }
+
+    @Test
+    public void retry() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final BulkIndexQueue queue = new BulkIndexQueue(dir.resolve("retry").toString(), "symphony", 1, body -> {
+            final int call = calls.incrementAndGet();
+            if (1 == call) {
+                throw new IOException("Connection refused");
+            }
+            // 第二次请求中所有文档被拒绝，第三次成功
+            return respond(actions(body), 2 == call ? 429 : 200);
+        });
+
+        queue.index("article", "1", new JSONObject().put("articleTitle", "a"), true);
+        queue.delete("article", "2");
+        Assert.assertTrue(queue.awaitIdle(10000));
+
+        final JSONObject stats = queue.getStats();
+        Assert.assertEquals(calls.get(), 3);
+        Assert.assertEquals(stats.optLong("indexed"), 2);
+        Assert.assertEquals(stats.optLong("retried"), 4);
+        Assert.assertEquals(stats.optLong("failed"), 0);
+        Assert.assertEquals(stats.optInt("failures"), 0);
+        queue.shutdown(1000);
+    }
+
+    @Test
+    public void resumeAfterRestart() throws Exception {
+        final String journalDir = dir.resolve("resume").toString();
+        final BulkIndexQueue down = new BulkIndexQueue(journalDir, "symphony", 2, body -> {
+            throw new IOException("Connection refused");
+        });
+        down.index("article", "1", new JSONObject().put("articleTitle", "a"), true);
+        down.index("article", "2", new JSONObject().put("articleTitle", "b"), true);
+        down.index("article", "1", new JSONObject().put("articleTitle", "a2"), true);
+        down.delete("article", "3");
+        down.index("article", "4", new JSONObject().put("articleTitle", "rebuild"), false);
+        down.shutdown(100);
+
+        final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        final BulkIndexQueue up = new BulkIndexQueue(journalDir, "symphony", 2, body -> {
+            sent.add(body);
+            return respond(actions(body), 200);
+        });
+        Assert.assertTrue(up.awaitIdle(10000));
+        final String bodies = String.join("", sent);
+        Assert.assertTrue(bodies.contains("a2"));
+        Assert.assertFalse(bodies.contains("\"a\""));
+        Assert.assertTrue(bodies.contains("\"b\""));
+        Assert.assertTrue(bodies.contains("\"delete\""));
+        Assert.assertFalse(bodies.contains("rebuild"));
+        Assert.assertEquals(up.getStats().optLong("indexed"), 3);
+        up.shutdown(1000);
+
+        Assert.assertEquals(Files.size(dir.resolve("resume").resolve("pending.log")), 0);
+    }
+
+    @Test
+    public void rebuildNeverOverridesLive() throws Exception {
+        final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        final BulkIndexQueue queue = new BulkIndexQueue(dir.resolve("rebuild").toString(), "symphony", 1, body -> {
+            sent.add(body);
+            return respond(actions(body), 200);
+        });
+
+        queue.beginRebuild();
+        queue.index("article", "1", new JSONObject().put("articleTitle", "live"), true);
+        // 仍在排队的实时操作不被重建操作覆盖
+        queue.index("article", "1", new JSONObject().put("articleTitle", "stale"), false);
+        Assert.assertTrue(queue.awaitIdle(10000));
+        // 已发送的实时操作之后，重建期间的旧数据同样丢弃
+        queue.index("article", "1", new JSONObject().put("articleTitle", "stale"), false);
+        queue.index("article", "2", new JSONObject().put("articleTitle", "rebuild"), false);
+        Assert.assertTrue(queue.awaitIdle(10000));
+        queue.endRebuild();
+
+        final String bodies = String.join("", sent);
+        Assert.assertTrue(bodies.contains("live"));
+        Assert.assertTrue(bodies.contains("rebuild"));
+        Assert.assertFalse(bodies.contains("stale"));
+        Assert.assertEquals(queue.getStats().optLong("dropped"), 2);
+        Assert.assertEquals(queue.getStats().optLong("indexed"), 2);
+        queue.shutdown(1000);
+    }
+
+    private static List<String> actions(final String body) {
+        final List<String> ret = new ArrayList<>();
+        for (final String line : body.split("\n")) {
+            if (line.startsWith("{\"update\"")) {
+                ret.add("update");
+            } else if (line.startsWith("{\"delete\"")) {
+                ret.add("delete");
+            }
+        }
+        return ret;
+    }
+
+    private static String respond(final List<String> actions, final int status) {
+        final JSONArray items = new JSONArray();
+        for (final String action : actions) {
+            items.put(new JSONObject().put(action, new JSONObject().put("status", status)));
+        }
+        return new JSONObject().put("errors", 200 != status).put("items", items).toString();
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.util;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.b3log.symphony.model.Article;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * {@link LocalSearchIndex} test case.
+ * <p>
+ * {@link #benchmark()} measures query latency of the local index, and also of Elasticsearch with the same documents
+ * and the query DSL of {@code SearchQueryService} when {@code -Des.server=http://localhost:9200} is given.
+ * </p>
+ *
+ * @author rhythm
+ * @version 1.1.0.1, Oct 18, 2026
+ * @since 3.7.0
+ */
+public class LocalSearchIndexTestCase {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LogManager.getLogger(LocalSearchIndexTestCase.class);
+
+    private static final String[] WORDS = {"Java", "并发", "编程", "线程", "锁", "社区", "搜索", "索引", "Redis", "缓存",
+            "数据库", "事务", "Latke", "框架", "性能", "优化", "分布式", "消息", "队列", "聊天室"};
+
+    private Path dir;
+
+    @BeforeClass
+    public void before() throws Exception {
+        dir = Files.createTempDirectory("local-search");
+    }
+
+    @AfterClass
+    public void after() throws Exception {
+        try (final Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void tokenize() {
+        Assert.assertEquals(LocalSearchIndex.tokenize("Java并发编程 2020", true), Arrays.asList("java", "并发", "发编", "编程", "2020"));
+        Assert.assertEquals(LocalSearchIndex.tokenize("锁", true), List.of("锁"));
+        Assert.assertEquals(LocalSearchIndex.tokenize("读写锁", false), Arrays.asList("读", "写", "锁", "读写", "写锁"));
+    }
+
+    @Test
+    public void searchAndPersist() throws Exception {
+        final Path sub = dir.resolve("persist");
+        try (final LocalSearchIndex index = new LocalSearchIndex(sub.toString())) {
+            index.put("1", "聊天室消息", "介绍一下 Java 的并发编程和线程池");
+            index.put("2", "Java 并发编程实战", "读写锁与 <script> 的使用");
+            index.put("3", "缓存", "Redis 缓存");
+
+            final LocalSearchIndex.Result result = index.search("并发编程", 0, 10);
+            Assert.assertEquals(result.getTotal(), 2);
+            // 标题命中优先
+            Assert.assertEquals(result.getHits().get(0).getId(), "2");
+            Assert.assertEquals(result.getHits().get(1).getHighlights().get(0), "介绍一下 Java 的<em>并发编程</em>和线程池");
+
+            Assert.assertEquals(index.search("锁 script", 0, 10).getHits().get(0).getHighlights().get(0), "读写<em>锁</em>与 &lt;<em>script</em>&gt; 的使用");
+            Assert.assertEquals(index.search("并发 Redis", 0, 10).getTotal(), 0);
+
+            index.put("1", "聊天室消息", "没有关键词了");
+            index.remove("3");
+        }
+
+        try (final LocalSearchIndex index = new LocalSearchIndex(sub.toString())) {
+            Assert.assertEquals(index.size(), 2);
+            Assert.assertEquals(index.search("并发编程", 0, 10).getTotal(), 1);
+            Assert.assertEquals(index.search("缓存", 0, 10).getTotal(), 0);
+
+            index.clear();
+            Assert.assertEquals(index.size(), 0);
+        }
+        try (final LocalSearchIndex index = new LocalSearchIndex(sub.toString())) {
+            Assert.assertEquals(index.size(), 0);
+        }
+    }
+
+    @Test
+    public void moveTo() throws Exception {
+        final Path live = dir.resolve("live");
+        final Path rebuild = dir.resolve("live.rebuild");
+        try (final LocalSearchIndex current = new LocalSearchIndex(live.toString());
+             final LocalSearchIndex rebuilt = new LocalSearchIndex(rebuild.toString())) {
+            current.put("1", "旧索引", "旧的内容");
+            rebuilt.put("2", "新索引", "重建的内容");
+
+            rebuilt.moveTo(live.toString());
+            // 替换后的写入落在新位置的日志中
+            rebuilt.put("3", "替换后", "继续写入");
+        }
+
+        try (final LocalSearchIndex index = new LocalSearchIndex(live.toString())) {
+            Assert.assertEquals(index.size(), 2);
+            Assert.assertEquals(index.search("旧索引", 0, 10).getTotal(), 0);
+            Assert.assertEquals(index.search("继续写入", 0, 10).getHits().get(0).getId(), "3");
+        }
+        Assert.assertFalse(Files.exists(rebuild.resolve("index.log")));
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        final int docCount = 20000;
+        final Random random = new Random(42);
+        final List<String[]> articles = new ArrayList<>(docCount);
+        final List<LocalSearchIndex.Document> documents = new ArrayList<>(docCount);
+        for (int i = 0; i < docCount; i++) {
+            final String[] article = {words(random, 6), words(random, 300)};
+            articles.add(article);
+            documents.add(new LocalSearchIndex.Document(String.valueOf(1000000 + i), article[0], article[1]));
+        }
+        final List<String> queries = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            queries.add(WORDS[random.nextInt(WORDS.length)] + WORDS[random.nextInt(WORDS.length)]);
+        }
+
+        try (final LocalSearchIndex index = new LocalSearchIndex(dir.resolve("benchmark").toString())) {
+            long start = System.nanoTime();
+            index.putAll(documents);
+            LOGGER.log(Level.INFO, "Local index [docs=" + docCount + ", ms=" + (System.nanoTime() - start) / 1000000 + "]");
+
+            final long[] latencies = new long[queries.size()];
+            for (int i = 0; i < queries.size(); i++) {
+                start = System.nanoTime();
+                index.search(queries.get(i), 0, 20);
+                latencies[i] = System.nanoTime() - start;
+            }
+            report("Local", latencies);
+        }
+
+        final String esServer = System.getProperty("es.server");
+        if (null != esServer) {
+            benchmarkElasticsearch(esServer, articles, queries);
+        }
+    }
+
+    private void benchmarkElasticsearch(final String esServer, final List<String[]> articles, final List<String> queries) throws Exception {
+        final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(3)).build();
+        final String index = esServer + "/symphony-benchmark";
+        final StringBuilder bulk = new StringBuilder();
+        for (final String[] article : articles) {
+            bulk.append(new JSONObject().put("index", new JSONObject().put("_type", Article.ARTICLE))).append('\n');
+            bulk.append(new JSONObject().put(Article.ARTICLE_TITLE, article[0]).put(Article.ARTICLE_CONTENT, article[1]).
+                    put(Article.ARTICLE_STATUS, Article.ARTICLE_STATUS_C_VALID)).append('\n');
+        }
+        send(client, HttpRequest.newBuilder(URI.create(index + "/_bulk?refresh=true")).POST(HttpRequest.BodyPublishers.ofString(bulk.toString())));
+
+        try {
+            final long[] latencies = new long[queries.size()];
+            for (int i = 0; i < queries.size(); i++) {
+                final String keyword = queries.get(i);
+                final JSONArray or = new JSONArray().
+                        put(new JSONObject().put("match_phrase", new JSONObject().put(Article.ARTICLE_CONTENT, new JSONObject().put("query", keyword).put("boost", 1.0)))).
+                        put(new JSONObject().put("match_phrase", new JSONObject().put(Article.ARTICLE_TITLE, new JSONObject().put("query", keyword).put("boost", 2.0))));
+                final JSONObject reqData = new JSONObject().put("from", 0).put("size", 20).
+                        put("query", new JSONObject().put("bool", new JSONObject().put("should", or).put("minimum_should_match", 1))).
+                        put("highlight", new JSONObject().put("fields", new JSONObject().put(Article.ARTICLE_CONTENT, new JSONObject())));
+                final long start = System.nanoTime();
+                send(client, HttpRequest.newBuilder(URI.create(index + "/_search")).POST(HttpRequest.BodyPublishers.ofString(reqData.toString())));
+                latencies[i] = System.nanoTime() - start;
+            }
+            report("Elasticsearch", latencies);
+        } finally {
+            send(client, HttpRequest.newBuilder(URI.create(index)).DELETE());
+        }
+    }
+
+    private static void send(final HttpClient client, final HttpRequest.Builder request) throws Exception {
+        client.send(request.header("Content-Type", "application/json").timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    private static void report(final String backend, final long[] latencies) {
+        Arrays.sort(latencies);
+        LOGGER.log(Level.INFO, backend + " search [queries=" + latencies.length
+                + ", p50Us=" + latencies[latencies.length / 2] / 1000
+                + ", p99Us=" + latencies[latencies.length * 99 / 100] / 1000 + "]");
+    }
+
+    private static String words(final Random random, final int count) {
+        final StringBuilder ret = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            ret.append(WORDS[random.nextInt(WORDS.length)]);
+            if (0 == random.nextInt(4)) {
+                ret.append(' ');
+            }
+        }
+        return ret.toString();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.util;
+
+import com.sun.net.httpserver.HttpServer;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link LuteClient} test case, against a local stub Lute server.
+ *
+ * @author rhythm
+ * @version 1.0.0.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public class LuteClientTestCase {
+
+    private HttpServer server;
+
+    private final AtomicBoolean healthy = new AtomicBoolean(true);
+
+    private final AtomicInteger renders = new AtomicInteger();
+
+    @BeforeClass
+    public void startStub() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            final String markdown = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            renders.incrementAndGet();
+            final byte[] body = ("<p>" + markdown + "</p>").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(healthy.get() ? 200 : 500, body.length);
+            try (final OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @AfterClass
+    public void stopStub() {
+        server.stop(0);
+    }
+
+    @Test
+    public void render() throws Exception {
+        final LuteClient client = new LuteClient(url(), available -> {
+        });
+
+        Assert.assertTrue(client.probe());
+        Assert.assertEquals(client.render("旧日的足迹"), "<p>旧日的足迹</p>");
+    }
+
+    @Test
+    public void renderBatch() {
+        final LuteClient client = new LuteClient(url(), available -> {
+        });
+
+        final List<String> htmls = client.render(Arrays.asList("a", "b", "c"));
+        Assert.assertEquals(htmls, Arrays.asList("<p>a</p>", "<p>b</p>", "<p>c</p>"));
+    }
+
+    @Test(dependsOnMethods = {"render", "renderBatch"})
+    public void circuitBreaker() throws Exception {
+        final AtomicBoolean available = new AtomicBoolean(true);
+        final LuteClient client = new LuteClient(url(), available::set, 50);
+
+        healthy.set(false);
+        for (int i = 0; i < LuteClient.FAILURE_THRESHOLD; i++) {
+            try {
+                client.render("a");
+                Assert.fail();
+            } catch (final Exception e) {
+                // expected
+            }
+        }
+        Assert.assertTrue(client.isOpen());
+        Assert.assertFalse(available.get());
+
+        // 熔断后直接失败，不再请求引擎
+        final int rendersWhenOpen = renders.get();
+        Assert.assertEquals(client.render(Arrays.asList("a", "b")), Arrays.asList(null, null));
+        Assert.assertEquals(renders.get(), rendersWhenOpen);
+
+        healthy.set(true);
+        for (int i = 0; i < 100 && client.isOpen(); i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertFalse(client.isOpen());
+        Assert.assertTrue(available.get());
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.util;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link RedPacketEngine} test case.
+ *
+ * @author rhythm
+ * @version 1.1.2.1, Oct 18, 2026
+ * @since 3.7.0
+ */
+public class RedPacketEngineTestCase {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER = LogManager.getLogger(RedPacketEngineTestCase.class);
+
+    /**
+     * Persisted claims, &lt;oId, userIds&gt;.
+     */
+    private final Map<String, List<String>> persisted = new ConcurrentHashMap<>();
+
+    /**
+     * Persisted amounts, &lt;oId, amount&gt;.
+     */
+    private final Map<String, AtomicInteger> persistedMoney = new ConcurrentHashMap<>();
+
+    /**
+     * Packets whose claims fail to persist.
+     */
+    private final Set<String> failing = ConcurrentHashMap.newKeySet();
+
+    @BeforeClass
+    public void setSink() {
+        RedPacketEngine.setSink(claims -> {
+            final List<RedPacketEngine.Claim> ret = new ArrayList<>();
+            for (final RedPacketEngine.Claim claim : claims) {
+                if (failing.contains(claim.packet.oId)) {
+                    ret.add(claim);
+                    continue;
+                }
+                persisted.computeIfAbsent(claim.packet.oId, oId -> Collections.synchronizedList(new ArrayList<>())).add(claim.userId);
+                persistedMoney.computeIfAbsent(claim.packet.oId, oId -> new AtomicInteger()).addAndGet(claim.amount);
+            }
+            return ret;
+        });
+    }
+
+    @Test
+    public void retryFailedClaims() {
+        final RedPacketEngine.Packet failed = packet("failed", 1, List.of(4), null);
+        final RedPacketEngine.Packet ok = packet("ok", 1, List.of(6), null);
+        RedPacketEngine.register(failed);
+        RedPacketEngine.register(ok);
+        failing.add("failed");
+
+        RedPacketEngine.claim(failed, "u1", "u1", "");
+        RedPacketEngine.claim(ok, "u1", "u1", "");
+        RedPacketEngine.flush();
+        // 同批中其他红包的领取记录不受影响
+        Assert.assertTrue(ok.isSettled());
+        Assert.assertFalse(failed.isSettled());
+        Assert.assertNull(persisted.get("failed"));
+
+        failing.remove("failed");
+        RedPacketEngine.flush();
+        Assert.assertTrue(failed.isSettled());
+        Assert.assertEquals(persisted.get("failed"), List.of("u1"));
+    }
+
+    @Test
+    public void claimOnce() {
+        final RedPacketEngine.Packet packet = packet("once", 2, List.of(3, 7), null);
+        RedPacketEngine.register(packet);
+
+        Assert.assertEquals(RedPacketEngine.claim(packet, "u1", "u1", "").outcome, RedPacketEngine.Outcome.CLAIMED);
+        Assert.assertEquals(RedPacketEngine.claim(packet, "u1", "u1", "").outcome, RedPacketEngine.Outcome.ALREADY);
+        Assert.assertEquals(RedPacketEngine.claim(packet, "u2", "u2", "").got, 2);
+        Assert.assertEquals(RedPacketEngine.claim(packet, "u3", "u3", "").outcome, RedPacketEngine.Outcome.EMPTY);
+        Assert.assertFalse(packet.hasClaimed("u3"));
+        Assert.assertEquals(packet.getWho().length(), 2);
+
+        RedPacketEngine.flush();
+        Assert.assertEquals(persisted.get("once"), List.of("u1", "u2"));
+        Assert.assertEquals(persistedMoney.get("once").get(), 10);
+        Assert.assertTrue(packet.isSettled());
+        // 已落库的红包从内存移除，再次访问时由加载器从库中加载
+        final AtomicInteger loads = new AtomicInteger();
+        RedPacketEngine.get("once", oId -> {
+            loads.incrementAndGet();
+            return null;
+        });
+        Assert.assertEquals(loads.get(), 1);
+    }
+
+    @Test
+    public void parkAfterAttempts() {
+        final RedPacketEngine.Packet packet = packet("parked", 1, List.of(9), null);
+        RedPacketEngine.register(packet);
+        failing.add("parked");
+
+        RedPacketEngine.claim(packet, "u1", "u1", "");
+        final long parked = RedPacketEngine.getStats().optLong("parked");
+        for (int i = 0; i < 8; i++) {
+            Assert.assertFalse(packet.isSettled());
+            RedPacketEngine.flush();
+        }
+        // 始终失败的领取记录在多次尝试后搁置，不再重试
+        Assert.assertEquals(RedPacketEngine.getStats().optLong("parked"), parked + 1);
+        Assert.assertTrue(packet.isSettled());
+        failing.remove("parked");
+        RedPacketEngine.flush();
+        Assert.assertNull(persisted.get("parked"));
+    }
+
+    @Test
+    public void sweepIdle() {
+        final RedPacketEngine.Packet partial = packet("idle", 2, List.of(1, 2), null);
+        final RedPacketEngine.Packet unpersisted = packet("idleFailing", 2, List.of(1, 2), null);
+        RedPacketEngine.register(partial);
+        RedPacketEngine.register(unpersisted);
+        failing.add("idleFailing");
+
+        RedPacketEngine.claim(partial, "u1", "u1", "");
+        RedPacketEngine.claim(unpersisted, "u1", "u1", "");
+        RedPacketEngine.flush();
+        RedPacketEngine.sweep(System.currentTimeMillis() + 1);
+        // 部分领取的红包闲置后移出内存，未落库的领取记录所在的红包保留
+        final AtomicInteger loads = new AtomicInteger();
+        Assert.assertNull(RedPacketEngine.get("idle", oId -> {
+            loads.incrementAndGet();
+            return null;
+        }));
+        Assert.assertEquals(loads.get(), 1);
+        Assert.assertSame(RedPacketEngine.get("idleFailing", oId -> null), unpersisted);
+        failing.remove("idleFailing");
+    }
+
+    @Test
+    public void specify() {
+        final RedPacketEngine.Packet packet = packet("specify", 2, List.of(5, 5), List.of("alice", "bob"));
+        RedPacketEngine.register(packet);
+
+        Assert.assertEquals(RedPacketEngine.claim(packet, "u0", "eve", "").outcome, RedPacketEngine.Outcome.NOT_RECIVER);
+        Assert.assertEquals(RedPacketEngine.claim(packet, "u1", "alice", "").outcome, RedPacketEngine.Outcome.CLAIMED);
+        Assert.assertEquals(packet.getRecivers().length(), 2);
+    }
+
+    @Test
+    public void resume() {
+        final JSONArray who = new JSONArray();
+        who.put(new JSONObject().put("userId", "u1").put("userMoney", 4));
+        final RedPacketEngine.Packet packet = new RedPacketEngine.Packet("resume", "random", 2, 10, "sender", "sender",
+                new JSONObject(), null, List.of(6), who);
+
+        Assert.assertEquals(packet.getGot(), 1);
+        Assert.assertEquals(RedPacketEngine.claim(packet, "u1", "u1", "").outcome, RedPacketEngine.Outcome.ALREADY);
+        Assert.assertEquals(RedPacketEngine.claim(packet, "u2", "u2", "").got, 2);
+    }
+
+    @Test
+    public void loadTest() throws Exception {
+        final int packets = 20;
+        final int count = 100;
+        final int users = 2000;
+        final List<RedPacketEngine.Packet> all = new ArrayList<>();
+        for (int i = 0; i < packets; i++) {
+            final List<Integer> shares = new ArrayList<>();
+            for (int j = 0; j < count; j++) {
+                shares.add(j);
+            }
+            final RedPacketEngine.Packet packet = packet("load" + i, count, shares, null);
+            RedPacketEngine.register(packet);
+            all.add(packet);
+        }
+
+        // 每个用户对每个红包连点两次
+        final Map<String, Set<String>> winners = new ConcurrentHashMap<>();
+        final AtomicInteger claimed = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long begin;
+        try (final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int u = 0; u < users; u++) {
+                final String userId = "user" + u;
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                    for (int k = 0; k < 2; k++) {
+                        for (final RedPacketEngine.Packet packet : all) {
+                            final RedPacketEngine.Claim claim = RedPacketEngine.claim(packet, userId, userId, "");
+                            if (RedPacketEngine.Outcome.CLAIMED == claim.outcome) {
+                                claimed.incrementAndGet();
+                                Assert.assertTrue(winners.computeIfAbsent(packet.oId, oId -> ConcurrentHashMap.newKeySet()).add(userId));
+                            }
+                        }
+                    }
+                });
+            }
+            begin = System.nanoTime();
+            start.countDown();
+        }
+        final long elapsed = System.nanoTime() - begin;
+        RedPacketEngine.flush();
+
+        LOGGER.log(Level.INFO, "Red packet load test: " + (users * packets * 2) + " opens in " + elapsed / 1000000 + "ms");
+        Assert.assertEquals(claimed.get(), packets * count);
+        final int total = count * (count - 1) / 2;
+        for (final RedPacketEngine.Packet packet : all) {
+            Assert.assertEquals(packet.getGot(), count);
+            Assert.assertEquals(packet.getWho().length(), count);
+            Assert.assertEquals(winners.get(packet.oId).size(), count);
+            Assert.assertEquals(persisted.get(packet.oId).size(), count);
+            Assert.assertEquals(persistedMoney.get(packet.oId).get(), total);
+            Assert.assertTrue(packet.isSettled());
+        }
+    }
+
+    private static RedPacketEngine.Packet packet(final String oId, final int count, final List<Integer> shares, final List<String> recivers) {
+        return new RedPacketEngine.Packet(oId, null == recivers ? "random" : "specify", count, 0, "sender", "sender",
+                new JSONObject(), recivers, shares, new JSONArray());
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.util;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link TimerWheel} test case.
+ *
+ * @author rhythm
+ * @version 1.0.0.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public class TimerWheelTestCase {
+
+    @Test
+    public void expireOnTime() {
+        final long start = 1_000_000;
+        final TimerWheel<String> wheel = new TimerWheel<>(1000, start);
+        wheel.schedule("soon", start + 3_000);
+        wheel.schedule("hour", start + 3_600_000);
+        wheel.schedule("due", start - 5_000);
+
+        Assert.assertEquals(wheel.advance(start + 1_000), List.of("due"));
+        Assert.assertTrue(wheel.advance(start + 2_000).isEmpty());
+        Assert.assertEquals(wheel.advance(start + 3_000), List.of("soon"));
+        Assert.assertTrue(wheel.advance(start + 3_599_000).isEmpty());
+        Assert.assertEquals(wheel.advance(start + 3_600_000), List.of("hour"));
+        Assert.assertEquals(wheel.size(), 0);
+    }
+
+    @Test
+    public void rescheduleAndCancel() {
+        final TimerWheel<String> wheel = new TimerWheel<>(1000, 0);
+        wheel.schedule("a", 10_000);
+        wheel.schedule("b", 10_000);
+        wheel.schedule("a", 100_000);
+        wheel.cancel("b");
+
+        Assert.assertTrue(wheel.advance(99_000).isEmpty());
+        Assert.assertEquals(wheel.advance(100_000), List.of("a"));
+    }
+
+    @Test
+    public void randomDeadlines() {
+        // 覆盖各层级以及溢出集合，每个键都应在到期的那一拍触发
+        final TimerWheel<Integer> wheel = new TimerWheel<>(1000, 0);
+        final Map<Integer, Long> deadlines = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            final long seconds = ThreadLocalRandom.current().nextLong(1, 1L << (i % 5 == 0 ? 26 : 13));
+            deadlines.put(i, seconds * 1000);
+            wheel.schedule(i, seconds * 1000);
+        }
+
+        final List<Integer> fired = new ArrayList<>();
+        final long end = deadlines.values().stream().mapToLong(Long::longValue).max().getAsLong();
+        for (long now = 0; now <= end; now += 1000) {
+            for (final Integer key : wheel.advance(now)) {
+                Assert.assertEquals(now, (long) deadlines.get(key));
+                fired.add(key);
+            }
+        }
+        Assert.assertEquals(fired.size(), deadlines.size());
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.b3log.symphony.util;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * {@link UploadPipeline} test case, runs offline with a local store.
+ *
+ * @author rhythm
+ * @version 1.1.0.0, Oct 18, 2026
+ * @since 3.7.0
+ */
+public class UploadPipelineTestCase {
+
+    private Path dir;
+
+    private UploadPipeline.LocalStore store;
+
+    @BeforeClass
+    public void before() throws Exception {
+        dir = Files.createTempDirectory("upload-pipeline");
+        store = new UploadPipeline.LocalStore(dir.toString(), "http://localhost/upload/");
+    }
+
+    @AfterClass
+    public void after() throws Exception {
+        try (final Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void storeAndDeduplicate() throws Exception {
+        final String content = UUID.randomUUID().toString();
+        final AtomicInteger lookups = new AtomicInteger();
+        final UploadPipeline pipeline = new UploadPipeline(store, md5s -> {
+            lookups.incrementAndGet();
+            return Map.of();
+        });
+
+        final UploadPipeline.Upload a = upload("a.txt", content);
+        final UploadPipeline.Upload b = upload("b.txt", content);
+        final UploadPipeline.Upload c = upload("c.txt", UUID.randomUUID().toString());
+        pipeline.run(List.of(a, b, c), upload -> true, upload -> true);
+
+        Assert.assertEquals(lookups.get(), 1);
+        Assert.assertEquals(a.getStatus(), UploadPipeline.Status.STORED);
+        Assert.assertEquals(b.getStatus(), UploadPipeline.Status.DUPLICATED);
+        Assert.assertEquals(b.getUrl(), a.getUrl());
+        Assert.assertEquals(c.getStatus(), UploadPipeline.Status.STORED);
+        Assert.assertEquals(new String(Files.readAllBytes(store.getPath(a.getKey())), StandardCharsets.UTF_8), content);
+        Assert.assertFalse(Files.exists(store.getPath(b.getKey())));
+
+        // 再次上传相同内容直接命中内存索引，不再查库
+        final UploadPipeline.Upload again = upload("again.txt", content);
+        pipeline.run(List.of(again), upload -> true, upload -> true);
+        Assert.assertEquals(again.getStatus(), UploadPipeline.Status.DUPLICATED);
+        Assert.assertEquals(again.getUrl(), a.getUrl());
+        Assert.assertEquals(lookups.get(), 1);
+    }
+
+    @Test
+    public void lookupHit() {
+        final String content = UUID.randomUUID().toString();
+        final String md5 = MD5Calculator.calculateMd5(content.getBytes(StandardCharsets.UTF_8));
+        final Map<String, String> stored = new HashMap<>();
+        stored.put(md5, "http://localhost/upload/2026/10/old.txt");
+        final UploadPipeline pipeline = new UploadPipeline(store, md5s -> stored);
+
+        final UploadPipeline.Upload upload = upload("new.txt", content);
+        pipeline.run(List.of(upload), u -> true, u -> true);
+
+        Assert.assertEquals(upload.getStatus(), UploadPipeline.Status.DUPLICATED);
+        Assert.assertEquals(upload.getUrl(), "http://localhost/upload/2026/10/old.txt");
+        Assert.assertFalse(Files.exists(store.getPath(upload.getKey())));
+    }
+
+    @Test
+    public void rejectAndFail() {
+        final UploadPipeline pipeline = new UploadPipeline(store, md5s -> Map.of());
+        final UploadPipeline.Upload limited = upload("limited.txt", UUID.randomUUID().toString());
+        final UploadPipeline.Upload blocked = upload("blocked.txt", UUID.randomUUID().toString());
+        pipeline.run(List.of(limited, blocked), upload -> upload != limited, upload -> upload != blocked);
+
+        Assert.assertEquals(limited.getStatus(), UploadPipeline.Status.REJECTED);
+        Assert.assertEquals(blocked.getStatus(), UploadPipeline.Status.REJECTED);
+
+        final UploadPipeline broken = new UploadPipeline((key, data, contentType) -> {
+            throw new IllegalStateException("offline");
+        }, md5s -> Map.of());
+        final UploadPipeline.Upload failed = upload("failed.txt", UUID.randomUUID().toString());
+        broken.run(List.of(failed), upload -> true, upload -> true);
+        Assert.assertEquals(failed.getStatus(), UploadPipeline.Status.FAILED);
+    }
+
+    @Test
+    public void abandonTimedOutStore() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch deleted = new CountDownLatch(1);
+        final UploadPipeline slow = new UploadPipeline(new UploadPipeline.Store() {
+            @Override
+            public String put(final String key, final byte[] data, final String contentType) throws Exception {
+                // 忽略取消时的中断，模拟超时后仍写完的存储
+                while (true) {
+                    try {
+                        release.await();
+                        break;
+                    } catch (final InterruptedException ignored) {
+                    }
+                }
+                return store.put(key, data, contentType);
+            }
+
+            @Override
+            public void delete(final String key) throws Exception {
+                store.delete(key);
+                deleted.countDown();
+            }
+        }, md5s -> Map.of(), 100);
+
+        final String content = UUID.randomUUID().toString();
+        final UploadPipeline.Upload late = upload("late.txt", content);
+        slow.run(List.of(late), upload -> true, upload -> true);
+        Assert.assertEquals(late.getStatus(), UploadPipeline.Status.FAILED);
+
+        release.countDown();
+        Assert.assertTrue(deleted.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(late.getStatus(), UploadPipeline.Status.FAILED);
+        Assert.assertFalse(Files.exists(store.getPath(late.getKey())));
+
+        // 被放弃的文件未记入内存索引，再次上传会重新存储
+        final UploadPipeline pipeline = new UploadPipeline(store, md5s -> Map.of());
+        final UploadPipeline.Upload again = upload("again.txt", content);
+        pipeline.run(List.of(again), upload -> true, upload -> true);
+        Assert.assertEquals(again.getStatus(), UploadPipeline.Status.STORED);
+    }
+
+    private static UploadPipeline.Upload upload(final String name, final String content) {
+        return new UploadPipeline.Upload(name, "2026/10/" + UUID.randomUUID() + "-" + name, "txt", "text/plain",
+                content.getBytes(StandardCharsets.UTF_8));
+    }
+}
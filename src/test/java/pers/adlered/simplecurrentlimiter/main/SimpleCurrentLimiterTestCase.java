@@ -0,0 +1,218 @@
+/*
+ * Rhythm - A modern community (forum/BBS/SNS/blog) platform written in Java.
+ * Modified version from Symphony, Thanks Symphony :)
+ * Copyright (C) 2012-present, b3log.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package pers.adlered.simplecurrentlimiter.main;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * <h3>SimpleCurrentLimiter</h3>
+ * <p>限流器测试，含与旧实现（全局同步 LinkedHashMap）在 64 线程竞争下的吞吐对比</p>
+ *
+ * @author rhythm
+ * @date : 2026-10-18
+ **/
+public class SimpleCurrentLimiterTestCase {
+
+    private static final Logger LOGGER = LogManager.getLogger(SimpleCurrentLimiterTestCase.class);
+
+    /**
+     * 可控时钟的起始时间，令牌桶以 0 表示尚未补充过
+     */
+    private static final long START = 1_000_000L;
+
+    @Test
+    public void fixedWindow() {
+        SimpleCurrentLimiter limiter = new SimpleCurrentLimiter(60, 3);
+        Assert.assertTrue(limiter.access("a"));
+        Assert.assertTrue(limiter.access("a"));
+        Assert.assertTrue(limiter.access("a"));
+        Assert.assertFalse(limiter.access("a"));
+        Assert.assertTrue(limiter.access("b"));
+        // 被拒绝的访问也计数
+        Assert.assertEquals(limiter.get("a").getFrequency(), 4);
+        limiter.remove("a");
+        Assert.assertNull(limiter.get("a"));
+        Assert.assertTrue(limiter.access("a"));
+        Assert.assertEquals(limiter.getHits(), 5);
+        Assert.assertEquals(limiter.getDenies(), 1);
+    }
+
+    @Test
+    public void fixedWindowExpire() {
+        AtomicLong now = new AtomicLong(START);
+        SimpleCurrentLimiter limiter = new SimpleCurrentLimiter(60, 1);
+        limiter.setClock(now::get);
+        limiter.setExpireTimeMilli(50);
+        Assert.assertTrue(limiter.access("a"));
+        Assert.assertFalse(limiter.access("a"));
+        now.addAndGet(50);
+        Assert.assertFalse(limiter.access("a"));
+        now.addAndGet(1);
+        Assert.assertTrue(limiter.access("a"));
+    }
+
+    @Test
+    public void tokenBucket() {
+        AtomicLong now = new AtomicLong(START);
+        SimpleCurrentLimiter limiter = new SimpleCurrentLimiter(60, 2, LimitMode.TOKEN_BUCKET);
+        limiter.setClock(now::get);
+        limiter.setExpireTimeMilli(100);
+        Assert.assertTrue(limiter.access("a"));
+        Assert.assertTrue(limiter.access("a"));
+        Assert.assertFalse(limiter.access("a"));
+        // 每 50 毫秒补充一个令牌
+        now.addAndGet(25);
+        Assert.assertFalse(limiter.access("a"));
+        now.addAndGet(25);
+        Assert.assertTrue(limiter.access("a"));
+        Assert.assertFalse(limiter.access("a"));
+    }
+
+    @Test
+    public void slidingWindow() {
+        AtomicLong now = new AtomicLong(START);
+        SimpleCurrentLimiter limiter = new SimpleCurrentLimiter(60, 2, LimitMode.SLIDING_WINDOW);
+        limiter.setClock(now::get);
+        limiter.setExpireTimeMilli(100);
+        Assert.assertTrue(limiter.access("a"));
+        now.addAndGet(60);
+        Assert.assertTrue(limiter.access("a"));
+        Assert.assertFalse(limiter.access("a"));
+        // 第一次放行滑出窗口，第二次仍在窗口内
+        now.addAndGet(41);
+        Assert.assertTrue(limiter.access("a"));
+        Assert.assertFalse(limiter.access("a"));
+        Assert.assertEquals(limiter.get("a").getFrequency(), 2);
+    }
+
+    @Test
+    public void activeKeysAreNotEvicted() {
+        SimpleCurrentLimiter limiter = new SimpleCurrentLimiter(60, 1);
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertTrue(limiter.access("user" + i));
+        }
+        // 旧实现只保留 2000 个，早期用户会被挤出而再次放行
+        Assert.assertFalse(limiter.access("user0"));
+    }
+
+    @Test
+    public void capacity() {
+        SimpleCurrentLimiter limiter = new SimpleCurrentLimiter(60, 1);
+        limiter.setCapacity(1000);
+        for (int i = 0; i < 5000; i++) {
+            limiter.access("user" + i);
+        }
+        Assert.assertTrue(limiter.getKeyCount() <= 1000);
+    }
+
+    @Test
+    public void contention() throws Exception {
+        LegacyLimiter legacy = new LegacyLimiter(60, 1000);
+        // 预热
+        run(new SimpleCurrentLimiter(60, 1000)::access, 64, 20000);
+        run(legacy::access, 64, 20000);
+
+        SimpleCurrentLimiter limiter = new SimpleCurrentLimiter(60, 1000);
+        long current = run(limiter::access, 64, 200000);
+        long old = run(legacy::access, 64, 200000);
+        LOGGER.log(Level.INFO, "64 threads, 512 keys: current " + current + " ops/s, legacy " + old + " ops/s");
+        // 512 个字符串各被访问约 25000 次，每个恰好放行 1000 次，其余全部拒绝
+        Assert.assertEquals(limiter.getHits(), 512 * 1000);
+        Assert.assertEquals(limiter.getHits() + limiter.getDenies(), 64L * 200000);
+        Assert.assertEquals(limiter.getKeyCount(), 512);
+
+        // 同一个字符串在竞争下放行次数必须准确
+        SimpleCurrentLimiter single = new SimpleCurrentLimiter(60, 1000);
+        run(str -> single.access("same"), 64, 640);
+        Assert.assertEquals(single.getHits(), 1000);
+        Assert.assertEquals(single.getDenies(), 64 * 640 - 1000);
+    }
+
+    private static long run(Predicate<String> access, int threads, int opsPerThread) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        LongAdder ops = new LongAdder();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            pool.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < opsPerThread; i++) {
+                    access.test("key" + ((seed * 31 + i) & 511));
+                    ops.increment();
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        return ops.sum() * 1_000_000_000L / Math.max(1, System.nanoTime() - begin);
+    }
+
+    /**
+     * 旧实现：全局同步的 LinkedHashMap，每次访问分配新的状态对象
+     */
+    private static final class LegacyLimiter {
+        private final Map<String, long[]> map = Collections.synchronizedMap(new LinkedHashMap<String, long[]>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > 2000;
+            }
+        });
+        private final long expireTime;
+        private final long frequencyTime;
+
+        private LegacyLimiter(long expireTimeSecond, long frequencyTime) {
+            this.expireTime = expireTimeSecond * 1000;
+            this.frequencyTime = frequencyTime;
+        }
+
+        private boolean access(String str) {
+            long currentTimeStamp = System.currentTimeMillis();
+            long[] pair = map.get(str);
+            long frequency = 1;
+            long timeStamp = currentTimeStamp;
+            if (pair != null && currentTimeStamp - pair[1] <= expireTime) {
+                frequency = pair[0] + 1;
+                timeStamp = pair[1];
+            }
+            map.put(str, new long[]{frequency, timeStamp});
+            return frequency <= frequencyTime;
+        }
+    }
+}